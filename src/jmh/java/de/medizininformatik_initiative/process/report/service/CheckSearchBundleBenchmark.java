@@ -0,0 +1,79 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Task;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CheckSearchBundleBenchmark
+{
+	@Param({ "100", "10000", "100000" })
+	private int entries;
+
+	// 0 validates the search Bundle on every execution
+	@Param({ "0", "8" })
+	private int planCacheSize;
+
+	private CheckSearchBundle checkSearchBundle;
+	private DelegateExecution execution;
+	private Variables variables;
+
+	@Setup
+	public void setup()
+	{
+		Bundle searchBundle = SearchBundles.createSearchBundle(entries);
+
+		// stub only mocks do not record invocations and therefore do not allocate per invocation
+		Target target = Mockito.mock(Target.class, Mockito.withSettings().stubOnly());
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn("Benchmark_HRP");
+
+		Task task = new Task();
+		task.setId("benchmark");
+
+		variables = Mockito.mock(Variables.class, Mockito.withSettings().stubOnly());
+		Mockito.when(variables.getStartTask()).thenReturn(task);
+		Mockito.when(variables.getTarget()).thenReturn(target);
+		Mockito.when(variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE))
+				.thenReturn(searchBundle);
+
+		execution = Mockito.mock(DelegateExecution.class, Mockito.withSettings().stubOnly());
+		checkSearchBundle = new CheckSearchBundle(
+				Mockito.mock(ProcessPluginApi.class, Mockito.withSettings().stubOnly()),
+				new SearchBundlePlanCache(planCacheSize), new ResourceVariableStore(null, FhirContext.forR4(), 0, 0),
+				new ReportMetrics(0, false, null));
+	}
+
+	@Benchmark
+	public void checkSearchBundle()
+	{
+		checkSearchBundle.doExecute(execution, variables);
+	}
+}
@@ -0,0 +1,112 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Meta;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.client.AdaptiveConcurrencyLimiter;
+import de.medizininformatik_initiative.process.report.client.CapabilityStatementClient;
+import de.medizininformatik_initiative.process.report.client.CircuitBreaker;
+import de.medizininformatik_initiative.process.report.client.CountCache;
+import de.medizininformatik_initiative.process.report.client.CountClient;
+import de.medizininformatik_initiative.process.report.client.FhirStoreClient;
+import de.medizininformatik_initiative.process.report.client.RequestHedging;
+import de.medizininformatik_initiative.process.report.client.RequestRateLimiter;
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.service.OrganizationProvider;
+import dev.dsf.bpe.v1.service.ReadAccessHelper;
+import dev.dsf.bpe.v1.variables.Target;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CreateReportBenchmark
+{
+	@Param({ "100", "10000", "100000" })
+	private int entries;
+
+	private CreateReport createReport;
+	private Target target;
+	private Bundle searchBundle;
+	private Bundle responseBundle;
+	private Bundle reportBundle;
+
+	@Setup
+	public void setup()
+	{
+		searchBundle = SearchBundles.createSearchBundle(entries);
+		responseBundle = SearchBundles.createResponseBundle(searchBundle);
+
+		// stub only mocks do not record invocations and therefore do not allocate per invocation
+		OrganizationProvider organizationProvider = Mockito.mock(OrganizationProvider.class,
+				Mockito.withSettings().stubOnly());
+		Mockito.when(organizationProvider.getLocalOrganizationIdentifierValue())
+				.thenReturn(Optional.of("Benchmark_DIC"));
+
+		ProcessPluginApi api = Mockito.mock(ProcessPluginApi.class, Mockito.withSettings().stubOnly());
+		Mockito.when(api.getOrganizationProvider()).thenReturn(organizationProvider);
+		Mockito.when(api.getReadAccessHelper())
+				.thenReturn(Mockito.mock(ReadAccessHelper.class, Mockito.withSettings().stubOnly()));
+
+		target = Mockito.mock(Target.class, Mockito.withSettings().stubOnly());
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn("Benchmark_HRP");
+
+		ReportMetrics metrics = new ReportMetrics(0, false, null);
+		createReport = new CreateReport(api, "1.1",
+				Mockito.mock(FhirStoreClient.class, Mockito.withSettings().stubOnly()),
+				Mockito.mock(DataLogger.class, Mockito.withSettings().stubOnly()), 1, false, 0,
+				new RequestRateLimiter(0, 0, metrics), new AdaptiveConcurrencyLimiter(false, 1, 1), new CircuitBreaker(0, 0), new RequestHedging(0),
+				new SearchTimeouts(0, 0), new SearchDurations(false, null), 0, new CountCache(null, 0, 0),
+				new CountClient(false), new CapabilityStatementClient(false), new SearchBundlePlanCache(0),
+				new SearchJournal(null, 0), new ResourceVariableStore(null, FhirContext.forR4(), 0, 0),
+				new ScheduledRetry(0, 0, 0, 0, metrics), metrics);
+
+		reportBundle = createReport.transformToReportBundle(searchBundle, responseBundle, target);
+	}
+
+	@Setup(Level.Invocation)
+	public void resetMeta()
+	{
+		// the report Bundle takes over and modifies the meta element of the response Bundle
+		responseBundle.setMeta(new Meta());
+	}
+
+	@Benchmark
+	public Bundle transformToReportBundle()
+	{
+		return createReport.transformToReportBundle(searchBundle, responseBundle, target);
+	}
+
+	@Benchmark
+	public void checkReportBundle()
+	{
+		createReport.checkReportBundle(searchBundle, reportBundle, "Benchmark_HRP");
+	}
+}
@@ -0,0 +1,106 @@
+package de.medizininformatik_initiative.process.report.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Enumerations;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Synthetic search and response Bundles of arbitrary size created by repeating the entries of the test fixture
+ * <code>search-bundle-v1.1.xml</code>.
+ */
+final class SearchBundles
+{
+	private static final String SEARCH_BUNDLE = "/fhir/Bundle/search-bundle-v1.1.xml";
+	private static final Date LAST_UPDATED = new Date(1718968019772L);
+
+	private SearchBundles()
+	{
+	}
+
+	static Bundle createSearchBundle(int entries)
+	{
+		Bundle fixture = readFixture();
+		List<Bundle.BundleEntryComponent> fixtureEntries = fixture.getEntry();
+
+		Bundle searchBundle = fixture.copy();
+		searchBundle.getEntry().clear();
+
+		for (int i = 0; i < entries; i++)
+			searchBundle.addEntry(fixtureEntries.get(i % fixtureEntries.size()).copy());
+
+		return searchBundle;
+	}
+
+	/**
+	 * @return batch-response with a CapabilityStatement for <code>metadata</code> requests, a 500 error entry for every
+	 *         50th request and a searchset Bundle with total for all other requests
+	 */
+	static Bundle createResponseBundle(Bundle searchBundle)
+	{
+		Bundle responseBundle = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+
+		for (int i = 0; i < searchBundle.getEntry().size(); i++)
+		{
+			String url = searchBundle.getEntry().get(i).getRequest().getUrl();
+			Bundle.BundleEntryComponent entry = responseBundle.addEntry();
+
+			if ("metadata".equals(url))
+			{
+				entry.setResource(createCapabilityStatement());
+				entry.getResponse().setStatus("200");
+			}
+			else if (i % 50 == 49)
+				entry.getResponse().setStatus("500");
+			else
+			{
+				Bundle searchset = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(i);
+				searchset.getMeta().setLastUpdated(LAST_UPDATED);
+				entry.setResource(searchset);
+				entry.getResponse().setStatus("200");
+			}
+		}
+
+		return responseBundle;
+	}
+
+	private static CapabilityStatement createCapabilityStatement()
+	{
+		CapabilityStatement statement = new CapabilityStatement();
+		statement.setStatus(Enumerations.PublicationStatus.ACTIVE).setDate(LAST_UPDATED);
+		statement.getSoftware().setName("Benchmark Server").setVersion("1.0.0");
+		statement.setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+		statement.addFormat("application/fhir+json").addFormat("application/fhir+xml").addFormat("json");
+
+		CapabilityStatement.CapabilityStatementRestComponent rest = statement.addRest()
+				.setMode(CapabilityStatement.RestfulCapabilityMode.SERVER);
+		for (String type : List.of("Patient", "Encounter", "Condition", "Observation", "Procedure", "Medication",
+				"MedicationAdministration", "MedicationStatement", "Specimen", "Consent"))
+		{
+			CapabilityStatement.CapabilityStatementRestResourceComponent resource = rest.addResource().setType(type);
+			for (String param : List.of("_id", "_lastUpdated", "_profile", "code", "date"))
+				resource.addSearchParam().setName(param).setType(Enumerations.SearchParamType.TOKEN)
+						.setDocumentation("Documentation of search parameter " + param);
+		}
+
+		return statement;
+	}
+
+	private static Bundle readFixture()
+	{
+		try (InputStream in = SearchBundles.class.getResourceAsStream(SEARCH_BUNDLE))
+		{
+			return FhirContext.forR4().newXmlParser().parseResource(Bundle.class, in);
+		}
+		catch (IOException exception)
+		{
+			throw new RuntimeException(exception);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ReportStatusGeneratorBenchmark
+{
+	@Param({ "100", "10000", "100000" })
+	private int entries;
+
+	private final ReportStatusGenerator statusGenerator = new ReportStatusGenerator();
+	private Task inputTask;
+
+	@Setup
+	public void setup()
+	{
+		inputTask = new Task();
+
+		// every second input is a report status, the others have to be filtered
+		for (int i = 0; i < entries; i++)
+		{
+			if (i % 2 == 0)
+				inputTask.addInput(statusGenerator.createReportStatusInput(
+						ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_NOT_REACHABLE, "Error " + i));
+			else
+				inputTask.addInput().setValue(new StringType("Other " + i)).getType().addCoding()
+						.setSystem(ConstantsReport.CODESYSTEM_REPORT)
+						.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_REFERENCE);
+		}
+	}
+
+	@Benchmark
+	public Task transformInputToOutput()
+	{
+		Task outputTask = new Task();
+		statusGenerator.transformInputToOutput(inputTask, outputTask);
+		return outputTask;
+	}
+
+	@Benchmark
+	public Task createReportStatusOutputs()
+	{
+		Task outputTask = new Task();
+		for (int i = 0; i < entries; i++)
+			outputTask.addOutput(statusGenerator
+					.createReportStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_NOT_REACHABLE, "Error"));
+		return outputTask;
+	}
+}
@@ -41,6 +41,11 @@ public interface ConstantsReport
 	String BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE = "reportSearchBundleResponseReference";
 	String BPMN_EXECUTION_VARIABLE_REPORT_RECEIVE_ERROR = "reportReceiveError";
 	String BPMN_EXECUTION_VARIABLE_REPORT_RECEIVE_ERROR_MESSAGE = "reportReceiveErrorMessage";
+	String BPMN_EXECUTION_VARIABLE_REPORT_BUNDLE = "reportBundle";
+	String BPMN_EXECUTION_VARIABLE_REPORT_RETRY_ATTEMPT = "reportRetryAttempt";
+	String BPMN_EXECUTION_VARIABLE_REPORT_RETRY_DELAY = "reportRetryDelay";
+
+	String BPMN_ERROR_REPORT_RETRY = "reportRetry";
 
 	String CODESYSTEM_REPORT = "http://medizininformatik-initiative.de/fhir/CodeSystem/report";
 
@@ -50,6 +55,7 @@ public interface ConstantsReport
 	String CODESYSTEM_REPORT_VALUE_TIMER_INTERVAL = "timer-interval";
 	String CODESYSTEM_REPORT_VALUE_FIRST_EXECUTION = "first-execution";
 	String CODESYSTEM_REPORT_VALUE_HRP_IDENTIFIER = "hrp-identifier";
+	String CODESYSTEM_REPORT_VALUE_FORCE_REFRESH = "force-refresh";
 
 	String CODESYSTEM_REPORT_STATUS = "http://medizininformatik-initiative.de/fhir/CodeSystem/report-status";
 	String CODESYSTEM_REPORT_STATUS_VALUE_NOT_ALLOWED = "not-allowed";
@@ -10,8 +10,8 @@ import dev.dsf.bpe.v1.ProcessPluginDefinition;
 
 public class ReportProcessPluginDefinition implements ProcessPluginDefinition
 {
-	public static final String VERSION = "1.1.1.1";
-	public static final LocalDate RELEASE_DATE = LocalDate.of(2024, 8, 1);
+	public static final String VERSION = "1.1.2.0";
+	public static final LocalDate RELEASE_DATE = LocalDate.of(2026, 10, 18);
 
 	@Override
 	public String getName()
@@ -5,29 +5,29 @@ import java.util.Objects;
 
 import org.springframework.beans.factory.InitializingBean;
 
-import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.process.report.client.FhirStoreWarmUp;
 import dev.dsf.bpe.v1.ProcessPluginDeploymentStateListener;
 
 public class ReportProcessPluginDeploymentStateListener
 		implements ProcessPluginDeploymentStateListener, InitializingBean
 {
-	private final FhirClientFactory fhirClientFactory;
+	private final FhirStoreWarmUp fhirStoreWarmUp;
 
-	public ReportProcessPluginDeploymentStateListener(FhirClientFactory fhirClientFactory)
+	public ReportProcessPluginDeploymentStateListener(FhirStoreWarmUp fhirStoreWarmUp)
 	{
-		this.fhirClientFactory = fhirClientFactory;
+		this.fhirStoreWarmUp = fhirStoreWarmUp;
 	}
 
 	@Override
 	public void afterPropertiesSet()
 	{
-		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(fhirStoreWarmUp, "fhirStoreWarmUp");
 	}
 
 	@Override
 	public void onProcessesDeployed(List<String> activeProcesses)
 	{
 		if (activeProcesses.contains(ConstantsReport.PROCESS_NAME_FULL_REPORT_SEND))
-			fhirClientFactory.testConnection();
+			fhirStoreWarmUp.start();
 	}
 }
@@ -0,0 +1,239 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * AIMD (additive increase, multiplicative decrease) limit for concurrent requests against the FHIR store. The limit
+ * grows by one per limit of successful requests while the latency stays within {@link #LATENCY_TOLERANCE} of the
+ * baseline latency of the same canonical request url and is reduced by {@link #BACKOFF_RATIO} if a request was dropped
+ * (5xx, 429, timeout) or the latency increased beyond the tolerance. The baseline of a canonical request url is the
+ * lowest latency of its {@value #BASELINE_WINDOW_SIZE} most recent requests, requests without baseline do not change
+ * the limit because of their latency.
+ * <p>
+ * The limit is decreased at most once per window: only requests started after the last decrease may decrease the limit
+ * again.
+ * <p>
+ * If not enabled, requests are never blocked but latencies are still recorded.
+ */
+public class AdaptiveConcurrencyLimiter
+{
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final long LATENCY_SLACK = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final double BACKOFF_RATIO = 0.5;
+	private static final int LATENCY_WINDOW_SIZE = 100;
+	private static final int BASELINE_WINDOW_SIZE = 10;
+	private static final int MAX_BASELINES = 10000;
+
+	public enum Outcome
+	{
+		SUCCESS, DROPPED, IGNORED
+	}
+
+	private static final class Baseline
+	{
+		final long[] latencies = new long[BASELINE_WINDOW_SIZE];
+		int position;
+		int size;
+
+		void record(long latency)
+		{
+			latencies[position] = latency;
+			position = (position + 1) % latencies.length;
+			size = Math.min(size + 1, latencies.length);
+		}
+
+		long getMin()
+		{
+			return Arrays.stream(latencies, 0, size).min().orElse(0);
+		}
+	}
+
+	private final boolean enabled;
+	private final int minLimit;
+	private final int maxLimit;
+	private final LongSupplier nanoTime;
+
+	private final long[] latencyWindow;
+	private int latencyWindowPosition;
+	private int latencyWindowSize;
+
+	private final Map<String, Baseline> baselines = new LinkedHashMap<>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Baseline> eldest)
+		{
+			return size() > MAX_BASELINES;
+		}
+	};
+
+	private double limit;
+	private int inFlight;
+	private long lastDecrease = Long.MIN_VALUE;
+
+	public AdaptiveConcurrencyLimiter(boolean enabled, int minLimit, int maxLimit)
+	{
+		this(enabled, minLimit, maxLimit, System::nanoTime);
+	}
+
+	/**
+	 * @param enabled
+	 *            <code>false</code> never blocks requests
+	 * @param minLimit
+	 *            <code>&gt;= 1</code>, initial limit
+	 * @param maxLimit
+	 *            <code>&gt;= minLimit</code>
+	 * @param nanoTime
+	 *            not <code>null</code>
+	 */
+	public AdaptiveConcurrencyLimiter(boolean enabled, int minLimit, int maxLimit, LongSupplier nanoTime)
+	{
+		if (minLimit < 1)
+			throw new IllegalArgumentException("minLimit < 1");
+		if (maxLimit < minLimit)
+			throw new IllegalArgumentException("maxLimit < minLimit");
+
+		this.enabled = enabled;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.nanoTime = Objects.requireNonNull(nanoTime, "nanoTime");
+		this.latencyWindow = new long[LATENCY_WINDOW_SIZE];
+		this.limit = minLimit;
+	}
+
+	/**
+	 * @return start time in nanoseconds, to be passed to {@link #release(String, long, Outcome)}
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the number of requests in flight to drop below the limit
+	 */
+	public synchronized long acquire() throws InterruptedException
+	{
+		while (enabled && inFlight >= getLimit())
+			wait();
+
+		inFlight++;
+		return nanoTime.getAsLong();
+	}
+
+	/**
+	 * @return start time in nanoseconds, to be passed to {@link #release(String, long, Outcome)}, empty if the number
+	 *         of requests in flight reached the limit
+	 */
+	public synchronized OptionalLong tryAcquire()
+	{
+		if (enabled && inFlight >= getLimit())
+			return OptionalLong.empty();
+
+		inFlight++;
+		return OptionalLong.of(nanoTime.getAsLong());
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>, request url, latencies are compared per canonical request url
+	 * @param start
+	 *            value returned by {@link #acquire()} or {@link #tryAcquire()}
+	 * @param outcome
+	 *            not <code>null</code>, {@link Outcome#IGNORED} releases the slot without adjusting the limit
+	 */
+	public synchronized void release(String url, long start, Outcome outcome)
+	{
+		long end = nanoTime.getAsLong();
+		inFlight--;
+
+		try
+		{
+			if (Outcome.IGNORED.equals(outcome))
+				return;
+
+			long latency = end - start;
+			recordLatency(latency);
+
+			Baseline baseline = baselines.computeIfAbsent(SearchUrl.canonicalize(url), u -> new Baseline());
+			boolean slowdown = baseline.size > 0 && latency > LATENCY_TOLERANCE * baseline.getMin() + LATENCY_SLACK;
+
+			// dropped requests are not part of the baseline, e.g. timed out requests
+			if (Outcome.SUCCESS.equals(outcome))
+				baseline.record(latency);
+
+			// only requests started after the last decrease may decrease the limit again
+			if ((Outcome.DROPPED.equals(outcome) || slowdown) && start > lastDecrease)
+			{
+				double oldLimit = limit;
+				limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+				lastDecrease = end;
+
+				if (enabled && (int) oldLimit != getLimit())
+					logger.debug("Decreased FHIR store concurrency limit from {} to {} ({})", (int) oldLimit,
+							getLimit(), Outcome.DROPPED.equals(outcome) ? "request dropped" : "latency increased");
+			}
+			else if (Outcome.SUCCESS.equals(outcome) && !slowdown)
+			{
+				int oldLimit = getLimit();
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+
+				if (enabled && oldLimit != getLimit())
+					logger.debug("Increased FHIR store concurrency limit from {} to {}", oldLimit, getLimit());
+			}
+		}
+		finally
+		{
+			notifyAll();
+		}
+	}
+
+	private void recordLatency(long latency)
+	{
+		latencyWindow[latencyWindowPosition] = latency;
+		latencyWindowPosition = (latencyWindowPosition + 1) % latencyWindow.length;
+		latencyWindowSize = Math.min(latencyWindowSize + 1, latencyWindow.length);
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	public synchronized int getLimit()
+	{
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight()
+	{
+		return inFlight;
+	}
+
+	/**
+	 * @return latencies of the most recent requests in nanoseconds, oldest first
+	 */
+	public synchronized long[] getLatencyWindow()
+	{
+		long[] window = new long[latencyWindowSize];
+		int start = latencyWindowSize < latencyWindow.length ? 0 : latencyWindowPosition;
+
+		for (int i = 0; i < latencyWindowSize; i++)
+			window[i] = latencyWindow[(start + i) % latencyWindow.length];
+
+		return window;
+	}
+
+	public synchronized long getAverageLatency()
+	{
+		return (long) Arrays.stream(latencyWindow, 0, latencyWindowSize).average().orElse(0);
+	}
+}
@@ -0,0 +1,294 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.AccessToken;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenProvider;
+
+/**
+ * {@link TokenProvider} caching the access token of a {@link TokenClient} for all FHIR store requests of the plugin.
+ * Concurrent callers needing a new token wait for a single token request. If the token is a JWT with an
+ * <code>exp</code> claim, it is refreshed in the background the configured time before it expires, otherwise it is
+ * requested again once {@link AccessToken#isExpired()}. The <code>exp</code> claim is also ignored if it is already
+ * within the expiry skew when the token is received, e.g. for very short-lived tokens or if the clocks of the issuer
+ * and the BPE differ, to not request a new token for every FHIR store request.
+ */
+public class CachingTokenProvider implements TokenProvider, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(CachingTokenProvider.class);
+
+	// tokens are not used for requests started less than this before the exp claim
+	private static final long EXPIRY_SKEW_MILLIS = 10000;
+	private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+	private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+	private record CachedToken(AccessToken accessToken, long expiresAtMillis)
+	{
+		boolean isValid(long nowMillis)
+		{
+			return expiresAtMillis > 0 ? nowMillis < expiresAtMillis - EXPIRY_SKEW_MILLIS : !accessToken.isExpired();
+		}
+	}
+
+	private final TokenClient tokenClient;
+	private final long refreshBeforeExpiry;
+	private final ReportMetrics metrics;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final Object lock = new Object();
+
+	private volatile CachedToken token;
+	private CompletableFuture<CachedToken> pendingRequest;
+	private ScheduledExecutorService refreshExecutor;
+	private ScheduledFuture<?> scheduledRefresh;
+
+	/**
+	 * @param tokenClient
+	 *            not <code>null</code>
+	 * @param refreshBeforeExpiry
+	 *            milliseconds before the <code>exp</code> claim of a JWT access token, the token is refreshed in the
+	 *            background, <code>&lt;= 0</code> disables background refresh
+	 * @param metrics
+	 *            not <code>null</code>
+	 */
+	public CachingTokenProvider(TokenClient tokenClient, long refreshBeforeExpiry, ReportMetrics metrics)
+	{
+		this.tokenClient = Objects.requireNonNull(tokenClient, "tokenClient");
+		this.refreshBeforeExpiry = refreshBeforeExpiry;
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+	}
+
+	@Override
+	public boolean isConfigured()
+	{
+		return tokenClient.isConfigured();
+	}
+
+	@Override
+	public String getToken()
+	{
+		CachedToken cached = token;
+		if (cached != null && cached.isValid(System.currentTimeMillis()))
+			return cached.accessToken().getToken();
+
+		return requestToken(cached).accessToken().getToken();
+	}
+
+	/**
+	 * Requests a new token from the issuer, concurrent callers share the result of a single request.
+	 *
+	 * @param replaced
+	 *            token to replace, may be <code>null</code>, no request is executed if another valid token was received
+	 *            since
+	 */
+	private CachedToken requestToken(CachedToken replaced)
+	{
+		CompletableFuture<CachedToken> request;
+		boolean requesting = false;
+
+		synchronized (lock)
+		{
+			// a request completed after the caller read the token
+			CachedToken cached = token;
+			if (cached != replaced && cached != null && cached.isValid(System.currentTimeMillis()))
+				return cached;
+
+			if (pendingRequest == null)
+			{
+				pendingRequest = new CompletableFuture<>();
+				requesting = true;
+			}
+
+			request = pendingRequest;
+		}
+
+		if (requesting)
+		{
+			try
+			{
+				CachedToken requested = executeTokenRequest();
+				token = requested;
+				request.complete(requested);
+
+				scheduleRefresh(requested);
+			}
+			catch (RuntimeException exception)
+			{
+				request.completeExceptionally(exception);
+			}
+			finally
+			{
+				synchronized (lock)
+				{
+					pendingRequest = null;
+				}
+			}
+		}
+
+		try
+		{
+			return request.join();
+		}
+		catch (CompletionException exception)
+		{
+			if (exception.getCause() instanceof RuntimeException cause)
+				throw cause;
+			else
+				throw exception;
+		}
+	}
+
+	private CachedToken executeTokenRequest()
+	{
+		long start = System.nanoTime();
+		try
+		{
+			AccessToken accessToken = tokenClient.requestToken();
+			if (accessToken == null || accessToken.getToken() == null)
+				throw new IllegalStateException("No access token returned by OAuth2 issuer");
+
+			metrics.recordTokenRequest(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), null);
+
+			long expiresAtMillis = getExpiresAtMillis(accessToken.getToken());
+			if (expiresAtMillis > 0 && expiresAtMillis - EXPIRY_SKEW_MILLIS <= System.currentTimeMillis())
+			{
+				logger.debug("exp claim of OAuth2 access token {} ms from now, using expiry of token response",
+						expiresAtMillis - System.currentTimeMillis());
+				expiresAtMillis = 0;
+			}
+
+			return new CachedToken(accessToken, expiresAtMillis);
+		}
+		catch (RuntimeException exception)
+		{
+			metrics.recordTokenRequest(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					exception.getClass().getSimpleName());
+			throw exception;
+		}
+	}
+
+	private void scheduleRefresh(CachedToken cached)
+	{
+		if (refreshBeforeExpiry <= 0 || cached.expiresAtMillis() <= 0)
+			return;
+
+		// tokens not valid longer than the refresh time are refreshed after half of their lifetime
+		long remaining = cached.expiresAtMillis() - System.currentTimeMillis();
+		long delay = remaining > refreshBeforeExpiry ? remaining - refreshBeforeExpiry : remaining / 2;
+
+		if (delay >= MIN_RETRY_DELAY_MILLIS || remaining > refreshBeforeExpiry)
+			schedule(this::refresh, delay);
+	}
+
+	private void refresh()
+	{
+		try
+		{
+			requestToken(token);
+			logger.debug("OAuth2 access token refreshed before expiry");
+		}
+		catch (RuntimeException exception)
+		{
+			CachedToken cached = token;
+			long remaining = cached == null ? 0 : cached.expiresAtMillis() - System.currentTimeMillis();
+
+			if (remaining > MIN_RETRY_DELAY_MILLIS)
+			{
+				long delay = Math.min(MAX_RETRY_DELAY_MILLIS, remaining / 2);
+				logger.warn(
+						"Could not refresh OAuth2 access token, current token expires in {} s, retrying in {} s - {}",
+						remaining / 1000, delay / 1000, exception.getMessage());
+
+				schedule(this::refresh, delay);
+			}
+			else
+				logger.warn(
+						"Could not refresh OAuth2 access token, requesting new token on next FHIR store request - {}",
+						exception.getMessage());
+		}
+	}
+
+	private void schedule(Runnable task, long delayMillis)
+	{
+		synchronized (lock)
+		{
+			if (refreshExecutor == null)
+				refreshExecutor = Executors.newSingleThreadScheduledExecutor(r ->
+				{
+					Thread thread = new Thread(r, "report-oauth2-token-refresh");
+					thread.setDaemon(true);
+					return thread;
+				});
+
+			if (scheduledRefresh != null)
+				scheduledRefresh.cancel(false);
+
+			scheduledRefresh = refreshExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return <code>exp</code> claim of a JWT access token in milliseconds, <code>0</code> if the token is not a JWT or
+	 *         has no <code>exp</code> claim
+	 */
+	private long getExpiresAtMillis(String accessToken)
+	{
+		int payloadStart = accessToken.indexOf('.');
+		int payloadEnd = payloadStart < 0 ? -1 : accessToken.indexOf('.', payloadStart + 1);
+		if (payloadEnd < 0)
+			return 0;
+
+		try (JsonParser parser = jsonFactory
+				.createParser(Base64.getUrlDecoder().decode(accessToken.substring(payloadStart + 1, payloadEnd))))
+		{
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				return 0;
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String field = parser.currentName();
+				JsonToken value = parser.nextToken();
+
+				if ("exp".equals(field) && value.isNumeric())
+					return TimeUnit.SECONDS.toMillis(parser.getLongValue());
+
+				parser.skipChildren();
+			}
+
+			return 0;
+		}
+		catch (IOException | IllegalArgumentException exception)
+		{
+			logger.debug("Could not read exp claim of OAuth2 access token - {}", exception.getMessage());
+			return 0;
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception
+	{
+		synchronized (lock)
+		{
+			if (refreshExecutor != null)
+				refreshExecutor.shutdownNow();
+		}
+	}
+}
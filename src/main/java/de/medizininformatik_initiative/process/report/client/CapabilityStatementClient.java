@@ -0,0 +1,158 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.util.DateUtils;
+
+/**
+ * Reads the CapabilityStatement of FHIR stores with a {@link CapabilityStatementParser} and caches it per FHIR store
+ * base url. Cached CapabilityStatements are revalidated with <code>If-None-Match</code> if the store returned an
+ * <code>ETag</code>, otherwise with <code>If-Modified-Since</code> using <code>Last-Modified</code> or the date of the
+ * CapabilityStatement.
+ */
+public class CapabilityStatementClient
+{
+	private static final Logger logger = LoggerFactory.getLogger(CapabilityStatementClient.class);
+
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	private static final class CachedCapabilityStatement
+	{
+		final CapabilityStatement statement;
+		final String eTag;
+		final String lastModified;
+
+		CachedCapabilityStatement(CapabilityStatement statement, String eTag, String lastModified)
+		{
+			this.statement = statement;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		Map<String, String> getValidationHeaders()
+		{
+			Map<String, String> headers = new HashMap<>();
+
+			if (eTag != null)
+				headers.put(Constants.HEADER_IF_NONE_MATCH, eTag);
+			else if (lastModified != null)
+				headers.put(Constants.HEADER_IF_MODIFIED_SINCE, lastModified);
+			else if (statement.hasDate())
+				headers.put(Constants.HEADER_IF_MODIFIED_SINCE, DateUtils.formatDate(statement.getDate()));
+
+			return headers;
+		}
+	}
+
+	private final boolean enabled;
+	private final CapabilityStatementParser parser = new CapabilityStatementParser();
+	private final Map<String, CachedCapabilityStatement> cache = new ConcurrentHashMap<>();
+
+	public CapabilityStatementClient(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the url is a CapabilityStatement request
+	 */
+	public boolean isCapabilityStatementRequest(String url)
+	{
+		return CAPABILITY_STATEMENT_PATH.equals(url);
+	}
+
+	/**
+	 * @param client
+	 *            not <code>null</code>
+	 * @return projected CapabilityStatement, a copy of the cached CapabilityStatement if not modified
+	 * @throws BaseServerResponseException
+	 *             if the server responded with a status code other than 2xx or 304 or could not be reached
+	 */
+	public CapabilityStatement read(FhirStoreClient client)
+	{
+		String serverBase = client.getFhirBaseUrl();
+		CachedCapabilityStatement cached = cache.get(serverBase);
+
+		IHttpResponse response = InterceptedHttpRequest.get(client, CAPABILITY_STATEMENT_PATH,
+				Constants.CT_FHIR_JSON_NEW, cached == null ? Map.of() : cached.getValidationHeaders());
+		try
+		{
+			if (response.getStatus() == Constants.STATUS_HTTP_304_NOT_MODIFIED && cached != null)
+			{
+				logger.debug("CapabilityStatement of FHIR store with base url '{}' not modified", serverBase);
+				return cached.statement.copy();
+			}
+
+			if (response.getStatus() < 200 || response.getStatus() > 299)
+				throw BaseServerResponseException.newInstance(response.getStatus(), response.getStatusInfo());
+
+			CapabilityStatement statement = parse(client.getGenericFhirClient(), response);
+			cache.put(serverBase,
+					new CachedCapabilityStatement(statement, getFirstHeader(response, Constants.HEADER_ETAG),
+							getFirstHeader(response, Constants.HEADER_LAST_MODIFIED)));
+
+			return statement.copy();
+		}
+		finally
+		{
+			response.close();
+		}
+	}
+
+	private CapabilityStatement parse(IGenericClient client, IHttpResponse response)
+	{
+		String mimeType = response.getMimeType();
+
+		try
+		{
+			if (mimeType == null || mimeType.contains("json"))
+			{
+				try (InputStream in = response.readEntity())
+				{
+					return parser.parse(in);
+				}
+			}
+			else
+			{
+				// stores ignoring the accept header, complete CapabilityStatement has to be parsed
+				try (Reader reader = response.createReader())
+				{
+					return client.getFhirContext().newXmlParser().parseResource(CapabilityStatement.class, reader);
+				}
+			}
+		}
+		catch (IOException exception)
+		{
+			throw new FhirClientConnectionException("Could not read CapabilityStatement - " + exception.getMessage(),
+					exception);
+		}
+	}
+
+	private String getFirstHeader(IHttpResponse response, String name)
+	{
+		List<String> values = response.getHeaders(name);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+}
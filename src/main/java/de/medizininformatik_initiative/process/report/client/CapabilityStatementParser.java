@@ -0,0 +1,177 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Enumerations;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads only the elements of a FHIR JSON CapabilityStatement used in reports: status, date, software, fhirVersion,
+ * format, rest.mode, rest.resource.type and name, definition and type of rest.searchParam and
+ * rest.resource.searchParam. All other elements, e.g. documentation and extensions, are skipped without being parsed.
+ */
+public class CapabilityStatementParser
+{
+	private static final String RESOURCE_TYPE_CAPABILITY_STATEMENT = "CapabilityStatement";
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * @param in
+	 *            not <code>null</code>
+	 * @return projected CapabilityStatement
+	 * @throws IOException
+	 *             if the response could not be read or parsed or is not a CapabilityStatement
+	 */
+	public CapabilityStatement parse(InputStream in) throws IOException
+	{
+		try (JsonParser parser = jsonFactory.createParser(in))
+		{
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("JSON object expected");
+
+			CapabilityStatement statement = new CapabilityStatement();
+			String resourceType = null;
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String name = parser.currentName();
+				parser.nextToken();
+
+				switch (name)
+				{
+					case "resourceType" -> resourceType = parser.getText();
+					case "status" -> statement.getStatusElement().setValueAsString(parser.getText());
+					case "date" -> statement.setDateElement(new DateTimeType(parser.getText()));
+					case "software" -> parseObject(parser, field ->
+					{
+						if ("name".equals(field))
+							statement.getSoftware().setName(parser.getText());
+						else if ("version".equals(field))
+							statement.getSoftware().setVersion(parser.getText());
+						else
+							parser.skipChildren();
+					});
+					case "fhirVersion" -> statement.setFhirVersion(Enumerations.FHIRVersion.fromCode(parser.getText()));
+					case "format" -> parseArray(parser, () -> statement.addFormat(parser.getText()));
+					case "rest" -> parseArray(parser, () -> parseRest(parser, statement.addRest()));
+					default -> parser.skipChildren();
+				}
+			}
+
+			if (!RESOURCE_TYPE_CAPABILITY_STATEMENT.equals(resourceType))
+				throw new IOException("Unexpected resourceType '" + resourceType + "'");
+
+			return statement;
+		}
+		catch (RuntimeException exception)
+		{
+			throw new IOException(exception.getMessage(), exception);
+		}
+	}
+
+	private void parseRest(JsonParser parser, CapabilityStatement.CapabilityStatementRestComponent rest)
+			throws IOException
+	{
+		parseObject(parser, field ->
+		{
+			if ("mode".equals(field))
+				rest.getModeElement().setValueAsString(parser.getText());
+			else if ("resource".equals(field))
+				parseArray(parser, () -> parseResource(parser, rest.addResource()));
+			else if ("searchParam".equals(field))
+				parseArray(parser, () -> parseSearchParam(parser, rest.addSearchParam()));
+			else
+				parser.skipChildren();
+		});
+	}
+
+	private void parseResource(JsonParser parser, CapabilityStatement.CapabilityStatementRestResourceComponent resource)
+			throws IOException
+	{
+		parseObject(parser, field ->
+		{
+			if ("type".equals(field))
+				resource.setType(parser.getText());
+			else if ("searchParam".equals(field))
+				parseArray(parser, () -> parseSearchParam(parser, resource.addSearchParam()));
+			else
+				parser.skipChildren();
+		});
+	}
+
+	private void parseSearchParam(JsonParser parser,
+			CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent searchParam) throws IOException
+	{
+		parseObject(parser, field ->
+		{
+			if ("name".equals(field))
+				searchParam.setName(parser.getText());
+			else if ("definition".equals(field))
+				searchParam.setDefinition(parser.getText());
+			else if ("type".equals(field))
+				searchParam.getTypeElement().setValueAsString(parser.getText());
+			else
+				parser.skipChildren();
+		});
+	}
+
+	@FunctionalInterface
+	private interface FieldHandler
+	{
+		void handle(String field) throws IOException;
+	}
+
+	@FunctionalInterface
+	private interface ElementHandler
+	{
+		void handle() throws IOException;
+	}
+
+	/**
+	 * Current token has to be the start of an object, the handler is called with the current token being the value of
+	 * the field and has to consume the whole value.
+	 */
+	private void parseObject(JsonParser parser, FieldHandler handler) throws IOException
+	{
+		if (parser.currentToken() != JsonToken.START_OBJECT)
+		{
+			parser.skipChildren();
+			return;
+		}
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String field = parser.currentName();
+			parser.nextToken();
+			handler.handle(field);
+		}
+	}
+
+	/**
+	 * Current token has to be the start of an array, the handler is called for every element with the current token
+	 * being the start of the element and has to consume the whole element.
+	 */
+	private void parseArray(JsonParser parser, ElementHandler handler) throws IOException
+	{
+		if (parser.currentToken() != JsonToken.START_ARRAY)
+		{
+			parser.skipChildren();
+			return;
+		}
+
+		while (parser.nextToken() != JsonToken.END_ARRAY)
+		{
+			if (parser.currentToken() == null)
+				throw new IOException("Unexpected end of JSON array");
+
+			handler.handle();
+		}
+	}
+}
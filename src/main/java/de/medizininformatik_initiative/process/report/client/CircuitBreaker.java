@@ -0,0 +1,164 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for requests against the FHIR store shared between report runs. The circuit opens after the
+ * configured number of consecutive failures (connection errors, 5xx responses), requests are then rejected without
+ * being sent. Once the open duration elapsed the circuit is half-open and a single probe request is let through, the
+ * circuit closes if the probe succeeds and opens again otherwise. Reports with requests rejected by the open circuit
+ * are not stored but retried.
+ * <p>
+ * If not enabled, requests are never rejected.
+ */
+public class CircuitBreaker
+{
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public enum State
+	{
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	public enum Outcome
+	{
+		/**
+		 * response received from the FHIR store, including 4xx responses
+		 */
+		SUCCESS,
+
+		/**
+		 * connection error or 5xx response
+		 */
+		FAILURE,
+
+		/**
+		 * request not completed, e.g. timed out, neither opens nor closes the circuit
+		 */
+		IGNORED
+	}
+
+	private final int failureThreshold;
+	private final long openMillis;
+	private final LongSupplier currentTimeMillis;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean probeInFlight;
+
+	/**
+	 * @param failureThreshold
+	 *            number of consecutive failures opening the circuit, <code>&lt;= 0</code> disables the circuit breaker
+	 * @param openMillis
+	 *            milliseconds the circuit stays open before a probe request is let through
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis)
+	{
+		this(failureThreshold, openMillis, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            number of consecutive failures opening the circuit, <code>&lt;= 0</code> disables the circuit breaker
+	 * @param openMillis
+	 *            milliseconds the circuit stays open before a probe request is let through
+	 * @param currentTimeMillis
+	 *            not <code>null</code>
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis, LongSupplier currentTimeMillis)
+	{
+		if (failureThreshold > 0 && openMillis <= 0)
+			throw new IllegalArgumentException("openMillis <= 0");
+
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+		this.currentTimeMillis = Objects.requireNonNull(currentTimeMillis, "currentTimeMillis");
+	}
+
+	public boolean isEnabled()
+	{
+		return failureThreshold > 0;
+	}
+
+	public synchronized State getState()
+	{
+		return state;
+	}
+
+	/**
+	 * Every permitted request has to be followed by {@link #release(Outcome)}.
+	 *
+	 * @return <code>true</code> if the request may be sent, <code>false</code> if the circuit is open or a probe
+	 *         request is in flight
+	 */
+	public synchronized boolean tryAcquire()
+	{
+		if (!isEnabled() || State.CLOSED.equals(state))
+			return true;
+
+		if (State.OPEN.equals(state) && currentTimeMillis.getAsLong() - openedAt >= openMillis)
+		{
+			state = State.HALF_OPEN;
+			probeInFlight = false;
+			logger.info("FHIR store circuit breaker half-open, sending probe request");
+		}
+
+		if (State.HALF_OPEN.equals(state) && !probeInFlight)
+		{
+			probeInFlight = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param outcome
+	 *            not <code>null</code>
+	 */
+	public synchronized void release(Outcome outcome)
+	{
+		if (!isEnabled())
+			return;
+
+		if (Outcome.SUCCESS.equals(outcome))
+			success();
+		else if (Outcome.FAILURE.equals(outcome))
+			failure();
+		else if (State.HALF_OPEN.equals(state))
+			probeInFlight = false;
+	}
+
+	private void success()
+	{
+		consecutiveFailures = 0;
+
+		if (!State.CLOSED.equals(state))
+		{
+			state = State.CLOSED;
+			probeInFlight = false;
+			logger.info("FHIR store circuit breaker closed, request succeeded");
+		}
+	}
+
+	private void failure()
+	{
+		consecutiveFailures++;
+
+		if (State.HALF_OPEN.equals(state) || (State.CLOSED.equals(state) && consecutiveFailures >= failureThreshold))
+		{
+			logger.warn(
+					"FHIR store circuit breaker open after {} consecutive failed requests, rejecting requests for {} ms",
+					consecutiveFailures, openMillis);
+
+			state = State.OPEN;
+			openedAt = currentTimeMillis.getAsLong();
+			probeInFlight = false;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Year;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * Persistent cache of report search request totals per FHIR store. Entries are stored in one properties file per FHIR
+ * store base url and expire after the configured time to live, entries only counting resources of past years (all date
+ * search params <code>eq&lt;year&gt;</code> with a year before the current year) use a separate, usually longer time to
+ * live.
+ * <p>
+ * The cache does not know whether the FHIR store changed, callers have to check for changes since
+ * {@link Entry#getLastUpdated()} before using an entry.
+ */
+public class CountCache
+{
+	private static final Logger logger = LoggerFactory.getLogger(CountCache.class);
+
+	private static final String FILE_PREFIX = "count-cache-";
+	private static final String FILE_SUFFIX = ".properties";
+	private static final String VALUE_SEPARATOR = "|";
+
+	private static final Pattern YEAR_EQUALITY = Pattern.compile("eq(\\d{4})");
+
+	public static final class Entry
+	{
+		private final int total;
+		private final Date lastUpdated;
+		private final long cachedAt;
+
+		public Entry(int total, Date lastUpdated, long cachedAt)
+		{
+			this.total = total;
+			this.lastUpdated = lastUpdated;
+			this.cachedAt = cachedAt;
+		}
+
+		public int getTotal()
+		{
+			return total;
+		}
+
+		/**
+		 * @return <code>meta.lastUpdated</code> of the search response, may be <code>null</code>
+		 */
+		public Date getLastUpdated()
+		{
+			return lastUpdated;
+		}
+
+		/**
+		 * @return epoch milliseconds when the search request was started
+		 */
+		public long getCachedAt()
+		{
+			return cachedAt;
+		}
+	}
+
+	private final Path directory;
+	private final long ttl;
+	private final long ttlPastYears;
+
+	private final Map<String, Map<String, Entry>> entriesByStore = new HashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory
+	 *            may be <code>null</code>, disables the cache
+	 * @param ttl
+	 *            time to live in milliseconds
+	 * @param ttlPastYears
+	 *            time to live in milliseconds of entries only counting resources of past years
+	 */
+	public CountCache(Path directory, long ttl, long ttlPastYears)
+	{
+		this.directory = directory;
+		this.ttl = ttl;
+		this.ttlPastYears = ttlPastYears;
+	}
+
+	public boolean isEnabled()
+	{
+		return directory != null;
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the url is a <code>_summary=count</code> search request
+	 */
+	public boolean isCacheable(String url)
+	{
+		return SearchUrl.isCountRequest(url);
+	}
+
+	/**
+	 * @param storeBaseUrl
+	 *            not <code>null</code>
+	 * @param url
+	 *            not <code>null</code>
+	 * @return not expired entry, empty if the cache is disabled
+	 */
+	public synchronized Optional<Entry> get(String storeBaseUrl, String url)
+	{
+		if (!isEnabled() || !isCacheable(url))
+			return Optional.empty();
+
+		Entry entry = getEntries(storeBaseUrl).get(SearchUrl.canonicalize(url));
+		long entryTtl = isPastYearsOnly(url) ? ttlPastYears : ttl;
+
+		if (entry == null || System.currentTimeMillis() - entry.getCachedAt() > entryTtl)
+			return Optional.empty();
+		else
+			return Optional.of(entry);
+	}
+
+	public synchronized void put(String storeBaseUrl, String url, Entry entry)
+	{
+		if (isEnabled() && isCacheable(url))
+			getEntries(storeBaseUrl).put(SearchUrl.canonicalize(url), entry);
+	}
+
+	public synchronized void save(String storeBaseUrl)
+	{
+		if (!isEnabled())
+			return;
+
+		Properties properties = new Properties();
+		getEntries(storeBaseUrl).forEach((key, entry) -> properties.setProperty(key, toValue(entry)));
+
+		Path file = getFile(storeBaseUrl);
+		try
+		{
+			Files.createDirectories(directory);
+			Path tempFile = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+
+			try (OutputStream out = Files.newOutputStream(tempFile))
+			{
+				properties.store(out, "Report search request totals of FHIR store " + storeBaseUrl);
+			}
+
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not save count cache file '{}' - {}", file.toString(), exception.getMessage());
+		}
+	}
+
+	public void recordHits(int count)
+	{
+		hits.addAndGet(count);
+	}
+
+	public void recordMisses(int count)
+	{
+		misses.addAndGet(count);
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	private Map<String, Entry> getEntries(String storeBaseUrl)
+	{
+		return entriesByStore.computeIfAbsent(storeBaseUrl, this::load);
+	}
+
+	private Map<String, Entry> load(String storeBaseUrl)
+	{
+		Map<String, Entry> entries = new HashMap<>();
+
+		Path file = getFile(storeBaseUrl);
+		if (!Files.isReadable(file))
+			return entries;
+
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file))
+		{
+			properties.load(in);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not load count cache file '{}' - {}", file.toString(), exception.getMessage());
+			return entries;
+		}
+
+		for (String key : properties.stringPropertyNames())
+		{
+			try
+			{
+				entries.put(key, fromValue(properties.getProperty(key)));
+			}
+			catch (RuntimeException exception)
+			{
+				logger.debug("Ignoring invalid count cache entry '{}' in file '{}'", key, file.toString());
+			}
+		}
+
+		logger.debug("Loaded {} count cache entries from file '{}'", entries.size(), file.toString());
+
+		return entries;
+	}
+
+	private Path getFile(String storeBaseUrl)
+	{
+		return directory.resolve(FILE_PREFIX
+				+ UUID.nameUUIDFromBytes(storeBaseUrl.getBytes(StandardCharsets.UTF_8)).toString() + FILE_SUFFIX);
+	}
+
+	private boolean isPastYearsOnly(String url)
+	{
+		List<Integer> years = getQueryParams(url).values().stream().flatMap(List::stream).map(YEAR_EQUALITY::matcher)
+				.filter(Matcher::matches).map(m -> Integer.valueOf(m.group(1))).toList();
+
+		int currentYear = Year.now().getValue();
+		return !years.isEmpty() && years.stream().allMatch(y -> y < currentYear);
+	}
+
+	private MultiValueMap<String, String> getQueryParams(String url)
+	{
+		return UriComponentsBuilder.fromUriString(url).build().getQueryParams();
+	}
+
+	private String toValue(Entry entry)
+	{
+		return entry.getTotal() + VALUE_SEPARATOR
+				+ (entry.getLastUpdated() == null ? "" : entry.getLastUpdated().getTime()) + VALUE_SEPARATOR
+				+ entry.getCachedAt();
+	}
+
+	private Entry fromValue(String value)
+	{
+		String[] parts = value.split(Pattern.quote(VALUE_SEPARATOR), -1);
+		if (parts.length != 3)
+			throw new IllegalArgumentException("Unexpected count cache value '" + value + "'");
+
+		return new Entry(Integer.parseInt(parts[0]), parts[1].isEmpty() ? null : new Date(Long.parseLong(parts[1])),
+				Long.parseLong(parts[2]));
+	}
+}
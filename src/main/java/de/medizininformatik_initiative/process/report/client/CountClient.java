@@ -0,0 +1,75 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+
+/**
+ * Executes <code>_summary=count</code> search requests with the HTTP client of a HAPI generic client and reads the
+ * response with a {@link CountResponseParser} instead of parsing the whole resource.
+ */
+public class CountClient
+{
+	private static final Logger logger = LoggerFactory.getLogger(CountClient.class);
+
+	private static final String ACCEPT = Constants.CT_FHIR_JSON_NEW + ", " + Constants.CT_FHIR_XML_NEW + ";q=0.9";
+
+	private final boolean enabled;
+	private final CountResponseParser parser = new CountResponseParser();
+
+	public CountClient(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param client
+	 *            not <code>null</code>
+	 * @param url
+	 *            not <code>null</code>, search url relative to the server base of the client
+	 * @return searchset Bundle with total and meta.lastUpdated only, empty if the response is not a Bundle or could not
+	 *         be read
+	 * @throws BaseServerResponseException
+	 *             if the server responded with a status code other than 2xx or could not be reached
+	 */
+	public Optional<Bundle> search(FhirStoreClient client, String url)
+	{
+		IHttpResponse response = InterceptedHttpRequest.get(client, url, ACCEPT, Map.of());
+
+		try
+		{
+			if (response.getStatus() < 200 || response.getStatus() > 299)
+				throw BaseServerResponseException.newInstance(response.getStatus(), response.getStatusInfo());
+
+			try (InputStream in = response.readEntity())
+			{
+				return Optional.ofNullable(parser.parse(in, response.getMimeType()));
+			}
+			catch (IOException exception)
+			{
+				logger.warn("Could not read count response of report search request '{}' - {}", url,
+						exception.getMessage());
+				return Optional.empty();
+			}
+		}
+		finally
+		{
+			// stops reading the response if the total was found before the end of the response
+			response.close();
+		}
+	}
+}
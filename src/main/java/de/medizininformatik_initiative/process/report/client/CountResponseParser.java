@@ -0,0 +1,199 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.InstantType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads only <code>Bundle.meta.lastUpdated</code> and <code>Bundle.total</code> from FHIR JSON or XML search responses
+ * without parsing the whole resource. Parsing stops as soon as <code>Bundle.total</code> was read, entries of stores
+ * not supporting <code>_summary=count</code> are therefore never read.
+ */
+public class CountResponseParser
+{
+	private static final String RESOURCE_TYPE_BUNDLE = "Bundle";
+	private static final String ELEMENT_META = "meta";
+	private static final String ELEMENT_LAST_UPDATED = "lastUpdated";
+	private static final String ELEMENT_TOTAL = "total";
+	private static final String ATTRIBUTE_VALUE = "value";
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final XMLInputFactory xmlInputFactory;
+
+	public CountResponseParser()
+	{
+		xmlInputFactory = XMLInputFactory.newFactory();
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * @param in
+	 *            not <code>null</code>
+	 * @param mimeType
+	 *            may be <code>null</code>, JSON is expected if the mime type does not contain <code>xml</code>
+	 * @return searchset Bundle with total (if present) and meta.lastUpdated (if present), <code>null</code> if the
+	 *         response is not a Bundle
+	 * @throws IOException
+	 *             if the response could not be read or parsed
+	 */
+	public Bundle parse(InputStream in, String mimeType) throws IOException
+	{
+		if (mimeType != null && mimeType.contains("xml"))
+			return parseXml(in);
+		else
+			return parseJson(in);
+	}
+
+	private Bundle parseJson(InputStream in) throws IOException
+	{
+		try (JsonParser parser = jsonFactory.createParser(in))
+		{
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("JSON object expected");
+
+			String resourceType = null;
+			Date lastUpdated = null;
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME)
+			{
+				String name = parser.currentName();
+				JsonToken value = parser.nextToken();
+
+				if ("resourceType".equals(name))
+					resourceType = parser.getText();
+				else if (ELEMENT_META.equals(name) && value == JsonToken.START_OBJECT)
+					lastUpdated = parseJsonMeta(parser);
+				else if (ELEMENT_TOTAL.equals(name) && value == JsonToken.VALUE_NUMBER_INT)
+					return toBundle(resourceType, lastUpdated, parser.getIntValue());
+				else
+					parser.skipChildren();
+			}
+
+			return toBundle(resourceType, lastUpdated, null);
+		}
+	}
+
+	private Date parseJsonMeta(JsonParser parser) throws IOException
+	{
+		Date lastUpdated = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME)
+		{
+			String name = parser.currentName();
+			parser.nextToken();
+
+			if (ELEMENT_LAST_UPDATED.equals(name))
+				lastUpdated = toDate(parser.getText());
+			else
+				parser.skipChildren();
+		}
+
+		return lastUpdated;
+	}
+
+	private Bundle parseXml(InputStream in) throws IOException
+	{
+		XMLStreamReader reader = null;
+		try
+		{
+			reader = xmlInputFactory.createXMLStreamReader(in);
+			reader.nextTag();
+
+			String resourceType = reader.getLocalName();
+			Date lastUpdated = null;
+
+			// depth 1: elements of Bundle, depth 2: elements of Bundle.meta
+			int depth = 0;
+			boolean inMeta = false;
+
+			while (reader.hasNext())
+			{
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					depth++;
+
+					if (depth == 1 && ELEMENT_META.equals(reader.getLocalName()))
+						inMeta = true;
+					else if (depth == 2 && inMeta && ELEMENT_LAST_UPDATED.equals(reader.getLocalName()))
+						lastUpdated = toDate(reader.getAttributeValue(null, ATTRIBUTE_VALUE));
+					else if (depth == 1 && ELEMENT_TOTAL.equals(reader.getLocalName()))
+						return toBundle(resourceType, lastUpdated,
+								Integer.valueOf(reader.getAttributeValue(null, ATTRIBUTE_VALUE)));
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (depth == 1)
+						inMeta = false;
+
+					depth--;
+				}
+			}
+
+			return toBundle(resourceType, lastUpdated, null);
+		}
+		catch (XMLStreamException | NumberFormatException exception)
+		{
+			throw new IOException(exception.getMessage(), exception);
+		}
+		finally
+		{
+			closeQuietly(reader);
+		}
+	}
+
+	private void closeQuietly(XMLStreamReader reader)
+	{
+		if (reader != null)
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (XMLStreamException exception)
+			{
+				// nothing to do, input stream is closed by the caller
+			}
+		}
+	}
+
+	private Date toDate(String value) throws IOException
+	{
+		try
+		{
+			return value == null ? null : new InstantType(value).getValue();
+		}
+		catch (RuntimeException exception)
+		{
+			throw new IOException("Invalid lastUpdated value '" + value + "'", exception);
+		}
+	}
+
+	private Bundle toBundle(String resourceType, Date lastUpdated, Integer total)
+	{
+		if (!RESOURCE_TYPE_BUNDLE.equals(resourceType))
+			return null;
+
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+		bundle.getMeta().setLastUpdated(lastUpdated);
+
+		if (total != null)
+			bundle.setTotal(total);
+
+		return bundle;
+	}
+}
@@ -0,0 +1,453 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.client.interceptor.BasicAuthInterceptor;
+import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import ca.uhn.fhir.rest.client.interceptor.LoggingInterceptor;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenProvider;
+
+/**
+ * Thread safe client of the DIC FHIR store shared by all report runs of a plugin deployment. HTTP connections are kept
+ * alive in a connection pool and reused across report runs. The SSL context, connection pool and HAPI generic client
+ * are created on first use, the SSL context is recreated for new connections if the PEM files change. No connections
+ * are opened if the plugin is deployed without a FHIR store base url.
+ */
+public class FhirStoreClient implements DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(FhirStoreClient.class);
+
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	private record Connection(PoolingHttpClientConnectionManager connectionManager, CloseableHttpClient httpClient,
+			IRestfulClientFactory restfulClientFactory, IGenericClient genericClient)
+	{
+	}
+
+	private final SslContextFactory sslContextFactory;
+	private final int connectTimeout;
+	private final int socketTimeout;
+	private final int connectionRequestTimeout;
+	private final String baseUrl;
+	private final String basicAuthUsername;
+	private final String basicAuthPassword;
+	private final String bearerToken;
+	private final TokenProvider tokenProvider;
+	private final String proxyUrl;
+	private final String proxyUsername;
+	private final String proxyPassword;
+	private final boolean hapiClientVerbose;
+	private final FhirContext fhirContext;
+	private final int poolMaxTotal;
+	private final int poolMaxPerRoute;
+	private final long poolIdleTimeout;
+	private final int poolValidateAfterInactivity;
+	private final RequestRateLimiter rateLimiter;
+	private final ReportMetrics metrics;
+
+	private final Object connectionLock = new Object();
+	private volatile Connection connection;
+
+	/**
+	 * @param sslContextFactory
+	 *            not <code>null</code>
+	 * @param connectTimeout
+	 *            milliseconds
+	 * @param socketTimeout
+	 *            milliseconds
+	 * @param connectionRequestTimeout
+	 *            milliseconds to wait for a connection from the pool
+	 * @param baseUrl
+	 *            may be <code>null</code> if the plugin is not used to send reports
+	 * @param basicAuthUsername
+	 *            may be <code>null</code>
+	 * @param basicAuthPassword
+	 *            may be <code>null</code>
+	 * @param bearerToken
+	 *            may be <code>null</code>
+	 * @param tokenProvider
+	 *            may be <code>null</code>, only used if configured
+	 * @param proxyUrl
+	 *            may be <code>null</code>
+	 * @param proxyUsername
+	 *            may be <code>null</code>
+	 * @param proxyPassword
+	 *            may be <code>null</code>
+	 * @param hapiClientVerbose
+	 *            <code>true</code> to log requests and responses
+	 * @param fhirContext
+	 *            not <code>null</code>
+	 * @param poolMaxTotal
+	 *            maximum number of open connections
+	 * @param poolMaxPerRoute
+	 *            maximum number of open connections to the FHIR store
+	 * @param poolIdleTimeout
+	 *            milliseconds after which idle connections are closed, <code>&lt;= 0</code> keeps idle connections open
+	 * @param poolValidateAfterInactivity
+	 *            milliseconds after which pooled connections are validated before reuse, <code>&lt;= 0</code> disables
+	 *            validation
+	 * @param rateLimiter
+	 *            not <code>null</code>, applied to all requests to the FHIR store
+	 * @param metrics
+	 *            not <code>null</code>, records the response sizes of requests executed with the generic client
+	 */
+	public FhirStoreClient(SslContextFactory sslContextFactory, int connectTimeout, int socketTimeout,
+			int connectionRequestTimeout, String baseUrl, String basicAuthUsername, String basicAuthPassword,
+			String bearerToken, TokenProvider tokenProvider, String proxyUrl, String proxyUsername,
+			String proxyPassword, boolean hapiClientVerbose, FhirContext fhirContext, int poolMaxTotal,
+			int poolMaxPerRoute, long poolIdleTimeout, int poolValidateAfterInactivity, RequestRateLimiter rateLimiter,
+			ReportMetrics metrics)
+	{
+		this.sslContextFactory = sslContextFactory;
+		this.connectTimeout = connectTimeout;
+		this.socketTimeout = socketTimeout;
+		this.connectionRequestTimeout = connectionRequestTimeout;
+		this.baseUrl = baseUrl;
+		this.basicAuthUsername = basicAuthUsername;
+		this.basicAuthPassword = basicAuthPassword;
+		this.bearerToken = bearerToken;
+		this.tokenProvider = tokenProvider;
+		this.proxyUrl = proxyUrl;
+		this.proxyUsername = proxyUsername;
+		this.proxyPassword = proxyPassword;
+		this.hapiClientVerbose = hapiClientVerbose;
+		this.fhirContext = fhirContext;
+		this.poolMaxTotal = poolMaxTotal;
+		this.poolMaxPerRoute = poolMaxPerRoute;
+		this.poolIdleTimeout = poolIdleTimeout;
+		this.poolValidateAfterInactivity = poolValidateAfterInactivity;
+		this.rateLimiter = Objects.requireNonNull(rateLimiter, "rateLimiter");
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+	}
+
+	public boolean isConfigured()
+	{
+		return baseUrl != null && !baseUrl.isBlank();
+	}
+
+	public String getFhirBaseUrl()
+	{
+		return baseUrl;
+	}
+
+	/**
+	 * @return shared generic client, interceptors registered with the client apply to all report runs
+	 * @throws IllegalStateException
+	 *             if no base url is configured or the SSL context could not be created
+	 */
+	public IGenericClient getGenericFhirClient()
+	{
+		return getConnection().genericClient();
+	}
+
+	/**
+	 * @return factory creating HTTP clients backed by the shared connection pool
+	 * @throws IllegalStateException
+	 *             if no base url is configured or the SSL context could not be created
+	 */
+	public IRestfulClientFactory getRestfulClientFactory()
+	{
+		return getConnection().restfulClientFactory();
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>, search url or <code>metadata</code> relative to the base url
+	 * @return searchset Bundle or CapabilityStatement
+	 */
+	public Resource search(String url)
+	{
+		if (CAPABILITY_STATEMENT_PATH.equals(url))
+			return getGenericFhirClient().capabilities().ofType(CapabilityStatement.class).execute();
+		else
+			return getGenericFhirClient().search().byUrl(url).returnBundle(Bundle.class).execute();
+	}
+
+	/**
+	 * Requests an access token if a configured {@link TokenProvider} is used and opens pooled connections to the FHIR
+	 * store, so the first report does not have to wait for token requests and TLS handshakes. Connections through a
+	 * proxy are opened by the first requests.
+	 *
+	 * @param connections
+	 *            number of connections to open, limited by the maximum number of connections per route
+	 * @return number of open pooled connections to the FHIR store
+	 * @throws IllegalStateException
+	 *             if no base url is configured or the SSL context could not be created
+	 * @throws IOException
+	 *             if a connection could not be opened
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a pooled connection
+	 * @throws ExecutionException
+	 *             if a pooled connection could not be leased
+	 * @throws ConnectionPoolTimeoutException
+	 *             if no pooled connection could be leased within the connection request timeout
+	 */
+	public int warmUp(int connections)
+			throws IOException, InterruptedException, ExecutionException, ConnectionPoolTimeoutException
+	{
+		logger.info(
+				"Warming up connection to FHIR store with {baseUrl: {}, basicAuth: {}, bearerToken: {}, oAuth2: {}, proxyUrl: {}, proxyUsername: {}, poolMaxTotal: {}, poolMaxPerRoute: {}}",
+				baseUrl, basicAuthUsername != null, bearerToken != null,
+				tokenProvider != null && tokenProvider.isConfigured(), proxyUrl, proxyUsername, poolMaxTotal,
+				poolMaxPerRoute);
+
+		Connection c = getConnection();
+
+		if (tokenProvider != null && tokenProvider.isConfigured())
+			tokenProvider.getToken();
+
+		if (proxyUrl != null)
+			return 0;
+
+		URI uri = URI.create(baseUrl);
+		boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		int port = uri.getPort() > 0 ? uri.getPort() : secure ? 443 : 80;
+		HttpRoute route = new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+
+		HttpClientContext context = HttpClientContext.create();
+		List<HttpClientConnection> leased = new ArrayList<>();
+
+		try
+		{
+			for (int i = 0; i < Math.min(connections, poolMaxPerRoute); i++)
+			{
+				HttpClientConnection leasedConnection = c.connectionManager().requestConnection(route, null)
+						.get(connectionRequestTimeout, TimeUnit.MILLISECONDS);
+				leased.add(leasedConnection);
+
+				if (!leasedConnection.isOpen())
+				{
+					c.connectionManager().connect(leasedConnection, route, connectTimeout, context);
+					c.connectionManager().routeComplete(leasedConnection, route, context);
+				}
+			}
+		}
+		finally
+		{
+			for (HttpClientConnection leasedConnection : leased)
+				c.connectionManager().releaseConnection(leasedConnection, null, poolIdleTimeout, TimeUnit.MILLISECONDS);
+		}
+
+		return c.connectionManager().getStats(route).getAvailable();
+	}
+
+	private Connection getConnection()
+	{
+		Connection c = connection;
+		if (c != null)
+			return c;
+
+		synchronized (connectionLock)
+		{
+			if (connection == null)
+			{
+				if (!isConfigured())
+					throw new IllegalStateException("FHIR store base url not configured");
+
+				connection = createConnection();
+			}
+
+			return connection;
+		}
+	}
+
+	private Connection createConnection()
+	{
+		PoolingHttpClientConnectionManager connectionManager = createConnectionManager();
+		CloseableHttpClient httpClient = createHttpClient(connectionManager);
+
+		// generic clients execute requests with the restful client factory of their context, a separate context keeps
+		// requests of other clients using the shared context off the connection pool
+		FhirContext context = new FhirContext(fhirContext.getVersion().getVersion());
+		context.setParserOptions(fhirContext.getParserOptions());
+
+		ApacheRestfulClientFactory restfulClientFactory = new ApacheRestfulClientFactory(context);
+		restfulClientFactory.setHttpClient(httpClient);
+		restfulClientFactory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+		context.setRestfulClientFactory(restfulClientFactory);
+
+		IGenericClient genericClient = restfulClientFactory.newGenericClient(baseUrl);
+		genericClient.registerInterceptor(metrics.getResponseSizeInterceptor());
+
+		if (basicAuthUsername != null && basicAuthPassword != null)
+			genericClient.registerInterceptor(new BasicAuthInterceptor(basicAuthUsername, basicAuthPassword));
+
+		if (bearerToken != null)
+			genericClient.registerInterceptor(new BearerTokenAuthInterceptor(bearerToken));
+
+		if (tokenProvider != null && tokenProvider.isConfigured())
+			genericClient.registerInterceptor(new TokenProviderAuthInterceptor(tokenProvider));
+
+		if (hapiClientVerbose)
+		{
+			LoggingInterceptor loggingInterceptor = new LoggingInterceptor(true);
+			loggingInterceptor.setLogger(logger);
+			genericClient.registerInterceptor(loggingInterceptor);
+		}
+
+		logger.debug("Created FHIR store client for {} with connection pool of max {} connections, {} per route",
+				baseUrl, poolMaxTotal, poolMaxPerRoute);
+
+		return new Connection(connectionManager, httpClient, restfulClientFactory, genericClient);
+	}
+
+	private PoolingHttpClientConnectionManager createConnectionManager()
+	{
+		try
+		{
+			// fail on first use if the PEM files can not be read, reloaded contexts are used for new connections
+			sslContextFactory.getSslContext();
+		}
+		catch (IOException | GeneralSecurityException exception)
+		{
+			throw new IllegalStateException(
+					"Could not create SSL context for FHIR store client - " + exception.getMessage(), exception);
+		}
+
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", new ReloadingSslConnectionSocketFactory(sslContextFactory)).build();
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+				socketFactoryRegistry);
+		connectionManager.setMaxTotal(poolMaxTotal);
+		connectionManager.setDefaultMaxPerRoute(poolMaxPerRoute);
+		connectionManager.setValidateAfterInactivity(poolValidateAfterInactivity);
+
+		return connectionManager;
+	}
+
+	private CloseableHttpClient createHttpClient(PoolingHttpClientConnectionManager connectionManager)
+	{
+		RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)
+				.setSocketTimeout(socketTimeout).setConnectionRequestTimeout(connectionRequestTimeout).build();
+
+		// connection state would bind connections authenticated with a client certificate to a single request
+		HttpClientBuilder builder = new RateLimitedHttpClientBuilder(rateLimiter)
+				.setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).disableConnectionState()
+				.evictExpiredConnections();
+
+		if (poolIdleTimeout > 0)
+			builder.evictIdleConnections(poolIdleTimeout, TimeUnit.MILLISECONDS);
+
+		if (proxyUrl != null)
+		{
+			URI proxy = URI.create(proxyUrl);
+			HttpHost proxyHost = new HttpHost(proxy.getHost(), proxy.getPort(), proxy.getScheme());
+			builder.setProxy(proxyHost);
+
+			if (proxyUsername != null && proxyPassword != null)
+			{
+				BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+				credentialsProvider.setCredentials(new AuthScope(proxyHost),
+						new UsernamePasswordCredentials(proxyUsername, proxyPassword));
+				builder.setDefaultCredentialsProvider(credentialsProvider);
+			}
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Registers requests with the {@link RequestAbort} hook of the executing thread and applies the
+	 * {@link RequestRateLimiter} before a connection is leased from the pool, every retry of a request is limited
+	 * again. Requests are in flight until the response headers are received. Requests of report searches acquire the
+	 * limit before they are executed and are not limited again.
+	 */
+	private static final class RateLimitedHttpClientBuilder extends HttpClientBuilder
+	{
+		private final RequestRateLimiter rateLimiter;
+
+		RateLimitedHttpClientBuilder(RequestRateLimiter rateLimiter)
+		{
+			this.rateLimiter = rateLimiter;
+		}
+
+		@Override
+		protected ClientExecChain decorateMainExec(ClientExecChain mainExec)
+		{
+			return (route, request, context, execAware) ->
+			{
+				RequestAbort.register(execAware);
+
+				// aborted before started, e.g. a hedge request that lost, does not wait for the rate limit
+				if (execAware != null && execAware.isAborted())
+					throw new RequestAbortedException("Request aborted");
+
+				if (!rateLimiter.isEnabled() || RequestRateLimiter.isPermitted())
+					return mainExec.execute(route, request, context, execAware);
+
+				try
+				{
+					rateLimiter.acquire();
+				}
+				catch (InterruptedException exception)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for FHIR store rate limit");
+				}
+
+				try
+				{
+					return mainExec.execute(route, request, context, execAware);
+				}
+				finally
+				{
+					rateLimiter.release();
+				}
+			};
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception
+	{
+		synchronized (connectionLock)
+		{
+			if (connection != null)
+			{
+				connection.httpClient().close();
+				connection = null;
+			}
+		}
+	}
+}
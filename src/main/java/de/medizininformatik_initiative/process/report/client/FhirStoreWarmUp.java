@@ -0,0 +1,184 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+/**
+ * Tests the connection to the DIC FHIR store in the background after the plugin was deployed and warms up the shared
+ * {@link FhirStoreClient}: requests an access token, opens pooled connections and reads the CapabilityStatement, cached
+ * by the {@link CapabilityStatementClient} if enabled. The result is available as {@link Readiness} state and written
+ * to the report metrics.
+ */
+public class FhirStoreWarmUp implements DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(FhirStoreWarmUp.class);
+
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+
+	public enum Readiness
+	{
+		/**
+		 * connection test not started
+		 */
+		UNKNOWN,
+
+		/**
+		 * no FHIR store base url configured
+		 */
+		NOT_CONFIGURED,
+
+		/**
+		 * connection test running
+		 */
+		CHECKING,
+
+		/**
+		 * FHIR store returned its CapabilityStatement
+		 */
+		READY,
+
+		/**
+		 * connection test failed
+		 */
+		FAILED,
+
+		/**
+		 * connection test did not complete within the timeout, changes to {@link #READY} or {@link #FAILED} once
+		 * completed
+		 */
+		TIMED_OUT
+	}
+
+	private final FhirStoreClient fhirStoreClient;
+	private final CapabilityStatementClient capabilityStatementClient;
+	private final ReportMetrics metrics;
+	private final long timeout;
+	private final int connections;
+
+	private final AtomicReference<Readiness> readiness = new AtomicReference<>(Readiness.UNKNOWN);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r ->
+	{
+		Thread thread = new Thread(r, "report-fhir-store-warm-up");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param fhirStoreClient
+	 *            not <code>null</code>
+	 * @param capabilityStatementClient
+	 *            not <code>null</code>
+	 * @param metrics
+	 *            not <code>null</code>
+	 * @param timeout
+	 *            milliseconds after which the readiness state is set to {@link Readiness#TIMED_OUT},
+	 *            <code>&lt;= 0</code> waits until the connect and socket timeouts of the client apply
+	 * @param connections
+	 *            number of pooled connections to open
+	 */
+	public FhirStoreWarmUp(FhirStoreClient fhirStoreClient, CapabilityStatementClient capabilityStatementClient,
+			ReportMetrics metrics, long timeout, int connections)
+	{
+		this.fhirStoreClient = Objects.requireNonNull(fhirStoreClient, "fhirStoreClient");
+		this.capabilityStatementClient = Objects.requireNonNull(capabilityStatementClient, "capabilityStatementClient");
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+		this.timeout = timeout;
+		this.connections = connections;
+	}
+
+	public Readiness getReadiness()
+	{
+		return readiness.get();
+	}
+
+	/**
+	 * Starts the connection test and warm-up without blocking the caller.
+	 *
+	 * @return readiness state after the test completed or the timeout elapsed
+	 */
+	public CompletableFuture<Readiness> start()
+	{
+		if (!fhirStoreClient.isConfigured())
+		{
+			logger.warn("Connection test not possible, FHIR store base url not configured");
+			return CompletableFuture.completedFuture(setReadiness(Readiness.NOT_CONFIGURED));
+		}
+
+		setReadiness(Readiness.CHECKING);
+
+		CompletableFuture<Readiness> warmUp = CompletableFuture.supplyAsync(this::warmUp, executor);
+		if (timeout > 0)
+			warmUp = warmUp.orTimeout(timeout, TimeUnit.MILLISECONDS);
+
+		return warmUp.exceptionally(exception ->
+		{
+			Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+
+			if (cause instanceof TimeoutException && readiness.compareAndSet(Readiness.CHECKING, Readiness.TIMED_OUT))
+			{
+				logger.error("Connection test FAILED - no response from FHIR store within {} ms, still waiting",
+						timeout);
+				metrics.recordFhirStoreReadiness(Readiness.TIMED_OUT.name());
+			}
+
+			return readiness.get();
+		});
+	}
+
+	private Readiness warmUp()
+	{
+		long start = System.nanoTime();
+
+		try
+		{
+			int openConnections = fhirStoreClient.warmUp(connections);
+
+			CapabilityStatement statement = capabilityStatementClient.isEnabled()
+					? capabilityStatementClient.read(fhirStoreClient)
+					: (CapabilityStatement) fhirStoreClient.search(CAPABILITY_STATEMENT_PATH);
+
+			logger.info("Connection test OK: {} - {}, {} pooled connections open after {} ms",
+					statement.getSoftware().getName(), statement.getSoftware().getVersion(), openConnections,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+			return setReadiness(Readiness.READY);
+		}
+		catch (Exception exception)
+		{
+			if (exception instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+
+			logger.error("Connection test FAILED - error: {} - {}", exception.getClass().getName(),
+					exception.getMessage());
+
+			return setReadiness(Readiness.FAILED);
+		}
+	}
+
+	private Readiness setReadiness(Readiness state)
+	{
+		readiness.set(state);
+		metrics.recordFhirStoreReadiness(state.name());
+
+		return state;
+	}
+
+	@Override
+	public void destroy() throws Exception
+	{
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,82 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Detects changes of files, e.g. mounted secrets, by comparing last modified time and size. Files are checked at most
+ * once per check interval, so calling {@link #hasChanged()} on every new connection is cheap.
+ */
+final class FileChangeMonitor
+{
+	private record FileState(long lastModified, long size)
+	{
+	}
+
+	private final List<Path> files;
+	private final long checkInterval;
+
+	private List<FileState> states;
+	private long nextCheck;
+
+	/**
+	 * @param files
+	 *            not <code>null</code>, <code>null</code> entries are ignored
+	 * @param checkInterval
+	 *            minimum milliseconds between two checks, <code>&lt;= 0</code> disables change detection
+	 */
+	FileChangeMonitor(List<Path> files, long checkInterval)
+	{
+		this.files = files.stream().filter(Objects::nonNull).toList();
+		this.checkInterval = checkInterval;
+
+		states = readStates();
+		nextCheck = System.currentTimeMillis() + checkInterval;
+	}
+
+	/**
+	 * @return <code>true</code> if one of the files changed since the last call returning <code>true</code> or since
+	 *         the monitor was created
+	 */
+	synchronized boolean hasChanged()
+	{
+		if (checkInterval <= 0 || files.isEmpty())
+			return false;
+
+		long now = System.currentTimeMillis();
+		if (now < nextCheck)
+			return false;
+
+		nextCheck = now + checkInterval;
+
+		List<FileState> current = readStates();
+		if (current.equals(states))
+			return false;
+
+		states = current;
+		return true;
+	}
+
+	private List<FileState> readStates()
+	{
+		return files.stream().map(this::readState).toList();
+	}
+
+	private FileState readState(Path file)
+	{
+		try
+		{
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return new FileState(attributes.lastModifiedTime().toMillis(), attributes.size());
+		}
+		catch (IOException exception)
+		{
+			// missing while the secret is replaced
+			return new FileState(-1, -1);
+		}
+	}
+}
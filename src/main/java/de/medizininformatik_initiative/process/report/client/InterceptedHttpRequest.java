@@ -0,0 +1,90 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IRestfulClient;
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * GET request executed with the connection pool of a {@link FhirStoreClient}, client request and response interceptors
+ * of the generic client (e.g. authentication) are invoked as for requests executed by the generic client.
+ */
+final class InterceptedHttpRequest
+{
+	private InterceptedHttpRequest()
+	{
+	}
+
+	/**
+	 * @param storeClient
+	 *            not <code>null</code>
+	 * @param url
+	 *            not <code>null</code>, url relative to the base url of the client
+	 * @param accept
+	 *            not <code>null</code>
+	 * @param headers
+	 *            not <code>null</code>, additional request headers
+	 * @return response, has to be closed by the caller
+	 * @throws FhirClientConnectionException
+	 *             if the request could not be executed
+	 */
+	static IHttpResponse get(FhirStoreClient storeClient, String url, String accept, Map<String, String> headers)
+	{
+		IGenericClient client = storeClient.getGenericFhirClient();
+		String absoluteUrl = toAbsoluteUrl(client.getServerBase(), SearchUrl.encode(url));
+
+		// the HTTP client of the generic client has no request type and can not create requests itself
+		IHttpClient httpClient = storeClient.getRestfulClientFactory().getHttpClient(new StringBuilder(absoluteUrl),
+				Collections.emptyMap(), "", RequestTypeEnum.GET, Collections.emptyList());
+
+		IHttpRequest request = httpClient.createGetRequest(client.getFhirContext(), EncodingEnum.JSON);
+		request.setUri(absoluteUrl);
+		request.removeHeaders(Constants.HEADER_ACCEPT);
+		request.addHeader(Constants.HEADER_ACCEPT, accept);
+		headers.forEach(request::addHeader);
+
+		client.getInterceptorService().callHooks(Pointcut.CLIENT_REQUEST,
+				new HookParams().add(IHttpRequest.class, request).add(IRestfulClient.class, client));
+
+		IHttpResponse response;
+		try
+		{
+			response = request.execute();
+		}
+		catch (IOException exception)
+		{
+			throw new FhirClientConnectionException(exception);
+		}
+
+		try
+		{
+			client.getInterceptorService().callHooks(Pointcut.CLIENT_RESPONSE,
+					new HookParams().add(IHttpRequest.class, request).add(IHttpResponse.class, response)
+							.add(IRestfulClient.class, client));
+		}
+		catch (RuntimeException exception)
+		{
+			response.close();
+			throw exception;
+		}
+
+		return response;
+	}
+
+	private static String toAbsoluteUrl(String serverBase, String url)
+	{
+		return serverBase.endsWith("/") ? serverBase + url : serverBase + "/" + url;
+	}
+}
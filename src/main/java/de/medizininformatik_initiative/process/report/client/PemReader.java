@@ -0,0 +1,327 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads X.509 certificates and private keys from PEM encoded files. Supported private key formats are PKCS#8
+ * (<code>PRIVATE KEY</code>), password based encrypted PKCS#8 (<code>ENCRYPTED PRIVATE KEY</code>), PKCS#1 RSA
+ * (<code>RSA PRIVATE KEY</code>) and SEC1 EC (<code>EC PRIVATE KEY</code>). PKCS#1 and SEC1 keys may be encrypted in
+ * the traditional OpenSSL format (<code>Proc-Type: 4,ENCRYPTED</code> header) with AES-128-CBC, AES-192-CBC,
+ * AES-256-CBC, DES-EDE3-CBC or DES-CBC.
+ */
+final class PemReader
+{
+	private static final String BEGIN = "-----BEGIN ";
+	private static final String END = "-----END ";
+	private static final String DASHES = "-----";
+
+	private static final String TYPE_PRIVATE_KEY = "PRIVATE KEY";
+	private static final String TYPE_ENCRYPTED_PRIVATE_KEY = "ENCRYPTED PRIVATE KEY";
+	private static final String TYPE_RSA_PRIVATE_KEY = "RSA PRIVATE KEY";
+	private static final String TYPE_EC_PRIVATE_KEY = "EC PRIVATE KEY";
+
+	private static final String HEADER_PROC_TYPE = "Proc-Type";
+	private static final String HEADER_DEK_INFO = "DEK-Info";
+	private static final String PROC_TYPE_ENCRYPTED = "4,ENCRYPTED";
+
+	private static final List<String> KEY_ALGORITHMS = List.of("RSA", "EC", "EdDSA");
+
+	// DER encoded AlgorithmIdentifier of rsaEncryption (1.2.840.113549.1.1.1) with NULL parameters
+	private static final byte[] RSA_ALGORITHM_IDENTIFIER = { 0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48,
+			(byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01, 0x05, 0x00 };
+
+	// DER encoded object identifier of id-ecPublicKey (1.2.840.10045.2.1)
+	private static final byte[] EC_ALGORITHM_OID = { 0x06, 0x07, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x02,
+			0x01 };
+
+	private static final int TAG_SEQUENCE = 0x30;
+	private static final int TAG_OCTET_STRING = 0x04;
+	private static final int TAG_OBJECT_IDENTIFIER = 0x06;
+	private static final int TAG_EC_PARAMETERS = 0xa0;
+
+	/**
+	 * Cipher of traditional OpenSSL encrypted keys, CBC mode with PKCS#5 padding
+	 */
+	private record DekAlgorithm(String keyAlgorithm, int keyLength)
+	{
+	}
+
+	private static final Map<String, DekAlgorithm> DEK_ALGORITHMS = Map.of("AES-128-CBC", new DekAlgorithm("AES", 16),
+			"AES-192-CBC", new DekAlgorithm("AES", 24), "AES-256-CBC", new DekAlgorithm("AES", 32), "DES-EDE3-CBC",
+			new DekAlgorithm("DESede", 24), "DES-CBC", new DekAlgorithm("DES", 8));
+
+	private PemReader()
+	{
+	}
+
+	static List<X509Certificate> readCertificates(Path file) throws IOException, GeneralSecurityException
+	{
+		try (InputStream in = Files.newInputStream(file))
+		{
+			List<X509Certificate> certificates = CertificateFactory.getInstance("X.509").generateCertificates(in)
+					.stream().map(c -> (X509Certificate) c).toList();
+
+			if (certificates.isEmpty())
+				throw new IOException("No certificate in " + file.toString());
+
+			return certificates;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            not <code>null</code>
+	 * @param password
+	 *            may be <code>null</code> if the key is not encrypted
+	 */
+	static PrivateKey readPrivateKey(Path file, char[] password) throws IOException, GeneralSecurityException
+	{
+		String pem = Files.readString(file, StandardCharsets.US_ASCII);
+
+		int begin = pem.indexOf(BEGIN);
+		int typeEnd = begin < 0 ? -1 : pem.indexOf(DASHES, begin + BEGIN.length());
+		if (typeEnd < 0)
+			throw new IOException("No PEM encoded private key in " + file.toString());
+
+		String type = pem.substring(begin + BEGIN.length(), typeEnd);
+		int end = pem.indexOf(END + type + DASHES, typeEnd);
+		if (end < 0)
+			throw new IOException("PEM encoded private key in " + file.toString() + " not terminated");
+
+		String body = pem.substring(typeEnd + DASHES.length(), end).replace("\r", "");
+
+		// headers of traditional encrypted keys, separated from the base64 content by an empty line
+		Map<String, String> headers = new HashMap<>();
+		int headersEnd = body.indexOf("\n\n");
+		if (body.indexOf(':') >= 0 && headersEnd >= 0)
+		{
+			body.substring(0, headersEnd).lines().map(l -> l.split(":", 2)).filter(h -> h.length == 2)
+					.forEach(h -> headers.put(h[0].trim(), h[1].trim()));
+			body = body.substring(headersEnd);
+		}
+
+		byte[] der = Base64.getMimeDecoder().decode(body);
+		if (PROC_TYPE_ENCRYPTED.equals(headers.get(HEADER_PROC_TYPE)))
+			der = decryptTraditional(der, headers.get(HEADER_DEK_INFO), password, file);
+
+		return switch (type)
+		{
+			case TYPE_PRIVATE_KEY -> toPrivateKey(new PKCS8EncodedKeySpec(der));
+			case TYPE_ENCRYPTED_PRIVATE_KEY -> toPrivateKey(decrypt(der, password, file));
+			case TYPE_RSA_PRIVATE_KEY -> KeyFactory.getInstance("RSA")
+					.generatePrivate(new PKCS8EncodedKeySpec(toPkcs8(RSA_ALGORITHM_IDENTIFIER, der)));
+			case TYPE_EC_PRIVATE_KEY -> KeyFactory.getInstance("EC")
+					.generatePrivate(new PKCS8EncodedKeySpec(toPkcs8(getEcAlgorithmIdentifier(der, file), der)));
+			default -> throw new IOException("Private key type '" + type + "' in " + file.toString()
+					+ " not supported, convert the key to PKCS#8");
+		};
+	}
+
+	/**
+	 * Decrypts keys encrypted in the traditional OpenSSL format, the key is derived from the password and the first
+	 * eight bytes of the IV with a single MD5 based <code>EVP_BytesToKey</code> iteration.
+	 *
+	 * @param dekInfo
+	 *            value of the <code>DEK-Info</code> header, e.g. <code>AES-256-CBC,&lt;hex encoded IV&gt;</code>
+	 */
+	private static byte[] decryptTraditional(byte[] der, String dekInfo, char[] password, Path file)
+			throws IOException, GeneralSecurityException
+	{
+		if (password == null)
+			throw new IOException("Private key in " + file.toString() + " encrypted, but no password configured");
+
+		String[] dek = dekInfo == null ? new String[0] : dekInfo.split(",", 2);
+		DekAlgorithm algorithm = dek.length == 2 ? DEK_ALGORITHMS.get(dek[0].trim().toUpperCase()) : null;
+		if (algorithm == null)
+			throw new IOException("Private key encryption '" + dekInfo + "' in " + file.toString()
+					+ " not supported, convert the key to PKCS#8");
+
+		byte[] iv = HexFormat.of().parseHex(dek[1].trim());
+		byte[] key = deriveKey(new String(password).getBytes(StandardCharsets.UTF_8), Arrays.copyOf(iv, 8),
+				algorithm.keyLength());
+
+		Cipher cipher = Cipher.getInstance(algorithm.keyAlgorithm() + "/CBC/PKCS5Padding");
+		cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, algorithm.keyAlgorithm()), new IvParameterSpec(iv));
+
+		try
+		{
+			return cipher.doFinal(der);
+		}
+		catch (BadPaddingException exception)
+		{
+			throw new IOException("Could not decrypt private key in " + file.toString() + ", wrong password",
+					exception);
+		}
+	}
+
+	private static byte[] deriveKey(byte[] password, byte[] salt, int keyLength) throws GeneralSecurityException
+	{
+		MessageDigest md5 = MessageDigest.getInstance("MD5");
+		ByteArrayOutputStream key = new ByteArrayOutputStream();
+		byte[] block = new byte[0];
+
+		while (key.size() < keyLength)
+		{
+			md5.update(block);
+			md5.update(password);
+			md5.update(salt);
+			block = md5.digest();
+			key.writeBytes(block);
+		}
+
+		return Arrays.copyOf(key.toByteArray(), keyLength);
+	}
+
+	private static PKCS8EncodedKeySpec decrypt(byte[] der, char[] password, Path file)
+			throws IOException, GeneralSecurityException
+	{
+		if (password == null)
+			throw new IOException("Private key in " + file.toString() + " encrypted, but no password configured");
+
+		EncryptedPrivateKeyInfo info = new EncryptedPrivateKeyInfo(der);
+
+		// PBES2 parameters name the actual algorithm, e.g. PBEWithHmacSHA256AndAES_256
+		String algorithm = info.getAlgParameters() == null ? info.getAlgName() : info.getAlgParameters().toString();
+
+		Cipher cipher = Cipher.getInstance(algorithm);
+		cipher.init(Cipher.DECRYPT_MODE,
+				SecretKeyFactory.getInstance(algorithm).generateSecret(new PBEKeySpec(password)),
+				info.getAlgParameters());
+
+		return info.getKeySpec(cipher);
+	}
+
+	private static PrivateKey toPrivateKey(PKCS8EncodedKeySpec spec) throws GeneralSecurityException
+	{
+		GeneralSecurityException last = null;
+
+		for (String algorithm : KEY_ALGORITHMS)
+		{
+			try
+			{
+				return KeyFactory.getInstance(algorithm).generatePrivate(spec);
+			}
+			catch (GeneralSecurityException exception)
+			{
+				last = exception;
+			}
+		}
+
+		throw last;
+	}
+
+	/**
+	 * Wraps a PKCS#1 RSAPrivateKey or SEC1 ECPrivateKey in a PKCS#8 PrivateKeyInfo structure.
+	 */
+	private static byte[] toPkcs8(byte[] algorithmIdentifier, byte[] privateKey)
+	{
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		content.writeBytes(new byte[] { 0x02, 0x01, 0x00 }); // version
+		content.writeBytes(algorithmIdentifier);
+		writeTagged(content, TAG_OCTET_STRING, privateKey);
+
+		ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+		writeTagged(sequence, TAG_SEQUENCE, content.toByteArray());
+
+		return sequence.toByteArray();
+	}
+
+	/**
+	 * PKCS#8 requires the named curve of the SEC1 ECPrivateKey parameters <code>[0]</code> in the algorithm identifier.
+	 */
+	private static byte[] getEcAlgorithmIdentifier(byte[] sec1, Path file) throws IOException
+	{
+		try
+		{
+			int offset = getContentOffset(sec1, 0); // ECPrivateKey sequence
+			offset = getContentOffset(sec1, offset) + getContentLength(sec1, offset); // skip version
+			offset = getContentOffset(sec1, offset) + getContentLength(sec1, offset); // skip privateKey
+
+			if ((sec1[offset] & 0xff) != TAG_EC_PARAMETERS)
+				throw new IOException("EC private key in " + file.toString()
+						+ " without curve parameters not supported, convert the key to PKCS#8");
+
+			int curveOffset = getContentOffset(sec1, offset);
+			if (sec1[curveOffset] != TAG_OBJECT_IDENTIFIER)
+				throw new IOException("EC private key in " + file.toString()
+						+ " without named curve not supported, convert the key to PKCS#8");
+
+			byte[] curve = Arrays.copyOfRange(sec1, curveOffset,
+					getContentOffset(sec1, curveOffset) + getContentLength(sec1, curveOffset));
+
+			ByteArrayOutputStream algorithmIdentifier = new ByteArrayOutputStream();
+			byte[] content = new byte[EC_ALGORITHM_OID.length + curve.length];
+			System.arraycopy(EC_ALGORITHM_OID, 0, content, 0, EC_ALGORITHM_OID.length);
+			System.arraycopy(curve, 0, content, EC_ALGORITHM_OID.length, curve.length);
+			writeTagged(algorithmIdentifier, TAG_SEQUENCE, content);
+
+			return algorithmIdentifier.toByteArray();
+		}
+		catch (ArrayIndexOutOfBoundsException exception)
+		{
+			throw new IOException("EC private key in " + file.toString() + " not readable", exception);
+		}
+	}
+
+	private static int getContentOffset(byte[] der, int offset)
+	{
+		int length = der[offset + 1] & 0xff;
+		return length < 0x80 ? offset + 2 : offset + 2 + (length & 0x7f);
+	}
+
+	private static int getContentLength(byte[] der, int offset)
+	{
+		int length = der[offset + 1] & 0xff;
+		if (length < 0x80)
+			return length;
+
+		int value = 0;
+		for (int i = 0; i < (length & 0x7f); i++)
+			value = (value << 8) | (der[offset + 2 + i] & 0xff);
+
+		return value;
+	}
+
+	private static void writeTagged(ByteArrayOutputStream out, int tag, byte[] value)
+	{
+		out.write(tag);
+
+		if (value.length < 0x80)
+			out.write(value.length);
+		else
+		{
+			int bytes = (Integer.SIZE - Integer.numberOfLeadingZeros(value.length) + 7) / 8;
+			out.write(0x80 | bytes);
+			for (int i = bytes - 1; i >= 0; i--)
+				out.write(value.length >>> (i * 8));
+		}
+
+		out.writeBytes(value);
+	}
+}
@@ -0,0 +1,70 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Creates TLS connections with the current SSL context of a {@link SslContextFactory}, new connections use a reloaded
+ * context, pooled connections keep the context they were created with.
+ */
+final class ReloadingSslConnectionSocketFactory implements LayeredConnectionSocketFactory
+{
+	private final SslContextFactory sslContextFactory;
+
+	private SSLContext sslContext;
+	private SSLConnectionSocketFactory delegate;
+
+	ReloadingSslConnectionSocketFactory(SslContextFactory sslContextFactory)
+	{
+		this.sslContextFactory = sslContextFactory;
+	}
+
+	private synchronized SSLConnectionSocketFactory getDelegate() throws IOException
+	{
+		SSLContext current;
+		try
+		{
+			current = sslContextFactory.getSslContext();
+		}
+		catch (GeneralSecurityException exception)
+		{
+			throw new IOException("Could not create SSL context - " + exception.getMessage(), exception);
+		}
+
+		if (current != sslContext)
+		{
+			sslContext = current;
+			delegate = new SSLConnectionSocketFactory(current);
+		}
+
+		return delegate;
+	}
+
+	@Override
+	public Socket createSocket(HttpContext context) throws IOException
+	{
+		return getDelegate().createSocket(context);
+	}
+
+	@Override
+	public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+			InetSocketAddress localAddress, HttpContext context) throws IOException
+	{
+		return getDelegate().connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+	}
+
+	@Override
+	public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException
+	{
+		return getDelegate().createLayeredSocket(socket, target, port, context);
+	}
+}
@@ -0,0 +1,61 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.processes.common.fhir.client.token.AccessToken;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
+
+/**
+ * {@link TokenClient} creating its delegate once and again only if the PEM encoded trust store of the OAuth2 issuer
+ * changed.
+ */
+public class ReloadingTokenClient implements TokenClient
+{
+	private static final Logger logger = LoggerFactory.getLogger(ReloadingTokenClient.class);
+
+	private final Supplier<TokenClient> tokenClientFactory;
+	private final FileChangeMonitor fileChangeMonitor;
+
+	private volatile TokenClient delegate;
+
+	/**
+	 * @param tokenClientFactory
+	 *            not <code>null</code>
+	 * @param trustStorePath
+	 *            may be <code>null</code>
+	 * @param reloadCheckInterval
+	 *            minimum milliseconds between two checks of the trust store for changes, <code>&lt;= 0</code> disables
+	 *            reloading
+	 */
+	public ReloadingTokenClient(Supplier<TokenClient> tokenClientFactory, Path trustStorePath, long reloadCheckInterval)
+	{
+		this.tokenClientFactory = Objects.requireNonNull(tokenClientFactory, "tokenClientFactory");
+
+		delegate = tokenClientFactory.get();
+		fileChangeMonitor = new FileChangeMonitor(Collections.singletonList(trustStorePath), reloadCheckInterval);
+	}
+
+	@Override
+	public boolean isConfigured()
+	{
+		return delegate.isConfigured();
+	}
+
+	@Override
+	public AccessToken requestToken()
+	{
+		if (fileChangeMonitor.hasChanged())
+		{
+			delegate = tokenClientFactory.get();
+			logger.info("Trust store of OAuth2 issuer changed, token client recreated");
+		}
+
+		return delegate.requestToken();
+	}
+}
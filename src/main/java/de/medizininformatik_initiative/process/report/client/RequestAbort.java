@@ -0,0 +1,90 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Abort hook for HTTP requests of a {@link FhirStoreClient} executed by a task of the {@link SearchBudget}.
+ * Interrupting a thread blocked in a socket read of Apache HttpClient 4 does not stop the read, aborting the request
+ * shuts down its connection and fails the read immediately. Requests started after the abort are aborted before a
+ * connection is leased.
+ */
+final class RequestAbort
+{
+	private static final ThreadLocal<RequestAbort> current = new ThreadLocal<>();
+
+	private final List<HttpUriRequest> requests = new ArrayList<>();
+	private boolean aborted;
+
+	/**
+	 * @param request
+	 *            not <code>null</code>
+	 * @return task executing the given request with this abort hook bound to the executing thread
+	 */
+	<T> Callable<T> bind(Supplier<T> request)
+	{
+		return () ->
+		{
+			current.set(this);
+			try
+			{
+				return request.get();
+			}
+			finally
+			{
+				current.remove();
+			}
+		};
+	}
+
+	/**
+	 * Aborts all HTTP requests in flight and all requests started later by the bound task.
+	 */
+	synchronized void abort()
+	{
+		aborted = true;
+		requests.forEach(HttpUriRequest::abort);
+		requests.clear();
+	}
+
+	private synchronized boolean isAborted()
+	{
+		return aborted;
+	}
+
+	private synchronized void add(HttpUriRequest request)
+	{
+		if (aborted)
+			request.abort();
+		else
+			requests.add(request);
+	}
+
+	/**
+	 * Registers the given request with the abort hook bound to the current thread until the bound task completed, does
+	 * nothing if no hook is bound.
+	 *
+	 * @param execAware
+	 *            may be <code>null</code>
+	 */
+	static void register(HttpExecutionAware execAware)
+	{
+		RequestAbort abort = current.get();
+		if (abort != null && execAware instanceof HttpUriRequest request)
+			abort.add(request);
+	}
+
+	/**
+	 * @return <code>true</code> if a task with an abort hook is executed by the current thread and was aborted
+	 */
+	static boolean isCurrentAborted()
+	{
+		RequestAbort abort = current.get();
+		return abort != null && abort.isAborted();
+	}
+}
@@ -0,0 +1,87 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.medizininformatik_initiative.process.report.metrics.LatencyHistogram;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * Hedging of idempotent report search requests shared between report runs. A request still running after the p95
+ * latency of previous successful executions of the same canonical request url is sent a second time and the first
+ * response is used. Hedges are limited by a budget relative to the number of requests: every request adds the budget
+ * ratio to a balance of at most {@value #MAX_BALANCE} hedges, every hedge consumes one.
+ * <p>
+ * Requests with less than {@value #MIN_SAMPLES} previous successful executions are not hedged. If not enabled, requests
+ * are never hedged.
+ */
+public class RequestHedging
+{
+	private static final int MIN_SAMPLES = 5;
+	private static final double MAX_BALANCE = 10;
+
+	private final double budgetRatio;
+
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private double balance;
+
+	/**
+	 * @param budgetRatio
+	 *            maximum ratio of hedges to requests, e.g. <code>0.1</code> for at most 10% additional requests,
+	 *            <code>&lt;= 0</code> disables hedging
+	 */
+	public RequestHedging(double budgetRatio)
+	{
+		this.budgetRatio = budgetRatio;
+	}
+
+	public boolean isEnabled()
+	{
+		return budgetRatio > 0;
+	}
+
+	/**
+	 * Records a request against the hedge budget.
+	 *
+	 * @param url
+	 *            not <code>null</code>
+	 * @return milliseconds after which the request may be hedged, <code>0</code> if the request is not hedged
+	 */
+	public long requested(String url)
+	{
+		if (!isEnabled())
+			return 0;
+
+		synchronized (this)
+		{
+			balance = Math.min(MAX_BALANCE, balance + budgetRatio);
+		}
+
+		LatencyHistogram latency = latencies.get(SearchUrl.canonicalize(url));
+		return latency != null && latency.getCount() >= MIN_SAMPLES ? Math.max(1, latency.getPercentile(95)) : 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the hedge budget permits a hedge, the hedge is deducted from the budget
+	 */
+	public synchronized boolean tryHedge()
+	{
+		if (!isEnabled() || balance < 1)
+			return false;
+
+		balance -= 1;
+		return true;
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>
+	 * @param durationMillis
+	 *            duration of a successful request
+	 */
+	public void completed(String url, long durationMillis)
+	{
+		if (isEnabled())
+			latencies.computeIfAbsent(SearchUrl.canonicalize(url), u -> new LatencyHistogram()).record(durationMillis);
+	}
+}
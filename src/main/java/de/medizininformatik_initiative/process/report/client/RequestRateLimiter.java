@@ -0,0 +1,210 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+/**
+ * Hard limit of the request rate and the number of requests in flight against the FHIR store, shared by all requests of
+ * the {@link FhirStoreClient} regardless of the number of concurrently running reports. The request rate is limited by
+ * a token bucket refilled with the configured rate and holding at most one second of requests, requests in flight by a
+ * fair semaphore. Requests first wait for a free slot and then for a token, request starts therefore never exceed the
+ * rate.
+ * <p>
+ * Report search requests acquire the limit before their latency and timeout are measured, see
+ * {@link #permitted(Supplier)}. All other requests are limited when executed by the HTTP client.
+ * <p>
+ * The time spent waiting is recorded for every request. If not enabled, requests are never blocked.
+ */
+public class RequestRateLimiter
+{
+	private static final ThreadLocal<Boolean> permitted = new ThreadLocal<>();
+
+	private final double requestsPerSecond;
+	private final int maxInFlight;
+	private final ReportMetrics metrics;
+
+	private final Semaphore inFlight;
+	private final double capacity;
+
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * @param requestsPerSecond
+	 *            maximum request rate, <code>&lt;= 0</code> for no rate limit
+	 * @param maxInFlight
+	 *            maximum number of requests in flight, <code>&lt;= 0</code> for no limit
+	 * @param metrics
+	 *            not <code>null</code>
+	 */
+	public RequestRateLimiter(double requestsPerSecond, int maxInFlight, ReportMetrics metrics)
+	{
+		this.requestsPerSecond = requestsPerSecond;
+		this.maxInFlight = maxInFlight;
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+
+		inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight, true) : null;
+		capacity = Math.max(1, requestsPerSecond);
+		tokens = capacity;
+	}
+
+	public boolean isEnabled()
+	{
+		return requestsPerSecond > 0 || maxInFlight > 0;
+	}
+
+	/**
+	 * Blocks until a request may be started, every call has to be followed by {@link #release()} once the request
+	 * completed.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, nothing has to be released
+	 */
+	public void acquire() throws InterruptedException
+	{
+		if (!isEnabled())
+			return;
+
+		long start = System.nanoTime();
+
+		if (inFlight != null)
+			inFlight.acquire();
+
+		try
+		{
+			long waitNanos = reserveToken();
+			if (waitNanos > 0)
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+		catch (InterruptedException exception)
+		{
+			returnToken();
+			release();
+			throw exception;
+		}
+
+		metrics.recordRateLimitWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * Acquires the limit without waiting, e.g. for hedge requests. Every successful call has to be followed by
+	 * {@link #release()} once the request completed.
+	 *
+	 * @return <code>false</code> if no request may be started now, nothing has to be released
+	 */
+	public boolean tryAcquire()
+	{
+		if (!isEnabled())
+			return true;
+
+		try
+		{
+			// respects the fairness of the semaphore, requests already waiting are not overtaken
+			if (inFlight != null && !inFlight.tryAcquire(0, TimeUnit.SECONDS))
+				return false;
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		if (!tryReserveToken())
+		{
+			release();
+			return false;
+		}
+
+		metrics.recordRateLimitWait(0);
+		return true;
+	}
+
+	/**
+	 * @param request
+	 *            not <code>null</code>
+	 * @return request executing the given request on the calling thread, HTTP requests executed by it are not limited
+	 *         again, the limit has to be acquired before
+	 */
+	public static <T> Supplier<T> permitted(Supplier<T> request)
+	{
+		Objects.requireNonNull(request, "request");
+
+		return () ->
+		{
+			permitted.set(Boolean.TRUE);
+			try
+			{
+				return request.get();
+			}
+			finally
+			{
+				permitted.remove();
+			}
+		};
+	}
+
+	/**
+	 * @return <code>true</code> if the current thread executes a request created by {@link #permitted(Supplier)}
+	 */
+	static boolean isPermitted()
+	{
+		return Boolean.TRUE.equals(permitted.get());
+	}
+
+	/**
+	 * @return nanoseconds until the reserved token is available
+	 */
+	private synchronized long reserveToken()
+	{
+		if (requestsPerSecond <= 0)
+			return 0;
+
+		refill();
+
+		// tokens may become negative, waiting requests reserve future tokens in order of arrival
+		tokens -= 1;
+		return tokens >= 0 ? 0 : (long) (-tokens / requestsPerSecond * TimeUnit.SECONDS.toNanos(1));
+	}
+
+	/**
+	 * @return <code>true</code> if a token was available now, waiting requests keep their reserved tokens
+	 */
+	private synchronized boolean tryReserveToken()
+	{
+		if (requestsPerSecond <= 0)
+			return true;
+
+		refill();
+		if (tokens < 1)
+			return false;
+
+		tokens -= 1;
+		return true;
+	}
+
+	private void refill()
+	{
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * requestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+	}
+
+	/**
+	 * Returns the token reserved by a request not started, requests waiting after it are not delayed by it.
+	 */
+	private synchronized void returnToken()
+	{
+		if (requestsPerSecond > 0)
+			tokens += 1;
+	}
+
+	public void release()
+	{
+		if (inFlight != null)
+			inFlight.release();
+	}
+}
@@ -0,0 +1,226 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Total time budget of a single report run. Requests executed with a timeout run on a separate thread, once the timeout
+ * expires the calling thread stops waiting and HTTP requests of a {@link FhirStoreClient} still in flight are aborted.
+ */
+public class SearchBudget implements AutoCloseable
+{
+	/**
+	 * @param result
+	 *            response of the first successful request
+	 * @param hedged
+	 *            <code>true</code> if a second request was sent
+	 * @param hedgeWon
+	 *            <code>true</code> if the response of the second request was used
+	 */
+	public record Hedged<T>(T result, boolean hedged, boolean hedgeWon)
+	{
+	}
+
+	private final long end;
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable ->
+	{
+		Thread thread = new Thread(runnable, "report-search-timed");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param totalMillis
+	 *            <code>&lt;= 0</code> for no limit
+	 */
+	public SearchBudget(long totalMillis)
+	{
+		this.end = totalMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(totalMillis) : Long.MAX_VALUE;
+	}
+
+	public boolean isLimited()
+	{
+		return end != Long.MAX_VALUE;
+	}
+
+	public boolean isExhausted()
+	{
+		return isLimited() && System.nanoTime() - end >= 0;
+	}
+
+	/**
+	 * @param queryTimeoutMillis
+	 *            <code>&lt;= 0</code> for no query specific timeout
+	 * @return the query timeout limited to the remaining budget in milliseconds, <code>0</code> if neither is limited
+	 */
+	public long getTimeout(long queryTimeoutMillis)
+	{
+		if (!isLimited())
+			return Math.max(queryTimeoutMillis, 0);
+
+		long remaining = Math.max(TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()), 1);
+		return queryTimeoutMillis > 0 ? Math.min(queryTimeoutMillis, remaining) : remaining;
+	}
+
+	/**
+	 * @param timeoutMillis
+	 *            <code>&lt;= 0</code> executes the request on the calling thread without timeout
+	 * @throws TimeoutException
+	 *             if the request did not complete within the given timeout
+	 */
+	public <T> T execute(Supplier<T> request, long timeoutMillis) throws TimeoutException
+	{
+		if (timeoutMillis <= 0)
+			return request.get();
+
+		RequestAbort abort = new RequestAbort();
+		Future<T> future = executor.submit(abort.bind(request));
+		try
+		{
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException exception)
+		{
+			abort.abort();
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while executing report search request", exception);
+		}
+		catch (ExecutionException exception)
+		{
+			if (exception.getCause() instanceof RuntimeException runtimeException)
+				throw runtimeException;
+			else
+				throw new RuntimeException(exception.getCause());
+		}
+		catch (TimeoutException exception)
+		{
+			abort.abort();
+			future.cancel(true);
+			throw exception;
+		}
+	}
+
+	/**
+	 * Executes the request and, if it did not complete within the hedge delay, the hedge request. The first successful
+	 * response is used and HTTP requests of the other still in flight are aborted, the request only fails if both
+	 * requests fail. The hedge request is aborted but not cancelled, it always runs to completion.
+	 *
+	 * @param hedgeRequest
+	 *            executed if permitted by <code>hedge</code>
+	 * @param hedgeDelayMillis
+	 *            <code>&gt; 0</code>
+	 * @param hedge
+	 *            asked once the hedge delay expired, <code>true</code> if the hedge request may be sent
+	 * @param timeoutMillis
+	 *            <code>&lt;= 0</code> for no timeout
+	 * @throws TimeoutException
+	 *             if no request completed successfully within the given timeout
+	 */
+	public <T> Hedged<T> executeHedged(Supplier<T> request, Supplier<T> hedgeRequest, long hedgeDelayMillis,
+			BooleanSupplier hedge, long timeoutMillis) throws TimeoutException
+	{
+		long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+				: Long.MAX_VALUE;
+
+		CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+		RequestAbort primaryAbort = new RequestAbort();
+		RequestAbort secondaryAbort = new RequestAbort();
+		Future<T> primary = completionService.submit(primaryAbort.bind(request));
+		Future<T> secondary = null;
+		Future<T> used = null;
+		try
+		{
+			long hedgeDelayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis), remainingNanos(deadline));
+			Future<T> completed = completionService.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+
+			if (completed == null && remainingNanos(deadline) > 0 && hedge.getAsBoolean())
+				secondary = completionService.submit(secondaryAbort.bind(hedgeRequest));
+
+			int running = secondary == null ? 1 : 2;
+			while (true)
+			{
+				if (completed == null)
+					completed = take(completionService, deadline);
+
+				running--;
+				try
+				{
+					T result = completed.get();
+					used = completed;
+					return new Hedged<>(result, secondary != null, completed == secondary);
+				}
+				catch (ExecutionException exception)
+				{
+					if (running == 0)
+					{
+						if (exception.getCause() instanceof RuntimeException runtimeException)
+							throw runtimeException;
+						else
+							throw new RuntimeException(exception.getCause());
+					}
+
+					completed = null;
+				}
+			}
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while executing report search request", exception);
+		}
+		finally
+		{
+			if (used != primary)
+			{
+				primaryAbort.abort();
+				primary.cancel(true);
+			}
+
+			// not cancelled, resources acquired for the hedge request are released once it completed
+			if (secondary != null && used != secondary)
+				secondaryAbort.abort();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the current thread executes a request of a search budget that was aborted, e.g. a
+	 *         hedge request that lost or a request that timed out
+	 */
+	public static boolean isRequestAborted()
+	{
+		return RequestAbort.isCurrentAborted();
+	}
+
+	private <T> Future<T> take(CompletionService<T> completionService, long deadline)
+			throws InterruptedException, TimeoutException
+	{
+		if (deadline == Long.MAX_VALUE)
+			return completionService.take();
+
+		Future<T> completed = completionService.poll(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+		if (completed == null)
+			throw new TimeoutException();
+
+		return completed;
+	}
+
+	private long remainingNanos(long deadline)
+	{
+		return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+	}
+
+	@Override
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,81 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * In-memory copy of the last search Bundle downloaded from each HRP. Cached search Bundles are revalidated by counting
+ * the search Bundles with the same identifier, and the ones updated after <code>meta.lastUpdated</code> of the copy.
+ * They are downloaded again unless exactly one search Bundle exists and none was updated.
+ * <p>
+ * Search Bundles are copied when cached and when read, process instances may modify the returned search Bundles.
+ */
+public class SearchBundleCache
+{
+	private final boolean enabled;
+	private final Map<String, Bundle> searchBundles = new ConcurrentHashMap<>();
+
+	public SearchBundleCache(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param hrpEndpointUrl
+	 *            not <code>null</code>
+	 * @param searchBundleIdentifier
+	 *            not <code>null</code>
+	 * @return copy of the last search Bundle downloaded from the given HRP, empty if disabled or not cached
+	 */
+	public Optional<Bundle> get(String hrpEndpointUrl, String searchBundleIdentifier)
+	{
+		if (!enabled)
+			return Optional.empty();
+
+		return Optional.ofNullable(searchBundles.get(getKey(hrpEndpointUrl, searchBundleIdentifier))).map(Bundle::copy);
+	}
+
+	/**
+	 * Search Bundles without <code>meta.lastUpdated</code> can not be revalidated and are not cached.
+	 *
+	 * @param hrpEndpointUrl
+	 *            not <code>null</code>
+	 * @param searchBundleIdentifier
+	 *            not <code>null</code>
+	 * @param searchBundle
+	 *            not <code>null</code>
+	 */
+	public void put(String hrpEndpointUrl, String searchBundleIdentifier, Bundle searchBundle)
+	{
+		Objects.requireNonNull(searchBundle, "searchBundle");
+
+		if (enabled && searchBundle.getMeta().hasLastUpdated())
+			searchBundles.put(getKey(hrpEndpointUrl, searchBundleIdentifier), searchBundle.copy());
+	}
+
+	/**
+	 * @param hrpEndpointUrl
+	 *            not <code>null</code>
+	 * @param searchBundleIdentifier
+	 *            not <code>null</code>
+	 */
+	public void remove(String hrpEndpointUrl, String searchBundleIdentifier)
+	{
+		searchBundles.remove(getKey(hrpEndpointUrl, searchBundleIdentifier));
+	}
+
+	private String getKey(String hrpEndpointUrl, String searchBundleIdentifier)
+	{
+		return Objects.requireNonNull(hrpEndpointUrl, "hrpEndpointUrl") + " "
+				+ Objects.requireNonNull(searchBundleIdentifier, "searchBundleIdentifier");
+	}
+}
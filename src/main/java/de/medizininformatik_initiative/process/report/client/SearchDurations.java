@@ -0,0 +1,216 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * Expected durations of report search requests shared between report runs, an exponentially weighted moving average of
+ * the durations per canonical request url. Parallel report search requests are dispatched longest expected duration
+ * first, so slow requests do not start last and leave a long tail after all other requests completed. Requests without
+ * duration history are expected to take the average duration of all known requests.
+ * <p>
+ * Durations are kept in memory and optionally persisted to a properties file, timed out requests are recorded with
+ * their timeout as a lower bound of their duration.
+ */
+public class SearchDurations
+{
+	private static final Logger logger = LoggerFactory.getLogger(SearchDurations.class);
+
+	private static final String FILE_NAME = "search-durations.properties";
+	private static final double WEIGHT = 0.3;
+
+	/**
+	 * @param millis
+	 *            predicted duration of all requests in milliseconds
+	 * @param unknown
+	 *            number of requests without duration history
+	 */
+	public record Prediction(long millis, int unknown)
+	{
+	}
+
+	private final boolean enabled;
+	private final Path directory;
+
+	private final Map<String, Double> durations = new ConcurrentHashMap<>();
+	private volatile boolean loaded;
+
+	/**
+	 * @param enabled
+	 *            <code>false</code> dispatches requests in search Bundle order
+	 * @param directory
+	 *            may be <code>null</code>, keeps durations in memory only
+	 */
+	public SearchDurations(boolean enabled, Path directory)
+	{
+		this.enabled = enabled;
+		this.directory = directory;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>
+	 * @param durationMillis
+	 *            duration of a completed request, or timeout of a timed out request
+	 */
+	public void completed(String url, long durationMillis)
+	{
+		if (!enabled)
+			return;
+
+		load();
+		durations.merge(SearchUrl.canonicalize(url), (double) durationMillis,
+				(current, duration) -> current + WEIGHT * (duration - current));
+	}
+
+	/**
+	 * @param urls
+	 *            not <code>null</code>
+	 * @return indices of the given urls ordered by expected duration, longest first, search Bundle order if disabled
+	 */
+	public List<Integer> getDispatchOrder(List<String> urls)
+	{
+		if (!enabled)
+			return IntStream.range(0, urls.size()).boxed().toList();
+
+		return getDispatchOrder(getExpectedDurations(urls));
+	}
+
+	private List<Integer> getDispatchOrder(long[] expected)
+	{
+		// stable, requests with equal expected durations keep their search Bundle order
+		return IntStream.range(0, expected.length).boxed()
+				.sorted(Comparator.comparingLong((Integer i) -> expected[i]).reversed()).toList();
+	}
+
+	/**
+	 * Predicts the duration of the given requests dispatched longest expected duration first to the given number of
+	 * parallel threads.
+	 *
+	 * @param urls
+	 *            not <code>null</code>
+	 * @param threads
+	 *            <code>&gt; 0</code>
+	 * @return prediction, <code>0</code> millis if disabled
+	 */
+	public Prediction predict(List<String> urls, int threads)
+	{
+		if (!enabled)
+			return new Prediction(0, urls.size());
+
+		load();
+		int unknown = (int) urls.stream().map(SearchUrl::canonicalize).filter(u -> !durations.containsKey(u)).count();
+		long[] expected = getExpectedDurations(urls);
+
+		PriorityQueue<Long> threadLoads = new PriorityQueue<>();
+		IntStream.range(0, Math.max(1, threads)).forEach(t -> threadLoads.add(0L));
+
+		for (int index : getDispatchOrder(expected))
+			threadLoads.add(threadLoads.poll() + expected[index]);
+
+		return new Prediction(threadLoads.stream().mapToLong(Long::longValue).max().orElse(0), unknown);
+	}
+
+	private long[] getExpectedDurations(List<String> urls)
+	{
+		load();
+		double average = durations.values().stream().mapToDouble(Double::doubleValue).average().orElse(0);
+
+		return urls.stream().map(SearchUrl::canonicalize).mapToLong(u -> Math.round(durations.getOrDefault(u, average)))
+				.toArray();
+	}
+
+	public synchronized void save()
+	{
+		if (!enabled || directory == null)
+			return;
+
+		Properties properties = new Properties();
+		durations.forEach((url, duration) -> properties.setProperty(url, String.valueOf(Math.round(duration))));
+
+		Path file = directory.resolve(FILE_NAME);
+		try
+		{
+			Files.createDirectories(directory);
+			Path tempFile = Files.createTempFile(directory, FILE_NAME, ".tmp");
+
+			try (OutputStream out = Files.newOutputStream(tempFile))
+			{
+				properties.store(out, "Expected report search request durations in milliseconds");
+			}
+
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not save search durations file '{}' - {}", file.toString(), exception.getMessage());
+		}
+	}
+
+	private void load()
+	{
+		if (loaded)
+			return;
+
+		synchronized (this)
+		{
+			if (!loaded && directory != null)
+				loadFile();
+
+			loaded = true;
+		}
+	}
+
+	private void loadFile()
+	{
+		Path file = directory.resolve(FILE_NAME);
+		if (!Files.isReadable(file))
+			return;
+
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file))
+		{
+			properties.load(in);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not load search durations file '{}' - {}", file.toString(), exception.getMessage());
+			return;
+		}
+
+		for (String url : properties.stringPropertyNames())
+		{
+			try
+			{
+				durations.putIfAbsent(url, Double.valueOf(properties.getProperty(url)));
+			}
+			catch (NumberFormatException exception)
+			{
+				logger.debug("Ignoring invalid search duration '{}' in file '{}'", url, file.toString());
+			}
+		}
+
+		logger.debug("Loaded {} search durations from file '{}'", durations.size(), file.toString());
+	}
+}
@@ -0,0 +1,416 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlan;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * Persistent journal of completed report search requests per start Task and search Bundle version. Each completed
+ * search Bundle entry is appended as a fixed size checkpoint record (index, status, total,
+ * <code>meta.lastUpdated</code>) to a memory-mapped file as soon as its response arrives, the records therefore survive
+ * a restart of the BPE or a failed report. Report searches executed again for the same start Task replay the journal
+ * and only execute the entries without successful checkpoint.
+ * <p>
+ * Records are protected by a CRC32 checksum, replay stops at the first incomplete record. Journals are removed after
+ * the report was stored, journals of failed reports are deleted after the retention time.
+ */
+public class SearchJournal
+{
+	private static final Logger logger = LoggerFactory.getLogger(SearchJournal.class);
+
+	private static final String FILE_PREFIX = "search-journal-";
+	private static final String FILE_SUFFIX = ".journal";
+	private static final long CLEANUP_INTERVAL = 60 * 60 * 1000;
+
+	private static final int MAGIC = 0x524A4E4C;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+	private static final int RECORD_DATA_SIZE = 3 * Integer.BYTES + Long.BYTES;
+	private static final int RECORD_SIZE = RECORD_DATA_SIZE + Integer.BYTES;
+	private static final long NO_LAST_UPDATED = Long.MIN_VALUE;
+	private static final int STATUS_OK = 200;
+
+	/**
+	 * @param index
+	 *            index of the search Bundle entry
+	 * @param status
+	 *            HTTP status code of the search response
+	 * @param total
+	 *            total of the search response Bundle
+	 * @param lastUpdated
+	 *            <code>meta.lastUpdated</code> of the search response Bundle, may be <code>null</code>
+	 */
+	public record Checkpoint(int index, int status, int total, Date lastUpdated)
+	{
+		public boolean isOk()
+		{
+			return status == STATUS_OK;
+		}
+	}
+
+	/**
+	 * Journal of a single start Task and search Bundle version, safe for concurrent use by parallel report search
+	 * requests.
+	 */
+	public static final class Journal implements AutoCloseable
+	{
+		private final Path file;
+		private final Map<String, List<Integer>> indicesByCanonicalUrl;
+		private final Map<Integer, Checkpoint> completed;
+
+		private FileChannel channel;
+		private MappedByteBuffer buffer;
+
+		private Journal(Path file, FileChannel channel, MappedByteBuffer buffer, SearchBundlePlan plan,
+				Map<Integer, Checkpoint> completed)
+		{
+			this.file = file;
+			this.channel = channel;
+			this.buffer = buffer;
+			this.completed = completed;
+
+			indicesByCanonicalUrl = plan == null ? Map.of()
+					: IntStream.range(0, plan.canonicalUrls().size()).boxed().collect(
+							Collectors.groupingBy(plan.canonicalUrls()::get, LinkedHashMap::new, Collectors.toList()));
+		}
+
+		private static Journal disabled()
+		{
+			return new Journal(null, null, null, null, Map.of());
+		}
+
+		/**
+		 * @return <code>false</code> if the journal directory is not configured or the journal could not be written
+		 */
+		public synchronized boolean isEnabled()
+		{
+			return buffer != null;
+		}
+
+		/**
+		 * @return successful checkpoints replayed from the journal by search Bundle entry index, empty if the journal
+		 *         is new or disabled
+		 */
+		public Map<Integer, Checkpoint> getCompleted()
+		{
+			return completed;
+		}
+
+		/**
+		 * Appends a checkpoint for every search Bundle entry with the given request url. Entries without search
+		 * response Bundle can not be replayed and are not recorded.
+		 *
+		 * @param url
+		 *            not <code>null</code>
+		 * @param entry
+		 *            not <code>null</code>
+		 */
+		public void record(String url, Bundle.BundleEntryComponent entry)
+		{
+			if (buffer == null || !(entry.getResource() instanceof Bundle bundle) || !entry.hasResponse())
+				return;
+
+			List<Integer> indices = indicesByCanonicalUrl.get(SearchUrl.canonicalize(url));
+			if (indices == null)
+				return;
+
+			int status = parseStatus(entry.getResponse().getStatus());
+			Date lastUpdated = bundle.getMeta().getLastUpdated();
+
+			synchronized (this)
+			{
+				for (int index : indices)
+					append(new Checkpoint(index, status, bundle.getTotal(), lastUpdated));
+			}
+		}
+
+		private void append(Checkpoint checkpoint)
+		{
+			try
+			{
+				if (buffer == null)
+					return;
+
+				if (buffer.remaining() < RECORD_SIZE)
+				{
+					int position = buffer.position();
+					buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * buffer.capacity());
+					buffer.position(position);
+				}
+
+				int start = buffer.position();
+				buffer.putInt(checkpoint.index()).putInt(checkpoint.status()).putInt(checkpoint.total()).putLong(
+						checkpoint.lastUpdated() == null ? NO_LAST_UPDATED : checkpoint.lastUpdated().getTime());
+				buffer.putInt(checksum(buffer, start));
+			}
+			catch (IOException exception)
+			{
+				logger.warn("Could not write search journal '{}', journal disabled - {}", file.toString(),
+						exception.getMessage());
+				closeQuietly();
+			}
+		}
+
+		@Override
+		public synchronized void close()
+		{
+			if (buffer != null)
+				buffer.force();
+
+			closeQuietly();
+		}
+
+		private void closeQuietly()
+		{
+			buffer = null;
+
+			try
+			{
+				if (channel != null)
+					channel.close();
+			}
+			catch (IOException exception)
+			{
+				logger.debug("Could not close search journal '{}' - {}", file.toString(), exception.getMessage());
+			}
+
+			channel = null;
+		}
+
+		private int parseStatus(String status)
+		{
+			// e.g. "200" or "200 OK"
+			if (status == null || status.length() < 3)
+				return 0;
+
+			try
+			{
+				return Integer.parseInt(status.substring(0, 3));
+			}
+			catch (NumberFormatException exception)
+			{
+				return 0;
+			}
+		}
+	}
+
+	private final Path directory;
+	private final long retention;
+
+	private long lastCleanup;
+
+	/**
+	 * @param directory
+	 *            may be <code>null</code>, disables the journal
+	 * @param retention
+	 *            milliseconds after which journals not written are deleted, <code>&lt;= 0</code> keeps journals
+	 */
+	public SearchJournal(Path directory, long retention)
+	{
+		this.directory = directory;
+		this.retention = retention;
+	}
+
+	public boolean isEnabled()
+	{
+		return directory != null;
+	}
+
+	/**
+	 * Opens the journal of the given start Task and search Bundle version and replays existing checkpoints.
+	 *
+	 * @param taskId
+	 *            id of the start Task, not <code>null</code> if enabled
+	 * @param plan
+	 *            not <code>null</code>
+	 * @return journal, disabled if the journal directory is not configured or not writable
+	 */
+	public Journal open(String taskId, SearchBundlePlan plan)
+	{
+		if (!isEnabled())
+			return Journal.disabled();
+
+		cleanup();
+
+		Path file = getFile(Objects.requireNonNull(taskId, "taskId"), Objects.requireNonNull(plan, "plan"));
+		FileChannel channel = null;
+		try
+		{
+			Files.createDirectories(directory);
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+
+			long size = channel.size();
+			long capacity = Math.max(size, HEADER_SIZE + (long) RECORD_SIZE * Math.max(16, 2 * plan.urls().size()));
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+			Map<Integer, Checkpoint> completed;
+			if (size >= HEADER_SIZE && buffer.getInt() == MAGIC && buffer.getInt() == VERSION)
+				completed = replay(buffer, plan.urls().size());
+			else
+			{
+				buffer.clear();
+				buffer.putInt(MAGIC).putInt(VERSION);
+				completed = Collections.emptyMap();
+			}
+
+			if (!completed.isEmpty())
+				logger.info("Resuming report search requests of search Bundle '{}' with {} of {} checkpoints",
+						plan.key(), completed.size(), plan.urls().size());
+
+			return new Journal(file, channel, buffer, plan, completed);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not open search journal '{}', journal disabled - {}", file.toString(),
+					exception.getMessage());
+
+			try
+			{
+				if (channel != null)
+					channel.close();
+			}
+			catch (IOException e)
+			{
+				logger.debug("Could not close search journal '{}' - {}", file.toString(), e.getMessage());
+			}
+
+			return Journal.disabled();
+		}
+	}
+
+	/**
+	 * Deletes the journal of the given start Task and search Bundle version, e.g. after the report was stored.
+	 *
+	 * @param taskId
+	 *            id of the start Task, not <code>null</code> if enabled
+	 * @param plan
+	 *            not <code>null</code>
+	 */
+	public void remove(String taskId, SearchBundlePlan plan)
+	{
+		if (!isEnabled())
+			return;
+
+		Path file = getFile(Objects.requireNonNull(taskId, "taskId"), Objects.requireNonNull(plan, "plan"));
+		try
+		{
+			if (Files.deleteIfExists(file))
+				logger.debug("Removed search journal '{}'", file.toString());
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not remove search journal '{}' - {}", file.toString(), exception.getMessage());
+		}
+	}
+
+	/**
+	 * Reads checkpoints until the first incomplete record, the buffer is positioned after the last complete record.
+	 */
+	private static Map<Integer, Checkpoint> replay(MappedByteBuffer buffer, int entries)
+	{
+		Map<Integer, Checkpoint> checkpoints = new HashMap<>();
+
+		while (buffer.remaining() >= RECORD_SIZE)
+		{
+			int start = buffer.position();
+			Checkpoint checkpoint = new Checkpoint(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+					toDate(buffer.getLong()));
+
+			if (buffer.getInt() != checksum(buffer, start))
+			{
+				buffer.position(start);
+				break;
+			}
+
+			// later checkpoints of an entry, e.g. retried after timeout, replace earlier ones
+			if (checkpoint.index() >= 0 && checkpoint.index() < entries)
+				checkpoints.put(checkpoint.index(), checkpoint);
+		}
+
+		checkpoints.values().removeIf(c -> !c.isOk());
+		return checkpoints;
+	}
+
+	private static Date toDate(long lastUpdated)
+	{
+		return lastUpdated == NO_LAST_UPDATED ? null : new Date(lastUpdated);
+	}
+
+	private static int checksum(MappedByteBuffer buffer, int start)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(buffer.slice(start, RECORD_DATA_SIZE));
+		return (int) crc.getValue();
+	}
+
+	private Path getFile(String taskId, SearchBundlePlan plan)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest((taskId + " " + plan.key()).getBytes(StandardCharsets.UTF_8));
+
+			return directory.resolve(FILE_PREFIX + HexFormat.of().formatHex(hash) + FILE_SUFFIX);
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	private void cleanup()
+	{
+		if (retention <= 0)
+			return;
+
+		synchronized (this)
+		{
+			long now = System.currentTimeMillis();
+			if (now - lastCleanup < CLEANUP_INTERVAL)
+				return;
+
+			lastCleanup = now;
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX))
+		{
+			long expired = System.currentTimeMillis() - retention;
+			for (Path file : files)
+			{
+				if (Files.getLastModifiedTime(file).toMillis() < expired && Files.deleteIfExists(file))
+					logger.debug("Deleted expired search journal '{}'", file.toString());
+			}
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not delete expired search journals in directory '{}' - {}", directory.toString(),
+					exception.getMessage());
+		}
+	}
+}
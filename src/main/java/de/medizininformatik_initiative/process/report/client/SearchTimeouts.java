@@ -0,0 +1,67 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per query timeouts shared between report runs. Every query starts with the initial timeout, the timeout of a query is
+ * doubled each time it times out up to the maximum timeout and reset once the query completes within the initial
+ * timeout again.
+ */
+public class SearchTimeouts
+{
+	private final long initialMillis;
+	private final long maxMillis;
+
+	private final Map<String, Long> escalatedTimeouts = new ConcurrentHashMap<>();
+
+	/**
+	 * @param initialMillis
+	 *            <code>&lt;= 0</code> for no query specific timeout
+	 * @param maxMillis
+	 *            <code>&lt;= 0</code> for no upper bound of escalated timeouts
+	 */
+	public SearchTimeouts(long initialMillis, long maxMillis)
+	{
+		this.initialMillis = initialMillis;
+		this.maxMillis = maxMillis > 0 ? Math.max(maxMillis, initialMillis) : Long.MAX_VALUE;
+	}
+
+	public boolean isEnabled()
+	{
+		return initialMillis > 0;
+	}
+
+	/**
+	 * @return <code>0</code> if not enabled
+	 */
+	public long getTimeout(String query)
+	{
+		if (!isEnabled())
+			return 0;
+
+		return escalatedTimeouts.getOrDefault(query, initialMillis);
+	}
+
+	/**
+	 * @return the escalated timeout for the next execution of the query, <code>0</code> if not enabled
+	 */
+	public long timedOut(String query)
+	{
+		if (!isEnabled())
+			return 0;
+
+		return escalatedTimeouts.merge(query, escalate(initialMillis), (current, initial) -> escalate(current));
+	}
+
+	private long escalate(long timeout)
+	{
+		return timeout >= maxMillis / 2 ? maxMillis : timeout * 2;
+	}
+
+	public void completed(String query, long durationMillis)
+	{
+		if (isEnabled() && durationMillis <= initialMillis)
+			escalatedTimeouts.remove(query);
+	}
+}
@@ -0,0 +1,139 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link SSLContext}s from PEM encoded trusted root certificates and an optional client certificate with
+ * private key. The default trust store of the JVM is used if no trusted certificates are configured.
+ * <p>
+ * {@link #getSslContext()} caches the context, keeping the TLS session cache of the context and therefore session
+ * resumption across connections, and creates a new context only if one of the PEM files changed.
+ */
+public class SslContextFactory
+{
+	private static final Logger logger = LoggerFactory.getLogger(SslContextFactory.class);
+
+	private final Path trustStorePath;
+	private final Path certificatePath;
+	private final Path privateKeyPath;
+	private final char[] privateKeyPassword;
+	private final FileChangeMonitor fileChangeMonitor;
+
+	private SSLContext sslContext;
+
+	/**
+	 * @param trustStorePath
+	 *            may be <code>null</code>
+	 * @param certificatePath
+	 *            may be <code>null</code>, requires <b>privateKeyPath</b> if set
+	 * @param privateKeyPath
+	 *            may be <code>null</code>, requires <b>certificatePath</b> if set
+	 * @param privateKeyPassword
+	 *            may be <code>null</code> if the private key is not encrypted
+	 * @param reloadCheckInterval
+	 *            minimum milliseconds between two checks of the PEM files for changes, <code>&lt;= 0</code> disables
+	 *            reloading
+	 */
+	public SslContextFactory(Path trustStorePath, Path certificatePath, Path privateKeyPath, char[] privateKeyPassword,
+			long reloadCheckInterval)
+	{
+		if ((certificatePath == null) != (privateKeyPath == null))
+			throw new IllegalArgumentException("Client certificate and private key have to be configured together");
+
+		this.trustStorePath = trustStorePath;
+		this.certificatePath = certificatePath;
+		this.privateKeyPath = privateKeyPath;
+		this.privateKeyPassword = privateKeyPassword;
+
+		fileChangeMonitor = new FileChangeMonitor(Arrays.asList(trustStorePath, certificatePath, privateKeyPath),
+				reloadCheckInterval);
+	}
+
+	/**
+	 * @return cached SSL context, recreated if one of the PEM files changed, the previous context is kept if the
+	 *         changed files can not be read, e.g. while a mounted secret is only partially updated
+	 * @throws IOException
+	 *             if the first SSL context could not be created
+	 * @throws GeneralSecurityException
+	 *             if the first SSL context could not be created
+	 */
+	public synchronized SSLContext getSslContext() throws IOException, GeneralSecurityException
+	{
+		if (sslContext == null)
+			sslContext = createSslContext();
+		else if (fileChangeMonitor.hasChanged())
+		{
+			try
+			{
+				sslContext = createSslContext();
+				logger.info("PEM files of FHIR store client changed, SSL context reloaded");
+			}
+			catch (IOException | GeneralSecurityException exception)
+			{
+				logger.warn("PEM files of FHIR store client changed, but SSL context could not be reloaded - {}",
+						exception.getMessage());
+			}
+		}
+
+		return sslContext;
+	}
+
+	private SSLContext createSslContext() throws IOException, GeneralSecurityException
+	{
+		TrustManagerFactory trustManagerFactory = TrustManagerFactory
+				.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(trustStorePath == null ? null : createTrustStore());
+
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(certificatePath == null ? null : createKeyManagers(), trustManagerFactory.getTrustManagers(),
+				null);
+
+		return sslContext;
+	}
+
+	private KeyStore createTrustStore() throws IOException, GeneralSecurityException
+	{
+		KeyStore trustStore = KeyStore.getInstance("PKCS12");
+		trustStore.load(null, null);
+
+		List<X509Certificate> certificates = PemReader.readCertificates(trustStorePath);
+		for (int i = 0; i < certificates.size(); i++)
+			trustStore.setCertificateEntry("trusted-" + i, certificates.get(i));
+
+		return trustStore;
+	}
+
+	private KeyManager[] createKeyManagers() throws IOException, GeneralSecurityException
+	{
+		List<X509Certificate> chain = PemReader.readCertificates(certificatePath);
+		PrivateKey privateKey = PemReader.readPrivateKey(privateKeyPath, privateKeyPassword);
+
+		// password only protects the in-memory key store
+		char[] keyStorePassword = UUID.randomUUID().toString().toCharArray();
+
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("client", privateKey, keyStorePassword, chain.toArray(X509Certificate[]::new));
+
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, keyStorePassword);
+
+		return keyManagerFactory.getKeyManagers();
+	}
+}
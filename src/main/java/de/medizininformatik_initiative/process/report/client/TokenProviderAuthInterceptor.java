@@ -0,0 +1,30 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenProvider;
+
+/**
+ * HAPI client interceptor adding a bearer token from a {@link TokenProvider}, e.g. an OAuth2 access token, to every
+ * request.
+ */
+@Interceptor
+public class TokenProviderAuthInterceptor
+{
+	private final TokenProvider tokenProvider;
+
+	public TokenProviderAuthInterceptor(TokenProvider tokenProvider)
+	{
+		this.tokenProvider = tokenProvider;
+	}
+
+	@Hook(Pointcut.CLIENT_REQUEST)
+	public void interceptRequest(IHttpRequest request)
+	{
+		request.addHeader(Constants.HEADER_AUTHORIZATION,
+				Constants.HEADER_AUTHORIZATION_VALPREFIX_BEARER + tokenProvider.getToken());
+	}
+}
@@ -1,6 +1,7 @@
 package de.medizininformatik_initiative.process.report.message;
 
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
@@ -11,8 +12,9 @@ import org.hl7.fhir.r4.model.Task;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractTaskMessageSend;
 import dev.dsf.bpe.v1.variables.Variables;
@@ -23,11 +25,16 @@ import jakarta.ws.rs.core.Response;
 public class SendReport extends AbstractTaskMessageSend implements InitializingBean
 {
 	private final ReportStatusGenerator statusGenerator;
+	private final ScheduledRetry scheduledRetry;
+	private final ReportMetrics metrics;
 
-	public SendReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public SendReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator, ScheduledRetry scheduledRetry,
+			ReportMetrics metrics)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.scheduledRetry = scheduledRetry;
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -35,6 +42,8 @@ public class SendReport extends AbstractTaskMessageSend implements InitializingB
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
+		Objects.requireNonNull(metrics, "metrics");
 	}
 
 	@Override
@@ -55,15 +64,31 @@ public class SendReport extends AbstractTaskMessageSend implements InitializingB
 	@Override
 	protected IdType doSend(FhirWebserviceClient client, Task task)
 	{
-		return client.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-				.create(task);
+		long start = System.nanoTime();
+		String errorCode = null;
+
+		try
+		{
+			return scheduledRetry.withRetry(client.withMinimalReturn()).create(task);
+		}
+		catch (RuntimeException exception)
+		{
+			errorCode = exception.getClass().getSimpleName();
+			throw exception;
+		}
+		finally
+		{
+			metrics.recordDelegate(getClass().getSimpleName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					errorCode);
+		}
 	}
 
 	@Override
-	protected void handleIntermediateThrowEventError(DelegateExecution execution, Variables variables,
-			Exception exception, String errorMessage)
+	protected void handleSendTaskError(DelegateExecution execution, Variables variables, Exception exception,
+			String errorMessage)
 	{
+		scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+
 		Task task = variables.getStartTask();
 
 		if (task != null)
@@ -80,7 +105,7 @@ public class SendReport extends AbstractTaskMessageSend implements InitializingB
 			variables.updateTask(task);
 		}
 
-		super.handleIntermediateThrowEventError(execution, variables, exception, errorMessage);
+		super.handleSendTaskError(execution, variables, exception, errorMessage);
 	}
 
 	@Override
@@ -0,0 +1,104 @@
+package de.medizininformatik_initiative.process.report.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with log-linear buckets similar to HdrHistogram: values below {@value #SUB_BUCKETS} ms
+ * are counted exactly, larger values in {@value #SUB_BUCKETS} linear sub buckets per power of two, limiting the
+ * relative error of percentiles to 12.5%.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param millis
+	 *            negative values are recorded as <code>0</code>
+	 */
+	public void record(long millis)
+	{
+		long value = Math.max(0, millis);
+
+		counts.incrementAndGet(getIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	private static int getIndex(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getUpperBound(int index)
+	{
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+
+		return ((((long) SUB_BUCKETS + subBucket) << shift) + (1L << shift)) - 1;
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getSum()
+	{
+		return sum.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public double getMean()
+	{
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * @param percentile
+	 *            <code>0 &lt; percentile &lt;= 100</code>
+	 * @return upper bound in ms of the bucket containing the percentile, never larger than the recorded maximum,
+	 *         <code>0</code> if no values were recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		long total = count.get();
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+
+			if (seen >= rank)
+				return Math.min(getUpperBound(i), max.get());
+		}
+
+		return max.get();
+	}
+}
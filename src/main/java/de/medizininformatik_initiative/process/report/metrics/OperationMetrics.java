@@ -0,0 +1,153 @@
+package de.medizininformatik_initiative.process.report.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Latency distribution, error codes, retries, hedges and response sizes of a single normalized report search request or
+ * BPMN service delegate.
+ */
+public class OperationMetrics implements OperationMetricsMBean
+{
+	private final String name;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder hedges = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+	private final LongAdder responseBytes = new LongAdder();
+
+	public OperationMetrics(String name)
+	{
+		this.name = name;
+	}
+
+	public void recordLatency(long millis)
+	{
+		latency.record(millis);
+	}
+
+	public void recordError(String code)
+	{
+		errors.computeIfAbsent(code, c -> new LongAdder()).increment();
+	}
+
+	public void recordRetry()
+	{
+		retries.increment();
+	}
+
+	/**
+	 * @param won
+	 *            <code>true</code> if the response of the hedge request was used
+	 */
+	public void recordHedge(boolean won)
+	{
+		hedges.increment();
+
+		if (won)
+			hedgeWins.increment();
+	}
+
+	public void recordResponseBytes(long bytes)
+	{
+		responseBytes.add(bytes);
+	}
+
+	public LatencyHistogram getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * @return error counts sorted by error code
+	 */
+	public Map<String, Long> getErrorCounts()
+	{
+		return errors.entrySet().stream()
+				.collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum(), (a, b) -> a + b, TreeMap::new));
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public long getCount()
+	{
+		return latency.getCount();
+	}
+
+	@Override
+	public long getErrorCount()
+	{
+		return errors.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+
+	@Override
+	public String getErrors()
+	{
+		return getErrorCounts().entrySet().stream().map(e -> e.getKey() + "=" + e.getValue())
+				.collect(Collectors.joining(", "));
+	}
+
+	@Override
+	public long getRetryCount()
+	{
+		return retries.sum();
+	}
+
+	@Override
+	public long getHedgeCount()
+	{
+		return hedges.sum();
+	}
+
+	@Override
+	public long getHedgeWinCount()
+	{
+		return hedgeWins.sum();
+	}
+
+	@Override
+	public long getResponseBytes()
+	{
+		return responseBytes.sum();
+	}
+
+	@Override
+	public double getMeanMillis()
+	{
+		return latency.getMean();
+	}
+
+	@Override
+	public long getMaxMillis()
+	{
+		return latency.getMax();
+	}
+
+	@Override
+	public long getP50Millis()
+	{
+		return latency.getPercentile(50);
+	}
+
+	@Override
+	public long getP95Millis()
+	{
+		return latency.getPercentile(95);
+	}
+
+	@Override
+	public long getP99Millis()
+	{
+		return latency.getPercentile(99);
+	}
+}
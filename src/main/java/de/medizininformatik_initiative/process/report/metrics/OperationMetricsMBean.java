@@ -0,0 +1,39 @@
+package de.medizininformatik_initiative.process.report.metrics;
+
+/**
+ * JMX view of {@link OperationMetrics}, durations in milliseconds.
+ */
+public interface OperationMetricsMBean
+{
+	String getName();
+
+	long getCount();
+
+	long getErrorCount();
+
+	/**
+	 * @return error counts by error code, e.g. <code>500=2, 504=1</code>
+	 */
+	String getErrors();
+
+	long getRetryCount();
+
+	long getHedgeCount();
+
+	/**
+	 * @return number of hedged executions answered first by the hedge request
+	 */
+	long getHedgeWinCount();
+
+	long getResponseBytes();
+
+	double getMeanMillis();
+
+	long getMaxMillis();
+
+	long getP50Millis();
+
+	long getP95Millis();
+
+	long getP99Millis();
+}
@@ -0,0 +1,402 @@
+package de.medizininformatik_initiative.process.report.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+/**
+ * Latency distributions, error codes, retries, hedges and response sizes per normalized report search request and per
+ * BPMN service delegate as well as latency and errors of OAuth2 token requests, shared between report runs. Metrics are
+ * exposed as JMX MBeans in domain {@value #JMX_DOMAIN} if enabled and written to a Prometheus text exposition file
+ * after every measured delegate if a file is configured.
+ */
+public class ReportMetrics implements DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ReportMetrics.class);
+
+	public static final String ERROR_CODE_TIMEOUT = "timeout";
+	public static final String ERROR_CODE_CIRCUIT_OPEN = "circuit_open";
+
+	private static final String JMX_DOMAIN = "de.medizininformatik_initiative.process.report";
+	private static final String JMX_TYPE_SEARCH_REQUEST = "SearchRequest";
+	private static final String JMX_TYPE_DELEGATE = "Delegate";
+	private static final String JMX_TYPE_TOKEN_REQUEST = "TokenRequest";
+	private static final String JMX_TYPE_RATE_LIMIT = "RateLimit";
+
+	private static final String TOKEN_ISSUER_OAUTH2 = "oauth2";
+	private static final String RATE_LIMIT_FHIR_STORE = "fhir-store";
+
+	private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+	@FunctionalInterface
+	public interface Measured<E extends Exception>
+	{
+		void execute() throws E;
+	}
+
+	private final long slowQueryThreshold;
+	private final boolean jmxEnabled;
+	private final Path prometheusFile;
+
+	private final Map<String, OperationMetrics> queries = new ConcurrentHashMap<>();
+	private final Map<String, OperationMetrics> delegates = new ConcurrentHashMap<>();
+	private final Map<String, OperationMetrics> tokenRequests = new ConcurrentHashMap<>();
+	private final Map<String, OperationMetrics> rateLimitWaits = new ConcurrentHashMap<>();
+	private final List<ObjectName> registeredMBeans = new ArrayList<>();
+	private final ResponseSizeInterceptor responseSizeInterceptor = new ResponseSizeInterceptor(this);
+
+	private volatile String fhirStoreReadiness;
+
+	/**
+	 * @param slowQueryThreshold
+	 *            report search requests taking at least this many milliseconds are logged, <code>&lt;= 0</code>
+	 *            disables the slow query log
+	 * @param jmxEnabled
+	 *            <code>true</code> to register MBeans with the platform MBean server
+	 * @param prometheusFile
+	 *            may be <code>null</code>, Prometheus text exposition file written after every measured delegate
+	 */
+	public ReportMetrics(long slowQueryThreshold, boolean jmxEnabled, Path prometheusFile)
+	{
+		this.slowQueryThreshold = slowQueryThreshold;
+		this.jmxEnabled = jmxEnabled;
+		this.prometheusFile = prometheusFile;
+	}
+
+	/**
+	 * @return HAPI client interceptor recording the <code>Content-Length</code> of report search responses
+	 */
+	public Object getResponseSizeInterceptor()
+	{
+		return responseSizeInterceptor;
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>, report search request url relative to the FHIR store base url
+	 * @param millis
+	 *            duration of the request
+	 * @param errorCode
+	 *            <code>null</code> if the request succeeded, HTTP status code, {@value #ERROR_CODE_TIMEOUT} or
+	 *            {@value #ERROR_CODE_CIRCUIT_OPEN} otherwise
+	 */
+	public void recordQuery(String url, long millis, String errorCode)
+	{
+		OperationMetrics metrics = queryMetrics(url);
+		metrics.recordLatency(millis);
+
+		if (errorCode != null)
+			metrics.recordError(errorCode);
+
+		if (slowQueryThreshold > 0 && millis >= slowQueryThreshold)
+			logger.warn("Slow report search request '{}' took {} ms{}, p95 of request {} ms", url, millis,
+					errorCode == null ? "" : " and failed with " + errorCode, metrics.getP95Millis());
+	}
+
+	public void recordQueryRetry(String url)
+	{
+		queryMetrics(url).recordRetry();
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>, report search request url relative to the FHIR store base url
+	 * @param won
+	 *            <code>true</code> if the response of the hedge request was used
+	 */
+	public void recordQueryHedge(String url, boolean won)
+	{
+		queryMetrics(url).recordHedge(won);
+	}
+
+	public void recordQueryResponseBytes(String url, long bytes)
+	{
+		queryMetrics(url).recordResponseBytes(bytes);
+	}
+
+	private OperationMetrics queryMetrics(String url)
+	{
+		return queries.computeIfAbsent(SearchUrl.canonicalize(url), q -> register(JMX_TYPE_SEARCH_REQUEST, q));
+	}
+
+	/**
+	 * @param delegate
+	 *            not <code>null</code>, name of the delegate
+	 * @param millis
+	 *            duration of the delegate
+	 * @param errorCode
+	 *            <code>null</code> if the delegate succeeded, e.g. exception class name otherwise
+	 */
+	public void recordDelegate(String delegate, long millis, String errorCode)
+	{
+		OperationMetrics metrics = delegates.computeIfAbsent(delegate, d -> register(JMX_TYPE_DELEGATE, d));
+		metrics.recordLatency(millis);
+
+		if (errorCode != null)
+			metrics.recordError(errorCode);
+
+		writePrometheusFile();
+	}
+
+	/**
+	 * @param delegate
+	 *            not <code>null</code>, name of the delegate with a scheduled retry
+	 */
+	public void recordDelegateRetry(String delegate)
+	{
+		delegates.computeIfAbsent(delegate, d -> register(JMX_TYPE_DELEGATE, d)).recordRetry();
+	}
+
+	/**
+	 * Executes and measures the given delegate code, exceptions are recorded with their class name and rethrown.
+	 */
+	public <E extends Exception> void measureDelegate(String delegate, Measured<E> measured) throws E
+	{
+		long start = System.nanoTime();
+		try
+		{
+			measured.execute();
+			recordDelegate(delegate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), null);
+		}
+		catch (Exception exception)
+		{
+			recordDelegate(delegate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					exception.getClass().getSimpleName());
+			throw exception;
+		}
+	}
+
+	/**
+	 * @param millis
+	 *            duration of the request to the OAuth2 token endpoint
+	 * @param errorCode
+	 *            <code>null</code> if the request succeeded, e.g. exception class name otherwise
+	 */
+	public void recordTokenRequest(long millis, String errorCode)
+	{
+		OperationMetrics metrics = tokenRequests.computeIfAbsent(TOKEN_ISSUER_OAUTH2,
+				i -> register(JMX_TYPE_TOKEN_REQUEST, i));
+		metrics.recordLatency(millis);
+
+		if (errorCode != null)
+			metrics.recordError(errorCode);
+	}
+
+	/**
+	 * @param millis
+	 *            time a request to the FHIR store waited for the request rate and in flight limits
+	 */
+	public void recordRateLimitWait(long millis)
+	{
+		rateLimitWaits.computeIfAbsent(RATE_LIMIT_FHIR_STORE, l -> register(JMX_TYPE_RATE_LIMIT, l))
+				.recordLatency(millis);
+	}
+
+	/**
+	 * @param state
+	 *            not <code>null</code>, readiness state of the FHIR store connection test
+	 */
+	public void recordFhirStoreReadiness(String state)
+	{
+		fhirStoreReadiness = state;
+
+		writePrometheusFile();
+	}
+
+	public String getFhirStoreReadiness()
+	{
+		return fhirStoreReadiness;
+	}
+
+	public Collection<OperationMetrics> getQueryMetrics()
+	{
+		return queries.values();
+	}
+
+	public Collection<OperationMetrics> getDelegateMetrics()
+	{
+		return delegates.values();
+	}
+
+	public Collection<OperationMetrics> getTokenRequestMetrics()
+	{
+		return tokenRequests.values();
+	}
+
+	public Collection<OperationMetrics> getRateLimitWaitMetrics()
+	{
+		return rateLimitWaits.values();
+	}
+
+	private OperationMetrics register(String type, String name)
+	{
+		OperationMetrics metrics = new OperationMetrics(name);
+
+		if (jmxEnabled)
+		{
+			try
+			{
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName objectName = new ObjectName(
+						JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+
+				try
+				{
+					server.registerMBean(new StandardMBean(metrics, OperationMetricsMBean.class), objectName);
+				}
+				catch (InstanceAlreadyExistsException exception)
+				{
+					// left over from a previous deployment of the plugin
+					server.unregisterMBean(objectName);
+					server.registerMBean(new StandardMBean(metrics, OperationMetricsMBean.class), objectName);
+				}
+
+				synchronized (registeredMBeans)
+				{
+					registeredMBeans.add(objectName);
+				}
+			}
+			catch (JMException exception)
+			{
+				logger.warn("Could not register MBean for {} '{}' - {}", type, name, exception.getMessage());
+			}
+		}
+
+		return metrics;
+	}
+
+	@Override
+	public void destroy() throws Exception
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		synchronized (registeredMBeans)
+		{
+			for (ObjectName objectName : registeredMBeans)
+			{
+				if (server.isRegistered(objectName))
+					server.unregisterMBean(objectName);
+			}
+
+			registeredMBeans.clear();
+		}
+	}
+
+	private synchronized void writePrometheusFile()
+	{
+		if (prometheusFile == null)
+			return;
+
+		StringBuilder b = new StringBuilder();
+		appendMetrics(b, "report_search_request", "query", queries.values(), true, true);
+		appendCounter(b, "report_search_request_hedges_total", "Hedged query executions", "query", queries.values(),
+				OperationMetrics::getHedgeCount);
+		appendCounter(b, "report_search_request_hedge_wins_total",
+				"Hedged query executions answered first by the hedge request", "query", queries.values(),
+				OperationMetrics::getHedgeWinCount);
+		appendMetrics(b, "report_delegate", "delegate", delegates.values(), true, false);
+		appendMetrics(b, "report_token_request", "issuer", tokenRequests.values(), false, false);
+		appendMetrics(b, "report_rate_limit_wait", "limit", rateLimitWaits.values(), false, false);
+
+		String readiness = fhirStoreReadiness;
+		if (readiness != null)
+		{
+			b.append("# HELP report_fhir_store_readiness Readiness state of the FHIR store connection test\n");
+			b.append("# TYPE report_fhir_store_readiness gauge\n");
+			b.append("report_fhir_store_readiness{state=\"").append(escape(readiness)).append("\"} 1\n");
+		}
+
+		try
+		{
+			Path temp = prometheusFile.resolveSibling(prometheusFile.getFileName() + ".tmp");
+			Files.writeString(temp, b, StandardCharsets.UTF_8);
+			Files.move(temp, prometheusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not write report metrics to '{}' - {}", prometheusFile.toString(),
+					exception.getMessage());
+		}
+	}
+
+	private void appendMetrics(StringBuilder b, String prefix, String label, Collection<OperationMetrics> metrics,
+			boolean withRetries, boolean withResponseBytes)
+	{
+		String duration = prefix + "_duration_seconds";
+		b.append("# HELP ").append(duration).append(" Duration of ").append(label).append(" executions\n");
+		b.append("# TYPE ").append(duration).append(" summary\n");
+		for (OperationMetrics m : metrics)
+		{
+			String name = label + "=\"" + escape(m.getName()) + "\"";
+
+			for (double quantile : QUANTILES)
+				b.append(duration).append('{').append(name).append(",quantile=\"").append(quantile).append("\"} ")
+						.append(toSeconds(m.getLatency().getPercentile(quantile * 100))).append('\n');
+
+			b.append(duration).append("_sum{").append(name).append("} ").append(toSeconds(m.getLatency().getSum()))
+					.append('\n');
+			b.append(duration).append("_count{").append(name).append("} ").append(m.getCount()).append('\n');
+		}
+
+		String errors = prefix + "_errors_total";
+		b.append("# HELP ").append(errors).append(" Failed ").append(label).append(" executions by error code\n");
+		b.append("# TYPE ").append(errors).append(" counter\n");
+		for (OperationMetrics m : metrics)
+		{
+			m.getErrorCounts()
+					.forEach((code, count) -> b.append(errors).append('{').append(label).append("=\"")
+							.append(escape(m.getName())).append("\",code=\"").append(escape(code)).append("\"} ")
+							.append(count).append('\n'));
+		}
+
+		if (withRetries)
+			appendCounter(b, prefix + "_retries_total", "Retried " + label + " executions", label, metrics,
+					OperationMetrics::getRetryCount);
+
+		if (withResponseBytes)
+			appendCounter(b, prefix + "_response_bytes_total", "Response bytes of " + label + " executions", label,
+					metrics, OperationMetrics::getResponseBytes);
+	}
+
+	private void appendCounter(StringBuilder b, String counter, String help, String label,
+			Collection<OperationMetrics> metrics, ToLongFunction<OperationMetrics> value)
+	{
+		b.append("# HELP ").append(counter).append(' ').append(help).append('\n');
+		b.append("# TYPE ").append(counter).append(" counter\n");
+		for (OperationMetrics m : metrics)
+			b.append(counter).append('{').append(label).append("=\"").append(escape(m.getName())).append("\"} ")
+					.append(value.applyAsLong(m)).append('\n');
+	}
+
+	private String toSeconds(long millis)
+	{
+		return String.valueOf(millis / 1000d);
+	}
+
+	private String escape(String labelValue)
+	{
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
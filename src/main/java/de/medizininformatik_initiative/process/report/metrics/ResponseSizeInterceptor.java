@@ -0,0 +1,55 @@
+package de.medizininformatik_initiative.process.report.metrics;
+
+import java.util.List;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.client.api.IRestfulClient;
+
+/**
+ * Records the <code>Content-Length</code> of GET responses as response size of the report search request, chunked
+ * responses without <code>Content-Length</code> are not recorded.
+ */
+@Interceptor
+public class ResponseSizeInterceptor
+{
+	private static final String HTTP_GET = "GET";
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+	private final ReportMetrics metrics;
+
+	public ResponseSizeInterceptor(ReportMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	@Hook(Pointcut.CLIENT_RESPONSE)
+	public void interceptResponse(IHttpRequest request, IHttpResponse response, IRestfulClient client)
+	{
+		if (!HTTP_GET.equals(request.getHttpVerbName()))
+			return;
+
+		String uri = request.getUri();
+		String serverBase = client.getServerBase();
+		if (uri == null || serverBase == null || !uri.startsWith(serverBase))
+			return;
+
+		List<String> contentLength = response.getHeaders(HEADER_CONTENT_LENGTH);
+		if (contentLength == null || contentLength.isEmpty())
+			return;
+
+		try
+		{
+			String url = uri.substring(serverBase.length());
+			metrics.recordQueryResponseBytes(url.startsWith("/") ? url.substring(1) : url,
+					Long.parseLong(contentLength.get(0).trim()));
+		}
+		catch (NumberFormatException exception)
+		{
+			// invalid Content-Length header, nothing to record
+		}
+	}
+}
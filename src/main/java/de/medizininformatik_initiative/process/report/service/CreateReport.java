@@ -1,13 +1,30 @@
 package de.medizininformatik_initiative.process.report.service;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.BooleanType;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CapabilityStatement;
 import org.hl7.fhir.r4.model.IdType;
@@ -20,11 +37,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
 import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import de.medizininformatik_initiative.process.report.ConstantsReport;
-import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.process.report.client.AdaptiveConcurrencyLimiter;
+import de.medizininformatik_initiative.process.report.client.CapabilityStatementClient;
+import de.medizininformatik_initiative.process.report.client.CircuitBreaker;
+import de.medizininformatik_initiative.process.report.client.CountCache;
+import de.medizininformatik_initiative.process.report.client.CountClient;
+import de.medizininformatik_initiative.process.report.client.FhirStoreClient;
+import de.medizininformatik_initiative.process.report.client.RequestHedging;
+import de.medizininformatik_initiative.process.report.client.RequestRateLimiter;
+import de.medizininformatik_initiative.process.report.client.SearchBudget;
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlan;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Target;
@@ -36,19 +70,66 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 	private static final Logger logger = LoggerFactory.getLogger(CreateReport.class);
 
 	private static final String RESPONSE_OK = "200";
+	private static final String RESPONSE_SERVICE_UNAVAILABLE = "503";
+	private static final String RESPONSE_TIMEOUT = "504";
+	private static final int RESPONSE_TOO_MANY_REQUESTS = 429;
+	private static final int RESPONSE_SERVER_ERROR = 500;
+	private static final Set<Integer> STORE_UNAVAILABLE_STATUS_CODES = Set.of(502, 503, 504);
 
 	private final String resourceVersion;
-	private final FhirClientFactory fhirClientFactory;
+	private final FhirStoreClient fhirStoreClient;
 	private final DataLogger dataLogger;
+	private final int searchParallelism;
+	private final boolean searchBatchEnabled;
+	private final int searchBatchSize;
+	private final RequestRateLimiter rateLimiter;
+	private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+	private final CircuitBreaker circuitBreaker;
+	private final RequestHedging requestHedging;
+	private final SearchTimeouts searchTimeouts;
+	private final SearchDurations searchDurations;
+	private final long searchTimeoutTotal;
+	private final CountCache countCache;
+	private final CountClient countClient;
+	private final CapabilityStatementClient capabilityStatementClient;
+	private final SearchBundlePlanCache planCache;
+	private final SearchJournal searchJournal;
+	private final ResourceVariableStore resourceVariableStore;
+	private final ScheduledRetry scheduledRetry;
+	private final ReportMetrics metrics;
 
-	public CreateReport(ProcessPluginApi api, String resourceVersion, FhirClientFactory fhirClientFactory,
-			DataLogger dataLogger)
+	public CreateReport(ProcessPluginApi api, String resourceVersion, FhirStoreClient fhirStoreClient,
+			DataLogger dataLogger, int searchParallelism, boolean searchBatchEnabled, int searchBatchSize,
+			RequestRateLimiter rateLimiter, AdaptiveConcurrencyLimiter concurrencyLimiter,
+			CircuitBreaker circuitBreaker, RequestHedging requestHedging, SearchTimeouts searchTimeouts,
+			SearchDurations searchDurations, long searchTimeoutTotal, CountCache countCache, CountClient countClient,
+			CapabilityStatementClient capabilityStatementClient, SearchBundlePlanCache planCache,
+			SearchJournal searchJournal, ResourceVariableStore resourceVariableStore, ScheduledRetry scheduledRetry,
+			ReportMetrics metrics)
 	{
 		super(api);
 
 		this.resourceVersion = resourceVersion;
-		this.fhirClientFactory = fhirClientFactory;
+		this.fhirStoreClient = fhirStoreClient;
 		this.dataLogger = dataLogger;
+		this.searchParallelism = searchParallelism;
+		this.searchBatchEnabled = searchBatchEnabled;
+		this.searchBatchSize = searchBatchSize;
+		this.rateLimiter = rateLimiter;
+		this.concurrencyLimiter = concurrencyLimiter;
+		this.circuitBreaker = circuitBreaker;
+		this.requestHedging = requestHedging;
+		this.searchTimeouts = searchTimeouts;
+		this.searchDurations = searchDurations;
+		this.searchTimeoutTotal = searchTimeoutTotal;
+		this.countCache = countCache;
+		this.countClient = countClient;
+		this.capabilityStatementClient = capabilityStatementClient;
+		this.planCache = planCache;
+		this.searchJournal = searchJournal;
+		this.resourceVariableStore = resourceVariableStore;
+		this.scheduledRetry = scheduledRetry;
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -57,33 +138,85 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 		super.afterPropertiesSet();
 
 		Objects.requireNonNull(resourceVersion, "resourceVersion");
-		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(fhirStoreClient, "fhirStoreClient");
 		Objects.requireNonNull(dataLogger, "dataLogger");
+		Objects.requireNonNull(rateLimiter, "rateLimiter");
+		Objects.requireNonNull(concurrencyLimiter, "concurrencyLimiter");
+		Objects.requireNonNull(circuitBreaker, "circuitBreaker");
+		Objects.requireNonNull(requestHedging, "requestHedging");
+		Objects.requireNonNull(searchTimeouts, "searchTimeouts");
+		Objects.requireNonNull(searchDurations, "searchDurations");
+		Objects.requireNonNull(countCache, "countCache");
+		Objects.requireNonNull(countClient, "countClient");
+		Objects.requireNonNull(capabilityStatementClient, "capabilityStatementClient");
+		Objects.requireNonNull(planCache, "planCache");
+		Objects.requireNonNull(searchJournal, "searchJournal");
+		Objects.requireNonNull(resourceVariableStore, "resourceVariableStore");
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
+		Objects.requireNonNull(metrics, "metrics");
+
+		if (searchParallelism < 1)
+			throw new IllegalArgumentException("searchParallelism < 1");
+
+		if (searchBatchSize < 0)
+			throw new IllegalArgumentException("searchBatchSize < 0");
 	}
 
 	@Override
 	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		metrics.measureDelegate(getClass().getSimpleName(), () -> createReport(execution, variables));
+	}
+
+	private void createReport(DelegateExecution execution, Variables variables)
 	{
 		Task task = variables.getStartTask();
-		Bundle searchBundle = variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
+		Bundle searchBundle = resourceVariableStore.getResource(execution, variables,
+				ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
 		Target target = variables.getTarget();
 
+		// set if storing the report Bundle failed before a scheduled retry
+		Bundle reportBundle = resourceVariableStore.getResource(execution, variables,
+				ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_BUNDLE);
+
 		try
 		{
-			Bundle responseBundle = executeSearchBundle(searchBundle, target.getOrganizationIdentifierValue());
+			SearchBundlePlan plan = planCache.get(searchBundle);
+
+			if (reportBundle == null)
+			{
+				Bundle responseBundle = executeSearchBundle(plan, task.getIdElement().getIdPart(),
+						target.getOrganizationIdentifierValue(), isForceRefresh(task));
 
-			Bundle reportBundle = transformToReportBundle(searchBundle, responseBundle, target);
-			dataLogger.logResource("Report Bundle", reportBundle);
+				reportBundle = transformToReportBundle(searchBundle, responseBundle, target);
+				dataLogger.logResource("Report Bundle", reportBundle);
 
-			checkReportBundle(searchBundle, reportBundle, target.getOrganizationIdentifierValue());
+				checkReportBundle(searchBundle, reportBundle, target.getOrganizationIdentifierValue());
+			}
+			else
+				logger.info("Using report Bundle created before scheduled retry for HRP '{}' in Task with id '{}'",
+						target.getOrganizationIdentifierValue(), task.getId());
 
 			String reportReference = storeReportBundle(reportBundle, target.getOrganizationIdentifierValue(),
 					task.getId());
 			variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE,
 					reportReference);
+
+			searchJournal.remove(task.getIdElement().getIdPart(), plan);
 		}
 		catch (Exception exception)
 		{
+			// searches are only retried if completed searches are journaled, storing the report Bundle is retried
+			// without executing searches again
+			if ((reportBundle != null || searchJournal.isEnabled())
+					&& scheduledRetry.canRetry(execution, variables, exception))
+			{
+				if (reportBundle != null)
+					resourceVariableStore.setResource(execution, variables,
+							ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_BUNDLE, reportBundle);
+				scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+			}
+
 			logger.warn("Could not create report for HRP '{}' in Task with id '{}' - {}",
 					target.getOrganizationIdentifierValue(), task.getId(), exception.getMessage());
 			throw new RuntimeException("Could not create report for HRP '" + target.getOrganizationIdentifierValue()
@@ -91,53 +224,748 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 		}
 	}
 
-	private Bundle executeSearchBundle(Bundle searchBundle, String hrpIdentifier)
+	private boolean isForceRefresh(Task task)
 	{
+		return api.getTaskHelper()
+				.getFirstInputParameterValue(task, ConstantsReport.CODESYSTEM_REPORT,
+						ConstantsReport.CODESYSTEM_REPORT_VALUE_FORCE_REFRESH, BooleanType.class)
+				.map(BooleanType::booleanValue).orElse(false);
+	}
+
+	private Bundle executeSearchBundle(SearchBundlePlan plan, String taskId, String hrpIdentifier, boolean forceRefresh)
+	{
+		String storeBaseUrl = fhirStoreClient.getFhirBaseUrl();
 		logger.info(
 				"Executing search Bundle from HRP '{}' against FHIR store with base url '{}' - this could take a while...",
-				hrpIdentifier, fhirClientFactory.getFhirClient().getFhirBaseUrl());
+				hrpIdentifier, storeBaseUrl);
 
 		Bundle responseBundle = new Bundle();
 		responseBundle.setType(Bundle.BundleType.BATCHRESPONSE);
 
-		searchBundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasRequest)
-				.map(Bundle.BundleEntryComponent::getRequest)
-				.filter(r -> r.hasUrl() && r.hasMethod() && Bundle.HTTPVerb.GET.equals(r.getMethod()))
-				.map(Bundle.BundleEntryRequestComponent::getUrl).map(this::executeRequest)
-				.forEach(responseBundle::addEntry);
+		List<String> urls = plan.urls();
+
+		try (SearchBudget budget = new SearchBudget(searchTimeoutTotal);
+				SearchJournal.Journal journal = searchJournal.open(taskId, plan))
+		{
+			// entries completed before the report was interrupted are not executed again, even if refresh is forced
+			Map<Integer, Bundle.BundleEntryComponent> cached = new HashMap<>();
+			journal.getCompleted().forEach((index, checkpoint) -> cached.put(index,
+					toEntryComponent(checkpoint.total(), checkpoint.lastUpdated())));
+
+			if (!forceRefresh)
+			{
+				Map<Integer, Bundle.BundleEntryComponent> countCacheEntries = getCachedEntries(urls, cached.keySet(),
+						storeBaseUrl, budget);
+				countCacheEntries.forEach((index, entry) -> journal.record(urls.get(index), entry));
+				cached.putAll(countCacheEntries);
+			}
+			else if (countCache.isEnabled())
+				logger.info("Refresh of all report search requests from HRP '{}' forced by Task input", hrpIdentifier);
+
+			List<Integer> pendingIndices = IntStream.range(0, urls.size()).filter(i -> !cached.containsKey(i)).boxed()
+					.toList();
+
+			List<Bundle.BundleEntryComponent> executed = executeDistinctRequests(
+					pendingIndices.stream().map(urls::get).toList(),
+					pendingIndices.stream().map(plan.canonicalUrls()::get).toList(), storeBaseUrl, budget, journal,
+					hrpIdentifier);
+
+			// partial reports are not stored, completed requests are journaled and not executed again when retried
+			long rejected = executed.stream().filter(this::isRejected).count();
+			if (rejected > 0)
+				throw new FhirClientConnectionException(
+						rejected + " of " + urls.size() + " report search requests from HRP '" + hrpIdentifier
+								+ "' rejected - FHIR store circuit breaker open");
+
+			long timedOut = executed.stream().filter(this::isTimedOut).count();
+			if (timedOut > 0)
+				logger.warn("{} of {} report search requests from HRP '{}' timed out", timedOut, urls.size(),
+						hrpIdentifier);
+
+			for (int i = 0, pending = 0; i < urls.size(); i++)
+				responseBundle.addEntry(cached.containsKey(i) ? cached.get(i) : executed.get(pending++));
+		}
+
+		if (concurrencyLimiter.isEnabled())
+			logger.info(
+					"FHIR store concurrency limit after executing search Bundle from HRP '{}' is {}, average latency {} ms",
+					hrpIdentifier, concurrencyLimiter.getLimit(),
+					TimeUnit.NANOSECONDS.toMillis(concurrencyLimiter.getAverageLatency()));
 
 		return responseBundle;
 	}
 
-	private Bundle.BundleEntryComponent executeRequest(String url)
+	private List<Bundle.BundleEntryComponent> executeDistinctRequests(List<String> urls, List<String> canonicalUrls,
+			String storeBaseUrl, SearchBudget budget, SearchJournal.Journal journal, String hrpIdentifier)
+	{
+		// semantically identical requests are executed once, the first url of each canonical url is executed
+		Map<String, List<Integer>> indicesByCanonicalUrl = IntStream.range(0, urls.size()).boxed()
+				.collect(Collectors.groupingBy(canonicalUrls::get, LinkedHashMap::new, Collectors.toList()));
+		List<String> distinctUrls = indicesByCanonicalUrl.values().stream().map(indices -> urls.get(indices.get(0)))
+				.toList();
+
+		logger.info("Eliminated {} duplicate report search requests from HRP '{}', executing {} distinct requests",
+				urls.size() - distinctUrls.size(), hrpIdentifier, distinctUrls.size());
+
+		// batch requests are scheduled by the FHIR store, durations are only predicted for separate requests
+		if (searchDurations.isEnabled() && !searchBatchEnabled && !distinctUrls.isEmpty())
+		{
+			int threads = Math.min(searchParallelism, distinctUrls.size());
+			SearchDurations.Prediction prediction = searchDurations.predict(distinctUrls, threads);
+
+			logger.info(
+					"Predicted duration of {} report search requests from HRP '{}' using {} parallel threads is {} s, {} requests without duration history",
+					distinctUrls.size(), hrpIdentifier, threads, TimeUnit.MILLISECONDS.toSeconds(prediction.millis()),
+					prediction.unknown());
+		}
+
+		long executionStart = System.currentTimeMillis();
+		List<Bundle.BundleEntryComponent> distinctEntries = new ArrayList<>(
+				searchBatchEnabled ? executeRequestsAsBatch(distinctUrls, budget, journal)
+						: executeRequests(distinctUrls, budget, journal));
+
+		if (searchTimeouts.isEnabled())
+			retryTimedOutRequests(distinctUrls, distinctEntries, budget, journal);
+
+		updateCountCache(storeBaseUrl, distinctUrls, distinctEntries, executionStart);
+		searchDurations.save();
+
+		logger.info("Executed {} report search requests from HRP '{}' in {} s", distinctUrls.size(), hrpIdentifier,
+				TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - executionStart));
+
+		Bundle.BundleEntryComponent[] entries = new Bundle.BundleEntryComponent[urls.size()];
+		int distinctIndex = 0;
+		for (List<Integer> indices : indicesByCanonicalUrl.values())
+		{
+			Bundle.BundleEntryComponent entry = distinctEntries.get(distinctIndex++);
+			indices.forEach(i -> entries[i] = entry.copy());
+		}
+
+		return Arrays.asList(entries);
+	}
+
+	private Map<Integer, Bundle.BundleEntryComponent> getCachedEntries(List<String> urls, Set<Integer> completed,
+			String storeBaseUrl, SearchBudget budget)
+	{
+		if (!countCache.isEnabled())
+			return Map.of();
+
+		Map<Integer, CountCache.Entry> candidates = new HashMap<>();
+		for (int i = 0; i < urls.size(); i++)
+		{
+			if (completed.contains(i))
+				continue;
+
+			// changes are probed since the FHIR store time of the cached response, not the time of the BPE
+			int index = i;
+			countCache.get(storeBaseUrl, urls.get(i)).filter(entry -> entry.getLastUpdated() != null)
+					.ifPresent(entry -> candidates.put(index, entry));
+		}
+
+		// one change probe per resource type, cached totals are only used if nothing changed since they were cached
+		Map<String, List<Integer>> candidatesByResourceType = candidates.keySet().stream()
+				.collect(Collectors.groupingBy(i -> getResourceType(urls.get(i))));
+
+		Map<Integer, Bundle.BundleEntryComponent> cached = new HashMap<>();
+		candidatesByResourceType.forEach((resourceType, indices) ->
+		{
+			long since = indices.stream().mapToLong(i -> candidates.get(i).getLastUpdated().getTime()).min().orElse(0);
+
+			if (isUnchangedSince(resourceType, since, budget))
+				indices.forEach(i -> cached.put(i, toEntryComponent(candidates.get(i))));
+		});
+
+		int cacheable = (int) urls.stream().filter(countCache::isCacheable).count();
+		countCache.recordHits(cached.size());
+		countCache.recordMisses(cacheable - cached.size());
+
+		logger.info(
+				"Using {} of {} cached report search request totals for FHIR store with base url '{}', {} hits and {} misses since startup",
+				cached.size(), cacheable, storeBaseUrl, countCache.getHits(), countCache.getMisses());
+
+		return cached;
+	}
+
+	private String getResourceType(String url)
+	{
+		int query = url.indexOf('?');
+		return query < 0 ? url : url.substring(0, query);
+	}
+
+	/**
+	 * The history of the resource type also contains deleted resources, a <code>_lastUpdated</code> search would not
+	 * find them. A response without total is handled as changed.
+	 *
+	 * @param since
+	 *            epoch milliseconds of the FHIR store
+	 */
+	private boolean isUnchangedSince(String resourceType, long since, SearchBudget budget)
+	{
+		String probeUrl = resourceType + "/_history?_since=" + Instant.ofEpochMilli(since).toString()
+				+ "&_summary=count";
+		Optional<Resource> probe = executeProbe(probeUrl, budget);
+
+		boolean unchanged = probe.isPresent() && probe.get() instanceof Bundle probeBundle && probeBundle.hasTotal()
+				&& probeBundle.getTotal() == 0;
+		logger.debug("Resources of type {} {} since {}", resourceType, unchanged ? "unchanged" : "changed",
+				Instant.ofEpochMilli(since).toString());
+
+		return unchanged;
+	}
+
+	/**
+	 * Probe requests are counted against the circuit breaker and the concurrency limit like any other request. The
+	 * probe url changes with every report, so probes are neither hedged nor recorded in the per query timeouts,
+	 * durations, latency histograms and metrics, and do not adjust the concurrency limit.
+	 *
+	 * @return empty if the probe request failed, timed out or was rejected
+	 */
+	private Optional<Resource> executeProbe(String url, SearchBudget budget)
+	{
+		if (budget.isExhausted() || !circuitBreaker.tryAcquire())
+		{
+			logger.debug("Report change probe request '{}' not executed - search budget exhausted or circuit open",
+					url);
+			return Optional.empty();
+		}
+
+		CircuitBreaker.Outcome breakerOutcome = CircuitBreaker.Outcome.IGNORED;
+		long start = acquireLimits();
+
+		// never escalated, the initial query timeout
+		long timeout = budget.getTimeout(searchTimeouts.getTimeout(url));
+		try
+		{
+			logger.debug("Executing report change probe request '{}'", url);
+
+			Resource result = budget.execute(RequestRateLimiter.permitted(() -> search(url)), timeout);
+			breakerOutcome = CircuitBreaker.Outcome.SUCCESS;
+
+			return Optional.of(result);
+		}
+		catch (TimeoutException exception)
+		{
+			logger.warn("Report change probe request '{}' timed out after {} ms", url, timeout);
+			return Optional.empty();
+		}
+		catch (BaseServerResponseException exception)
+		{
+			logger.warn("Could not execute report change probe request '{}' - {}", url, exception.getMessage());
+			breakerOutcome = isStoreFailure(exception) ? CircuitBreaker.Outcome.FAILURE
+					: CircuitBreaker.Outcome.SUCCESS;
+
+			return Optional.empty();
+		}
+		finally
+		{
+			concurrencyLimiter.release(url, start, AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+			rateLimiter.release();
+			circuitBreaker.release(breakerOutcome);
+		}
+	}
+
+	private Bundle.BundleEntryComponent toEntryComponent(CountCache.Entry entry)
 	{
+		return toEntryComponent(entry.getTotal(), entry.getLastUpdated());
+	}
+
+	private Bundle.BundleEntryComponent toEntryComponent(int total, Date lastUpdated)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(total);
+		bundle.getMeta().setLastUpdated(lastUpdated);
+
+		return new Bundle.BundleEntryComponent().setResource(bundle)
+				.setResponse(new Bundle.BundleEntryResponseComponent().setStatus(RESPONSE_OK));
+	}
+
+	private void updateCountCache(String storeBaseUrl, List<String> urls, List<Bundle.BundleEntryComponent> entries,
+			long executionStart)
+	{
+		if (!countCache.isEnabled())
+			return;
+
+		for (int i = 0; i < urls.size(); i++)
+		{
+			Bundle.BundleEntryComponent entry = entries.get(i);
+
+			if (RESPONSE_OK.equals(entry.getResponse().getStatus()) && entry.getResource() instanceof Bundle bundle)
+				countCache.put(storeBaseUrl, urls.get(i),
+						new CountCache.Entry(bundle.getTotal(), bundle.getMeta().getLastUpdated(), executionStart));
+		}
+
+		countCache.save(storeBaseUrl);
+	}
+
+	private void retryTimedOutRequests(List<String> urls, List<Bundle.BundleEntryComponent> entries,
+			SearchBudget budget, SearchJournal.Journal journal)
+	{
+		List<Integer> timedOut = IntStream.range(0, entries.size()).filter(i -> isTimedOut(entries.get(i))).boxed()
+				.toList();
+
+		if (timedOut.isEmpty() || budget.isExhausted())
+			return;
+
+		logger.info("Retrying {} timed out report search requests with escalated timeouts", timedOut.size());
+
+		List<String> retryUrls = timedOut.stream().map(urls::get).toList();
+		retryUrls.forEach(metrics::recordQueryRetry);
+
+		List<Bundle.BundleEntryComponent> retried = executeRequests(retryUrls, budget, journal);
+		for (int i = 0; i < timedOut.size(); i++)
+			entries.set(timedOut.get(i), retried.get(i));
+	}
+
+	private boolean isTimedOut(Bundle.BundleEntryComponent entry)
+	{
+		return RESPONSE_TIMEOUT.equals(entry.getResponse().getStatus());
+	}
+
+	private boolean isRejected(Bundle.BundleEntryComponent entry)
+	{
+		return RESPONSE_SERVICE_UNAVAILABLE.equals(entry.getResponse().getStatus())
+				&& entry.getResponse().getOutcome() instanceof OperationOutcome outcome
+				&& OperationOutcome.IssueType.TRANSIENT.equals(outcome.getIssueFirstRep().getCode());
+	}
+
+	private List<Bundle.BundleEntryComponent> executeRequestsAsBatch(List<String> urls, SearchBudget budget,
+			SearchJournal.Journal journal)
+	{
+		// requests executed by a dedicated client are not part of batch Bundles
+		List<Integer> separateIndices = IntStream.range(0, urls.size()).filter(i -> !isBatchable(urls.get(i))).boxed()
+				.toList();
+		List<String> batchUrls = urls.stream().filter(this::isBatchable).toList();
+
+		int chunkSize = searchBatchSize > 0 ? searchBatchSize : Math.max(batchUrls.size(), 1);
+		List<Bundle.BundleEntryComponent> entries = new ArrayList<>(urls.size());
+
+		for (int from = 0; from < batchUrls.size(); from += chunkSize)
+			entries.addAll(executeBatch(batchUrls.subList(from, Math.min(from + chunkSize, batchUrls.size())), budget,
+					journal));
+
+		List<Bundle.BundleEntryComponent> separateEntries = executeRequests(
+				separateIndices.stream().map(urls::get).toList(), budget, journal);
+		for (int i = 0; i < separateIndices.size(); i++)
+			entries.add(separateIndices.get(i), separateEntries.get(i));
+
+		return entries;
+	}
+
+	private boolean isBatchable(String url)
+	{
+		return !capabilityStatementClient.isEnabled() || !capabilityStatementClient.isCapabilityStatementRequest(url);
+	}
+
+	private List<Bundle.BundleEntryComponent> executeBatch(List<String> urls, SearchBudget budget,
+			SearchJournal.Journal journal)
+	{
+		Bundle batch = new Bundle().setType(Bundle.BundleType.BATCH);
+		urls.forEach(url -> batch.addEntry().getRequest().setMethod(Bundle.HTTPVerb.GET).setUrl(url));
+
+		// separate requests are rejected while the circuit is open
+		if (!circuitBreaker.tryAcquire())
+			return executeRequests(urls, budget, journal);
+
+		Bundle batchResponse;
+		CircuitBreaker.Outcome breakerOutcome = CircuitBreaker.Outcome.IGNORED;
+		try
+		{
+			logger.debug("Executing {} report search requests as batch", urls.size());
+			batchResponse = budget.execute(
+					() -> fhirStoreClient.getGenericFhirClient().transaction().withBundle(batch).execute(),
+					budget.getTimeout(0));
+
+			breakerOutcome = CircuitBreaker.Outcome.SUCCESS;
+		}
+		catch (BaseServerResponseException | TimeoutException exception)
+		{
+			if (exception instanceof BaseServerResponseException serverException)
+				breakerOutcome = isStoreFailure(serverException) ? CircuitBreaker.Outcome.FAILURE
+						: CircuitBreaker.Outcome.SUCCESS;
+
+			logger.warn("Could not execute {} report search requests as batch, executing requests separately - {}",
+					urls.size(), exception.getMessage());
+			return executeRequests(urls, budget, journal);
+		}
+		finally
+		{
+			circuitBreaker.release(breakerOutcome);
+		}
+
+		if (batchResponse == null || batchResponse.getEntry().size() != urls.size())
+		{
+			logger.warn(
+					"Batch response for {} report search requests contains {} entries, executing requests separately",
+					urls.size(), batchResponse == null ? 0 : batchResponse.getEntry().size());
+			return executeRequests(urls, budget, journal);
+		}
+
+		List<Bundle.BundleEntryComponent> entries = new ArrayList<>(urls.size());
+		List<Integer> failed = new ArrayList<>();
+		for (int i = 0; i < urls.size(); i++)
+		{
+			Bundle.BundleEntryComponent batchEntry = batchResponse.getEntry().get(i);
+
+			if (batchEntry.hasResponse() && batchEntry.getResponse().hasStatus()
+					&& batchEntry.getResponse().getStatus().startsWith(RESPONSE_OK) && batchEntry.hasResource())
+			{
+				Bundle.BundleEntryComponent entry = new Bundle.BundleEntryComponent();
+				entry.setResource(batchEntry.getResource());
+				entry.setResponse(new Bundle.BundleEntryResponseComponent().setStatus(RESPONSE_OK));
+				entries.add(entry);
+				journal.record(urls.get(i), entry);
+			}
+			else
+			{
+				failed.add(i);
+				entries.add(null);
+			}
+		}
+
+		if (!failed.isEmpty())
+		{
+			logger.warn("{} of {} report search requests failed in batch, executing failed requests separately",
+					failed.size(), urls.size());
+
+			List<String> retryUrls = failed.stream().map(urls::get).toList();
+			retryUrls.forEach(metrics::recordQueryRetry);
+
+			List<Bundle.BundleEntryComponent> retried = executeRequests(retryUrls, budget, journal);
+			for (int i = 0; i < failed.size(); i++)
+				entries.set(failed.get(i), retried.get(i));
+		}
+
+		return entries;
+	}
+
+	private List<Bundle.BundleEntryComponent> executeRequests(List<String> urls, SearchBudget budget,
+			SearchJournal.Journal journal)
+	{
+		if (searchParallelism > 1 && urls.size() > 1)
+			return executeRequestsParallel(urls, budget, journal);
+		else
+			return urls.stream().map(url -> executeRequest(url, budget, journal)).toList();
+	}
+
+	private List<Bundle.BundleEntryComponent> executeRequestsParallel(List<String> urls, SearchBudget budget,
+			SearchJournal.Journal journal)
+	{
+		int threads = Math.min(searchParallelism, urls.size());
+		logger.debug("Executing {} report search requests using {} parallel threads", urls.size(), threads);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			// requests are dispatched longest expected duration first, futures are collected in search Bundle order,
+			// results therefore keep the entry order
+			List<Future<Bundle.BundleEntryComponent>> futures = new ArrayList<>(Collections.nCopies(urls.size(), null));
+			for (int index : searchDurations.getDispatchOrder(urls))
+				futures.set(index, executor.submit(() -> executeRequest(urls.get(index), budget, journal)));
+
+			return futures.stream().map(this::getResult).toList();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private Bundle.BundleEntryComponent getResult(Future<Bundle.BundleEntryComponent> future)
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while executing report search requests", exception);
+		}
+		catch (ExecutionException exception)
+		{
+			if (exception.getCause() instanceof RuntimeException runtimeException)
+				throw runtimeException;
+			else
+				throw new RuntimeException(exception.getCause());
+		}
+	}
+
+	/**
+	 * @param journal
+	 *            may be <code>null</code>, e.g. for requests not part of the search Bundle
+	 */
+	private Bundle.BundleEntryComponent executeRequest(String url, SearchBudget budget, SearchJournal.Journal journal)
+	{
+		if (budget.isExhausted())
+		{
+			logger.warn("Could not execute report search request '{}' - report search budget exhausted", url);
+			return createErrorEntry(RESPONSE_TIMEOUT, OperationOutcome.IssueType.TIMEOUT,
+					"Report search budget exhausted");
+		}
+
+		if (!circuitBreaker.tryAcquire())
+		{
+			logger.debug("Report search request '{}' rejected - FHIR store circuit breaker open", url);
+			metrics.recordQuery(url, 0, ReportMetrics.ERROR_CODE_CIRCUIT_OPEN);
+			return createErrorEntry(RESPONSE_SERVICE_UNAVAILABLE, OperationOutcome.IssueType.TRANSIENT,
+					"FHIR store circuit breaker open after consecutive failed requests");
+		}
+
 		Bundle.BundleEntryComponent entry = new Bundle.BundleEntryComponent();
 
+		CircuitBreaker.Outcome breakerOutcome = CircuitBreaker.Outcome.IGNORED;
+		long start = acquireLimits();
+
+		AdaptiveConcurrencyLimiter.Outcome limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+
+		long queryTimeout = searchTimeouts.getTimeout(url);
+		long timeout = budget.getTimeout(queryTimeout);
 		try
 		{
 			logger.debug("Executing report search request '{}'", url);
 
-			Resource result = fhirClientFactory.getFhirClient().search(url);
+			Resource result = execute(url, budget, timeout);
 			entry.setResource(result);
 			entry.setResponse(new Bundle.BundleEntryResponseComponent().setStatus(RESPONSE_OK));
+
+			limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+			breakerOutcome = CircuitBreaker.Outcome.SUCCESS;
+
+			long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			searchTimeouts.completed(url, duration);
+			searchDurations.completed(url, duration);
+			requestHedging.completed(url, duration);
+			metrics.recordQuery(url, duration, null);
+
+			if (journal != null)
+				journal.record(url, entry);
+		}
+		catch (TimeoutException exception)
+		{
+			limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.DROPPED;
+
+			// lower bound of the duration, timed out requests are dispatched early in the next report
+			long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			searchDurations.completed(url, duration);
+			metrics.recordQuery(url, duration, ReportMetrics.ERROR_CODE_TIMEOUT);
+
+			if (queryTimeout > 0 && timeout >= queryTimeout)
+			{
+				long escalatedTimeout = searchTimeouts.timedOut(url);
+				logger.warn("Report search request '{}' timed out after {} ms, next timeout {} ms", url, timeout,
+						escalatedTimeout);
+			}
+			else
+				logger.warn("Report search request '{}' timed out after {} ms - report search budget exhausted", url,
+						timeout);
+
+			return createErrorEntry(RESPONSE_TIMEOUT, OperationOutcome.IssueType.TIMEOUT,
+					"Report search request timed out after " + timeout + " ms");
 		}
 		catch (BaseServerResponseException exception)
 		{
 			logger.warn("Could not execute report search request '{}' - {}", url, exception.getMessage());
+			metrics.recordQuery(url, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					String.valueOf(exception.getStatusCode()));
+
+			if (isOverloaded(exception))
+				limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.DROPPED;
 
-			OperationOutcome outcome = new OperationOutcome();
-			outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
-					.setCode(OperationOutcome.IssueType.EXCEPTION).setDiagnostics(exception.getMessage());
-			Bundle.BundleEntryResponseComponent response = new Bundle.BundleEntryResponseComponent()
-					.setStatus(String.valueOf(exception.getStatusCode())).setOutcome(outcome);
+			breakerOutcome = isStoreFailure(exception) ? CircuitBreaker.Outcome.FAILURE
+					: CircuitBreaker.Outcome.SUCCESS;
 
-			entry.setResponse(response);
+			// completed requests are journaled, the report is resumed by a scheduled retry instead of reporting the
+			// unavailable FHIR store
+			if (journal != null && journal.isEnabled() && isStoreUnavailable(exception))
+				throw exception;
+
+			return createErrorEntry(String.valueOf(exception.getStatusCode()), OperationOutcome.IssueType.EXCEPTION,
+					exception.getMessage());
+		}
+		finally
+		{
+			concurrencyLimiter.release(url, start, limiterOutcome);
+			rateLimiter.release();
+			circuitBreaker.release(breakerOutcome);
 		}
 
 		return entry;
 	}
 
-	private Bundle transformToReportBundle(Bundle searchBundle, Bundle responseBundle, Target target)
+	private Resource execute(String url, SearchBudget budget, long timeout) throws TimeoutException
+	{
+		// only idempotent count requests are hedged
+		long hedgeDelay = SearchUrl.isCountRequest(url) ? requestHedging.requested(url) : 0;
+		if (hedgeDelay <= 0)
+			return budget.execute(RequestRateLimiter.permitted(() -> search(url)), timeout);
+
+		AtomicLong hedgeStart = new AtomicLong();
+		SearchBudget.Hedged<Resource> hedged = budget.executeHedged(RequestRateLimiter.permitted(() -> search(url)),
+				RequestRateLimiter.permitted(() -> searchHedge(url, hedgeStart.get())), hedgeDelay,
+				() -> tryAcquireHedge(url, hedgeStart), timeout);
+
+		if (hedged.hedged())
+		{
+			logger.debug("Report search request '{}' hedged after {} ms, hedge {}", url, hedgeDelay,
+					hedged.hedgeWon() ? "won" : "lost");
+			metrics.recordQueryHedge(url, hedged.hedgeWon());
+		}
+
+		return hedged.result();
+	}
+
+	/**
+	 * A hedge is counted against the rate limit, the concurrency limit and the circuit breaker like any other request,
+	 * but never waits for them: no hedge is sent if a limit is reached or the circuit is not closed.
+	 *
+	 * @param start
+	 *            set to the concurrency limiter start time if the hedge is permitted
+	 */
+	private boolean tryAcquireHedge(String url, AtomicLong start)
+	{
+		if (!rateLimiter.tryAcquire())
+			return false;
+
+		OptionalLong limiterStart = concurrencyLimiter.tryAcquire();
+		if (limiterStart.isEmpty())
+		{
+			rateLimiter.release();
+			return false;
+		}
+
+		if (!circuitBreaker.tryAcquire())
+		{
+			concurrencyLimiter.release(url, limiterStart.getAsLong(), AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+			rateLimiter.release();
+			return false;
+		}
+
+		if (!requestHedging.tryHedge())
+		{
+			concurrencyLimiter.release(url, limiterStart.getAsLong(), AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+			rateLimiter.release();
+			circuitBreaker.release(CircuitBreaker.Outcome.IGNORED);
+			return false;
+		}
+
+		start.set(limiterStart.getAsLong());
+		return true;
+	}
+
+	private Resource searchHedge(String url, long start)
+	{
+		AdaptiveConcurrencyLimiter.Outcome limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+		CircuitBreaker.Outcome breakerOutcome = CircuitBreaker.Outcome.IGNORED;
+		try
+		{
+			Resource result = search(url);
+
+			limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+			breakerOutcome = CircuitBreaker.Outcome.SUCCESS;
+
+			return result;
+		}
+		catch (BaseServerResponseException exception)
+		{
+			// a hedge that lost is aborted, neither a dropped nor a failed request
+			if (!SearchBudget.isRequestAborted())
+			{
+				if (isOverloaded(exception))
+					limiterOutcome = AdaptiveConcurrencyLimiter.Outcome.DROPPED;
+
+				breakerOutcome = isStoreFailure(exception) ? CircuitBreaker.Outcome.FAILURE
+						: CircuitBreaker.Outcome.SUCCESS;
+			}
+
+			throw exception;
+		}
+		finally
+		{
+			concurrencyLimiter.release(url, start, limiterOutcome);
+			rateLimiter.release();
+			circuitBreaker.release(breakerOutcome);
+		}
+	}
+
+	private Resource search(String url)
+	{
+		if (capabilityStatementClient.isEnabled() && capabilityStatementClient.isCapabilityStatementRequest(url))
+			return capabilityStatementClient.read(fhirStoreClient);
+
+		if (countClient.isEnabled() && SearchUrl.isCountRequest(url))
+		{
+			Optional<Bundle> count = countClient.search(fhirStoreClient, url);
+			if (count.isPresent())
+				return count.get();
+
+			logger.debug("Count response of report search request '{}' not readable, executing request again", url);
+		}
+
+		return fhirStoreClient.search(url);
+	}
+
+	private Bundle.BundleEntryComponent createErrorEntry(String status, OperationOutcome.IssueType type,
+			String diagnostics)
+	{
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR).setCode(type).setDiagnostics(diagnostics);
+		Bundle.BundleEntryResponseComponent response = new Bundle.BundleEntryResponseComponent().setStatus(status)
+				.setOutcome(outcome);
+
+		return new Bundle.BundleEntryComponent().setResponse(response);
+	}
+
+	/**
+	 * Waits for the FHIR store rate limit before the concurrency limit, the time spent waiting for the rate limit is
+	 * neither part of the latency measured by the concurrency limiter nor of the query timeout. Releases the circuit
+	 * breaker if interrupted.
+	 *
+	 * @return start time of the concurrency limiter
+	 */
+	private long acquireLimits()
+	{
+		try
+		{
+			rateLimiter.acquire();
+		}
+		catch (InterruptedException exception)
+		{
+			circuitBreaker.release(CircuitBreaker.Outcome.IGNORED);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for FHIR store rate limit", exception);
+		}
+
+		try
+		{
+			return concurrencyLimiter.acquire();
+		}
+		catch (InterruptedException exception)
+		{
+			rateLimiter.release();
+			circuitBreaker.release(CircuitBreaker.Outcome.IGNORED);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for FHIR store concurrency limit", exception);
+		}
+	}
+
+	private boolean isOverloaded(BaseServerResponseException exception)
+	{
+		return exception instanceof FhirClientConnectionException
+				|| exception.getStatusCode() == RESPONSE_TOO_MANY_REQUESTS
+				|| exception.getStatusCode() >= RESPONSE_SERVER_ERROR;
+	}
+
+	private boolean isStoreFailure(BaseServerResponseException exception)
+	{
+		return exception instanceof FhirClientConnectionException || exception.getStatusCode() >= RESPONSE_SERVER_ERROR;
+	}
+
+	private boolean isStoreUnavailable(BaseServerResponseException exception)
+	{
+		return exception instanceof FhirClientConnectionException
+				|| STORE_UNAVAILABLE_STATUS_CODES.contains(exception.getStatusCode());
+	}
+
+	Bundle transformToReportBundle(Bundle searchBundle, Bundle responseBundle, Target target)
 	{
 		Bundle report = new Bundle();
 		report.setMeta(responseBundle.getMeta());
@@ -238,7 +1066,7 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 		return searchParams.stream().map(s -> s.setDocumentation(null)).toList();
 	}
 
-	private void checkReportBundle(Bundle searchBundle, Bundle reportBundle, String hrpIdentifier)
+	void checkReportBundle(Bundle searchBundle, Bundle reportBundle, String hrpIdentifier)
 	{
 		int requests = searchBundle.getEntry().size();
 
@@ -253,9 +1081,8 @@ public class CreateReport extends AbstractServiceDelegate implements Initializin
 
 	private String storeReportBundle(Bundle responseBundle, String hrpIdentifier, String taskId)
 	{
-		PreferReturnMinimal client = api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-				.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+		PreferReturnMinimal client = scheduledRetry
+				.withRetry(api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn());
 
 		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
 				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue empty"));
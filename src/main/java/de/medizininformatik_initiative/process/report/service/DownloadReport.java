@@ -15,7 +15,8 @@ import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
@@ -26,11 +27,16 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 	private static final Logger logger = LoggerFactory.getLogger(DownloadReport.class);
 
 	private final ReportStatusGenerator statusGenerator;
+	private final ResourceVariableStore resourceVariableStore;
+	private final ScheduledRetry scheduledRetry;
 
-	public DownloadReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public DownloadReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator,
+			ResourceVariableStore resourceVariableStore, ScheduledRetry scheduledRetry)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.resourceVariableStore = resourceVariableStore;
+		this.scheduledRetry = scheduledRetry;
 	}
 
 	@Override
@@ -38,6 +44,8 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "reportStatusGenerator");
+		Objects.requireNonNull(resourceVariableStore, "resourceVariableStore");
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
 	}
 
 	@Override
@@ -55,10 +63,13 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 		try
 		{
 			Bundle reportBundle = downloadReportBundle(reportReference);
-			variables.setResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, reportBundle);
+			resourceVariableStore.setResource(execution, variables,
+					ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, reportBundle);
 		}
 		catch (Exception exception)
 		{
+			scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+
 			task.setStatus(Task.TaskStatus.FAILED);
 			task.addOutput(statusGenerator.createReportStatusOutput(
 					ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIVE_ERROR, "Download report failed"));
@@ -95,9 +106,8 @@ public class DownloadReport extends AbstractServiceDelegate implements Initializ
 
 	private Bundle downloadReportBundle(IdType reportReference)
 	{
-		BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider()
-				.getWebserviceClient(reportReference.getBaseUrl())
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+		BasicFhirWebserviceClient client = scheduledRetry
+				.withRetry(api.getFhirWebserviceClientProvider().getWebserviceClient(reportReference.getBaseUrl()));
 
 		if (reportReference.hasVersionIdPart())
 			return client.read(Bundle.class, reportReference.getIdPart(), reportReference.getVersionIdPart());
@@ -3,6 +3,7 @@ package de.medizininformatik_initiative.process.report.service;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Bundle;
@@ -12,9 +13,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.SearchBundleCache;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Target;
@@ -29,16 +33,25 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 
 	private final ReportStatusGenerator statusGenerator;
 	private final DataLogger dataLogger;
+	private final SearchBundleCache searchBundleCache;
+	private final ResourceVariableStore resourceVariableStore;
+	private final ScheduledRetry scheduledRetry;
+	private final ReportMetrics metrics;
 
 	private final String processVersion;
 
 	public DownloadSearchBundle(ProcessPluginApi api, ReportStatusGenerator statusGenerator, DataLogger dataLogger,
-			String processVersion)
+			SearchBundleCache searchBundleCache, ResourceVariableStore resourceVariableStore,
+			ScheduledRetry scheduledRetry, ReportMetrics metrics, String processVersion)
 	{
 		super(api);
 
 		this.statusGenerator = statusGenerator;
 		this.dataLogger = dataLogger;
+		this.searchBundleCache = searchBundleCache;
+		this.resourceVariableStore = resourceVariableStore;
+		this.scheduledRetry = scheduledRetry;
+		this.metrics = metrics;
 		this.processVersion = processVersion;
 	}
 
@@ -49,11 +62,20 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
 		Objects.requireNonNull(dataLogger, "dataLogger");
+		Objects.requireNonNull(searchBundleCache, "searchBundleCache");
+		Objects.requireNonNull(resourceVariableStore, "resourceVariableStore");
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
+		Objects.requireNonNull(metrics, "metrics");
 		Objects.requireNonNull(processVersion, "processVersion");
 	}
 
 	@Override
 	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		metrics.measureDelegate(getClass().getSimpleName(), () -> downloadSearchBundle(execution, variables));
+	}
+
+	private void downloadSearchBundle(DelegateExecution execution, Variables variables)
 	{
 		Task task = variables.getStartTask();
 		Target target = variables.getTarget();
@@ -65,17 +87,33 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 
 		try
 		{
-			Bundle bundle = searchSearchBundle(target, searchBundleIdentifier);
-			dataLogger.logResource("Search Response", bundle);
+			BasicFhirWebserviceClient client = scheduledRetry
+					.withRetry(api.getFhirWebserviceClientProvider().getWebserviceClient(target.getEndpointUrl()));
+
+			Optional<Bundle> cachedSearchBundle = readCachedSearchBundle(client, target, searchBundleIdentifier);
+			Bundle searchBundle;
+
+			if (cachedSearchBundle.isPresent())
+				searchBundle = cachedSearchBundle.get();
+			else
+			{
+				Bundle bundle = searchSearchBundle(client, searchBundleIdentifier);
+				dataLogger.logResource("Search Response", bundle);
+
+				searchBundle = extractSearchBundle(bundle, searchBundleIdentifier,
+						target.getOrganizationIdentifierValue(), task.getId());
+				searchBundleCache.put(target.getEndpointUrl(), searchBundleIdentifier, searchBundle);
+			}
 
-			Bundle searchBundle = extractSearchBundle(bundle, searchBundleIdentifier,
-					target.getOrganizationIdentifierValue(), task.getId());
 			dataLogger.logResource("Search Bundle", searchBundle);
 
-			variables.setResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, searchBundle);
+			resourceVariableStore.setResource(execution, variables,
+					ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE, searchBundle);
 		}
 		catch (Exception exception)
 		{
+			scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+
 			if (exception instanceof WebApplicationException webException)
 			{
 				String statusCode = ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_NOT_REACHABLE;
@@ -100,12 +138,51 @@ public class DownloadSearchBundle extends AbstractServiceDelegate implements Ini
 		}
 	}
 
-	private Bundle searchSearchBundle(Target target, String searchBundleIdentifier)
+	/**
+	 * Revalidates the cached search Bundle with two identifier searches only returning the number of matches: the
+	 * search Bundle has to still exist exactly once and must not have been updated after the cached copy. A response
+	 * without total is handled as modified.
+	 */
+	private Optional<Bundle> readCachedSearchBundle(BasicFhirWebserviceClient client, Target target,
+			String searchBundleIdentifier)
 	{
-		BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider()
-				.getWebserviceClient(target.getEndpointUrl())
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+		Optional<Bundle> cached = searchBundleCache.get(target.getEndpointUrl(), searchBundleIdentifier);
+		if (cached.isEmpty())
+			return Optional.empty();
+
+		String lastUpdated = cached.get().getMeta().getLastUpdated().toInstant().toString();
+		Bundle existing = client.searchWithStrictHandling(Bundle.class, Map.of("identifier",
+				Collections.singletonList(searchBundleIdentifier), "_summary", Collections.singletonList("count")));
+
+		if (!existing.hasTotal() || existing.getTotal() != 1)
+		{
+			logger.info("Search Bundle '{}' from HRP '{}' deleted or not unique, downloading again",
+					searchBundleIdentifier, target.getOrganizationIdentifierValue());
+			searchBundleCache.remove(target.getEndpointUrl(), searchBundleIdentifier);
+
+			return Optional.empty();
+		}
 
+		Bundle changed = client.searchWithStrictHandling(Bundle.class,
+				Map.of("identifier", Collections.singletonList(searchBundleIdentifier), "_lastUpdated",
+						Collections.singletonList("gt" + lastUpdated), "_summary", Collections.singletonList("count")));
+
+		if (changed.hasTotal() && changed.getTotal() == 0)
+		{
+			logger.info("Search Bundle '{}' from HRP '{}' not modified since {}, using local copy",
+					searchBundleIdentifier, target.getOrganizationIdentifierValue(), lastUpdated);
+			return cached;
+		}
+
+		logger.info("Search Bundle '{}' from HRP '{}' modified since {}, downloading again", searchBundleIdentifier,
+				target.getOrganizationIdentifierValue(), lastUpdated);
+		searchBundleCache.remove(target.getEndpointUrl(), searchBundleIdentifier);
+
+		return Optional.empty();
+	}
+
+	private Bundle searchSearchBundle(BasicFhirWebserviceClient client, String searchBundleIdentifier)
+	{
 		return client.searchWithStrictHandling(Bundle.class,
 				Map.of("identifier", Collections.singletonList(searchBundleIdentifier)));
 	}
@@ -1,32 +1,54 @@
 package de.medizininformatik_initiative.process.report.service;
 
+import java.util.Objects;
+
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Task;
+import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class HandleError extends AbstractServiceDelegate
+public class HandleError extends AbstractServiceDelegate implements InitializingBean
 {
-	public HandleError(ProcessPluginApi api)
+	private final ScheduledRetry scheduledRetry;
+
+	public HandleError(ProcessPluginApi api, ScheduledRetry scheduledRetry)
 	{
 		super(api);
+		this.scheduledRetry = scheduledRetry;
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution delegateExecution, Variables variables)
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
 	{
 		Task task = variables.getStartTask();
 
 		if (Task.TaskStatus.FAILED.equals(task.getStatus()))
 		{
-			sendMail(task, variables);
-			api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-					.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-					.update(task);
+			// mail already sent before the first scheduled retry
+			if (!scheduledRetry.isRetry(execution, variables))
+				sendMail(task, variables);
+
+			try
+			{
+				scheduledRetry.withRetry(api.getFhirWebserviceClientProvider().getLocalWebserviceClient()).update(task);
+			}
+			catch (RuntimeException exception)
+			{
+				scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+				throw exception;
+			}
 		}
 	}
 
@@ -17,7 +17,8 @@ import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
@@ -28,11 +29,16 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 	private static final Logger logger = LoggerFactory.getLogger(InsertReport.class);
 
 	private final ReportStatusGenerator statusGenerator;
+	private final ResourceVariableStore resourceVariableStore;
+	private final ScheduledRetry scheduledRetry;
 
-	public InsertReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public InsertReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator,
+			ResourceVariableStore resourceVariableStore, ScheduledRetry scheduledRetry)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.resourceVariableStore = resourceVariableStore;
+		this.scheduledRetry = scheduledRetry;
 	}
 
 	@Override
@@ -40,6 +46,8 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "reportStatusGenerator");
+		Objects.requireNonNull(resourceVariableStore, "resourceVariableStore");
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
 	}
 
 	@Override
@@ -49,16 +57,16 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 		String sendingOrganization = task.getRequester().getIdentifier().getValue();
 		Identifier reportIdentifier = getReportIdentifier(task);
 
-		Bundle report = variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
+		Bundle report = resourceVariableStore.getResource(execution, variables,
+				ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE);
 		report.setId("").getMeta().setVersionId("").setTag(null);
 		report.setIdentifier(reportIdentifier);
 
 		api.getReadAccessHelper().addLocal(report);
 		api.getReadAccessHelper().addOrganization(report, task.getRequester().getIdentifier().getValue());
 
-		PreferReturnMinimal client = api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-				.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+		PreferReturnMinimal client = scheduledRetry
+				.withRetry(api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn());
 		try
 		{
 			IdType reportId = client.updateConditionaly(report, Map.of("identifier",
@@ -77,6 +85,8 @@ public class InsertReport extends AbstractServiceDelegate implements Initializin
 		}
 		catch (Exception exception)
 		{
+			scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+
 			task.setStatus(Task.TaskStatus.FAILED);
 			task.addOutput(statusGenerator.createReportStatusOutput(
 					ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIVE_ERROR, "Insert report failed"));
@@ -10,8 +10,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Target;
@@ -22,11 +23,16 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	private static final Logger logger = LoggerFactory.getLogger(StoreReceipt.class);
 
 	private final ReportStatusGenerator statusGenerator;
+	private final ScheduledRetry scheduledRetry;
+	private final ReportMetrics metrics;
 
-	public StoreReceipt(ProcessPluginApi api, ReportStatusGenerator statusGenerator)
+	public StoreReceipt(ProcessPluginApi api, ReportStatusGenerator statusGenerator, ScheduledRetry scheduledRetry,
+			ReportMetrics metrics)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.scheduledRetry = scheduledRetry;
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -34,32 +40,51 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(scheduledRetry, "scheduledRetry");
+		Objects.requireNonNull(metrics, "metrics");
 	}
 
 	@Override
 	protected void doExecute(DelegateExecution execution, Variables variables)
 	{
-		String reportLocation = variables
-				.getString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE);
+		metrics.measureDelegate(getClass().getSimpleName(), () -> storeReceipt(execution, variables));
+	}
 
+	private void storeReceipt(DelegateExecution execution, Variables variables)
+	{
 		Task startTask = variables.getStartTask();
-		Task currentTask = variables.getLatestTask();
-		Target target = variables.getTarget();
 
-		if (!currentTask.getId().equals(startTask.getId()))
-			handleReceivedResponse(startTask, currentTask);
-		else
-			handleMissingResponse(startTask);
+		// receipt already handled and stored in the start Task before the first scheduled retry
+		if (!scheduledRetry.isRetry(execution, variables))
+		{
+			String reportLocation = variables
+					.getString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE_RESPONSE_REFERENCE);
 
-		writeStatusLogAndSendMail(startTask, reportLocation, target.getOrganizationIdentifierValue());
+			Task currentTask = variables.getLatestTask();
+			Target target = variables.getTarget();
 
-		variables.updateTask(startTask);
+			if (!currentTask.getId().equals(startTask.getId()))
+				handleReceivedResponse(startTask, currentTask);
+			else
+				handleMissingResponse(startTask);
+
+			writeStatusLogAndSendMail(startTask, reportLocation, target.getOrganizationIdentifierValue());
+
+			variables.updateTask(startTask);
+		}
 
 		if (Task.TaskStatus.FAILED.equals(startTask.getStatus()))
 		{
-			api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-					.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-					.update(startTask);
+			try
+			{
+				scheduledRetry.withRetry(api.getFhirWebserviceClientProvider().getLocalWebserviceClient())
+						.update(startTask);
+			}
+			catch (RuntimeException exception)
+			{
+				scheduledRetry.retryIfPossible(execution, variables, getClass().getSimpleName(), exception);
+				throw exception;
+			}
 		}
 	}
 
@@ -6,13 +6,27 @@ import java.nio.file.Paths;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import ca.uhn.fhir.context.FhirContext;
-import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.process.report.client.AdaptiveConcurrencyLimiter;
+import de.medizininformatik_initiative.process.report.client.CachingTokenProvider;
+import de.medizininformatik_initiative.process.report.client.CapabilityStatementClient;
+import de.medizininformatik_initiative.process.report.client.CircuitBreaker;
+import de.medizininformatik_initiative.process.report.client.CountCache;
+import de.medizininformatik_initiative.process.report.client.CountClient;
+import de.medizininformatik_initiative.process.report.client.FhirStoreClient;
+import de.medizininformatik_initiative.process.report.client.FhirStoreWarmUp;
+import de.medizininformatik_initiative.process.report.client.ReloadingTokenClient;
+import de.medizininformatik_initiative.process.report.client.RequestHedging;
+import de.medizininformatik_initiative.process.report.client.RequestRateLimiter;
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+import de.medizininformatik_initiative.process.report.client.SslContextFactory;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
 import de.medizininformatik_initiative.processes.common.fhir.client.token.OAuth2TokenClient;
-import de.medizininformatik_initiative.processes.common.fhir.client.token.OAuth2TokenProvider;
 import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
 import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenProvider;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -27,6 +41,9 @@ public class FhirClientConfig
 	@Autowired
 	private ProcessPluginApi api;
 
+	@Autowired
+	private ReportMetrics reportMetrics;
+
 	@ProcessDocumentation(required = true, processNames = {
 			"medizininformatik-initiativede_reportSend" }, description = "The base address of the FHIR server to read/store FHIR resources", example = "http://foo.bar/fhir")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.base.url:#{null}}")
@@ -43,7 +60,7 @@ public class FhirClientConfig
 	private String fhirStoreCertificate;
 
 	@ProcessDocumentation(processNames = {
-			"medizininformatik-initiativede_reportSend" }, description = "Private key corresponding to the FHIR server client-certificate as PEM encoded file. Use *${env_variable}_PASSWORD* or *${env_variable}_PASSWORD_FILE* if private key is encrypted", recommendation = "Use docker secret file to configure", example = "/run/secrets/fhir_server_private_key.pem")
+			"medizininformatik-initiativede_reportSend" }, description = "Private key corresponding to the FHIR server client-certificate as PEM encoded file. Supported formats are PKCS#8 (*PRIVATE KEY*, *ENCRYPTED PRIVATE KEY*), PKCS#1 RSA (*RSA PRIVATE KEY*) and SEC1 EC (*EC PRIVATE KEY*), PKCS#1 and SEC1 keys may be encrypted in the traditional OpenSSL format with AES-128/192/256-CBC, DES-EDE3-CBC or DES-CBC. Use *${env_variable}_PASSWORD* or *${env_variable}_PASSWORD_FILE* if private key is encrypted", recommendation = "Use docker secret file to configure", example = "/run/secrets/fhir_server_private_key.pem")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.private.key:#{null}}")
 	private String fhirStorePrivateKey;
 
@@ -82,6 +99,41 @@ public class FhirClientConfig
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.timeout.socket:60000}")
 	private int fhirStoreSocketTimeout;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum number of open connections to the FHIR server, connections are kept alive and reused across report runs")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.connection.pool.max.total:20}")
+	private int fhirStoreConnectionPoolMaxTotal;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum number of open connections per route (host and proxy) to the FHIR server", recommendation = "Should not be lower than the search parallelism, report search requests wait for a free connection otherwise")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.connection.pool.max.per.route:20}")
+	private int fhirStoreConnectionPoolMaxPerRoute;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time in milliseconds after which idle connections to the FHIR server are closed, `0` keeps idle connections open until the server closes them", recommendation = "Should be lower than the keep-alive timeout of the FHIR server or a proxy in between")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.connection.pool.idle.timeout:60000}")
+	private long fhirStoreConnectionPoolIdleTimeout;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time in milliseconds of inactivity after which pooled connections to the FHIR server are checked before being reused, `0` disables the check")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.connection.pool.validate.after.inactivity:2000}")
+	private int fhirStoreConnectionPoolValidateAfterInactivity;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time in milliseconds after which the connection test executed in the background after plugin deployment is reported as timed out, `0` waits for the connect and socket timeouts")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.connection.test.timeout:30000}")
+	private long fhirStoreConnectionTestTimeout;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Number of pooled connections to the FHIR server opened by the connection test after plugin deployment, limited by the maximum number of connections per route, defaults to the search parallelism", recommendation = "Connections are only kept open if the FHIR server keeps idle connections alive for at least the connection pool idle timeout")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.connection.warmup.connections:${de.medizininformatik.initiative.report.dic.fhir.server.search.parallelism:1}}")
+	private int fhirStoreConnectionWarmUpConnections;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Minimum time in milliseconds between two checks of the PEM encoded trust stores, client-certificate and private key for changes, changed files are reloaded for new connections to the FHIR server and the oidc provider, `0` disables reloading", recommendation = "Keep enabled if certificates are mounted as secrets that are renewed at runtime")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.certificates.reload.interval:60000}")
+	private long fhirStoreCertificatesReloadInterval;
+
 	@ProcessDocumentation(processNames = {
 			"medizininformatik-initiativede_reportSend" }, description = "The client will log additional debug output", recommendation = "Change default value only if exceptions occur")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.client.verbose:false}")
@@ -132,6 +184,11 @@ public class FhirClientConfig
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.trust.certificates:#{null}}")
 	private String fhirStoreOAuth2TrustStore;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time in milliseconds before the `exp` claim of the cached access token, the token is refreshed in the background, concurrent requests needing a new token wait for a single token request, `0` disables background refresh", recommendation = "Should be larger than the expected token endpoint latency, tokens without `exp` claim (no JWT) are requested again once expired")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.token.refresh.before.expiry:60000}")
+	private long fhirStoreOAuth2TokenRefreshBeforeExpiry;
+
 	@ProcessDocumentation(processNames = {
 			"medizininformatik-initiativede_reportSend" }, description = "Proxy location, set if the oidc provider can only be reached through a proxy, uses value from DEV_DSF_PROXY_URL if not set", example = "http://proxy.foo:8080")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.proxy.url:#{null}}")
@@ -147,6 +204,106 @@ public class FhirClientConfig
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.oauth2.proxy.password:#{null}}")
 	private String fhirStoreOAuth2ProxyPassword;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Number of report search requests executed in parallel against the FHIR server, `1` executes the requests sequentially", recommendation = "Increase only if the FHIR server can handle concurrent search requests, the report is still created in search Bundle order")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.parallelism:1}")
+	private int fhirStoreSearchParallelism;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To submit the report search requests as FHIR batch Bundles to the FHIR server set to `true`, requests failing in the batch are executed separately", recommendation = "Enable only if the FHIR server supports batch interactions, e.g. Blaze")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.batch.enabled:false}")
+	private boolean fhirStoreSearchBatchEnabled;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum number of report search requests per FHIR batch Bundle, `0` submits all requests in a single batch Bundle", recommendation = "Only used if batch execution is enabled")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.batch.size:0}")
+	private int fhirStoreSearchBatchSize;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To adapt the number of concurrent report search requests to the latency and error responses of the FHIR server set to `true`, the limit is increased while latency stays flat and decreased on 5xx, 429 and timeout responses or increasing latency", recommendation = "Enable if the FHIR server is shared with clinical workloads, requires search parallelism > 1")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.concurrency.adaptive:false}")
+	private boolean fhirStoreSearchConcurrencyAdaptive;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Lower bound of the adaptive number of concurrent report search requests")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.concurrency.limit.min:1}")
+	private int fhirStoreSearchConcurrencyLimitMin;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Upper bound of the adaptive number of concurrent report search requests, defaults to the search parallelism")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.concurrency.limit.max:${de.medizininformatik.initiative.report.dic.fhir.server.search.parallelism:1}}")
+	private int fhirStoreSearchConcurrencyLimitMax;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum number of requests per second sent to the FHIR server, shared by all running reports and the connection test and enforced with a token bucket allowing bursts of at most one second of requests, `0` disables the rate limit", recommendation = "Configure if the FHIR server operators require a hard cap on the reporting load, waiting times are exposed as rate limit metrics", example = "20")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.rate.limit.requests.per.second:0}")
+	private double fhirStoreRateLimitRequestsPerSecond;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum number of requests in flight to the FHIR server, shared by all running reports and the connection test, a request is in flight until the response headers are received, `0` disables the limit", recommendation = "Unlike the search parallelism and adaptive concurrency limit this limit applies to all concurrently running reports", example = "4")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.rate.limit.in.flight.max:0}")
+	private int fhirStoreRateLimitInFlightMax;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Number of consecutive connection errors or 5xx responses from the FHIR server after which the circuit breaker opens and remaining report search requests are rejected without being sent, shared by all running reports, reports with rejected requests are not stored but retried, `0` disables the circuit breaker", recommendation = "Prevents reports from sending all search requests to an unavailable FHIR server, use together with a search journal directory to only execute rejected requests when the report is retried, rejected requests are exposed with error code `circuit_open` in the query metrics")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.circuit.breaker.failure.threshold:0}")
+	private int fhirStoreCircuitBreakerFailureThreshold;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Duration in milliseconds the FHIR server circuit breaker stays open before a single probe request is sent, the circuit closes if the probe succeeds")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.circuit.breaker.open.duration:30000}")
+	private long fhirStoreCircuitBreakerOpenDuration;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To dispatch parallel report search requests longest expected duration first based on the durations of previous reports set to `true`, avoids slow requests starting last, the predicted duration of all requests is logged before they are executed", recommendation = "Durations are persisted in the search cache directory if configured")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.schedule.longest.first:true}")
+	private boolean fhirStoreSearchScheduleLongestFirst;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Total time budget in milliseconds for executing all report search requests of a report, requests not completed within the budget are reported as timed out, `0` disables the budget", recommendation = "Configure if single report search requests block the report for hours", example = "3600000")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.timeout.total:0}")
+	private long fhirStoreSearchTimeoutTotal;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Initial timeout in milliseconds of a single report search request, the timeout of a request is doubled each time it times out and timed out requests are retried once per report if budget remains, `0` disables request timeouts", example = "60000")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.timeout.query:0}")
+	private long fhirStoreSearchTimeoutQuery;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Upper bound in milliseconds of escalated report search request timeouts, `0` limits escalated timeouts only by the total budget", example = "1800000")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.timeout.query.max:0}")
+	private long fhirStoreSearchTimeoutQueryMax;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Maximum ratio of hedge requests to report search requests, a `_summary=count` request still running after the p95 latency of its previous successful executions is sent a second time and the first response is used while the other request is aborted, hedges are only sent below the adaptive concurrency limit with a closed circuit breaker, `0` disables hedging", recommendation = "Reduces the tail latency if single requests occasionally stall in the FHIR server, hedges and hedges answered first are exposed in the query metrics", example = "0.1")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.hedging.budget:0}")
+	private double fhirStoreSearchHedgingBudget;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Directory to persist report search request totals and durations between report executions, cached totals are only used if no resource of the searched type was changed or deleted since they were cached (`_history` probe since `meta.lastUpdated` of the cached response), not set disables the cache", recommendation = "Use a persistent volume, start the reportSend process with Task input `force-refresh` set to `true` to execute all requests", example = "/opt/bpe/cache/report")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.cache.directory:#{null}}")
+	private String fhirStoreSearchCacheDirectory;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time to live in milliseconds of cached report search request totals")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.cache.ttl:86400000}")
+	private long fhirStoreSearchCacheTtl;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time to live in milliseconds of cached report search request totals only counting resources of past years (all date search params `eq<year>` with a year before the current year)", recommendation = "Should be a multiple of the autostart interval")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.cache.ttl.past.years:2592000000}")
+	private long fhirStoreSearchCacheTtlPastYears;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To read only `total` and `meta.lastUpdated` from `_summary=count` search responses without parsing the whole response set to `true`, reading stops as soon as `total` was found", recommendation = "Enable to reduce CPU and memory usage, especially if the FHIR server returns search results despite `_summary=count`")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.count.streaming:false}")
+	private boolean fhirStoreSearchCountStreaming;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To cache the CapabilityStatement of the FHIR server between reports set to `true`, only elements used in reports are parsed and the cached CapabilityStatement is revalidated using `If-None-Match` or `If-Modified-Since`", recommendation = "Enable if the FHIR server returns large CapabilityStatements, e.g. HAPI FHIR JPA server")
+	@Value("${de.medizininformatik.initiative.report.dic.fhir.server.search.metadata.cache:false}")
+	private boolean fhirStoreSearchMetadataCache;
+
 	@ProcessDocumentation(processNames = {
 			"medizininformatik-initiativede_reportSend" }, description = "To enable debug logging of FHIR resources set to `true`")
 	@Value("${de.medizininformatik.initiative.report.dic.fhir.dataLoggingEnabled:false}")
@@ -155,7 +312,8 @@ public class FhirClientConfig
 	@Value("${dev.dsf.bpe.fhir.server.organization.identifier.value}")
 	private String localIdentifierValue;
 
-	public FhirClientFactory fhirClientFactory()
+	@Bean
+	public FhirStoreClient fhirStoreClient()
 	{
 		Path trustStorePath = checkExists(fhirStoreTrustStore);
 		Path certificatePath = checkExists(fhirStoreCertificate);
@@ -172,15 +330,40 @@ public class FhirClientConfig
 					: new String(api.getProxyConfig().getPassword());
 		}
 
-		return new FhirClientFactory(trustStorePath, certificatePath, privateKeyPath, fhirStorePrivateKeyPassword,
+		return new FhirStoreClient(
+				new SslContextFactory(trustStorePath, certificatePath, privateKeyPath, fhirStorePrivateKeyPassword,
+						fhirStoreCertificatesReloadInterval),
 				fhirStoreConnectTimeout, fhirStoreSocketTimeout, fhirStoreConnectionRequestTimeout, fhirStoreBaseUrl,
 				fhirStoreUsername, fhirStorePassword, fhirStoreBearerToken, tokenProvider(), proxyUrl, proxyUsername,
-				proxyPassword, fhirStoreHapiClientVerbose, fhirContext, localIdentifierValue, dataLogger());
+				proxyPassword, fhirStoreHapiClientVerbose, fhirContext, fhirStoreConnectionPoolMaxTotal,
+				fhirStoreConnectionPoolMaxPerRoute, fhirStoreConnectionPoolIdleTimeout,
+				fhirStoreConnectionPoolValidateAfterInactivity, requestRateLimiter(), reportMetrics);
+	}
+
+	@Bean
+	public RequestRateLimiter requestRateLimiter()
+	{
+		return new RequestRateLimiter(fhirStoreRateLimitRequestsPerSecond, fhirStoreRateLimitInFlightMax,
+				reportMetrics);
 	}
 
+	@Bean
+	public CircuitBreaker circuitBreaker()
+	{
+		return new CircuitBreaker(fhirStoreCircuitBreakerFailureThreshold, fhirStoreCircuitBreakerOpenDuration);
+	}
+
+	@Bean
+	public FhirStoreWarmUp fhirStoreWarmUp()
+	{
+		return new FhirStoreWarmUp(fhirStoreClient(), capabilityStatementClient(), reportMetrics,
+				fhirStoreConnectionTestTimeout, fhirStoreConnectionWarmUpConnections);
+	}
+
+	@Bean
 	public TokenProvider tokenProvider()
 	{
-		return new OAuth2TokenProvider(tokenClient());
+		return new CachingTokenProvider(tokenClient(), fhirStoreOAuth2TokenRefreshBeforeExpiry, reportMetrics);
 	}
 
 	public TokenClient tokenClient()
@@ -198,9 +381,12 @@ public class FhirClientConfig
 					: new String(api.getProxyConfig().getPassword());
 		}
 
-		return new OAuth2TokenClient(fhirStoreOAuth2IssuerUrl, fhirStoreOAuth2ClientId, fhirStoreOAuth2ClientSecret,
-				fhirStoreOAuth2ConnectTimeout, fhirStoreOAuth2SocketTimeout, trustStoreOAuth2Path, proxyUrl,
-				proxyUsername, proxyPassword);
+		String tokenProxyUrl = proxyUrl, tokenProxyUsername = proxyUsername, tokenProxyPassword = proxyPassword;
+		return new ReloadingTokenClient(
+				() -> new OAuth2TokenClient(fhirStoreOAuth2IssuerUrl, fhirStoreOAuth2ClientId,
+						fhirStoreOAuth2ClientSecret, fhirStoreOAuth2ConnectTimeout, fhirStoreOAuth2SocketTimeout,
+						trustStoreOAuth2Path, tokenProxyUrl, tokenProxyUsername, tokenProxyPassword),
+				trustStoreOAuth2Path, fhirStoreCertificatesReloadInterval);
 	}
 
 	public DataLogger dataLogger()
@@ -208,6 +394,71 @@ public class FhirClientConfig
 		return new DataLogger(fhirDataLoggingEnabled, fhirContext);
 	}
 
+	@Bean
+	public AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter()
+	{
+		return new AdaptiveConcurrencyLimiter(fhirStoreSearchConcurrencyAdaptive, fhirStoreSearchConcurrencyLimitMin,
+				Math.max(fhirStoreSearchConcurrencyLimitMin, fhirStoreSearchConcurrencyLimitMax));
+	}
+
+	@Bean
+	public SearchTimeouts searchTimeouts()
+	{
+		return new SearchTimeouts(fhirStoreSearchTimeoutQuery, fhirStoreSearchTimeoutQueryMax);
+	}
+
+	@Bean
+	public RequestHedging requestHedging()
+	{
+		return new RequestHedging(fhirStoreSearchHedgingBudget);
+	}
+
+	@Bean
+	public SearchDurations searchDurations()
+	{
+		Path directory = fhirStoreSearchCacheDirectory == null ? null : Paths.get(fhirStoreSearchCacheDirectory);
+		return new SearchDurations(fhirStoreSearchScheduleLongestFirst, directory);
+	}
+
+	@Bean
+	public CountCache countCache()
+	{
+		Path directory = fhirStoreSearchCacheDirectory == null ? null : Paths.get(fhirStoreSearchCacheDirectory);
+		return new CountCache(directory, fhirStoreSearchCacheTtl, fhirStoreSearchCacheTtlPastYears);
+	}
+
+	@Bean
+	public CountClient countClient()
+	{
+		return new CountClient(fhirStoreSearchCountStreaming);
+	}
+
+	@Bean
+	public CapabilityStatementClient capabilityStatementClient()
+	{
+		return new CapabilityStatementClient(fhirStoreSearchMetadataCache);
+	}
+
+	public long getSearchTimeoutTotal()
+	{
+		return fhirStoreSearchTimeoutTotal;
+	}
+
+	public int getSearchParallelism()
+	{
+		return fhirStoreSearchParallelism;
+	}
+
+	public boolean isSearchBatchEnabled()
+	{
+		return fhirStoreSearchBatchEnabled;
+	}
+
+	public int getSearchBatchSize()
+	{
+		return fhirStoreSearchBatchSize;
+	}
+
 	private Path checkExists(String file)
 	{
 		if (file == null)
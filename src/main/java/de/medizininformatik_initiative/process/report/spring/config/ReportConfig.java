@@ -1,5 +1,8 @@
 package de.medizininformatik_initiative.process.report.spring.config;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -9,9 +12,12 @@ import org.springframework.context.annotation.Scope;
 
 import de.medizininformatik_initiative.process.report.ReportProcessPluginDefinition;
 import de.medizininformatik_initiative.process.report.ReportProcessPluginDeploymentStateListener;
+import de.medizininformatik_initiative.process.report.client.SearchBundleCache;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
 import de.medizininformatik_initiative.process.report.message.SendReceipt;
 import de.medizininformatik_initiative.process.report.message.SendReport;
 import de.medizininformatik_initiative.process.report.message.StartSendReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
 import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
 import de.medizininformatik_initiative.process.report.service.CreateReport;
 import de.medizininformatik_initiative.process.report.service.DownloadReport;
@@ -22,7 +28,11 @@ import de.medizininformatik_initiative.process.report.service.SelectTargetDic;
 import de.medizininformatik_initiative.process.report.service.SelectTargetHrp;
 import de.medizininformatik_initiative.process.report.service.SetTimer;
 import de.medizininformatik_initiative.process.report.service.StoreReceipt;
+import de.medizininformatik_initiative.process.report.util.ReleaseResourceVariables;
 import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.ProcessPluginDeploymentStateListener;
 import dev.dsf.bpe.v1.documentation.ProcessDocumentation;
@@ -41,6 +51,76 @@ public class ReportConfig
 	@Value("${de.medizininformatik.initiative.report.dic.hrp.identifier:#{null}}")
 	private String hrpIdentifier;
 
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To keep the last search Bundle downloaded from the HRP in memory and only download it again if it changed set to `true`, the local copy is revalidated with two `_summary=count` searches of the identifier, exactly one search Bundle has to exist and none may be updated after the local copy (`_lastUpdated`)")
+	@Value("${de.medizininformatik.initiative.report.dic.hrp.search.bundle.cache:true}")
+	private boolean hrpSearchBundleCache;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Report search requests taking at least this many milliseconds are logged as slow with their p95 latency, `0` disables the slow query log", example = "60000")
+	@Value("${de.medizininformatik.initiative.report.metrics.slow.query.threshold:0}")
+	private long metricsSlowQueryThreshold;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "To expose latency percentiles, error codes, retries and response sizes per report search request and per process step as well as OAuth2 token request latency and errors as JMX MBeans in domain `de.medizininformatik_initiative.process.report` set to `true`")
+	@Value("${de.medizininformatik.initiative.report.metrics.jmx.enabled:false}")
+	private boolean metricsJmxEnabled;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "File to write report metrics to in Prometheus text exposition format after every process step, e.g. to be collected by the node exporter textfile collector, not set disables the file", example = "/opt/bpe/metrics/report.prom")
+	@Value("${de.medizininformatik.initiative.report.metrics.prometheus.file:#{null}}")
+	private String metricsPrometheusFile;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Number of search Bundle versions for which the validation result and canonical request urls are cached in memory between reports, the cache is keyed by search Bundle identifier and version, `0` disables the cache")
+	@Value("${de.medizininformatik.initiative.report.search.bundle.plan.cache.size:8}")
+	private int searchBundlePlanCacheSize;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Directory to journal completed report search requests per start Task and search Bundle version, a report interrupted by a restart of the BPE, an unavailable FHIR store or a failed request to a DSF FHIR server only executes the missing search requests when resumed by a scheduled retry, not set disables the journal", recommendation = "Use a persistent volume", example = "/opt/bpe/cache/report-journal")
+	@Value("${de.medizininformatik.initiative.report.search.journal.directory:#{null}}")
+	private String searchJournalDirectory;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_reportSend" }, description = "Time in milliseconds after which journals of reports not resumed are deleted, journals of stored reports are deleted immediately, `0` keeps the journals", recommendation = "Should be longer than the maximum runtime of a process instance")
+	@Value("${de.medizininformatik.initiative.report.search.journal.retention:604800000}")
+	private long searchJournalRetention;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Directory to store search Bundles and reports passed between process steps as compressed files, process variables then only contain a content hash reference and the resources are parsed once per process instance, not set stores the resources in the process variables", recommendation = "Use a persistent volume, reduces the size of the process engine runtime and history tables", example = "/opt/bpe/cache/report-variables")
+	@Value("${de.medizininformatik.initiative.report.variables.resource.directory:#{null}}")
+	private String variablesResourceDirectory;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Time in milliseconds after which resource files of process instances not released at the end of the process instance, e.g. deleted process instances, are deleted if not used by a process step, `0` keeps these files", recommendation = "Should be longer than the maximum runtime of a process instance")
+	@Value("${de.medizininformatik.initiative.report.variables.resource.retention:604800000}")
+	private long variablesResourceRetention;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Number of resources read from the resource directory kept in memory for subsequent process steps")
+	@Value("${de.medizininformatik.initiative.report.variables.resource.memo.size:4}")
+	private int variablesResourceMemoSize;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Maximum number of retries per process step of failed requests to DSF FHIR servers with connection errors or status codes 408, 429, 500, 502, 503 and 504, retries are scheduled with process engine timers and do not block a job executor thread, `0` retries requests 6 times every 5 minutes in the process step instead")
+	@Value("${de.medizininformatik.initiative.report.dsf.client.retry.max.attempts:6}")
+	private int dsfClientRetryMaxAttempts;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Delay in milliseconds before the first scheduled retry of a failed request to a DSF FHIR server, doubled for every further retry")
+	@Value("${de.medizininformatik.initiative.report.dsf.client.retry.initial.delay:30000}")
+	private long dsfClientRetryInitialDelay;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Maximum delay in milliseconds between scheduled retries of a failed request to a DSF FHIR server")
+	@Value("${de.medizininformatik.initiative.report.dsf.client.retry.max.delay:900000}")
+	private long dsfClientRetryMaxDelay;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_reportSend",
+			"medizininformatik-initiativede_reportReceive" }, description = "Fraction between `0` and `1` of the scheduled retry delay randomly subtracted, spreads retries of process instances failing at the same time")
+	@Value("${de.medizininformatik.initiative.report.dsf.client.retry.jitter:0.5}")
+	private double dsfClientRetryJitter;
+
 	// all Processes
 
 	@Bean
@@ -54,7 +134,55 @@ public class ReportConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public ProcessPluginDeploymentStateListener reportProcessPluginDeploymentStateListener()
 	{
-		return new ReportProcessPluginDeploymentStateListener(fhirClientConfig.fhirClientFactory());
+		return new ReportProcessPluginDeploymentStateListener(fhirClientConfig.fhirStoreWarmUp());
+	}
+
+	@Bean
+	public ReportMetrics reportMetrics()
+	{
+		Path prometheusFile = metricsPrometheusFile == null ? null : Paths.get(metricsPrometheusFile);
+		return new ReportMetrics(metricsSlowQueryThreshold, metricsJmxEnabled, prometheusFile);
+	}
+
+	@Bean
+	public ResourceVariableStore resourceVariableStore()
+	{
+		Path directory = variablesResourceDirectory == null ? null : Paths.get(variablesResourceDirectory);
+		return new ResourceVariableStore(directory, api.getFhirContext(), variablesResourceRetention,
+				variablesResourceMemoSize);
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public ReleaseResourceVariables releaseResourceVariables()
+	{
+		return new ReleaseResourceVariables(resourceVariableStore());
+	}
+
+	@Bean
+	public ScheduledRetry scheduledRetry()
+	{
+		return new ScheduledRetry(dsfClientRetryMaxAttempts, dsfClientRetryInitialDelay, dsfClientRetryMaxDelay,
+				dsfClientRetryJitter, reportMetrics());
+	}
+
+	@Bean
+	public SearchBundleCache searchBundleCache()
+	{
+		return new SearchBundleCache(hrpSearchBundleCache);
+	}
+
+	@Bean
+	public SearchBundlePlanCache searchBundlePlanCache()
+	{
+		return new SearchBundlePlanCache(searchBundlePlanCacheSize);
+	}
+
+	@Bean
+	public SearchJournal searchJournal()
+	{
+		Path directory = searchJournalDirectory == null ? null : Paths.get(searchJournalDirectory);
+		return new SearchJournal(directory, searchJournalRetention);
 	}
 
 	// reportAutostart Process
@@ -87,14 +215,15 @@ public class ReportConfig
 	public DownloadSearchBundle downloadSearchBundle()
 	{
 		String processVersion = new ReportProcessPluginDefinition().getResourceVersion();
-		return new DownloadSearchBundle(api, reportStatusGenerator(), fhirClientConfig.dataLogger(), processVersion);
+		return new DownloadSearchBundle(api, reportStatusGenerator(), fhirClientConfig.dataLogger(),
+				searchBundleCache(), resourceVariableStore(), scheduledRetry(), reportMetrics(), processVersion);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public CheckSearchBundle checkSearchBundle()
 	{
-		return new CheckSearchBundle(api);
+		return new CheckSearchBundle(api, searchBundlePlanCache(), resourceVariableStore(), reportMetrics());
 	}
 
 	@Bean
@@ -102,22 +231,29 @@ public class ReportConfig
 	public CreateReport createReport()
 	{
 		String resourceVersion = new ReportProcessPluginDefinition().getResourceVersion();
-		return new CreateReport(api, resourceVersion, fhirClientConfig.fhirClientFactory(),
-				fhirClientConfig.dataLogger());
+		return new CreateReport(api, resourceVersion, fhirClientConfig.fhirStoreClient(), fhirClientConfig.dataLogger(),
+				fhirClientConfig.getSearchParallelism(), fhirClientConfig.isSearchBatchEnabled(),
+				fhirClientConfig.getSearchBatchSize(), fhirClientConfig.requestRateLimiter(),
+				fhirClientConfig.adaptiveConcurrencyLimiter(), fhirClientConfig.circuitBreaker(),
+				fhirClientConfig.requestHedging(), fhirClientConfig.searchTimeouts(),
+				fhirClientConfig.searchDurations(), fhirClientConfig.getSearchTimeoutTotal(),
+				fhirClientConfig.countCache(), fhirClientConfig.countClient(),
+				fhirClientConfig.capabilityStatementClient(), searchBundlePlanCache(), searchJournal(),
+				resourceVariableStore(), scheduledRetry(), reportMetrics());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public SendReport sendReport()
 	{
-		return new SendReport(api, reportStatusGenerator());
+		return new SendReport(api, reportStatusGenerator(), scheduledRetry(), reportMetrics());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public StoreReceipt storeReceipt()
 	{
-		return new StoreReceipt(api, reportStatusGenerator());
+		return new StoreReceipt(api, reportStatusGenerator(), scheduledRetry(), reportMetrics());
 	}
 
 	// reportReceive Process
@@ -126,21 +262,21 @@ public class ReportConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public DownloadReport downloadReport()
 	{
-		return new DownloadReport(api, reportStatusGenerator());
+		return new DownloadReport(api, reportStatusGenerator(), resourceVariableStore(), scheduledRetry());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public InsertReport insertReport()
 	{
-		return new InsertReport(api, reportStatusGenerator());
+		return new InsertReport(api, reportStatusGenerator(), resourceVariableStore(), scheduledRetry());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public HandleError handleError()
 	{
-		return new HandleError(api);
+		return new HandleError(api, scheduledRetry());
 	}
 
 	@Bean
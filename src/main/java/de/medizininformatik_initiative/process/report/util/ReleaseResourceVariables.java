@@ -0,0 +1,33 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.Objects;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.camunda.bpm.engine.delegate.ExecutionListener;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Process end listener releasing the resource files of the ended process instance, also executed if the process
+ * instance is cancelled.
+ */
+public class ReleaseResourceVariables implements ExecutionListener, InitializingBean
+{
+	private final ResourceVariableStore resourceVariableStore;
+
+	public ReleaseResourceVariables(ResourceVariableStore resourceVariableStore)
+	{
+		this.resourceVariableStore = resourceVariableStore;
+	}
+
+	@Override
+	public void afterPropertiesSet()
+	{
+		Objects.requireNonNull(resourceVariableStore, "resourceVariableStore");
+	}
+
+	@Override
+	public void notify(DelegateExecution execution)
+	{
+		resourceVariableStore.release(execution.getProcessInstanceId());
+	}
+}
@@ -0,0 +1,453 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Stores large FHIR resources passed between process steps as gzip compressed JSON files named by their SHA-256 hash,
+ * the process variables only contain a reference <code>sha256:&lt;hash&gt;</code> in a string variable named
+ * <code>&lt;variable&gt;Reference</code>. Resources are read lazily and memoized per process instance, resources with
+ * equal content share one file.
+ * <p>
+ * The references of a process instance are listed in a file <code>references-&lt;processInstanceId&gt;</code>, files
+ * are deleted if {@link #release(String)} is called at the end of the process instance and no other process instance
+ * references them. Reference lists and unreferenced resource files not used within the retention time, e.g. of process
+ * instances deleted without executing their end listeners, are deleted.
+ * <p>
+ * If disabled, resources are stored in the process variables. Resource variables of process instances started before
+ * the store was enabled are still read.
+ */
+public class ResourceVariableStore
+{
+	private static final Logger logger = LoggerFactory.getLogger(ResourceVariableStore.class);
+
+	private static final String REFERENCE_VARIABLE_SUFFIX = "Reference";
+	private static final String REFERENCE_PREFIX = "sha256:";
+	private static final String FILE_PREFIX = "resource-";
+	private static final String FILE_SUFFIX = ".json.gz";
+	private static final String REFERENCES_FILE_PREFIX = "references-";
+	private static final long CLEANUP_INTERVAL = 60 * 60 * 1000;
+
+	private final Path directory;
+	private final FhirContext fhirContext;
+	private final long retention;
+	private final int memoSize;
+
+	private final Map<String, Resource> memo;
+
+	private long lastCleanup;
+
+	/**
+	 * @param directory
+	 *            may be <code>null</code>, disables the store
+	 * @param fhirContext
+	 *            not <code>null</code>
+	 * @param retention
+	 *            milliseconds after which reference lists and unreferenced files not used are deleted,
+	 *            <code>&lt;= 0</code> keeps files of process instances not released
+	 * @param memoSize
+	 *            maximum number of resources kept in memory
+	 */
+	public ResourceVariableStore(Path directory, FhirContext fhirContext, long retention, int memoSize)
+	{
+		this.directory = directory;
+		this.fhirContext = Objects.requireNonNull(fhirContext, "fhirContext");
+		this.retention = retention;
+		this.memoSize = memoSize;
+
+		memo = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest)
+			{
+				return size() > ResourceVariableStore.this.memoSize;
+			}
+		};
+	}
+
+	public boolean isEnabled()
+	{
+		return directory != null;
+	}
+
+	/**
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @param variableName
+	 *            not <code>null</code>
+	 * @param resource
+	 *            not <code>null</code>
+	 */
+	public void setResource(DelegateExecution execution, Variables variables, String variableName, Resource resource)
+	{
+		Objects.requireNonNull(resource, "resource");
+
+		if (!isEnabled())
+		{
+			variables.setResource(variableName, resource);
+			return;
+		}
+
+		String reference;
+		do
+			reference = store(resource);
+		while (!addReference(execution.getProcessInstanceId(), reference));
+
+		memoize(execution.getProcessInstanceId(), reference, resource);
+		cleanup();
+
+		variables.setString(variableName + REFERENCE_VARIABLE_SUFFIX, reference);
+	}
+
+	/**
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @param variableName
+	 *            not <code>null</code>
+	 * @return resource stored with the given variable name, <code>null</code> if not set
+	 */
+	@SuppressWarnings("unchecked")
+	public <R extends Resource> R getResource(DelegateExecution execution, Variables variables, String variableName)
+	{
+		String reference = variables.getString(variableName + REFERENCE_VARIABLE_SUFFIX);
+		if (reference == null)
+			return variables.getResource(variableName);
+
+		// references of process instances started before reference lists were written are added on first read
+		addReference(execution.getProcessInstanceId(), reference);
+
+		String memoKey = getMemoKey(execution.getProcessInstanceId(), reference);
+		synchronized (memo)
+		{
+			Resource resource = memo.get(memoKey);
+			if (resource != null)
+				return (R) resource;
+		}
+
+		R resource = (R) load(reference);
+		memoize(execution.getProcessInstanceId(), reference, resource);
+
+		return resource;
+	}
+
+	/**
+	 * Deletes the reference list of the given process instance and all resource files not referenced by other process
+	 * instances.
+	 *
+	 * @param processInstanceId
+	 *            not <code>null</code>
+	 */
+	public void release(String processInstanceId)
+	{
+		Objects.requireNonNull(processInstanceId, "processInstanceId");
+
+		String memoKeyPrefix = getMemoKey(processInstanceId, "");
+		synchronized (memo)
+		{
+			memo.keySet().removeIf(k -> k.startsWith(memoKeyPrefix));
+		}
+
+		if (!isEnabled())
+			return;
+
+		synchronized (this)
+		{
+			Path referencesFile = getReferencesFile(processInstanceId);
+			try
+			{
+				Set<String> released = readReferences(referencesFile);
+				Files.deleteIfExists(referencesFile);
+
+				released.removeAll(readReferences(f -> true));
+				for (String reference : released)
+				{
+					if (Files.deleteIfExists(getFile(reference)))
+						logger.debug("Deleted resource file of '{}' released by process instance {}", reference,
+								processInstanceId);
+				}
+			}
+			catch (IOException exception)
+			{
+				logger.warn("Could not delete resource files of process instance {} in directory '{}' - {}",
+						processInstanceId, directory.toString(), exception.getMessage());
+			}
+		}
+	}
+
+	private String store(Resource resource)
+	{
+		String reference;
+		long start = System.nanoTime();
+		Path tempFile = null;
+		try
+		{
+			Files.createDirectories(directory);
+			tempFile = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			try (OutputStream out = Files.newOutputStream(tempFile);
+					DigestOutputStream digestOut = new DigestOutputStream(new GZIPOutputStream(out), digest);
+					Writer writer = new OutputStreamWriter(digestOut, StandardCharsets.UTF_8))
+			{
+				fhirContext.newJsonParser().encodeResourceToWriter(resource, writer);
+			}
+
+			reference = REFERENCE_PREFIX + HexFormat.of().formatHex(digest.digest());
+			Path file = getFile(reference);
+
+			if (touch(file))
+				Files.delete(tempFile);
+			else
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			logger.debug("Stored {} as '{}' with {} bytes in {} ms", resource.getResourceType().name(), reference,
+					Files.size(file), (System.nanoTime() - start) / 1_000_000);
+		}
+		catch (IOException | NoSuchAlgorithmException exception)
+		{
+			deleteQuietly(tempFile);
+			throw new RuntimeException("Could not store " + resource.getResourceType().name() + " in directory '"
+					+ directory.toString() + "' - " + exception.getMessage(), exception);
+		}
+
+		return reference;
+	}
+
+	/**
+	 * @return <code>false</code> if the referenced file was deleted before the reference was added
+	 */
+	private synchronized boolean addReference(String processInstanceId, String reference)
+	{
+		Path referencesFile = getReferencesFile(processInstanceId);
+		try
+		{
+			if (readReferences(referencesFile).contains(reference))
+				touch(referencesFile);
+			else if (Files.exists(getFile(reference)))
+				Files.writeString(referencesFile, reference + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+			else
+				return false;
+
+			return true;
+		}
+		catch (IOException exception)
+		{
+			throw new RuntimeException("Could not write references of process instance " + processInstanceId
+					+ " to file '" + referencesFile.toString() + "' - " + exception.getMessage(), exception);
+		}
+	}
+
+	private Set<String> readReferences(Path referencesFile) throws IOException
+	{
+		try
+		{
+			return new HashSet<>(Files.readAllLines(referencesFile, StandardCharsets.UTF_8));
+		}
+		catch (NoSuchFileException exception)
+		{
+			return new HashSet<>();
+		}
+	}
+
+	private Set<String> readReferences(DirectoryStream.Filter<Path> referencesFilter) throws IOException
+	{
+		Set<String> references = new HashSet<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				f -> f.getFileName().toString().startsWith(REFERENCES_FILE_PREFIX) && referencesFilter.accept(f)))
+		{
+			for (Path file : files)
+				references.addAll(readReferences(file));
+		}
+		catch (NoSuchFileException exception)
+		{
+			// directory not created yet
+		}
+
+		return references;
+	}
+
+	private Resource load(String reference)
+	{
+		Path file = getFile(reference);
+
+		long start = System.nanoTime();
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file)))
+		{
+			Resource resource = (Resource) fhirContext.newJsonParser().parseResource(in);
+			touch(file);
+
+			logger.debug("Read {} '{}' in {} ms", resource.getResourceType().name(), reference,
+					(System.nanoTime() - start) / 1_000_000);
+
+			return resource;
+		}
+		catch (IOException exception)
+		{
+			throw new RuntimeException(
+					"Could not read resource '" + reference + "' from file '" + file.toString() + "' - "
+							+ (exception instanceof NoSuchFileException ? "file not found" : exception.getMessage()),
+					exception);
+		}
+	}
+
+	private void memoize(String processInstanceId, String reference, Resource resource)
+	{
+		synchronized (memo)
+		{
+			memo.put(getMemoKey(processInstanceId, reference), resource);
+		}
+	}
+
+	private String getMemoKey(String processInstanceId, String reference)
+	{
+		return processInstanceId + " " + reference;
+	}
+
+	private Path getFile(String reference)
+	{
+		if (!reference.startsWith(REFERENCE_PREFIX))
+			throw new IllegalArgumentException("Unsupported resource reference '" + reference + "'");
+
+		String hash = reference.substring(REFERENCE_PREFIX.length());
+		if (hash.isEmpty() || !hash.chars().allMatch(c -> Character.digit(c, 16) >= 0))
+			throw new IllegalArgumentException("Unsupported resource reference '" + reference + "'");
+
+		return directory.resolve(FILE_PREFIX + hash + FILE_SUFFIX);
+	}
+
+	private Path getReferencesFile(String processInstanceId)
+	{
+		return directory.resolve(REFERENCES_FILE_PREFIX + processInstanceId.replaceAll("[^A-Za-z0-9._-]", "_"));
+	}
+
+	/**
+	 * @return <code>true</code> if the file exists
+	 */
+	private boolean touch(Path file)
+	{
+		try
+		{
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return true;
+		}
+		catch (IOException exception)
+		{
+			return false;
+		}
+	}
+
+	private void deleteQuietly(Path file)
+	{
+		try
+		{
+			if (file != null)
+				Files.deleteIfExists(file);
+		}
+		catch (IOException exception)
+		{
+			logger.debug("Could not delete file '{}' - {}", file.toString(), exception.getMessage());
+		}
+	}
+
+	private void cleanup()
+	{
+		if (retention <= 0)
+			return;
+
+		synchronized (this)
+		{
+			long now = System.currentTimeMillis();
+			if (now - lastCleanup < CLEANUP_INTERVAL)
+				return;
+
+			lastCleanup = now;
+
+			long expired = now - retention;
+			try
+			{
+				Set<String> referenced = readReferences(f -> !isExpired(f, expired));
+
+				List<Path> expiredFiles = new ArrayList<>();
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+						f -> isExpired(f, expired) && (f.getFileName().toString().startsWith(REFERENCES_FILE_PREFIX)
+								|| !referenced.contains(getReference(f)))))
+				{
+					files.forEach(expiredFiles::add);
+				}
+
+				for (Path file : expiredFiles)
+				{
+					if (Files.deleteIfExists(file))
+						logger.debug("Deleted expired file '{}'", file.toString());
+				}
+			}
+			catch (IOException exception)
+			{
+				logger.warn("Could not delete expired files in directory '{}' - {}", directory.toString(),
+						exception.getMessage());
+			}
+		}
+	}
+
+	private boolean isExpired(Path file, long expired)
+	{
+		String fileName = file.getFileName().toString();
+		if (!fileName.startsWith(REFERENCES_FILE_PREFIX)
+				&& !(fileName.startsWith(FILE_PREFIX) && fileName.endsWith(FILE_SUFFIX)))
+			return false;
+
+		try
+		{
+			return Files.getLastModifiedTime(file).toMillis() < expired;
+		}
+		catch (IOException exception)
+		{
+			return false;
+		}
+	}
+
+	private String getReference(Path file)
+	{
+		String fileName = file.getFileName().toString();
+		return REFERENCE_PREFIX + fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length());
+	}
+}
@@ -0,0 +1,209 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.variables.Variables;
+import dev.dsf.fhir.client.BasicFhirWebserviceClient;
+import dev.dsf.fhir.client.FhirWebserviceClient;
+import dev.dsf.fhir.client.PreferReturnMinimal;
+import dev.dsf.fhir.client.PreferReturnMinimalWithRetry;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+
+/**
+ * Retries failed DSF webservice requests without blocking the job executor thread. Instead of waiting in the delegate,
+ * transient failures throw a {@link BpmnError} with code {@value ConstantsReport#BPMN_ERROR_REPORT_RETRY} caught by an
+ * error boundary event of the failed activity, followed by a timer event with duration <code>${reportRetryDelay}</code>
+ * leading back to the activity. Delays grow exponentially with random jitter, attempts are counted per activity in the
+ * process variables.
+ * <p>
+ * Connection errors and HTTP status codes 408, 429, 500, 502, 503 and 504 of DSF webservice clients and HAPI FHIR
+ * clients are transient. If disabled, DSF webservice clients retry requests in the delegate as before.
+ */
+public class ScheduledRetry
+{
+	private static final Logger logger = LoggerFactory.getLogger(ScheduledRetry.class);
+
+	private static final Set<Integer> TRANSIENT_STATUS_CODES = Set.of(408, 429, 500, 502, 503, 504);
+
+	private final int maxAttempts;
+	private final long initialDelay;
+	private final long maxDelay;
+	private final double jitter;
+	private final ReportMetrics metrics;
+
+	/**
+	 * @param maxAttempts
+	 *            maximum number of scheduled retries per activity, <code>&lt;= 0</code> disables scheduled retries
+	 * @param initialDelay
+	 *            milliseconds before the first retry, doubled for every further retry
+	 * @param maxDelay
+	 *            maximum milliseconds between retries
+	 * @param jitter
+	 *            <code>0 - 1</code>, fraction of the delay randomly subtracted
+	 * @param metrics
+	 *            not <code>null</code>
+	 */
+	public ScheduledRetry(int maxAttempts, long initialDelay, long maxDelay, double jitter, ReportMetrics metrics)
+	{
+		if (maxAttempts > 0 && initialDelay <= 0)
+			throw new IllegalArgumentException("initialDelay <= 0");
+		if (maxDelay < initialDelay)
+			throw new IllegalArgumentException("maxDelay < initialDelay");
+		if (jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException("jitter < 0 or > 1");
+
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.jitter = jitter;
+		this.metrics = Objects.requireNonNull(metrics, "metrics");
+	}
+
+	public boolean isEnabled()
+	{
+		return maxAttempts > 0;
+	}
+
+	/**
+	 * @param client
+	 *            not <code>null</code>
+	 * @return the given client if enabled, a client retrying requests in the current thread otherwise
+	 */
+	public BasicFhirWebserviceClient withRetry(FhirWebserviceClient client)
+	{
+		return isEnabled() ? client
+				: client.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES,
+						ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+	}
+
+	/**
+	 * @param client
+	 *            not <code>null</code>
+	 * @return the given client if enabled, a client retrying requests in the current thread otherwise
+	 */
+	public PreferReturnMinimal withRetry(PreferReturnMinimalWithRetry client)
+	{
+		return isEnabled() ? client
+				: client.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES,
+						ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+	}
+
+	/**
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the current activity is executed again after a scheduled retry
+	 */
+	public boolean isRetry(DelegateExecution execution, Variables variables)
+	{
+		return getAttempt(execution, variables) > 0;
+	}
+
+	/**
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @param exception
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the given exception is transient and the current activity has retries left
+	 */
+	public boolean canRetry(DelegateExecution execution, Variables variables, Exception exception)
+	{
+		return isEnabled() && isTransient(exception) && getAttempt(execution, variables) < maxAttempts;
+	}
+
+	/**
+	 * Schedules a retry of the current activity if {@link #canRetry(DelegateExecution, Variables, Exception)}, does
+	 * nothing otherwise.
+	 *
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @param step
+	 *            not <code>null</code>, name of the failed step used for logging and metrics
+	 * @param exception
+	 *            not <code>null</code>
+	 * @throws BpmnError
+	 *             with code {@value ConstantsReport#BPMN_ERROR_REPORT_RETRY} if a retry was scheduled
+	 */
+	public void retryIfPossible(DelegateExecution execution, Variables variables, String step, Exception exception)
+			throws BpmnError
+	{
+		if (!isEnabled() || !isTransient(exception))
+			return;
+
+		int attempt = getAttempt(execution, variables);
+		if (attempt >= maxAttempts)
+		{
+			logger.warn("{} failed after {} scheduled retries, giving up - {}", step, attempt, exception.getMessage());
+			return;
+		}
+
+		Duration delay = getDelay(attempt);
+		variables.setInteger(getAttemptVariable(execution), attempt + 1);
+		variables.setString(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_RETRY_DELAY, delay.toString());
+		metrics.recordDelegateRetry(step);
+
+		logger.warn("{} failed, retry {} of {} in {} s - {}", step, attempt + 1, maxAttempts, delay.toSeconds(),
+				exception.getMessage());
+		throw new BpmnError(ConstantsReport.BPMN_ERROR_REPORT_RETRY, step + " - " + exception.getMessage());
+	}
+
+	private int getAttempt(DelegateExecution execution, Variables variables)
+	{
+		Integer attempt = variables.getInteger(getAttemptVariable(execution));
+		return attempt == null ? 0 : attempt;
+	}
+
+	private String getAttemptVariable(DelegateExecution execution)
+	{
+		return ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_RETRY_ATTEMPT + "_" + execution.getCurrentActivityId();
+	}
+
+	private Duration getDelay(int attempt)
+	{
+		long delay = initialDelay << Math.min(attempt, 30);
+		if (delay <= 0 || delay > maxDelay)
+			delay = maxDelay;
+
+		delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+
+		return Duration.ofSeconds(Math.max(1, (delay + 999) / 1000));
+	}
+
+	private boolean isTransient(Throwable exception)
+	{
+		for (Throwable t = exception; t != null; t = t.getCause() == t ? null : t.getCause())
+		{
+			if (t instanceof ProcessingException || t instanceof FhirClientConnectionException)
+				return true;
+
+			if (t instanceof BaseServerResponseException serverException
+					&& TRANSIENT_STATUS_CODES.contains(serverException.getStatusCode()))
+				return true;
+
+			if (t instanceof WebApplicationException webException && webException.getResponse() != null
+					&& TRANSIENT_STATUS_CODES.contains(webException.getResponse().getStatus()))
+				return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,32 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.List;
+
+/**
+ * Validated and normalized form of a search Bundle, compiled once per search Bundle version by the
+ * {@link SearchBundlePlanCache}.
+ *
+ * @param key
+ *            search Bundle identifier and version or content hash
+ * @param urls
+ *            request urls of all GET entries in search Bundle order
+ * @param canonicalUrls
+ *            canonical form of {@link #urls()} as created by {@link SearchUrl#canonicalize(String)}, same size and
+ *            order
+ * @param violations
+ *            violation messages of the {@link SearchBundleValidator}, empty if the search Bundle is valid
+ */
+public record SearchBundlePlan(String key, List<String> urls, List<String> canonicalUrls, List<String> violations)
+{
+	public SearchBundlePlan
+	{
+		urls = List.copyOf(urls);
+		canonicalUrls = List.copyOf(canonicalUrls);
+		violations = List.copyOf(violations);
+	}
+
+	public boolean isValid()
+	{
+		return violations.isEmpty();
+	}
+}
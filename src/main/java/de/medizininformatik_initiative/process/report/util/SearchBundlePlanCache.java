@@ -0,0 +1,178 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of {@link SearchBundlePlan}s, search Bundles are validated and their request urls canonicalized once
+ * per search Bundle version. Plans are keyed by the search Bundle identifier and the versioned resource id if the
+ * search Bundle was read from a FHIR server, otherwise by a hash of the entries. Changed search Bundles therefore never
+ * match a cached plan, the least recently used plans are evicted.
+ */
+public class SearchBundlePlanCache
+{
+	private static final Logger logger = LoggerFactory.getLogger(SearchBundlePlanCache.class);
+
+	private final SearchBundleValidator validator = new SearchBundleValidator();
+	private final int maxEntries;
+	private final Map<String, SearchBundlePlan> plans;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of cached plans, <code>&lt;= 0</code> disables the cache
+	 */
+	public SearchBundlePlanCache(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+
+		plans = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SearchBundlePlan> eldest)
+			{
+				return size() > SearchBundlePlanCache.this.maxEntries;
+			}
+		};
+	}
+
+	public boolean isEnabled()
+	{
+		return maxEntries > 0;
+	}
+
+	/**
+	 * @param searchBundle
+	 *            not <code>null</code>
+	 * @return cached plan of the given search Bundle version, compiled if not cached
+	 */
+	public SearchBundlePlan get(Bundle searchBundle)
+	{
+		Objects.requireNonNull(searchBundle, "searchBundle");
+
+		String key = getKey(searchBundle);
+
+		if (isEnabled())
+		{
+			synchronized (plans)
+			{
+				SearchBundlePlan plan = plans.get(key);
+				if (plan != null)
+				{
+					hits.incrementAndGet();
+					logger.debug("Using cached plan of search Bundle '{}'", key);
+
+					return plan;
+				}
+			}
+		}
+
+		misses.incrementAndGet();
+
+		long start = System.nanoTime();
+		SearchBundlePlan plan = compile(key, searchBundle);
+		logger.debug("Compiled plan of search Bundle '{}' with {} requests in {} ms", key, plan.urls().size(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+		if (isEnabled())
+		{
+			synchronized (plans)
+			{
+				plans.put(key, plan);
+			}
+		}
+
+		return plan;
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	private SearchBundlePlan compile(String key, Bundle searchBundle)
+	{
+		List<String> violations = validator.validate(searchBundle.getEntry());
+
+		List<String> urls = searchBundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasRequest)
+				.map(Bundle.BundleEntryComponent::getRequest)
+				.filter(r -> r.hasUrl() && r.hasMethod() && Bundle.HTTPVerb.GET.equals(r.getMethod()))
+				.map(Bundle.BundleEntryRequestComponent::getUrl).toList();
+		List<String> canonicalUrls = urls.stream().map(SearchUrl::canonicalize).toList();
+
+		return new SearchBundlePlan(key, urls, canonicalUrls, violations);
+	}
+
+	private String getKey(Bundle searchBundle)
+	{
+		String identifier = searchBundle.hasIdentifier()
+				? searchBundle.getIdentifier().getSystem() + "|" + searchBundle.getIdentifier().getValue()
+				: "";
+
+		// versions of resources read from a FHIR server are immutable
+		IdType id = searchBundle.getIdElement();
+		String versionId = id.hasVersionIdPart() ? id.getVersionIdPart() : searchBundle.getMeta().getVersionId();
+		if (id.hasIdPart() && versionId != null)
+			return identifier + "|" + id.getIdPart() + "/_history/" + versionId;
+		else
+			return identifier + "|sha256:" + getContentHash(searchBundle);
+	}
+
+	/**
+	 * @return hash of the entry elements used by the plan
+	 */
+	private String getContentHash(Bundle searchBundle)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new IllegalStateException(exception);
+		}
+
+		for (Bundle.BundleEntryComponent entry : searchBundle.getEntry())
+		{
+			Bundle.BundleEntryRequestComponent request = entry.hasRequest() ? entry.getRequest() : null;
+
+			update(digest, entry.getResource() == null ? "-" : "+");
+			update(digest, request == null || !request.hasMethod() ? null : request.getMethod().toCode());
+			update(digest, request == null || !request.hasUrl() ? null : request.getUrl());
+		}
+
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private void update(MessageDigest digest, String value)
+	{
+		byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+
+		digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(value == null ? -1 : bytes.length).array());
+		digest.update(bytes);
+	}
+}
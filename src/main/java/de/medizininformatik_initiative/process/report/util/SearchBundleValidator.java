@@ -0,0 +1,297 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Validates the requests of search Bundles in a single pass over the Bundle entries. Request urls are split into path
+ * and search params without regular expressions and checked against hash based lookups of the allowed resource types
+ * and search params. All violations are collected, grouped by rule in the order the rules are checked.
+ * <p>
+ * Request urls are parsed like {@link UriComponentsBuilder#fromUriString(String)} without encoding, urls with scheme,
+ * authority, fragment or empty path segments are parsed with {@link UriComponentsBuilder}.
+ */
+public final class SearchBundleValidator
+{
+	private enum Rule
+	{
+		NO_RESOURCE, METHOD_GET, URL, PATH, SUMMARY_COUNT, SEARCH_PARAM, DATE_FILTER, DATE_VALUE, TOKEN_VALUE
+	}
+
+	private record SearchRequest(String path, Map<String, List<String>> searchParams)
+	{
+	}
+
+	private static final char MODIFIER_SEPARATOR = ':';
+	private static final String DATE_EQUALITY_FILTER = "eq";
+	private static final String CODE_SYSTEM_SEPARATOR = "|";
+
+	private static final String CAPABILITY_STATEMENT_PATH = "metadata";
+	private static final String SUMMARY_SEARCH_PARAM = "_summary";
+	private static final String SUMMARY_SEARCH_PARAM_VALUE_COUNT = "count";
+	private static final String TYPE_SEARCH_PARAM = "type";
+
+	private static final List<String> DATE_SEARCH_PARAMS = List.of("date", "recorded-date", "onset-date", "effective",
+			"effective-time", "authored", "collected", "issued", "period", "location-period", "occurrence");
+	private static final List<String> TOKEN_SEARCH_PARAMS = List.of("code", "ingredient-code", "type");
+	private static final List<String> OTHER_SEARCH_PARAMS = List.of("_profile", "_summary");
+	private static final List<String> VALID_SEARCH_PARAMS = Stream
+			.of(DATE_SEARCH_PARAMS.stream(), TOKEN_SEARCH_PARAMS.stream(), OTHER_SEARCH_PARAMS.stream()).flatMap(s -> s)
+			.toList();
+
+	private final Set<String> resourceTypes = EnumSet.allOf(ResourceType.class).stream().map(ResourceType::name)
+			.collect(Collectors.toUnmodifiableSet());
+	private final Set<String> validSearchParams = Set.copyOf(VALID_SEARCH_PARAMS);
+	private final Set<String> dateSearchParams = Set.copyOf(DATE_SEARCH_PARAMS);
+	private final Set<String> tokenSearchParams = Set.copyOf(TOKEN_SEARCH_PARAMS);
+
+	/**
+	 * @return allowed search params without modifiers
+	 */
+	public static List<String> getValidSearchParams()
+	{
+		return VALID_SEARCH_PARAMS;
+	}
+
+	/**
+	 * @param searches
+	 *            not <code>null</code>
+	 * @return distinct violation messages ordered by rule and entry, empty if all entries are valid
+	 */
+	public List<String> validate(List<Bundle.BundleEntryComponent> searches)
+	{
+		Map<Rule, Set<String>> violations = new EnumMap<>(Rule.class);
+
+		for (Bundle.BundleEntryComponent search : searches)
+		{
+			if (search.getResource() != null)
+				add(violations, Rule.NO_RESOURCE, "Search Bundle contains resources");
+
+			Bundle.BundleEntryRequestComponent request = search.hasRequest() ? search.getRequest() : null;
+
+			if (request == null || !request.hasMethod() || !Bundle.HTTPVerb.GET.equals(request.getMethod()))
+				add(violations, Rule.METHOD_GET, "Search Bundle contains HTTP method other then GET");
+
+			if (request == null || !request.hasUrl() || request.getUrl() == null)
+				add(violations, Rule.URL, "Search Bundle contains request without url");
+			else
+				validateUrl(request.getUrl(), violations);
+		}
+
+		return violations.values().stream().flatMap(Set::stream).toList();
+	}
+
+	private void validateUrl(String url, Map<Rule, Set<String>> violations)
+	{
+		SearchRequest request;
+		try
+		{
+			request = parse(url);
+		}
+		catch (IllegalArgumentException exception)
+		{
+			add(violations, Rule.URL, exception.getMessage());
+			return;
+		}
+
+		if (CAPABILITY_STATEMENT_PATH.equals(request.path()))
+			return;
+
+		if (request.path() == null || !resourceTypes.contains(request.path()))
+			add(violations, Rule.PATH,
+					"Search Bundle contains request url with forbidden path - [" + request.path() + "]");
+
+		validateSummaryCount(request.searchParams().get(SUMMARY_SEARCH_PARAM), violations);
+
+		List<String> erroneousDateFilters = new ArrayList<>(0);
+		List<String> erroneousDateValues = new ArrayList<>(0);
+		List<String> erroneousCodeValues = new ArrayList<>(0);
+
+		for (Map.Entry<String, List<String>> searchParam : request.searchParams().entrySet())
+		{
+			String name = searchParam.getKey();
+			String nameWithoutModifier = removeModifier(name);
+
+			if (!validSearchParams.contains(nameWithoutModifier))
+				add(violations, Rule.SEARCH_PARAM,
+						"Search Bundle contains invalid search params, only allowed search params are "
+								+ VALID_SEARCH_PARAMS);
+
+			if (dateSearchParams.contains(nameWithoutModifier))
+			{
+				for (String value : searchParam.getValue())
+				{
+					if (value == null || !value.startsWith(DATE_EQUALITY_FILTER))
+						erroneousDateFilters.add(name + ":" + value);
+
+					if (value == null || !isYear(value.replace(DATE_EQUALITY_FILTER, "")))
+						erroneousDateValues.add(name + ":" + value);
+				}
+			}
+
+			// Exemption for Encounter.type token params
+			if (tokenSearchParams.contains(nameWithoutModifier) && !isEncounterType(request.path(), name))
+			{
+				for (String value : searchParam.getValue())
+				{
+					if (value == null || !value.endsWith(CODE_SYSTEM_SEPARATOR))
+						erroneousCodeValues.add(name + ":" + value);
+				}
+			}
+		}
+
+		if (!erroneousDateFilters.isEmpty())
+			add(violations, Rule.DATE_FILTER, "Search Bundle contains date search params not starting with 'eq' - ["
+					+ String.join(",", erroneousDateFilters) + "]");
+
+		if (!erroneousDateValues.isEmpty())
+			add(violations, Rule.DATE_VALUE, "Search Bundle contains date search params not limited to a year - ["
+					+ String.join(",", erroneousDateValues) + "]");
+
+		if (!erroneousCodeValues.isEmpty())
+			add(violations, Rule.TOKEN_VALUE, "Search Bundle contains code search params not limited to system - ["
+					+ String.join(",", erroneousCodeValues) + "]");
+	}
+
+	private void validateSummaryCount(List<String> summaryParams, Map<Rule, Set<String>> violations)
+	{
+		if (summaryParams == null || summaryParams.isEmpty())
+			add(violations, Rule.SUMMARY_COUNT, "Search Bundle contains request url without _summary parameter");
+		else if (summaryParams.size() > 1)
+			add(violations, Rule.SUMMARY_COUNT,
+					"Search Bundle contains request url with more than one _summary parameter");
+		else if (!SUMMARY_SEARCH_PARAM_VALUE_COUNT.equals(summaryParams.get(0)))
+			add(violations, Rule.SUMMARY_COUNT,
+					"Search Bundle contains request url with unexpected _summary parameter value (expected: count, actual: "
+							+ summaryParams.get(0) + ")");
+	}
+
+	private void add(Map<Rule, Set<String>> violations, Rule rule, String message)
+	{
+		violations.computeIfAbsent(rule, r -> new LinkedHashSet<>()).add(message);
+	}
+
+	private boolean isEncounterType(String path, String name)
+	{
+		return TYPE_SEARCH_PARAM.equals(name) && ResourceType.Encounter.name().equals(path);
+	}
+
+	/**
+	 * @return year <code>20xx</code>
+	 */
+	private boolean isYear(String value)
+	{
+		return value.length() == 4 && value.charAt(0) == '2' && value.charAt(1) == '0' && isDigit(value.charAt(2))
+				&& isDigit(value.charAt(3));
+	}
+
+	private boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return search param name without modifier, names containing line terminators are returned unchanged and are
+	 *         therefore never valid
+	 */
+	private String removeModifier(String name)
+	{
+		for (int i = 0; i < name.length(); i++)
+		{
+			char c = name.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return name;
+		}
+
+		int separator = name.indexOf(MODIFIER_SEPARATOR);
+		return separator < 0 ? name : name.substring(0, separator);
+	}
+
+	private SearchRequest parse(String url)
+	{
+		int pathEnd = url.indexOf('?');
+		String path = pathEnd < 0 ? url : url.substring(0, pathEnd);
+
+		if (hasSchemeOrAuthority(path) || url.indexOf('#') >= 0 || path.contains("//"))
+			return parseWithUriComponentsBuilder(url);
+
+		Map<String, List<String>> searchParams = pathEnd < 0 ? Collections.emptyMap()
+				: parseSearchParams(url, pathEnd + 1);
+
+		return new SearchRequest(path, searchParams);
+	}
+
+	private boolean hasSchemeOrAuthority(String path)
+	{
+		if (path.startsWith("//"))
+			return true;
+
+		int colon = path.indexOf(':');
+		int slash = path.indexOf('/');
+		return colon > 0 && (slash < 0 || colon < slash);
+	}
+
+	/**
+	 * Splits the query at <code>&amp;</code>, name and value at the first <code>=</code>. Values are <code>null</code>
+	 * for params without <code>=</code>, leading <code>=</code> are ignored.
+	 */
+	private Map<String, List<String>> parseSearchParams(String url, int queryStart)
+	{
+		Map<String, List<String>> searchParams = new LinkedHashMap<>();
+
+		int start = queryStart;
+		while (start <= url.length())
+		{
+			int end = url.indexOf('&', start);
+			if (end < 0)
+				end = url.length();
+
+			int nameStart = start;
+			while (nameStart < end && url.charAt(nameStart) == '=')
+				nameStart++;
+
+			if (nameStart < end)
+			{
+				int separator = url.indexOf('=', nameStart);
+				String name, value;
+
+				if (separator < 0 || separator >= end)
+				{
+					name = url.substring(nameStart, end);
+					value = null;
+				}
+				else
+				{
+					name = url.substring(nameStart, separator);
+					value = url.substring(separator + 1, end);
+				}
+
+				searchParams.computeIfAbsent(name, n -> new ArrayList<>(1)).add(value);
+			}
+
+			start = end + 1;
+		}
+
+		return searchParams;
+	}
+
+	private SearchRequest parseWithUriComponentsBuilder(String url)
+	{
+		UriComponents components = UriComponentsBuilder.fromUriString(url).build();
+		return new SearchRequest(components.getPath(), components.getQueryParams());
+	}
+}
@@ -0,0 +1,98 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+public final class SearchUrl
+{
+	private static final String SUMMARY_SEARCH_PARAM = "_summary";
+	private static final String SUMMARY_SEARCH_PARAM_VALUE_COUNT = "count";
+
+	private SearchUrl()
+	{
+	}
+
+	/**
+	 * Decodes path and search params, removes repeated search params and sorts the search params, semantically
+	 * identical search urls result in the same canonical url. Search params are encoded again like
+	 * {@link #encode(String)} does, encoded delimiters within values do not change the params of the canonical url.
+	 *
+	 * @param url
+	 *            not <code>null</code>, relative search url as contained in search Bundles
+	 * @return canonical url, the given url if it can not be decoded
+	 */
+	public static String canonicalize(String url)
+	{
+		try
+		{
+			UriComponents components = UriComponentsBuilder.fromUriString(url).build();
+			String path = decode(Objects.toString(components.getPath(), ""));
+
+			String query = components.getQueryParams().entrySet().stream().flatMap(SearchUrl::toParams).distinct()
+					.sorted().collect(Collectors.joining("&"));
+
+			return query.isEmpty() ? path : path + "?" + query;
+		}
+		catch (IllegalArgumentException exception)
+		{
+			return url;
+		}
+	}
+
+	/**
+	 * Decodes and encodes path and search params, search params keep their order.
+	 *
+	 * @param url
+	 *            not <code>null</code>, relative search url as contained in search Bundles
+	 * @return url that can be sent to the FHIR server
+	 */
+	public static String encode(String url)
+	{
+		UriComponents components = UriComponentsBuilder.fromUriString(url).build();
+		String path = UriUtils.encodePath(decode(Objects.toString(components.getPath(), "")), StandardCharsets.UTF_8);
+
+		String query = components.getQueryParams().entrySet().stream()
+				.flatMap(param -> param.getValue().stream()
+						.map(value -> encodeQueryParam(decode(param.getKey())) + "="
+								+ (value == null ? "" : encodeQueryParam(decode(value)))))
+				.collect(Collectors.joining("&"));
+
+		return query.isEmpty() ? path : path + "?" + query;
+	}
+
+	/**
+	 * @param url
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the url is a search request with a single <code>_summary=count</code> param
+	 */
+	public static boolean isCountRequest(String url)
+	{
+		return url.contains("?") && UriComponentsBuilder.fromUriString(url).build().getQueryParams()
+				.getOrDefault(SUMMARY_SEARCH_PARAM, List.of()).equals(List.of(SUMMARY_SEARCH_PARAM_VALUE_COUNT));
+	}
+
+	private static Stream<String> toParams(Map.Entry<String, List<String>> param)
+	{
+		String key = encodeQueryParam(decode(param.getKey()));
+		return param.getValue().stream()
+				.map(value -> key + "=" + (value == null ? "" : encodeQueryParam(decode(value))));
+	}
+
+	private static String encodeQueryParam(String value)
+	{
+		return UriUtils.encodeQueryParam(value, StandardCharsets.UTF_8);
+	}
+
+	private static String decode(String value)
+	{
+		return UriUtils.decode(value, StandardCharsets.UTF_8);
+	}
+}
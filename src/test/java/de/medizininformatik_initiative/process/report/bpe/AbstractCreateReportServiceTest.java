@@ -0,0 +1,315 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.web.util.UriUtils;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.IInterceptorService;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import ca.uhn.fhir.rest.gclient.ITransactionTyped;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.FhirStoreClient;
+import de.medizininformatik_initiative.process.report.service.CreateReport;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Executes the {@link CreateReport} service against a mocked FHIR store. Tests configure the components of each service
+ * explicitly with {@link #service()}.
+ */
+public abstract class AbstractCreateReportServiceTest
+{
+	protected static final FhirContext fhirContext = FhirContext.forR4();
+	protected static final Date LAST_UPDATED = new Date(1718968019772L);
+	protected static final String CAPABILITY_STATEMENT_ETAG = "W/\"1\"";
+
+	@Mock
+	protected DelegateExecution execution;
+
+	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
+	protected ProcessPluginApi api;
+
+	@Mock
+	protected Variables variables;
+
+	@Mock
+	protected Target target;
+
+	@Mock
+	protected Task task;
+
+	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
+	protected FhirStoreClient fhirStoreClient;
+
+	@Mock
+	protected DataLogger dataLogger;
+
+	@Rule
+	public final TemporaryFolder cacheDirectory = new TemporaryFolder();
+
+	protected final List<Bundle> storedReports = new ArrayList<>();
+	protected final List<String> searchedUrls = Collections.synchronizedList(new ArrayList<>());
+	protected final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+	// requests of this prefix fail with an internal server error
+	protected String failingUrlPrefix = "Medication?code=http://www.whocc.no/atc";
+
+	/**
+	 * @return builder of a {@link CreateReport} service using the mocked FHIR store, optional components are disabled
+	 */
+	protected CreateReportBuilder service()
+	{
+		return new CreateReportBuilder(api, fhirStoreClient, dataLogger);
+	}
+
+	protected Bundle createReport(CreateReportBuilder service) throws Exception
+	{
+		return createReport(service, readSearchBundle());
+	}
+
+	protected Bundle createReport(CreateReportBuilder service, Bundle searchBundle) throws Exception
+	{
+		Mockito.when(variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE))
+				.thenReturn(searchBundle);
+
+		service.build().execute(execution);
+
+		return storedReports.get(storedReports.size() - 1);
+	}
+
+	protected void mockServices()
+	{
+		Mockito.when(api.getVariables(execution)).thenReturn(variables);
+		Mockito.when(variables.getStartTask()).thenReturn(task);
+		Mockito.when(task.getIdElement()).thenReturn(new IdType("Task", "report-send-start"));
+		Mockito.when(variables.getTarget()).thenReturn(target);
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn("Test_HRP");
+
+		Mockito.when(api.getOrganizationProvider().getLocalOrganizationIdentifierValue())
+				.thenReturn(Optional.of("Test_DIC"));
+		Mockito.when(api.getEndpointProvider().getLocalEndpointAddress()).thenReturn("https://dic/fhir");
+		Mockito.when(api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn()
+				.updateConditionaly(Mockito.any(), Mockito.any())).thenAnswer(this::storeReport);
+
+		Mockito.when(fhirStoreClient.getFhirBaseUrl()).thenReturn("https://store/fhir");
+		Mockito.when(fhirStoreClient.search(Mockito.anyString())).thenAnswer(this::search);
+	}
+
+	protected void mockHttpClient()
+	{
+		Mockito.when(fhirStoreClient.getGenericFhirClient().getServerBase()).thenReturn("https://store/fhir");
+
+		// deep stubs are created on first use and are not thread safe, parallel requests would race
+		Mockito.when(fhirStoreClient.getGenericFhirClient().getFhirContext()).thenReturn(fhirContext);
+		Mockito.when(fhirStoreClient.getGenericFhirClient().getInterceptorService())
+				.thenReturn(Mockito.mock(IInterceptorService.class));
+		Mockito.when(fhirStoreClient.getRestfulClientFactory()
+				.getHttpClient(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any())
+				.createGetRequest(Mockito.any(), Mockito.any())).thenAnswer(i -> createHttpRequest());
+		Mockito.when(fhirStoreClient.getGenericFhirClient().transaction().withBundle(Mockito.any(Bundle.class)))
+				.thenAnswer(this::batch);
+	}
+
+	protected IdType storeReport(InvocationOnMock invocation)
+	{
+		storedReports.add(invocation.getArgument(0));
+		return new IdType("Bundle", "report", String.valueOf(storedReports.size()));
+	}
+
+	protected Resource search(InvocationOnMock invocation) throws InterruptedException
+	{
+		return search((String) invocation.getArgument(0));
+	}
+
+	protected Resource search(String url) throws InterruptedException
+	{
+		searchedUrls.add(url);
+
+		// random delay so parallel requests finish out of order
+		Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+
+		if ("metadata".equals(url))
+		{
+			CapabilityStatement capabilityStatement = new CapabilityStatement();
+			capabilityStatement.getSoftware().setName("Test Server").setVersion("1.0.0");
+			capabilityStatement.setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+			capabilityStatement.setDate(LAST_UPDATED);
+			capabilityStatement.addFormat("application/fhir+json");
+			capabilityStatement.addFormat("json");
+			capabilityStatement.setStatus(Enumerations.PublicationStatus.ACTIVE);
+			capabilityStatement.addExtension("https://store/fhir/StructureDefinition/test", new StringType("test"));
+
+			// documentation has to be removed, resource types and search params have to be kept
+			CapabilityStatement.CapabilityStatementRestComponent rest = capabilityStatement.addRest()
+					.setMode(CapabilityStatement.RestfulCapabilityMode.SERVER).setDocumentation("Test documentation");
+			rest.addSearchParam().setName("_id").setType(Enumerations.SearchParamType.TOKEN)
+					.setDocumentation("Test documentation");
+			rest.addResource().setType("Patient").setDocumentation("Test documentation").addSearchParam()
+					.setName("birthdate").setDefinition("http://hl7.org/fhir/SearchParameter/individual-birthdate")
+					.setType(Enumerations.SearchParamType.DATE).setDocumentation("Test documentation");
+			return capabilityStatement;
+		}
+
+		if (failingUrlPrefix != null && url.startsWith(failingUrlPrefix))
+			throw new InternalErrorException("Test error for '" + url + "'");
+
+		// change probes of the count cache, nothing changed
+		if (url.contains("/_history?_since="))
+			return new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(0);
+
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(Math.abs(url.hashCode() % 1000));
+		bundle.getMeta().setLastUpdated(LAST_UPDATED);
+		return bundle;
+	}
+
+	protected ITransactionTyped<Bundle> batch(InvocationOnMock invocation) throws InterruptedException
+	{
+		@SuppressWarnings("unchecked")
+		ITransactionTyped<Bundle> transaction = Mockito.mock(ITransactionTyped.class);
+		Mockito.when(transaction.execute()).thenReturn(batch((Bundle) invocation.getArgument(0)));
+
+		return transaction;
+	}
+
+	private Bundle batch(Bundle batch) throws InterruptedException
+	{
+		Bundle batchResponse = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+
+		for (Bundle.BundleEntryComponent entry : batch.getEntry())
+		{
+			String url = entry.getRequest().getUrl();
+
+			// failed batch entries are expected to be executed again separately
+			if (failingUrlPrefix != null && url.startsWith(failingUrlPrefix))
+				batchResponse.addEntry().getResponse().setStatus("500 Internal Server Error");
+			else
+				batchResponse.addEntry().setResource(search(url)).getResponse().setStatus("200 OK");
+		}
+
+		return batchResponse;
+	}
+
+	private IHttpRequest createHttpRequest() throws IOException
+	{
+		IHttpRequest request = Mockito.mock(IHttpRequest.class);
+		AtomicReference<String> uri = new AtomicReference<>();
+		Map<String, String> headers = new HashMap<>();
+		Mockito.doAnswer(i -> uri.getAndSet(i.getArgument(0))).when(request).setUri(Mockito.anyString());
+		Mockito.doAnswer(i -> headers.put(i.getArgument(0), i.getArgument(1))).when(request)
+				.addHeader(Mockito.anyString(), Mockito.anyString());
+		Mockito.when(request.execute()).thenAnswer(i -> httpResponse(uri.get(), headers));
+
+		return request;
+	}
+
+	private IHttpResponse httpResponse(String uri, Map<String, String> headers) throws Exception
+	{
+		String url = UriUtils.decode(uri.substring("https://store/fhir/".length()), StandardCharsets.UTF_8);
+		IHttpResponse response = Mockito.mock(IHttpResponse.class);
+
+		if ("metadata".equals(url) && CAPABILITY_STATEMENT_ETAG.equals(headers.get(Constants.HEADER_IF_NONE_MATCH)))
+		{
+			notModifiedResponses.incrementAndGet();
+			Mockito.when(response.getStatus()).thenReturn(304);
+			return response;
+		}
+
+		try
+		{
+			Resource resource = search(url);
+
+			if (resource instanceof Bundle bundle)
+			{
+				// count responses of stores ignoring _summary=count, only total has to be read
+				for (int i = 0; i < 3; i++)
+					bundle.addEntry().setFullUrl("https://store/fhir/Patient/" + i).setResource(new Patient());
+			}
+			else
+				Mockito.when(response.getHeaders(Constants.HEADER_ETAG)).thenReturn(List.of(CAPABILITY_STATEMENT_ETAG));
+
+			boolean xml = resource instanceof Bundle && url.hashCode() % 2 == 0;
+			String body = xml ? fhirContext.newXmlParser().encodeResourceToString(resource)
+					: fhirContext.newJsonParser().encodeResourceToString(resource);
+
+			Mockito.when(response.getStatus()).thenReturn(200);
+			Mockito.when(response.getMimeType()).thenReturn(xml ? "application/fhir+xml" : "application/fhir+json");
+			Mockito.when(response.readEntity())
+					.thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (InternalErrorException exception)
+		{
+			Mockito.when(response.getStatus()).thenReturn(500);
+			Mockito.when(response.getStatusInfo()).thenReturn(exception.getMessage());
+		}
+
+		return response;
+	}
+
+	protected List<String> readSearchUrls()
+	{
+		return readSearchBundle().getEntry().stream().map(e -> e.getRequest().getUrl()).toList();
+	}
+
+	protected Bundle readSearchBundle()
+	{
+		try (InputStream in = getClass().getResourceAsStream("/fhir/Bundle/search-bundle-v1.1.xml"))
+		{
+			return fhirContext.newXmlParser().parseResource(Bundle.class, in);
+		}
+		catch (Exception exception)
+		{
+			throw new RuntimeException(exception);
+		}
+	}
+
+	protected int getTotal(Bundle report, int index)
+	{
+		return ((Bundle) report.getEntry().get(index).getResource()).getTotal();
+	}
+
+	protected String encode(Bundle report)
+	{
+		// creation timestamps differ between runs, everything else has to be identical
+		Bundle copy = report.copy();
+		copy.getMeta().setLastUpdated(null);
+		copy.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResource)
+				.filter(e -> e.getResponse().getStatus().startsWith("5"))
+				.forEach(e -> e.getResource().getMeta().setLastUpdated(null));
+
+		return fhirContext.newJsonParser().encodeResourceToString(copy);
+	}
+}
@@ -22,11 +22,15 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import ca.uhn.fhir.context.FhirContext;
 import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
 import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.constants.CodeSystems;
 import dev.dsf.bpe.v1.service.FhirWebserviceClientProvider;
@@ -72,6 +76,15 @@ public class CheckSearchBundleServiceTest
 	@Mock
 	private RuntimeService runtimeService;
 
+	@Spy
+	private ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+	@Spy
+	private SearchBundlePlanCache planCache = new SearchBundlePlanCache(8);
+
+	@Spy
+	private ResourceVariableStore resourceVariableStore = new ResourceVariableStore(null, FhirContext.forR4(), 0, 0);
+
 	@Captor
 	ArgumentCaptor<Task.TaskOutputComponent> output;
 
@@ -192,6 +205,23 @@ public class CheckSearchBundleServiceTest
 		testInvalid("/fhir/Bundle/search-bundle-v1.1-invalid-code-ingredient.xml", "not limited to system");
 	}
 
+	@Test
+	public void testInvalidMultiple()
+	{
+		testInvalid("/fhir/Bundle/search-bundle-invalid-multiple.xml",
+				"request url with forbidden path - [Consent/Consent]; Search Bundle contains date search params not starting with 'eq' - [recorded-date:gt2020]");
+	}
+
+	@Test
+	public void testValidCachedPlan()
+	{
+		testValid("/fhir/Bundle/search-bundle-v1.1.xml");
+		testValid("/fhir/Bundle/search-bundle-v1.1.xml");
+
+		assertEquals(1, planCache.getMisses());
+		assertEquals(1, planCache.getHits());
+	}
+
 	private void testValid(String pathToBundle)
 	{
 		try (InputStream in = getClass().getResourceAsStream(pathToBundle))
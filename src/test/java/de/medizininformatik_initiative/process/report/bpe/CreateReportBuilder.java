@@ -0,0 +1,153 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import de.medizininformatik_initiative.process.report.client.AdaptiveConcurrencyLimiter;
+import de.medizininformatik_initiative.process.report.client.CapabilityStatementClient;
+import de.medizininformatik_initiative.process.report.client.CircuitBreaker;
+import de.medizininformatik_initiative.process.report.client.CountCache;
+import de.medizininformatik_initiative.process.report.client.CountClient;
+import de.medizininformatik_initiative.process.report.client.FhirStoreClient;
+import de.medizininformatik_initiative.process.report.client.RequestHedging;
+import de.medizininformatik_initiative.process.report.client.RequestRateLimiter;
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.service.CreateReport;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+
+/**
+ * Creates {@link CreateReport} services for tests. Searches are executed sequentially and one by one, all optional
+ * components are disabled unless configured.
+ */
+public class CreateReportBuilder
+{
+	private final ProcessPluginApi api;
+	private final FhirStoreClient fhirStoreClient;
+	private final DataLogger dataLogger;
+
+	private int searchParallelism = 1;
+	private boolean searchBatchEnabled;
+	private RequestRateLimiter rateLimiter;
+	private AdaptiveConcurrencyLimiter concurrencyLimiter;
+	private CircuitBreaker circuitBreaker = new CircuitBreaker(0, 0);
+	private RequestHedging requestHedging = new RequestHedging(0);
+	private SearchTimeouts searchTimeouts = new SearchTimeouts(0, 0);
+	private SearchDurations searchDurations = new SearchDurations(false, null);
+	private CountCache countCache = new CountCache(null, 0, 0);
+	private CountClient countClient = new CountClient(false);
+	private CapabilityStatementClient capabilityStatementClient = new CapabilityStatementClient(false);
+	private SearchJournal searchJournal = new SearchJournal(null, 0);
+	private ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+	public CreateReportBuilder(ProcessPluginApi api, FhirStoreClient fhirStoreClient, DataLogger dataLogger)
+	{
+		this.api = api;
+		this.fhirStoreClient = fhirStoreClient;
+		this.dataLogger = dataLogger;
+	}
+
+	public CreateReportBuilder searchParallelism(int searchParallelism)
+	{
+		this.searchParallelism = searchParallelism;
+		return this;
+	}
+
+	public CreateReportBuilder searchBatchEnabled()
+	{
+		this.searchBatchEnabled = true;
+		return this;
+	}
+
+	/**
+	 * @param rateLimiter
+	 *            if not configured, a disabled rate limiter is used
+	 */
+	public CreateReportBuilder rateLimiter(RequestRateLimiter rateLimiter)
+	{
+		this.rateLimiter = rateLimiter;
+		return this;
+	}
+
+	/**
+	 * @param concurrencyLimiter
+	 *            if not configured, a disabled limiter allowing <code>searchParallelism</code> concurrent requests is
+	 *            used
+	 */
+	public CreateReportBuilder concurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter)
+	{
+		this.concurrencyLimiter = concurrencyLimiter;
+		return this;
+	}
+
+	public CreateReportBuilder circuitBreaker(CircuitBreaker circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+		return this;
+	}
+
+	public CreateReportBuilder requestHedging(RequestHedging requestHedging)
+	{
+		this.requestHedging = requestHedging;
+		return this;
+	}
+
+	public CreateReportBuilder searchTimeouts(SearchTimeouts searchTimeouts)
+	{
+		this.searchTimeouts = searchTimeouts;
+		return this;
+	}
+
+	public CreateReportBuilder searchDurations(SearchDurations searchDurations)
+	{
+		this.searchDurations = searchDurations;
+		return this;
+	}
+
+	public CreateReportBuilder countCache(CountCache countCache)
+	{
+		this.countCache = countCache;
+		return this;
+	}
+
+	public CreateReportBuilder countClient(CountClient countClient)
+	{
+		this.countClient = countClient;
+		return this;
+	}
+
+	public CreateReportBuilder capabilityStatementClient(CapabilityStatementClient capabilityStatementClient)
+	{
+		this.capabilityStatementClient = capabilityStatementClient;
+		return this;
+	}
+
+	public CreateReportBuilder searchJournal(SearchJournal searchJournal)
+	{
+		this.searchJournal = searchJournal;
+		return this;
+	}
+
+	public CreateReportBuilder metrics(ReportMetrics metrics)
+	{
+		this.metrics = metrics;
+		return this;
+	}
+
+	public CreateReport build()
+	{
+		RequestRateLimiter requestRateLimiter = rateLimiter != null ? rateLimiter
+				: new RequestRateLimiter(0, 0, metrics);
+		AdaptiveConcurrencyLimiter limiter = concurrencyLimiter != null ? concurrencyLimiter
+				: new AdaptiveConcurrencyLimiter(false, 1, searchParallelism);
+
+		return new CreateReport(api, "1.1", fhirStoreClient, dataLogger, searchParallelism, searchBatchEnabled, 10,
+				requestRateLimiter, limiter, circuitBreaker, requestHedging, searchTimeouts, searchDurations, 0,
+				countCache, countClient, capabilityStatementClient, new SearchBundlePlanCache(8), searchJournal,
+				new ResourceVariableStore(null, AbstractCreateReportServiceTest.fhirContext, 0, 0),
+				new ScheduledRetry(6, 30000, 900000, 0.5, metrics), metrics);
+	}
+}
@@ -0,0 +1,76 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.CircuitBreaker;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportCircuitBreakerServiceTest extends AbstractCreateReportServiceTest
+{
+	@Test
+	public void testReportRetriedWhileStoreUnavailable() throws Exception
+	{
+		mockServices();
+
+		// failing requests would open the circuit again as probe requests
+		failingUrlPrefix = null;
+		Bundle expectedReport = createReport(service());
+
+		AtomicLong currentTimeMillis = new AtomicLong();
+		CircuitBreaker circuitBreaker = new CircuitBreaker(3, 30000, currentTimeMillis::get);
+		CreateReportBuilder service = service().circuitBreaker(circuitBreaker)
+				.searchJournal(new SearchJournal(cacheDirectory.newFolder("journal").toPath(), 0));
+		Mockito.when(execution.getCurrentActivityId()).thenReturn("createReport");
+
+		List<String> urls = readSearchUrls();
+		AtomicBoolean storeAvailable = new AtomicBoolean(false);
+		Mockito.when(fhirStoreClient.search(Mockito.anyString())).thenAnswer(i ->
+		{
+			if (!storeAvailable.get() && urls.indexOf(i.getArgument(0)) >= 2)
+			{
+				searchedUrls.add(i.getArgument(0));
+				throw new InternalErrorException("Store unavailable");
+			}
+
+			return search(i);
+		});
+		searchedUrls.clear();
+
+		// two successful requests, three failed requests opening the circuit, all other requests rejected, the
+		// partial report is not stored
+		BpmnError error = assertThrows(BpmnError.class, () -> createReport(service));
+		assertEquals(ConstantsReport.BPMN_ERROR_REPORT_RETRY, error.getErrorCode());
+		assertEquals(urls.subList(0, 5), searchedUrls.stream().filter(urls::contains).toList());
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertEquals(1, storedReports.size());
+
+		storeAvailable.set(true);
+		searchedUrls.clear();
+		currentTimeMillis.addAndGet(30000);
+
+		Bundle retriedReport = createReport(service);
+
+		// successful probe request closes the circuit, journaled requests are not executed again
+		assertFalse(searchedUrls.contains(urls.get(0)));
+		assertTrue(searchedUrls.containsAll(urls.subList(2, urls.size())));
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertEquals(encode(expectedReport), encode(retriedReport));
+	}
+}
@@ -0,0 +1,138 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.CountCache;
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportCountCacheServiceTest extends AbstractCreateReportServiceTest
+{
+	private CountCache createCountCache(long ttl, long ttlPastYears)
+	{
+		return new CountCache(cacheDirectory.getRoot().toPath(), ttl, ttlPastYears);
+	}
+
+	@Test
+	public void testUnchangedCountsReadFromCache() throws Exception
+	{
+		mockServices();
+
+		Bundle firstReport = createReport(service().searchParallelism(4).countCache(createCountCache(60000, 60000)));
+
+		// new cache instance, totals have to be read from the cache file
+		CountCache countCache = createCountCache(60000, 60000);
+		Bundle secondReport = createReport(service().searchParallelism(4).countCache(countCache));
+
+		long failed = secondReport.getEntry().stream().filter(e -> e.getResponse().getStatus().startsWith("5")).count();
+		assertEquals(readSearchBundle().getEntry().size() - 1 - failed, countCache.getHits());
+		assertEquals(failed, countCache.getMisses());
+		assertEquals(encode(firstReport), encode(secondReport));
+	}
+
+	@Test
+	public void testChangedResourceTypeSearchedAgain() throws Exception
+	{
+		mockServices();
+
+		CountCache countCache = createCountCache(60000, 60000);
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		// history since the FHIR store time of the cached responses contains a changed or deleted Patient
+		String probeUrl = "Patient/_history?_since=" + LAST_UPDATED.toInstant().toString() + "&_summary=count";
+		Mockito.when(fhirStoreClient.search(probeUrl)).thenReturn(new Bundle().setTotal(1));
+
+		searchedUrls.clear();
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		List<String> patientUrls = readSearchUrls().stream().filter(u -> u.startsWith("Patient?"))
+				.filter(SearchUrl::isCountRequest).map(SearchUrl::canonicalize).distinct().toList();
+		assertEquals(patientUrls.size(),
+				searchedUrls.stream().filter(u -> u.startsWith("Patient?")).filter(SearchUrl::isCountRequest).count());
+		assertTrue(patientUrls.size() > 0);
+	}
+
+	@Test
+	public void testProbeWithoutTotalHandledAsChanged() throws Exception
+	{
+		mockServices();
+
+		CountCache countCache = createCountCache(60000, 60000);
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		// stores may omit the total, nothing is known about changes since the cached responses
+		String probeUrl = "Patient/_history?_since=" + LAST_UPDATED.toInstant().toString() + "&_summary=count";
+		Mockito.when(fhirStoreClient.search(probeUrl)).thenReturn(new Bundle().setType(Bundle.BundleType.HISTORY));
+
+		searchedUrls.clear();
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		assertTrue(searchedUrls.stream().filter(u -> u.startsWith("Patient?")).anyMatch(SearchUrl::isCountRequest));
+	}
+
+	@Test
+	public void testProbesNotRecordedAsQueries() throws Exception
+	{
+		mockServices();
+
+		CountCache countCache = createCountCache(60000, 60000);
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		ReportMetrics metrics = new ReportMetrics(0, false, null);
+		SearchDurations searchDurations = new SearchDurations(true, null);
+		searchedUrls.clear();
+		createReport(service().searchParallelism(4).countCache(countCache).metrics(metrics)
+				.searchDurations(searchDurations));
+
+		List<String> probeUrls = searchedUrls.stream().filter(u -> u.contains("/_history?_since=")).toList();
+		assertFalse(probeUrls.isEmpty());
+		assertTrue(metrics.getQueryMetrics().stream().noneMatch(m -> m.getName().contains("/_history")));
+		assertEquals(probeUrls.size(), searchDurations.predict(probeUrls, 1).unknown());
+	}
+
+	@Test
+	public void testOnlyPastYearCountsReadFromCacheAfterTtl() throws Exception
+	{
+		mockServices();
+
+		// negative ttl, entries not only counting past years are expired as soon as they are cached
+		createReport(service().searchParallelism(4).countCache(createCountCache(-1, 60000)));
+
+		CountCache countCache = createCountCache(-1, 60000);
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		// search Bundle contains one request for each year 2000 - 2024
+		assertEquals(25, countCache.getHits());
+	}
+
+	@Test
+	public void testForceRefreshIgnoresCache() throws Exception
+	{
+		mockServices();
+		Mockito.when(api.getTaskHelper().getFirstInputParameterValue(task, ConstantsReport.CODESYSTEM_REPORT,
+				ConstantsReport.CODESYSTEM_REPORT_VALUE_FORCE_REFRESH, BooleanType.class))
+				.thenReturn(Optional.of(new BooleanType(true)));
+
+		CountCache countCache = createCountCache(60000, 60000);
+		createReport(service().searchParallelism(4).countCache(countCache));
+		createReport(service().searchParallelism(4).countCache(countCache));
+
+		assertEquals(0, countCache.getHits());
+		assertEquals(0, countCache.getMisses());
+	}
+}
@@ -0,0 +1,54 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportDispatchServiceTest extends AbstractCreateReportServiceTest
+{
+	@Test
+	public void testSlowestRequestDispatchedFirst() throws Exception
+	{
+		mockServices();
+
+		// fixed number of threads without adaptive limit, requests start in dispatch order
+		SearchDurations searchDurations = new SearchDurations(true, null);
+		CreateReportBuilder service = service().searchParallelism(2).searchDurations(searchDurations);
+
+		Bundle firstReport = createReport(service);
+
+		// failed requests have no duration history
+		List<String> urls = readSearchUrls();
+		assertEquals(1, searchDurations.predict(urls, 2).unknown());
+
+		String slowUrl = urls.get(urls.size() - 1);
+		searchDurations.completed(slowUrl, 60000);
+
+		// other requests wait for the slowest request to start and fail if it was not dispatched first
+		CountDownLatch slowStarted = new CountDownLatch(1);
+		Mockito.when(fhirStoreClient.search(Mockito.anyString())).thenAnswer(i ->
+		{
+			if (slowUrl.equals(i.getArgument(0)))
+				slowStarted.countDown();
+			else if (!slowStarted.await(10, TimeUnit.SECONDS))
+				throw new IllegalStateException("Slowest request not dispatched first");
+
+			return search(i);
+		});
+
+		Bundle secondReport = createReport(service);
+
+		assertEquals(encode(firstReport), encode(secondReport));
+	}
+}
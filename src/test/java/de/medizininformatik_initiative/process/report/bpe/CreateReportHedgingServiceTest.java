@@ -0,0 +1,98 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import de.medizininformatik_initiative.process.report.client.RequestHedging;
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+import de.medizininformatik_initiative.process.report.metrics.OperationMetrics;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportHedgingServiceTest extends AbstractCreateReportServiceTest
+{
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	@After
+	public void releaseStalledRequests()
+	{
+		stalled.countDown();
+	}
+
+	@Test
+	public void testStalledCountRequestHedged() throws Exception
+	{
+		mockServices();
+
+		// hedges are counted against the concurrency limit, the disabled adaptive limit allows eight requests
+		ReportMetrics metrics = new ReportMetrics(0, false, null);
+		RequestHedging requestHedging = new RequestHedging(1);
+		CreateReportBuilder service = service().searchParallelism(8).requestHedging(requestHedging).metrics(metrics);
+
+		// previous reports establish the p95 latency of every request
+		Bundle expectedReport = createReport(service);
+		for (int i = 0; i < 4; i++)
+			createReport(service);
+
+		String stalledUrl = readSearchUrls().stream().filter(SearchUrl::isCountRequest).reduce((a, b) -> b)
+				.orElseThrow();
+
+		// first request stalled until cancelled, only the hedge request can answer
+		Mockito.doAnswer(i ->
+		{
+			stalled.await(30, TimeUnit.SECONDS);
+			return search(i);
+		}).doAnswer(this::search).when(fhirStoreClient).search(stalledUrl);
+
+		Bundle hedgedReport = createReport(service);
+
+		assertEquals(encode(expectedReport), encode(hedgedReport));
+
+		OperationMetrics stalledMetrics = metrics.getQueryMetrics().stream()
+				.filter(m -> SearchUrl.canonicalize(stalledUrl).equals(m.getName())).findFirst().orElseThrow();
+		assertEquals(1, stalledMetrics.getHedgeCount());
+		assertEquals(1, stalledMetrics.getHedgeWinCount());
+	}
+
+	@Test
+	public void testHedgeNotSentAtConcurrencyLimit() throws Exception
+	{
+		mockServices();
+
+		ReportMetrics metrics = new ReportMetrics(0, false, null);
+		RequestHedging requestHedging = new RequestHedging(1);
+
+		// sequential reports, the concurrency limit of one request is reached by every request
+		for (int i = 0; i < 5; i++)
+			createReport(service().requestHedging(requestHedging).metrics(metrics));
+
+		String stalledUrl = readSearchUrls().stream().filter(SearchUrl::isCountRequest).reduce((a, b) -> b)
+				.orElseThrow();
+
+		// stalled until cancelled, times out without hedge
+		Mockito.doAnswer(i ->
+		{
+			stalled.await(30, TimeUnit.SECONDS);
+			return search(i);
+		}).when(fhirStoreClient).search(stalledUrl);
+
+		Bundle report = createReport(
+				service().requestHedging(requestHedging).searchTimeouts(new SearchTimeouts(500, 500)).metrics(metrics));
+
+		assertEquals(1, report.getEntry().stream().filter(e -> "504".equals(e.getResponse().getStatus())).count());
+
+		OperationMetrics stalledMetrics = metrics.getQueryMetrics().stream()
+				.filter(m -> SearchUrl.canonicalize(stalledUrl).equals(m.getName())).findFirst().orElseThrow();
+		assertEquals(0, stalledMetrics.getHedgeCount());
+	}
+}
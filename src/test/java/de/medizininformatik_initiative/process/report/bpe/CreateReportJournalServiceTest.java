@@ -0,0 +1,54 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportJournalServiceTest extends AbstractCreateReportServiceTest
+{
+	@Test
+	public void testInterruptedReportResumedFromJournal() throws Exception
+	{
+		mockServices();
+		Bundle expectedReport = createReport(service());
+
+		Path journalDirectory = cacheDirectory.newFolder("journal").toPath();
+		CreateReportBuilder service = service().searchJournal(new SearchJournal(journalDirectory, 0));
+		Mockito.when(execution.getCurrentActivityId()).thenReturn("createReport");
+
+		List<String> urls = readSearchUrls();
+		String interruptedUrl = urls.get(urls.size() / 2);
+		Mockito.doThrow(new FhirClientConnectionException("Connection reset")).doAnswer(this::search)
+				.when(fhirStoreClient).search(interruptedUrl);
+
+		BpmnError error = assertThrows(BpmnError.class, () -> createReport(service));
+		assertEquals(ConstantsReport.BPMN_ERROR_REPORT_RETRY, error.getErrorCode());
+		assertEquals(1, journalDirectory.toFile().list().length);
+
+		searchedUrls.clear();
+		Bundle resumedReport = createReport(service);
+
+		// searches completed before the interruption are not executed again
+		assertFalse(searchedUrls.contains(urls.get(0)));
+		assertTrue(searchedUrls.contains(interruptedUrl));
+		assertTrue(searchedUrls.size() < urls.size());
+		assertEquals(encode(expectedReport), encode(resumedReport));
+		assertEquals(0, journalDirectory.toFile().list().length);
+	}
+}
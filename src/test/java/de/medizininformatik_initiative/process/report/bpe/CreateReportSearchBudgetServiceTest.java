@@ -0,0 +1,54 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportSearchBudgetServiceTest extends AbstractCreateReportServiceTest
+{
+	private static final String STALLED_URL_PREFIX = "Medication?code=http://fhir.de/CodeSystem/bfarm/atc";
+
+	private final CountDownLatch stalled = new CountDownLatch(1);
+
+	@After
+	public void releaseStalledRequests()
+	{
+		stalled.countDown();
+	}
+
+	@Test
+	public void testTimedOutRequestReportedAsError() throws Exception
+	{
+		mockServices();
+
+		// stalled until the request is cancelled, also after the escalated timeout
+		Mockito.when(fhirStoreClient.search(Mockito.anyString())).thenAnswer(i ->
+		{
+			if (i.<String> getArgument(0).startsWith(STALLED_URL_PREFIX))
+				stalled.await(30, TimeUnit.SECONDS);
+
+			return search(i);
+		});
+
+		Bundle report = createReport(service().searchParallelism(4).searchTimeouts(new SearchTimeouts(100, 200)));
+
+		List<Bundle.BundleEntryComponent> timedOut = report.getEntry().stream()
+				.filter(e -> "504".equals(e.getResponse().getStatus())).toList();
+		assertEquals(1, timedOut.size());
+		assertEquals(OperationOutcome.IssueType.TIMEOUT,
+				((OperationOutcome) timedOut.get(0).getResponse().getOutcome()).getIssueFirstRep().getCode());
+	}
+}
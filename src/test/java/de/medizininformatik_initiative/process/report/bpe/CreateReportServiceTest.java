@@ -0,0 +1,206 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.AdaptiveConcurrencyLimiter;
+import de.medizininformatik_initiative.process.report.client.CapabilityStatementClient;
+import de.medizininformatik_initiative.process.report.client.CountClient;
+import de.medizininformatik_initiative.process.report.client.RequestRateLimiter;
+import de.medizininformatik_initiative.process.report.metrics.OperationMetrics;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.util.SearchUrl;
+import dev.dsf.fhir.client.PreferReturnMinimal;
+import jakarta.ws.rs.ProcessingException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CreateReportServiceTest extends AbstractCreateReportServiceTest
+{
+	@Test
+	public void testParallelReportEqualsSequentialReport() throws Exception
+	{
+		mockServices();
+
+		Bundle sequentialReport = createReport(service());
+		Bundle parallelReport = createReport(
+				service().searchParallelism(8).concurrencyLimiter(new AdaptiveConcurrencyLimiter(true, 1, 8)));
+
+		assertNotNull(sequentialReport);
+		assertNotNull(parallelReport);
+		assertEquals(readSearchBundle().getEntry().size(), parallelReport.getEntry().size());
+		assertEquals(encode(sequentialReport), encode(parallelReport));
+	}
+
+	@Test
+	public void testRateLimitWaitNotMeasuredAsLatency() throws Exception
+	{
+		failingUrlPrefix = null;
+		mockServices();
+
+		AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(true, 1, 8);
+		createReport(service().searchParallelism(8).concurrencyLimiter(concurrencyLimiter));
+		int limit = concurrencyLimiter.getLimit();
+
+		// requests after the first 50 wait for the rate limit, up to one second longer than their baseline latency
+		ReportMetrics metrics = new ReportMetrics(0, false, null);
+		createReport(service().searchParallelism(8).concurrencyLimiter(concurrencyLimiter)
+				.rateLimiter(new RequestRateLimiter(50, 0, metrics)));
+
+		assertTrue(metrics.getRateLimitWaitMetrics().stream().mapToLong(OperationMetrics::getMaxMillis).max()
+				.orElse(0) >= 100);
+		assertTrue(concurrencyLimiter.getLimit() >= limit);
+	}
+
+	@Test
+	public void testBatchReportEqualsSequentialReport() throws Exception
+	{
+		mockServices();
+		Mockito.when(fhirStoreClient.getGenericFhirClient().transaction().withBundle(Mockito.any(Bundle.class)))
+				.thenAnswer(this::batch);
+
+		Bundle sequentialReport = createReport(service());
+		Bundle batchReport = createReport(service().searchBatchEnabled());
+
+		assertEquals(encode(sequentialReport), encode(batchReport));
+	}
+
+	@Test
+	public void testDuplicateRequestsExecutedOnce() throws Exception
+	{
+		mockServices();
+
+		createReport(service().searchParallelism(4));
+		int searched = searchedUrls.size();
+		searchedUrls.clear();
+
+		String url = "Medication?code=http://fhir.de/CodeSystem/ifa/pzn|&_profile:below=https://www.medizininformatik-initiative.de/fhir/core/modul-medikation/StructureDefinition/Medication&_summary=count";
+		String reorderedUrl = "Medication?_summary=count&_profile:below=https://www.medizininformatik-initiative.de/fhir/core/modul-medikation/StructureDefinition/Medication&code=http%3A%2F%2Ffhir.de%2FCodeSystem%2Fifa%2Fpzn%7C";
+
+		Bundle searchBundle = readSearchBundle();
+		searchBundle.addEntry().getRequest().setMethod(Bundle.HTTPVerb.GET).setUrl(url);
+		searchBundle.addEntry().getRequest().setMethod(Bundle.HTTPVerb.GET).setUrl(reorderedUrl);
+
+		Bundle report = createReport(service().searchParallelism(4), searchBundle);
+
+		assertEquals(searched, searchedUrls.size());
+		assertEquals(searchBundle.getEntry().size(), report.getEntry().size());
+
+		int expectedTotal = Math.abs(url.hashCode() % 1000);
+		assertEquals(expectedTotal, getTotal(report, report.getEntry().size() - 2));
+		assertEquals(expectedTotal, getTotal(report, report.getEntry().size() - 1));
+	}
+
+	@Test
+	public void testMetricsRecordedPerDistinctRequest() throws Exception
+	{
+		mockServices();
+
+		Path prometheusFile = cacheDirectory.getRoot().toPath().resolve("report.prom");
+		ReportMetrics metrics = new ReportMetrics(1, false, prometheusFile);
+
+		Bundle report = createReport(service().searchParallelism(4).metrics(metrics));
+
+		long distinctRequests = readSearchUrls().stream().map(SearchUrl::canonicalize).distinct().count();
+		long failedRequests = report.getEntry().stream().filter(e -> e.getResponse().getStatus().startsWith("5"))
+				.count();
+
+		assertEquals(distinctRequests, metrics.getQueryMetrics().size());
+		assertEquals(distinctRequests, metrics.getQueryMetrics().stream().mapToLong(OperationMetrics::getCount).sum());
+		assertTrue(failedRequests > 0);
+		assertTrue(metrics.getQueryMetrics().stream().anyMatch(m -> m.getErrorCounts().containsKey("500")));
+
+		OperationMetrics createReport = metrics.getDelegateMetrics().iterator().next();
+		assertEquals("CreateReport", createReport.getName());
+		assertEquals(1, createReport.getCount());
+		assertEquals(0, createReport.getErrorCount());
+
+		String exposition = Files.readString(prometheusFile);
+		assertTrue(exposition.contains("report_delegate_duration_seconds_count{delegate=\"CreateReport\"} 1\n"));
+		assertTrue(
+				exposition.lines().anyMatch(l -> l.startsWith("report_search_request_errors_total{query=\"Medication?")
+						&& l.contains("code=http://www.whocc.no/atc%7C") && l.endsWith(",code=\"500\"} 1")));
+		assertTrue(exposition.contains("# TYPE report_search_request_duration_seconds summary\n"));
+	}
+
+	@Test
+	public void testStreamingCountReportEqualsSequentialReport() throws Exception
+	{
+		mockServices();
+		mockHttpClient();
+
+		Bundle sequentialReport = createReport(service());
+		Bundle streamingReport = createReport(service().searchParallelism(4).countClient(new CountClient(true)));
+
+		assertEquals(encode(sequentialReport), encode(streamingReport));
+	}
+
+	@Test
+	public void testCachedCapabilityStatementReportEqualsSequentialReport() throws Exception
+	{
+		mockServices();
+		mockHttpClient();
+
+		Bundle sequentialReport = createReport(service());
+
+		CapabilityStatementClient capabilityStatementClient = new CapabilityStatementClient(true);
+		Bundle firstReport = createReport(service().searchParallelism(4).searchBatchEnabled()
+				.capabilityStatementClient(capabilityStatementClient));
+		Bundle secondReport = createReport(
+				service().searchParallelism(4).capabilityStatementClient(capabilityStatementClient));
+
+		assertEquals(encode(sequentialReport), encode(firstReport));
+		assertEquals(encode(sequentialReport), encode(secondReport));
+		assertEquals(1, notModifiedResponses.get());
+	}
+
+	@Test
+	public void testFailedStoreRetriedWithoutSearches() throws Exception
+	{
+		mockServices();
+		Mockito.when(execution.getCurrentActivityId()).thenReturn("createReport");
+
+		PreferReturnMinimal client = api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
+				.withMinimalReturn();
+		Mockito.doThrow(new ProcessingException("Connection refused")).doAnswer(this::storeReport).when(client)
+				.updateConditionaly(Mockito.any(), Mockito.any());
+
+		ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+		BpmnError error = assertThrows(BpmnError.class, () -> createReport(service().metrics(metrics)));
+		assertEquals(ConstantsReport.BPMN_ERROR_REPORT_RETRY, error.getErrorCode());
+
+		ArgumentCaptor<Bundle> reportBundle = ArgumentCaptor.forClass(Bundle.class);
+		Mockito.verify(variables).setResource(Mockito.eq(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_BUNDLE),
+				reportBundle.capture());
+		Mockito.verify(variables)
+				.setInteger(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_RETRY_ATTEMPT + "_createReport", 1);
+		Mockito.verify(variables).setString(Mockito.eq(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_RETRY_DELAY),
+				Mockito.startsWith("PT"));
+
+		int searches = searchedUrls.size();
+		Mockito.when(variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_BUNDLE))
+				.thenReturn(reportBundle.getValue());
+
+		Bundle storedReport = createReport(service().metrics(metrics));
+
+		assertSame(reportBundle.getValue(), storedReport);
+		assertEquals(1, storedReports.size());
+		assertEquals(searches, searchedUrls.size());
+		assertEquals(1, metrics.getDelegateMetrics().iterator().next().getRetryCount());
+	}
+}
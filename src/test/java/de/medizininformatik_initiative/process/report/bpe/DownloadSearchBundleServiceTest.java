@@ -0,0 +1,230 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.client.SearchBundleCache;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.service.DownloadSearchBundle;
+import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.service.FhirWebserviceClientProvider;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+import dev.dsf.fhir.client.FhirWebserviceClient;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DownloadSearchBundleServiceTest
+{
+	private static final String HRP_ENDPOINT_URL = "https://hrp.example.org/fhir";
+	private static final String PROCESS_VERSION = "1.1";
+	private static final String SEARCH_BUNDLE_IDENTIFIER = ConstantsReport.CODESYSTEM_REPORT + "|"
+			+ ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE + PROCESS_VERSION;
+
+	@Mock
+	private DelegateExecution execution;
+
+	@Mock
+	private ProcessPluginApi api;
+
+	@Mock
+	private Variables variables;
+
+	@Mock
+	private Target target;
+
+	@Mock
+	private FhirWebserviceClientProvider clientProvider;
+
+	@Mock
+	private FhirWebserviceClient webserviceClient;
+
+	@Mock
+	private DataLogger dataLogger;
+
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+	private final List<Map<String, List<String>>> searches = new ArrayList<>();
+
+	private Bundle searchBundle = createSearchBundle("1", new Date(1700000000000L));
+	private int existingSearchBundles = 1;
+	private int changedSearchBundles;
+
+	@Before
+	public void before()
+	{
+		Mockito.when(api.getVariables(execution)).thenReturn(variables);
+		Mockito.when(variables.getStartTask()).thenReturn(new Task());
+		Mockito.when(variables.getTarget()).thenReturn(target);
+		Mockito.when(target.getEndpointUrl()).thenReturn(HRP_ENDPOINT_URL);
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn("Test_HRP");
+		Mockito.when(api.getFhirWebserviceClientProvider()).thenReturn(clientProvider);
+		Mockito.when(clientProvider.getWebserviceClient(HRP_ENDPOINT_URL)).thenReturn(webserviceClient);
+
+		Mockito.when(webserviceClient.searchWithStrictHandling(Mockito.eq(Bundle.class), Mockito.any())).thenAnswer(i ->
+		{
+			Map<String, List<String>> parameters = i.getArgument(1);
+			searches.add(parameters);
+
+			assertEquals(List.of(SEARCH_BUNDLE_IDENTIFIER), parameters.get("identifier"));
+
+			if (parameters.containsKey("_summary"))
+				return new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(
+						parameters.containsKey("_lastUpdated") ? changedSearchBundles : existingSearchBundles);
+
+			Bundle result = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(existingSearchBundles);
+			if (existingSearchBundles > 0)
+				result.addEntry().setResource(searchBundle.copy());
+			return result;
+		});
+	}
+
+	private Bundle createSearchBundle(String versionId, Date lastUpdated)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		bundle.setId("Bundle/search-bundle/_history/" + versionId);
+		bundle.getMeta().setVersionId(versionId).setLastUpdated(lastUpdated);
+		bundle.getIdentifier().setSystem(ConstantsReport.CODESYSTEM_REPORT)
+				.setValue(ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE + PROCESS_VERSION);
+		bundle.addEntry().getRequest().setMethod(Bundle.HTTPVerb.GET).setUrl("Patient?_summary=count");
+		return bundle;
+	}
+
+	private Bundle download(SearchBundleCache searchBundleCache) throws Exception
+	{
+		DownloadSearchBundle service = new DownloadSearchBundle(api, new ReportStatusGenerator(), dataLogger,
+				searchBundleCache, new ResourceVariableStore(null, FhirContext.forR4(), 0, 0),
+				new ScheduledRetry(6, 30000, 900000, 0.5, metrics), metrics, PROCESS_VERSION);
+		service.afterPropertiesSet();
+
+		Mockito.clearInvocations(variables);
+		service.execute(execution);
+
+		ArgumentCaptor<Resource> downloaded = ArgumentCaptor.forClass(Resource.class);
+		Mockito.verify(variables).setResource(Mockito.eq(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE),
+				downloaded.capture());
+
+		return (Bundle) downloaded.getValue();
+	}
+
+	private long countSearches(boolean summaryCount)
+	{
+		return searches.stream().filter(p -> p.containsKey("_summary") == summaryCount).count();
+	}
+
+	@Test
+	public void testUnchangedSearchBundleReadFromCache() throws Exception
+	{
+		SearchBundleCache searchBundleCache = new SearchBundleCache(true);
+
+		Bundle first = download(searchBundleCache);
+		Bundle second = download(searchBundleCache);
+
+		assertTrue(first.equalsDeep(second));
+		assertNotSame(first, second);
+		assertEquals(1, countSearches(false));
+		assertEquals(2, countSearches(true));
+		assertEquals(List.of("count"), searches.get(1).get("_summary"));
+		assertFalse(searches.get(1).containsKey("_lastUpdated"));
+		assertEquals(List.of("gt2023-11-14T22:13:20Z"), searches.get(2).get("_lastUpdated"));
+	}
+
+	@Test
+	public void testChangedSearchBundleDownloadedAgain() throws Exception
+	{
+		SearchBundleCache searchBundleCache = new SearchBundleCache(true);
+		download(searchBundleCache);
+
+		// search Bundle with the same identifier updated or created after the cached copy
+		searchBundle = createSearchBundle("2", new Date(1800000000000L));
+		changedSearchBundles = 1;
+
+		Bundle second = download(searchBundleCache);
+
+		assertEquals("2", second.getMeta().getVersionId());
+		assertEquals(2, countSearches(false));
+
+		changedSearchBundles = 0;
+		Bundle third = download(searchBundleCache);
+
+		assertEquals("2", third.getMeta().getVersionId());
+		assertEquals(2, countSearches(false));
+		assertEquals(List.of("gt2027-01-15T08:00:00Z"), searches.get(searches.size() - 1).get("_lastUpdated"));
+	}
+
+	@Test
+	public void testDeletedSearchBundleNotReadFromCache() throws Exception
+	{
+		SearchBundleCache searchBundleCache = new SearchBundleCache(true);
+		download(searchBundleCache);
+
+		// deleted search Bundle not updated after the cached copy either
+		existingSearchBundles = 0;
+
+		assertThrows(RuntimeException.class, () -> download(searchBundleCache));
+		assertEquals(2, countSearches(false));
+		assertTrue(searchBundleCache.get(HRP_ENDPOINT_URL, SEARCH_BUNDLE_IDENTIFIER).isEmpty());
+	}
+
+	@Test
+	public void testCountWithoutTotalHandledAsChanged() throws Exception
+	{
+		SearchBundleCache searchBundleCache = new SearchBundleCache(true);
+		download(searchBundleCache);
+
+		Mockito.doReturn(new Bundle().setType(Bundle.BundleType.SEARCHSET)).when(webserviceClient)
+				.searchWithStrictHandling(Mockito.eq(Bundle.class),
+						Mockito.argThat(p -> p.containsKey("_lastUpdated")));
+
+		download(searchBundleCache);
+
+		assertEquals(2, countSearches(false));
+	}
+
+	@Test
+	public void testModifiedSearchBundleNotCached() throws Exception
+	{
+		SearchBundleCache searchBundleCache = new SearchBundleCache(true);
+
+		download(searchBundleCache).addEntry().getRequest().setUrl("Observation?_summary=count");
+		Bundle second = download(searchBundleCache);
+
+		assertEquals(1, second.getEntry().size());
+	}
+
+	@Test
+	public void testCacheDisabled() throws Exception
+	{
+		SearchBundleCache searchBundleCache = new SearchBundleCache(false);
+
+		download(searchBundleCache);
+		download(searchBundleCache);
+
+		assertEquals(2, countSearches(false));
+		assertEquals(0, countSearches(true));
+	}
+}
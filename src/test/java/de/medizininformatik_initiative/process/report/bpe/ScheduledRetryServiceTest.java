@@ -0,0 +1,260 @@
+package de.medizininformatik_initiative.process.report.bpe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.ConstantsReport;
+import de.medizininformatik_initiative.process.report.message.SendReport;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.service.DownloadReport;
+import de.medizininformatik_initiative.process.report.service.HandleError;
+import de.medizininformatik_initiative.process.report.service.InsertReport;
+import de.medizininformatik_initiative.process.report.service.StoreReceipt;
+import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+import dev.dsf.fhir.client.FhirWebserviceClient;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScheduledRetryServiceTest
+{
+	private static final int MAX_ATTEMPTS = 2;
+	private static final String REPORT_REFERENCE = "https://dsf.hrp/fhir/Bundle/report/_history/1";
+
+	private static class TestSendReport extends SendReport
+	{
+		TestSendReport(ProcessPluginApi api, ReportStatusGenerator statusGenerator, ScheduledRetry scheduledRetry,
+				ReportMetrics metrics)
+		{
+			super(api, statusGenerator, scheduledRetry, metrics);
+		}
+
+		void sendTaskError(DelegateExecution execution, Variables variables, Exception exception)
+		{
+			handleSendTaskError(execution, variables, exception, exception.getMessage());
+		}
+	}
+
+	@Mock
+	private DelegateExecution execution;
+
+	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
+	private ProcessPluginApi api;
+
+	@Mock
+	private Variables variables;
+
+	@Mock
+	private Target target;
+
+	@Mock
+	private FhirWebserviceClient client;
+
+	private final Map<String, Integer> attempts = new HashMap<>();
+	private final ReportStatusGenerator statusGenerator = new ReportStatusGenerator();
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+	private final ScheduledRetry scheduledRetry = new ScheduledRetry(MAX_ATTEMPTS, 1000, 4000, 0, metrics);
+	private final ResourceVariableStore resourceVariableStore = new ResourceVariableStore(null, FhirContext.forR4(), 0,
+			0);
+
+	private Task task;
+
+	@Before
+	public void before()
+	{
+		task = new Task();
+		task.setId("Task/start");
+		task.setStatus(Task.TaskStatus.INPROGRESS);
+		task.getRequester().setIdentifier(new Identifier().setValue("Test_DIC"));
+
+		Mockito.when(api.getVariables(execution)).thenReturn(variables);
+		Mockito.when(variables.getStartTask()).thenReturn(task);
+	}
+
+	private void mockRetryAttempts(String activityId)
+	{
+		Mockito.when(execution.getCurrentActivityId()).thenReturn(activityId);
+		Mockito.when(variables.getInteger(Mockito.anyString())).thenAnswer(i -> attempts.get(i.getArgument(0)));
+		Mockito.doAnswer(i -> attempts.put(i.getArgument(0), i.getArgument(1))).when(variables)
+				.setInteger(Mockito.anyString(), Mockito.anyInt());
+	}
+
+	private int getAttempt(String activityId)
+	{
+		return attempts.getOrDefault(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_RETRY_ATTEMPT + "_" + activityId,
+				0);
+	}
+
+	private void assertRetry(ThrowingRunnable delegate)
+	{
+		BpmnError error = assertThrows(BpmnError.class, delegate::run);
+		assertEquals(ConstantsReport.BPMN_ERROR_REPORT_RETRY, error.getErrorCode());
+	}
+
+	private interface ThrowingRunnable
+	{
+		void run() throws Exception;
+	}
+
+	private boolean hasStatusOutput(String statusCode)
+	{
+		return task.getOutput().stream().filter(o -> o.getValue() instanceof Coding)
+				.anyMatch(o -> statusCode.equals(((Coding) o.getValue()).getCode()));
+	}
+
+	@Test
+	public void testSendReportRetriedUntilAttemptsExhausted() throws Exception
+	{
+		mockRetryAttempts("sendReport");
+		TestSendReport sendReport = new TestSendReport(api, statusGenerator, scheduledRetry, metrics);
+		ProcessingException exception = new ProcessingException("Connection refused");
+
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+		{
+			assertRetry(() -> sendReport.sendTaskError(execution, variables, exception));
+			assertEquals(attempt, getAttempt("sendReport"));
+			assertTrue(task.getOutput().isEmpty());
+		}
+
+		sendReport.sendTaskError(execution, variables, exception);
+
+		assertEquals(MAX_ATTEMPTS, getAttempt("sendReport"));
+		assertTrue(hasStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_NOT_REACHABLE));
+		Mockito.verify(variables).updateTask(task);
+	}
+
+	@Test
+	public void testSendReportNotRetriedIfForbidden() throws Exception
+	{
+		Response response = Mockito.mock(Response.class);
+		Mockito.when(response.getStatus()).thenReturn(Response.Status.FORBIDDEN.getStatusCode());
+
+		new TestSendReport(api, statusGenerator, scheduledRetry, metrics).sendTaskError(execution, variables,
+				new WebApplicationException("Forbidden", response));
+
+		assertTrue(attempts.isEmpty());
+		assertTrue(hasStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_NOT_ALLOWED));
+	}
+
+	@Test
+	public void testStoreReceiptRetriedWithoutHandlingReceiptAgain() throws Exception
+	{
+		mockRetryAttempts("storeReceipt");
+		Mockito.when(variables.getLatestTask()).thenReturn(task);
+		Mockito.when(variables.getTarget()).thenReturn(target);
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn("Test_HRP");
+		Mockito.when(api.getFhirWebserviceClientProvider().getLocalWebserviceClient()).thenReturn(client);
+		Mockito.doThrow(new ProcessingException("Connection refused")).doReturn(task).when(client).update(task);
+
+		StoreReceipt storeReceipt = new StoreReceipt(api, statusGenerator, scheduledRetry, metrics);
+
+		assertRetry(() -> storeReceipt.execute(execution));
+		assertEquals(Task.TaskStatus.FAILED, task.getStatus());
+		assertEquals(1, task.getOutput().size());
+
+		storeReceipt.execute(execution);
+
+		// receipt handled and mail sent only before the first retry
+		assertEquals(1, task.getOutput().size());
+		Mockito.verify(variables).getLatestTask();
+		Mockito.verify(variables).updateTask(task);
+		Mockito.verify(api.getMailService()).send(Mockito.anyString(), Mockito.anyString());
+		Mockito.verify(client, Mockito.times(2)).update(task);
+	}
+
+	@Test
+	public void testHandleErrorRetriedWithoutSendingMailAgain() throws Exception
+	{
+		mockRetryAttempts("handleError");
+		task.setStatus(Task.TaskStatus.FAILED);
+		Mockito.when(api.getFhirWebserviceClientProvider().getLocalWebserviceClient()).thenReturn(client);
+		Mockito.doThrow(new ProcessingException("Connection refused")).doReturn(task).when(client).update(task);
+
+		HandleError handleError = new HandleError(api, scheduledRetry);
+
+		assertRetry(() -> handleError.execute(execution));
+		handleError.execute(execution);
+
+		assertEquals(1, getAttempt("handleError"));
+		Mockito.verify(api.getMailService()).send(Mockito.anyString(), Mockito.anyString());
+		Mockito.verify(client, Mockito.times(2)).update(task);
+	}
+
+	@Test
+	public void testDownloadReportFailsAfterAttemptsExhausted() throws Exception
+	{
+		mockRetryAttempts("downloadReport");
+		Mockito.when(api.getTaskHelper().getInputParameterValues(task, ConstantsReport.CODESYSTEM_REPORT,
+				ConstantsReport.CODESYSTEM_REPORT_VALUE_SEARCH_BUNDLE_RESPONSE_REFERENCE, Reference.class))
+				.thenAnswer(i -> Stream.of(new Reference(REPORT_REFERENCE)));
+		Mockito.when(api.getFhirWebserviceClientProvider().getWebserviceClient("https://dsf.hrp/fhir"))
+				.thenReturn(client);
+		Mockito.doThrow(new ProcessingException("Connection refused")).when(client).read(Bundle.class, "report", "1");
+
+		DownloadReport downloadReport = new DownloadReport(api, statusGenerator, resourceVariableStore, scheduledRetry);
+
+		for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++)
+		{
+			assertRetry(() -> downloadReport.execute(execution));
+			assertEquals(Task.TaskStatus.INPROGRESS, task.getStatus());
+		}
+
+		BpmnError error = assertThrows(BpmnError.class, () -> downloadReport.execute(execution));
+		assertEquals(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_RECEIVE_ERROR, error.getErrorCode());
+		assertEquals(Task.TaskStatus.FAILED, task.getStatus());
+		assertTrue(hasStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIVE_ERROR));
+		Mockito.verify(variables).updateTask(task);
+	}
+
+	@Test
+	public void testInsertReportRetried() throws Exception
+	{
+		mockRetryAttempts("insertReport");
+		Mockito.when(variables.getResource(ConstantsReport.BPMN_EXECUTION_VARIABLE_REPORT_SEARCH_BUNDLE))
+				.thenReturn(new Bundle());
+		Mockito.when(api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn()
+				.updateConditionaly(Mockito.any(), Mockito.any()))
+				.thenThrow(new ProcessingException("Connection refused"))
+				.thenReturn(new IdType("Bundle", "report", "1"));
+		Mockito.when(api.getEndpointProvider().getLocalEndpointAddress()).thenReturn("https://dic/fhir");
+
+		InsertReport insertReport = new InsertReport(api, statusGenerator, resourceVariableStore, scheduledRetry);
+
+		assertRetry(() -> insertReport.execute(execution));
+		assertTrue(task.getOutput().isEmpty());
+
+		insertReport.execute(execution);
+
+		assertEquals(Task.TaskStatus.INPROGRESS, task.getStatus());
+		assertTrue(hasStatusOutput(ConstantsReport.CODESYSTEM_REPORT_STATUS_VALUE_RECEIVE_OK));
+		Mockito.verify(api.getMailService()).send(Mockito.anyString(), Mockito.anyString());
+	}
+}
@@ -0,0 +1,247 @@
+package de.medizininformatik_initiative.process.report.bpe.load;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Task;
+import org.mockito.Answers;
+import org.mockito.Mockito;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.ReportProcessPluginDefinition;
+import de.medizininformatik_initiative.process.report.client.AdaptiveConcurrencyLimiter;
+import de.medizininformatik_initiative.process.report.client.CapabilityStatementClient;
+import de.medizininformatik_initiative.process.report.client.CircuitBreaker;
+import de.medizininformatik_initiative.process.report.client.CountCache;
+import de.medizininformatik_initiative.process.report.client.CountClient;
+import de.medizininformatik_initiative.process.report.client.FhirStoreClient;
+import de.medizininformatik_initiative.process.report.client.RequestHedging;
+import de.medizininformatik_initiative.process.report.client.RequestRateLimiter;
+import de.medizininformatik_initiative.process.report.client.SearchBundleCache;
+import de.medizininformatik_initiative.process.report.client.SearchDurations;
+import de.medizininformatik_initiative.process.report.client.SearchJournal;
+import de.medizininformatik_initiative.process.report.client.SearchTimeouts;
+import de.medizininformatik_initiative.process.report.client.SslContextFactory;
+import de.medizininformatik_initiative.process.report.metrics.OperationMetrics;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.process.report.service.CheckSearchBundle;
+import de.medizininformatik_initiative.process.report.service.CreateReport;
+import de.medizininformatik_initiative.process.report.service.DownloadSearchBundle;
+import de.medizininformatik_initiative.process.report.util.ReportStatusGenerator;
+import de.medizininformatik_initiative.process.report.util.ResourceVariableStore;
+import de.medizininformatik_initiative.process.report.util.ScheduledRetry;
+import de.medizininformatik_initiative.process.report.util.SearchBundlePlanCache;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Executes the service tasks of the <code>medizininformatik-initiativede_reportSend</code> process from
+ * {@link DownloadSearchBundle} to {@link CreateReport} with a real {@link FhirStoreClient} against a
+ * {@link StubFhirStore} and prints report duration, request rate and peak heap usage per FHIR client setting. DSF
+ * webservice clients are mocked, the search Bundle is read from <code>fhir/Bundle/search-bundle-v1.1.xml</code>.
+ */
+public class ReportSendLoadHarness
+{
+	private static final int REPORTS_PER_SETTING = 5;
+
+	private static final StubFhirStore.Settings STORE_SETTINGS = new StubFhirStore.Settings(50, 1.0, 0.01, 16);
+
+	private record ClientSettings(String name, int parallelism, boolean batchEnabled, int batchSize, boolean adaptive,
+			boolean countStreaming, int poolMaxPerRoute, double requestsPerSecond)
+	{
+	}
+
+	private static final List<ClientSettings> CLIENT_SETTINGS = List.of(
+			new ClientSettings("sequential", 1, false, 0, false, false, 20, 0),
+			new ClientSettings("parallel-4", 4, false, 0, false, false, 20, 0),
+			new ClientSettings("parallel-8-adaptive", 8, false, 0, true, false, 20, 0),
+			new ClientSettings("parallel-32", 32, false, 0, false, false, 32, 0),
+			new ClientSettings("parallel-32-pool-8", 32, false, 0, false, false, 8, 0),
+			new ClientSettings("parallel-8-streaming", 8, false, 0, false, true, 20, 0),
+			new ClientSettings("parallel-8-rate-100", 8, false, 0, false, false, 20, 100),
+			new ClientSettings("batch-10", 1, true, 10, false, false, 20, 0),
+			new ClientSettings("batch-10-parallel-4", 4, true, 10, false, false, 20, 0));
+
+	private static final String HRP_IDENTIFIER = "Test_HRP";
+	private static final String DIC_IDENTIFIER = "Test_DIC";
+
+	private static final FhirContext fhirContext = FhirContext.forR4();
+
+	private record Result(ClientSettings settings, long medianMillis, long maxMillis, int failedReports,
+			double requestsPerSecond, long requests, long errors, long throttled, long queryP95Millis,
+			long peakHeapBytes)
+	{
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Bundle searchBundle = readSearchBundle();
+		List<Result> results = new ArrayList<>();
+
+		for (ClientSettings settings : CLIENT_SETTINGS)
+			results.add(run(settings, searchBundle));
+
+		System.out.println();
+		System.out.println("Store: " + STORE_SETTINGS + ", " + searchBundle.getEntry().size()
+				+ " search requests per report, " + REPORTS_PER_SETTING + " reports per setting");
+		System.out.println(String.format("%-22s %10s %10s %7s %10s %9s %8s %9s %12s %14s", "setting", "median ms",
+				"max ms", "failed", "req/s", "requests", "errors", "throttled", "query p95 ms", "peak heap MiB"));
+
+		for (Result r : results)
+			System.out.println(String.format("%-22s %10d %10d %7d %10.1f %9d %8d %9d %12d %14.1f", r.settings().name(),
+					r.medianMillis(), r.maxMillis(), r.failedReports(), r.requestsPerSecond(), r.requests(), r.errors(),
+					r.throttled(), r.queryP95Millis(), r.peakHeapBytes() / (1024d * 1024d)));
+	}
+
+	private static Result run(ClientSettings settings, Bundle searchBundle) throws Exception
+	{
+		try (StubFhirStore store = new StubFhirStore(STORE_SETTINGS, fhirContext))
+		{
+			String baseUrl = store.start();
+
+			DataLogger dataLogger = new DataLogger(false, fhirContext);
+			ReportMetrics metrics = new ReportMetrics(0, false, null);
+			RequestRateLimiter rateLimiter = new RequestRateLimiter(settings.requestsPerSecond(), 0, metrics);
+			FhirStoreClient fhirStoreClient = new FhirStoreClient(new SslContextFactory(null, null, null, null, 0),
+					2000, 60000, 2000, baseUrl, null, null, null, null, null, null, null, false, fhirContext,
+					settings.poolMaxPerRoute(), settings.poolMaxPerRoute(), 60000, 2000, rateLimiter, metrics);
+
+			SearchBundlePlanCache planCache = new SearchBundlePlanCache(8);
+			ResourceVariableStore resourceVariableStore = new ResourceVariableStore(null, fhirContext, 0, 0);
+			// no process engine timers, DSF webservice clients retry in the delegates
+			ScheduledRetry scheduledRetry = new ScheduledRetry(0, 0, 0, 0, metrics);
+			ProcessPluginApi api = mockApi(searchBundle);
+			String processVersion = new ReportProcessPluginDefinition().getResourceVersion();
+
+			List<Long> durations = new ArrayList<>();
+			int failedReports = 0;
+
+			System.gc();
+			ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+			long requestsBefore = store.getRequests();
+			long start = System.nanoTime();
+
+			for (int i = 0; i < REPORTS_PER_SETTING; i++)
+			{
+				// deep stubs for the error handling of the DSF service delegates
+				DelegateExecution execution = Mockito.mock(DelegateExecution.class, Answers.RETURNS_DEEP_STUBS);
+				Variables variables = mockVariables();
+				Mockito.when(api.getVariables(execution)).thenReturn(variables);
+
+				long reportStart = System.nanoTime();
+
+				try
+				{
+					new DownloadSearchBundle(api, new ReportStatusGenerator(), dataLogger, new SearchBundleCache(false),
+							resourceVariableStore, scheduledRetry, metrics, processVersion).execute(execution);
+					new CheckSearchBundle(api, planCache, resourceVariableStore, metrics).execute(execution);
+					new CreateReport(api, processVersion, fhirStoreClient, dataLogger, settings.parallelism(),
+							settings.batchEnabled(), settings.batchSize(), rateLimiter,
+							new AdaptiveConcurrencyLimiter(settings.adaptive(), 1, settings.parallelism()),
+							new CircuitBreaker(0, 0), new RequestHedging(0), new SearchTimeouts(0, 0),
+							new SearchDurations(true, null), 0, new CountCache(null, 0, 0),
+							new CountClient(settings.countStreaming()), new CapabilityStatementClient(false), planCache,
+							new SearchJournal(null, 0), resourceVariableStore, scheduledRetry, metrics)
+							.execute(execution);
+				}
+				catch (Exception exception)
+				{
+					failedReports++;
+				}
+
+				durations.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - reportStart));
+			}
+
+			long totalMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			long requests = store.getRequests() - requestsBefore;
+			long queryP95Millis = metrics.getQueryMetrics().stream().mapToLong(OperationMetrics::getP95Millis).max()
+					.orElse(0);
+
+			fhirStoreClient.destroy();
+
+			Collections.sort(durations);
+			return new Result(settings, durations.get(durations.size() / 2), durations.get(durations.size() - 1),
+					failedReports, requests * 1000d / totalMillis, requests, store.getErrors(), store.getThrottled(),
+					queryP95Millis, getPeakHeapUsage());
+		}
+	}
+
+	private static long getPeakHeapUsage()
+	{
+		return ManagementFactory.getMemoryPoolMXBeans().stream().filter(p -> MemoryType.HEAP.equals(p.getType()))
+				.mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+	}
+
+	private static ProcessPluginApi mockApi(Bundle searchBundle)
+	{
+		ProcessPluginApi api = Mockito.mock(ProcessPluginApi.class, Answers.RETURNS_DEEP_STUBS);
+
+		Mockito.when(api.getFhirWebserviceClientProvider().getWebserviceClient(Mockito.any())
+				.withRetry(Mockito.anyInt(), Mockito.anyLong())
+				.searchWithStrictHandling(Mockito.eq(Bundle.class), Mockito.any()))
+				.thenAnswer(i -> searchSet(searchBundle.copy()));
+		Mockito.when(api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn()
+				.withRetry(Mockito.anyInt(), Mockito.anyLong()).updateConditionaly(Mockito.any(), Mockito.any()))
+				.thenReturn(new IdType("Bundle", "report", "1"));
+		Mockito.when(api.getOrganizationProvider().getLocalOrganizationIdentifierValue())
+				.thenReturn(Optional.of(DIC_IDENTIFIER));
+		Mockito.when(api.getEndpointProvider().getLocalEndpointAddress()).thenReturn("https://dic/fhir");
+
+		return api;
+	}
+
+	private static Bundle searchSet(Bundle searchBundle)
+	{
+		Bundle searchSet = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(1);
+		searchSet.addEntry().setResource(searchBundle);
+
+		return searchSet;
+	}
+
+	private static Variables mockVariables()
+	{
+		Map<String, Object> values = new HashMap<>();
+
+		Task task = new Task();
+		task.setIdElement(new IdType("Task", "load"));
+
+		Variables variables = Mockito.mock(Variables.class);
+		Mockito.when(variables.getStartTask()).thenReturn(task);
+
+		Target target = Mockito.mock(Target.class);
+		Mockito.when(target.getOrganizationIdentifierValue()).thenReturn(HRP_IDENTIFIER);
+		Mockito.when(target.getEndpointUrl()).thenReturn("https://hrp/fhir");
+		Mockito.when(variables.getTarget()).thenReturn(target);
+
+		Mockito.when(variables.getResource(Mockito.anyString())).thenAnswer(i -> values.get(i.getArgument(0)));
+		Mockito.doAnswer(i -> values.put(i.getArgument(0), i.getArgument(1))).when(variables)
+				.setResource(Mockito.anyString(), Mockito.any());
+		Mockito.when(variables.getString(Mockito.anyString())).thenAnswer(i -> values.get(i.getArgument(0)));
+		Mockito.doAnswer(i -> values.put(i.getArgument(0), i.getArgument(1))).when(variables)
+				.setString(Mockito.anyString(), Mockito.any());
+
+		return variables;
+	}
+
+	private static Bundle readSearchBundle() throws Exception
+	{
+		try (InputStream in = ReportSendLoadHarness.class.getResourceAsStream("/fhir/Bundle/search-bundle-v1.1.xml"))
+		{
+			return fhirContext.newXmlParser().parseResource(Bundle.class, in);
+		}
+	}
+}
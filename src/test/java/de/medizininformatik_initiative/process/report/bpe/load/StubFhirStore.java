@@ -0,0 +1,246 @@
+package de.medizininformatik_initiative.process.report.bpe.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Resource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * In-process FHIR store serving <code>metadata</code>, <code>_summary=count</code> searches and batch Bundles of
+ * searches with log-normal distributed latency, random server errors and throttling of concurrent requests.
+ */
+public class StubFhirStore implements AutoCloseable
+{
+	private static final String BASE_PATH = "/fhir";
+	private static final String CONTENT_TYPE = "application/fhir+json;charset=UTF-8";
+
+	/**
+	 * @param medianLatencyMillis
+	 *            median latency of a single search
+	 * @param latencySigma
+	 *            standard deviation of the logarithm of the latency, <code>1.0</code> results in a p95 of about five
+	 *            times the median
+	 * @param errorRate
+	 *            share of searches answered with 500
+	 * @param maxConcurrentRequests
+	 *            requests exceeding this number of concurrent requests are answered with 429, <code>0</code> for no
+	 *            throttling
+	 */
+	public record Settings(long medianLatencyMillis, double latencySigma, double errorRate, int maxConcurrentRequests)
+	{
+		@Override
+		public String toString()
+		{
+			return "median " + medianLatencyMillis + " ms, sigma " + latencySigma + ", error rate " + errorRate
+					+ ", max concurrent requests " + maxConcurrentRequests;
+		}
+	}
+
+	private final Settings settings;
+	private final FhirContext fhirContext;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public StubFhirStore(Settings settings, FhirContext fhirContext)
+	{
+		this.settings = settings;
+		this.fhirContext = fhirContext;
+	}
+
+	/**
+	 * @return base url of the store
+	 */
+	public String start() throws IOException
+	{
+		executor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext(BASE_PATH, this::handle);
+		server.setExecutor(executor);
+		server.start();
+
+		return "http://localhost:" + server.getAddress().getPort() + BASE_PATH;
+	}
+
+	@Override
+	public void close()
+	{
+		if (server != null)
+			server.stop(0);
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	public long getErrors()
+	{
+		return errors.get();
+	}
+
+	public long getThrottled()
+	{
+		return throttled.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		requests.incrementAndGet();
+
+		try (exchange)
+		{
+			if (settings.maxConcurrentRequests() > 0 && inFlight.incrementAndGet() > settings.maxConcurrentRequests())
+			{
+				throttled.incrementAndGet();
+				exchange.getResponseHeaders().add("Retry-After", "1");
+				send(exchange, 429, error(OperationOutcome.IssueType.THROTTLED, "Too many concurrent requests"));
+				return;
+			}
+
+			String path = exchange.getRequestURI().getRawPath().substring(BASE_PATH.length());
+
+			if ("POST".equals(exchange.getRequestMethod()) && (path.isEmpty() || "/".equals(path)))
+				send(exchange, 200, batch(exchange.getRequestBody()));
+			else if ("GET".equals(exchange.getRequestMethod()) && "/metadata".equals(path))
+				send(exchange, 200, capabilityStatement());
+			else if ("GET".equals(exchange.getRequestMethod()))
+			{
+				sleep(sampleLatency());
+
+				if (isError())
+					send(exchange, 500, error(OperationOutcome.IssueType.EXCEPTION, "Simulated server error"));
+				else
+					send(exchange, 200, count(path.substring(1) + "?" + exchange.getRequestURI().getQuery()));
+			}
+			else
+				send(exchange, 405, error(OperationOutcome.IssueType.NOTSUPPORTED, "Method not supported"));
+		}
+		finally
+		{
+			if (settings.maxConcurrentRequests() > 0)
+				inFlight.decrementAndGet();
+		}
+	}
+
+	private Bundle batch(InputStream body)
+	{
+		Bundle batch = fhirContext.newJsonParser().parseResource(Bundle.class, body);
+		Bundle response = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+
+		// entries of a batch are executed in parallel by the store, the slowest entry determines the latency
+		long latency = 0;
+		for (Bundle.BundleEntryComponent entry : batch.getEntry())
+		{
+			latency = Math.max(latency, sampleLatency());
+
+			Bundle.BundleEntryComponent responseEntry = response.addEntry();
+			if (isError())
+				responseEntry.getResponse().setStatus("500 Internal Server Error")
+						.setOutcome(error(OperationOutcome.IssueType.EXCEPTION, "Simulated server error"));
+			else
+			{
+				responseEntry.setResource(count(entry.getRequest().getUrl()));
+				responseEntry.getResponse().setStatus("200 OK");
+			}
+		}
+
+		sleep(latency);
+		return response;
+	}
+
+	private Bundle count(String url)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+		bundle.setTotal(Math.abs(url.hashCode() % 100000));
+		bundle.getMeta().setLastUpdated(new Date());
+
+		return bundle;
+	}
+
+	private CapabilityStatement capabilityStatement()
+	{
+		CapabilityStatement statement = new CapabilityStatement();
+		statement.setStatus(Enumerations.PublicationStatus.ACTIVE).setDate(new Date());
+		statement.setKind(CapabilityStatement.CapabilityStatementKind.INSTANCE);
+		statement.getSoftware().setName("Stub FHIR Store").setVersion("1.0.0");
+		statement.setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+		statement.addFormat("application/fhir+json");
+		statement.addRest().setMode(CapabilityStatement.RestfulCapabilityMode.SERVER);
+
+		return statement;
+	}
+
+	private OperationOutcome error(OperationOutcome.IssueType type, String diagnostics)
+	{
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR).setCode(type).setDiagnostics(diagnostics);
+
+		return outcome;
+	}
+
+	private long sampleLatency()
+	{
+		double gaussian = ThreadLocalRandom.current().nextGaussian();
+		return Math.round(settings.medianLatencyMillis() * Math.exp(settings.latencySigma() * gaussian));
+	}
+
+	private boolean isError()
+	{
+		boolean error = ThreadLocalRandom.current().nextDouble() < settings.errorRate();
+		if (error)
+			errors.incrementAndGet();
+
+		return error;
+	}
+
+	private void sleep(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, Resource resource) throws IOException
+	{
+		byte[] body = fhirContext.newJsonParser().encodeResourceToString(resource).getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().add("Content-Type", CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, body.length);
+
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+}
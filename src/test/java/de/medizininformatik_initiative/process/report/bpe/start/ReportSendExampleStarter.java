@@ -3,6 +3,7 @@ package de.medizininformatik_initiative.process.report.bpe.start;
 import java.util.Date;
 import java.util.UUID;
 
+import org.hl7.fhir.r4.model.BooleanType;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ResourceType;
@@ -23,6 +24,8 @@ public class ReportSendExampleStarter
 	private static final boolean USE_HRP_IDENTIFIER_INPUT = false;
 	private static final String HRP_IDENTIFIER = "Test_HRP";
 
+	private static final boolean USE_FORCE_REFRESH_INPUT = false;
+
 	public static void main(String[] args) throws Exception
 	{
 		ExampleStarter.forServer(args, DIC_URL).startWith(task());
@@ -59,6 +62,13 @@ public class ReportSendExampleStarter
 					.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_HRP_IDENTIFIER);
 		}
 
+		if (USE_FORCE_REFRESH_INPUT)
+		{
+			task.addInput().setValue(new BooleanType(true)).getType().addCoding()
+					.setSystem(ConstantsReport.CODESYSTEM_REPORT)
+					.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_FORCE_REFRESH);
+		}
+
 		return task;
 	}
 }
@@ -0,0 +1,102 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest
+{
+	private static final String FAST_URL = "Patient?_summary=count";
+	private static final String SLOW_URL = "Observation?code=http://loinc.org|&_summary=count";
+
+	private final AtomicLong nanoTime = new AtomicLong();
+	private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 1, 8, nanoTime::get);
+
+	private void execute(String url, long latencyMillis, AdaptiveConcurrencyLimiter.Outcome outcome)
+			throws InterruptedException
+	{
+		long start = limiter.acquire();
+		nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+		limiter.release(url, start, outcome);
+	}
+
+	private void increaseLimitTo(int limit) throws InterruptedException
+	{
+		while (limiter.getLimit() < limit)
+			execute(FAST_URL, 5, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+	}
+
+	@Test
+	public void testLimitIncreasedWhileLatencyWithinBaseline() throws Exception
+	{
+		execute(FAST_URL, 5, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		assertEquals(2, limiter.getLimit());
+
+		// increased by 1 / limit per successful request
+		execute(FAST_URL, 6, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		execute(FAST_URL, 7, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		assertEquals(2, limiter.getLimit());
+		execute(FAST_URL, 5, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		assertEquals(3, limiter.getLimit());
+	}
+
+	@Test
+	public void testLimitDecreasedOnLatencyIncrease() throws Exception
+	{
+		increaseLimitTo(4);
+
+		execute(FAST_URL, 50, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testLimitDecreasedOnDroppedRequest() throws Exception
+	{
+		increaseLimitTo(4);
+
+		execute(FAST_URL, 5, AdaptiveConcurrencyLimiter.Outcome.DROPPED);
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testSlowQueryComparedWithOwnBaseline() throws Exception
+	{
+		increaseLimitTo(4);
+
+		// first request of a slower query has no baseline, later requests within its own baseline
+		execute(SLOW_URL, 500, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		execute(SLOW_URL, 600, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		execute(FAST_URL, 5, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		assertEquals(4, limiter.getLimit());
+
+		// reordered parameters share the baseline
+		execute("Observation?_summary=count&code=http://loinc.org|", 5000, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testLimitDecreasedOncePerWindow() throws Exception
+	{
+		increaseLimitTo(8);
+
+		long first = limiter.acquire();
+		long second = limiter.acquire();
+		nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+
+		limiter.release(FAST_URL, first, AdaptiveConcurrencyLimiter.Outcome.DROPPED);
+		assertEquals(4, limiter.getLimit());
+
+		// started before the decrease
+		limiter.release(FAST_URL, second, AdaptiveConcurrencyLimiter.Outcome.DROPPED);
+		assertEquals(4, limiter.getLimit());
+
+		// started after the decrease
+		nanoTime.addAndGet(1);
+		execute(FAST_URL, 5, AdaptiveConcurrencyLimiter.Outcome.DROPPED);
+		assertEquals(2, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+}
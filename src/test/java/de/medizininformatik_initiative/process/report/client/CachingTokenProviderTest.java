@@ -0,0 +1,217 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.AccessToken;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
+
+public class CachingTokenProviderTest
+{
+	private static class FakeTokenClient implements TokenClient
+	{
+		final AtomicInteger requests = new AtomicInteger();
+		final CountDownLatch released = new CountDownLatch(1);
+		volatile AccessToken accessToken;
+		volatile boolean blocking;
+
+		@Override
+		public boolean isConfigured()
+		{
+			return true;
+		}
+
+		@Override
+		public AccessToken requestToken()
+		{
+			requests.incrementAndGet();
+
+			if (blocking)
+			{
+				try
+				{
+					released.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException exception)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			return accessToken;
+		}
+	}
+
+	private final FakeTokenClient tokenClient = new FakeTokenClient();
+	private CachingTokenProvider tokenProvider;
+
+	@After
+	public void after() throws Exception
+	{
+		tokenClient.released.countDown();
+
+		if (tokenProvider != null)
+			tokenProvider.destroy();
+	}
+
+	private CachingTokenProvider createTokenProvider(long refreshBeforeExpiry)
+	{
+		return new CachingTokenProvider(tokenClient, refreshBeforeExpiry, new ReportMetrics(0, false, null));
+	}
+
+	private AccessToken createAccessToken(String token, boolean expired)
+	{
+		AccessToken accessToken = Mockito.mock(AccessToken.class);
+		Mockito.when(accessToken.getToken()).thenReturn(token);
+		Mockito.when(accessToken.isExpired()).thenReturn(expired);
+		return accessToken;
+	}
+
+	private String createJwt(long expiresAtMillis)
+	{
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String header = encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8));
+		String payload = encoder.encodeToString(("{\"sub\":\"report\",\"aud\":[\"fhir\"],\"exp\":"
+				+ TimeUnit.MILLISECONDS.toSeconds(expiresAtMillis) + "}").getBytes(StandardCharsets.UTF_8));
+
+		return header + "." + payload + ".signature";
+	}
+
+	@Test
+	public void testTokenCachedUntilExpClaim() throws Exception
+	{
+		// expired according to the token response, exp claim takes precedence
+		tokenClient.accessToken = createAccessToken(createJwt(System.currentTimeMillis() + 3600000), true);
+		tokenProvider = createTokenProvider(0);
+
+		assertEquals(tokenClient.accessToken.getToken(), tokenProvider.getToken());
+		assertEquals(tokenClient.accessToken.getToken(), tokenProvider.getToken());
+		assertEquals(1, tokenClient.requests.get());
+	}
+
+	@Test
+	public void testOpaqueTokenCachedUntilExpired() throws Exception
+	{
+		AccessToken accessToken = createAccessToken("opaque", false);
+		tokenClient.accessToken = accessToken;
+		tokenProvider = createTokenProvider(60000);
+
+		tokenProvider.getToken();
+		tokenProvider.getToken();
+		assertEquals(1, tokenClient.requests.get());
+
+		Mockito.when(accessToken.isExpired()).thenReturn(true);
+		tokenProvider.getToken();
+		assertEquals(2, tokenClient.requests.get());
+	}
+
+	@Test
+	public void testExpClaimWithinSkewIgnored() throws Exception
+	{
+		tokenClient.accessToken = createAccessToken(createJwt(System.currentTimeMillis() + 2000), false);
+		tokenProvider = createTokenProvider(0);
+
+		tokenProvider.getToken();
+		tokenProvider.getToken();
+		assertEquals(1, tokenClient.requests.get());
+	}
+
+	@Test
+	public void testExpClaimInPastIgnored() throws Exception
+	{
+		// issuer clock ahead of the BPE clock
+		tokenClient.accessToken = createAccessToken(createJwt(System.currentTimeMillis() - 60000), false);
+		tokenProvider = createTokenProvider(60000);
+
+		tokenProvider.getToken();
+		tokenProvider.getToken();
+		assertEquals(1, tokenClient.requests.get());
+	}
+
+	@Test
+	public void testConcurrentCallersShareTokenRequest() throws Exception
+	{
+		tokenClient.accessToken = createAccessToken("opaque", false);
+		tokenClient.blocking = true;
+		tokenProvider = createTokenProvider(0);
+
+		List<CompletableFuture<String>> tokens = new ArrayList<>();
+		for (int i = 0; i < 4; i++)
+			tokens.add(CompletableFuture.supplyAsync(tokenProvider::getToken));
+
+		while (tokenClient.requests.get() == 0)
+			Thread.sleep(10);
+
+		// callers not yet waiting for the pending request would start their own request if the first completed
+		Thread.sleep(200);
+		tokenClient.released.countDown();
+
+		for (CompletableFuture<String> token : tokens)
+			assertEquals("opaque", token.get(10, TimeUnit.SECONDS));
+		assertEquals(1, tokenClient.requests.get());
+	}
+
+	@Test
+	public void testTokenReceivedBeforeLockNotRequestedAgain() throws Exception
+	{
+		AccessToken expired = createAccessToken("expired", false);
+		tokenClient.accessToken = expired;
+		tokenProvider = createTokenProvider(0);
+		tokenProvider.getToken();
+
+		// the second caller reads the expired token, but only enters the lock after the first caller replaced it
+		CountDownLatch checking = new CountDownLatch(1);
+		CountDownLatch replaced = new CountDownLatch(1);
+		AtomicInteger checks = new AtomicInteger();
+		Mockito.when(expired.isExpired()).thenAnswer(i ->
+		{
+			if (checks.getAndIncrement() == 0)
+			{
+				checking.countDown();
+				replaced.await(10, TimeUnit.SECONDS);
+			}
+
+			return true;
+		});
+		tokenClient.accessToken = createAccessToken("opaque", false);
+
+		CompletableFuture<String> secondCaller = CompletableFuture.supplyAsync(tokenProvider::getToken);
+		checking.await(10, TimeUnit.SECONDS);
+
+		assertEquals("opaque", tokenProvider.getToken());
+		replaced.countDown();
+
+		assertEquals("opaque", secondCaller.get(10, TimeUnit.SECONDS));
+		assertEquals(2, tokenClient.requests.get());
+	}
+
+	@Test
+	public void testTokenRefreshedBeforeExpiry() throws Exception
+	{
+		tokenClient.accessToken = createAccessToken(createJwt(System.currentTimeMillis() + 60000), false);
+		tokenProvider = createTokenProvider(59000);
+
+		tokenProvider.getToken();
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (tokenClient.requests.get() < 2 && System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+
+		// same exp claim returned, next refresh after half of the remaining lifetime
+		Thread.sleep(500);
+		assertEquals(2, tokenClient.requests.get());
+	}
+}
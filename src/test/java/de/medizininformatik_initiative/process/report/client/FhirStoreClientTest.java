@@ -0,0 +1,251 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static de.medizininformatik_initiative.process.report.client.PemReaderTest.getPemFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.junit.After;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.metrics.OperationMetrics;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+public class FhirStoreClientTest
+{
+	private static final String CAPABILITY_STATEMENT = "{\"resourceType\":\"CapabilityStatement\",\"status\":\"active\",\"software\":{\"name\":\"test\"}}";
+
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+	private ServerSocket server;
+	private FhirStoreClient client;
+
+	@After
+	public void after() throws Exception
+	{
+		if (client != null)
+			client.destroy();
+		if (server != null)
+			server.close();
+	}
+
+	private FhirStoreClient createClient(SslContextFactory sslContextFactory, String baseUrl, String proxyUrl,
+			String proxyUsername, String proxyPassword)
+	{
+		return new FhirStoreClient(sslContextFactory, 5000, 10000, 5000, baseUrl, null, null, null, null, proxyUrl,
+				proxyUsername, proxyPassword, false, FhirContext.forR4(), 4, 4, 0, 0,
+				new RequestRateLimiter(0, 0, metrics), metrics);
+	}
+
+	/**
+	 * @param needClientAuth
+	 *            <code>true</code> to require a client certificate issued by the test root CA
+	 * @return server with a certificate for <code>localhost</code> issued by the test root CA
+	 */
+	static SSLServerSocket createTlsServer(boolean needClientAuth) throws Exception
+	{
+		char[] password = "password".toCharArray();
+
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("server", PemReader.readPrivateKey(getPemFile("server.key"), null), password,
+				PemReader.readCertificates(getPemFile("server.crt")).toArray(X509Certificate[]::new));
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, password);
+
+		KeyStore trustStore = KeyStore.getInstance("PKCS12");
+		trustStore.load(null, null);
+		trustStore.setCertificateEntry("ca", PemReader.readCertificates(getPemFile("ca.crt")).get(0));
+		TrustManagerFactory trustManagerFactory = TrustManagerFactory
+				.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(trustStore);
+
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+
+		SSLServerSocket tlsServer = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0, 1,
+				InetAddress.getLoopbackAddress());
+		tlsServer.setNeedClientAuth(needClientAuth);
+
+		return tlsServer;
+	}
+
+	/**
+	 * @return request line and headers, <code>null</code> if the connection was closed
+	 */
+	static List<String> readRequest(InputStream in) throws IOException
+	{
+		List<String> lines = new ArrayList<>();
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		int b;
+		while ((b = in.read()) >= 0)
+		{
+			if (b != '\n')
+				line.write(b);
+			else if (line.size() <= 1)
+				return lines;
+			else
+			{
+				lines.add(line.toString(StandardCharsets.US_ASCII).trim());
+				line.reset();
+			}
+		}
+
+		return null;
+	}
+
+	static void writeResponse(OutputStream out, String status, String header, String body) throws IOException
+	{
+		out.write(("HTTP/1.1 " + status + "\r\n" + header + "Content-Type: application/fhir+json\r\nContent-Length: "
+				+ body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	@Test
+	public void testClientCertificateChainSent() throws Exception
+	{
+		SSLServerSocket tlsServer = createTlsServer(true);
+		server = tlsServer;
+
+		CompletableFuture<Certificate[]> clientCertificates = CompletableFuture.supplyAsync(() ->
+		{
+			try (SSLSocket socket = (SSLSocket) tlsServer.accept())
+			{
+				socket.setSoTimeout(10000);
+				socket.startHandshake();
+
+				readRequest(socket.getInputStream());
+				writeResponse(socket.getOutputStream(), "200 OK", "Connection: close\r\n", CAPABILITY_STATEMENT);
+
+				return socket.getSession().getPeerCertificates();
+			}
+			catch (IOException exception)
+			{
+				throw new RuntimeException(exception);
+			}
+		});
+
+		SslContextFactory sslContextFactory = new SslContextFactory(getPemFile("ca.crt"),
+				getPemFile("client-chain.crt"), getPemFile("client-encrypted.key"), "password".toCharArray(), 0);
+		client = createClient(sslContextFactory, "https://localhost:" + server.getLocalPort() + "/fhir", null, null,
+				null);
+
+		CapabilityStatement capabilityStatement = (CapabilityStatement) client.search("metadata");
+
+		assertEquals("test", capabilityStatement.getSoftware().getName());
+
+		// issuing CA not trusted by the server, the handshake only succeeds if the chain is sent
+		Certificate[] chain = clientCertificates.get(10, TimeUnit.SECONDS);
+		assertEquals(2, chain.length);
+		assertEquals("CN=report-client", ((X509Certificate) chain[0]).getSubjectX500Principal().getName());
+	}
+
+	@Test
+	public void testRequestSentViaAuthenticatingProxy() throws Exception
+	{
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+		CompletableFuture<List<List<String>>> proxyRequests = CompletableFuture.supplyAsync(() ->
+		{
+			List<List<String>> requests = new ArrayList<>();
+			while (true)
+			{
+				try (Socket socket = server.accept())
+				{
+					socket.setSoTimeout(10000);
+
+					List<String> request;
+					while ((request = readRequest(socket.getInputStream())) != null)
+					{
+						requests.add(request);
+
+						if (request.stream().anyMatch(h -> h.startsWith("Proxy-Authorization:")))
+						{
+							writeResponse(socket.getOutputStream(), "200 OK", "Connection: close\r\n",
+									CAPABILITY_STATEMENT);
+							return requests;
+						}
+						else
+							writeResponse(socket.getOutputStream(), "407 Proxy Authentication Required",
+									"Proxy-Authenticate: Basic realm=\"proxy\"\r\n", "");
+					}
+				}
+				catch (IOException exception)
+				{
+					throw new RuntimeException(exception);
+				}
+			}
+		});
+
+		client = createClient(new SslContextFactory(null, null, null, null, 0), "http://fhir.store.invalid/fhir",
+				"http://localhost:" + server.getLocalPort(), "proxy-user", "proxy-password");
+
+		CapabilityStatement capabilityStatement = (CapabilityStatement) client.search("metadata");
+
+		assertEquals("test", capabilityStatement.getSoftware().getName());
+
+		List<List<String>> requests = proxyRequests.get(10, TimeUnit.SECONDS);
+		assertEquals(2, requests.size());
+		assertTrue(requests.get(0).get(0).startsWith("GET http://fhir.store.invalid/fhir/metadata"));
+		assertTrue(requests.get(1).contains("Proxy-Authorization: Basic "
+				+ Base64.getEncoder().encodeToString("proxy-user:proxy-password".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void testResponseSizesRecorded() throws Exception
+	{
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		String body = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":3}";
+
+		CompletableFuture<Void> answered = CompletableFuture.runAsync(() ->
+		{
+			try (Socket socket = server.accept())
+			{
+				socket.setSoTimeout(10000);
+
+				for (int i = 0; i < 2 && readRequest(socket.getInputStream()) != null; i++)
+					writeResponse(socket.getOutputStream(), "200 OK", "", body);
+			}
+			catch (IOException exception)
+			{
+				throw new RuntimeException(exception);
+			}
+		});
+
+		client = createClient(new SslContextFactory(null, null, null, null, 0),
+				"http://localhost:" + server.getLocalPort() + "/fhir", null, null, null);
+
+		client.search("Patient?_summary=count");
+		client.search("Patient?_summary=count");
+		answered.get(10, TimeUnit.SECONDS);
+
+		OperationMetrics query = metrics.getQueryMetrics().iterator().next();
+		assertEquals("Patient?_summary=count", query.getName());
+		assertEquals(2 * body.length(), query.getResponseBytes());
+	}
+}
@@ -0,0 +1,127 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+public class FhirStoreWarmUpTest
+{
+	private final FhirStoreClient fhirStoreClient = Mockito.mock(FhirStoreClient.class);
+	private final CapabilityStatementClient capabilityStatementClient = new CapabilityStatementClient(false);
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+	private final CountDownLatch responded = new CountDownLatch(1);
+
+	private FhirStoreWarmUp warmUp;
+
+	@Before
+	public void before() throws Exception
+	{
+		Mockito.when(fhirStoreClient.isConfigured()).thenReturn(true);
+		Mockito.when(fhirStoreClient.warmUp(2)).thenReturn(2);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		responded.countDown();
+
+		if (warmUp != null)
+			warmUp.destroy();
+	}
+
+	private FhirStoreWarmUp createWarmUp(long timeout)
+	{
+		return new FhirStoreWarmUp(fhirStoreClient, capabilityStatementClient, metrics, timeout, 2);
+	}
+
+	private CapabilityStatement createCapabilityStatement()
+	{
+		CapabilityStatement statement = new CapabilityStatement();
+		statement.getSoftware().setName("test").setVersion("1.0");
+		return statement;
+	}
+
+	private void awaitReadiness(FhirStoreWarmUp.Readiness expected) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (warmUp.getReadiness() != expected && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+
+		assertEquals(expected, warmUp.getReadiness());
+		assertEquals(expected.name(), metrics.getFhirStoreReadiness());
+	}
+
+	@Test
+	public void testNotConfigured() throws Exception
+	{
+		Mockito.when(fhirStoreClient.isConfigured()).thenReturn(false);
+		warmUp = createWarmUp(1000);
+
+		assertEquals(FhirStoreWarmUp.Readiness.NOT_CONFIGURED, warmUp.start().get(5, TimeUnit.SECONDS));
+		assertEquals(FhirStoreWarmUp.Readiness.NOT_CONFIGURED.name(), metrics.getFhirStoreReadiness());
+		Mockito.verify(fhirStoreClient, Mockito.never()).warmUp(Mockito.anyInt());
+	}
+
+	@Test
+	public void testReady() throws Exception
+	{
+		Mockito.when(fhirStoreClient.search("metadata")).thenReturn(createCapabilityStatement());
+		warmUp = createWarmUp(1000);
+
+		assertEquals(FhirStoreWarmUp.Readiness.READY, warmUp.start().get(5, TimeUnit.SECONDS));
+		awaitReadiness(FhirStoreWarmUp.Readiness.READY);
+		Mockito.verify(fhirStoreClient).warmUp(2);
+	}
+
+	@Test
+	public void testFailed() throws Exception
+	{
+		Mockito.when(fhirStoreClient.search("metadata")).thenThrow(new IllegalStateException("Connection refused"));
+		warmUp = createWarmUp(1000);
+
+		assertEquals(FhirStoreWarmUp.Readiness.FAILED, warmUp.start().get(5, TimeUnit.SECONDS));
+		awaitReadiness(FhirStoreWarmUp.Readiness.FAILED);
+	}
+
+	@Test
+	public void testTimedOutThenReady() throws Exception
+	{
+		Mockito.when(fhirStoreClient.search("metadata")).thenAnswer(i ->
+		{
+			responded.await(10, TimeUnit.SECONDS);
+			return createCapabilityStatement();
+		});
+		warmUp = createWarmUp(100);
+
+		assertEquals(FhirStoreWarmUp.Readiness.TIMED_OUT, warmUp.start().get(5, TimeUnit.SECONDS));
+		awaitReadiness(FhirStoreWarmUp.Readiness.TIMED_OUT);
+
+		responded.countDown();
+		awaitReadiness(FhirStoreWarmUp.Readiness.READY);
+	}
+
+	@Test
+	public void testTimedOutThenFailed() throws Exception
+	{
+		Mockito.when(fhirStoreClient.search("metadata")).thenAnswer(i ->
+		{
+			responded.await(10, TimeUnit.SECONDS);
+			throw new IllegalStateException("Read timed out");
+		});
+		warmUp = createWarmUp(100);
+
+		assertEquals(FhirStoreWarmUp.Readiness.TIMED_OUT, warmUp.start().get(5, TimeUnit.SECONDS));
+
+		responded.countDown();
+		awaitReadiness(FhirStoreWarmUp.Readiness.FAILED);
+	}
+}
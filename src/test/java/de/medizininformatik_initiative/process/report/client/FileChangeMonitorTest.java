@@ -0,0 +1,98 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileChangeMonitorTest
+{
+	@Rule
+	public final TemporaryFolder directory = new TemporaryFolder();
+
+	private Path file;
+
+	@Before
+	public void before() throws Exception
+	{
+		file = directory.newFile("secret.pem").toPath();
+		Files.writeString(file, "content");
+		Files.setLastModifiedTime(file, FileTime.fromMillis(1000000));
+	}
+
+	private void waitForCheckInterval() throws InterruptedException
+	{
+		Thread.sleep(10);
+	}
+
+	@Test
+	public void testUnchangedFileNotReported() throws Exception
+	{
+		FileChangeMonitor monitor = new FileChangeMonitor(Arrays.asList(file, null), 1);
+
+		waitForCheckInterval();
+		assertFalse(monitor.hasChanged());
+
+		// same size, same last modified time
+		Files.writeString(file, "CONTENT");
+		Files.setLastModifiedTime(file, FileTime.fromMillis(1000000));
+
+		waitForCheckInterval();
+		assertFalse(monitor.hasChanged());
+	}
+
+	@Test
+	public void testChangedFileReportedOnce() throws Exception
+	{
+		FileChangeMonitor monitor = new FileChangeMonitor(List.of(file), 1);
+
+		Files.writeString(file, "changed content");
+
+		waitForCheckInterval();
+		assertTrue(monitor.hasChanged());
+
+		waitForCheckInterval();
+		assertFalse(monitor.hasChanged());
+	}
+
+	@Test
+	public void testDeletedFileReported() throws Exception
+	{
+		FileChangeMonitor monitor = new FileChangeMonitor(List.of(file), 1);
+
+		Files.delete(file);
+
+		waitForCheckInterval();
+		assertTrue(monitor.hasChanged());
+	}
+
+	@Test
+	public void testChangeNotCheckedWithinInterval() throws Exception
+	{
+		FileChangeMonitor monitor = new FileChangeMonitor(List.of(file), 60000);
+
+		Files.writeString(file, "changed content");
+
+		assertFalse(monitor.hasChanged());
+	}
+
+	@Test
+	public void testChangeDetectionDisabled() throws Exception
+	{
+		FileChangeMonitor monitor = new FileChangeMonitor(List.of(file), 0);
+
+		Files.writeString(file, "changed content");
+
+		waitForCheckInterval();
+		assertFalse(monitor.hasChanged());
+	}
+}
@@ -0,0 +1,123 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static de.medizininformatik_initiative.process.report.client.FhirStoreClientTest.readRequest;
+import static de.medizininformatik_initiative.process.report.client.FhirStoreClientTest.writeResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+/**
+ * Requests of the {@link CountClient} and the {@link CapabilityStatementClient} sent by a {@link FhirStoreClient} to a
+ * plain socket server, no HAPI client component is mocked.
+ */
+public class InterceptedHttpRequestTest
+{
+	private static final String AUTHORIZATION = "Authorization: Basic "
+			+ Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8));
+
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+	private ServerSocket server;
+	private FhirStoreClient client;
+
+	@Before
+	public void before() throws Exception
+	{
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		client = new FhirStoreClient(new SslContextFactory(null, null, null, null, 0), 5000, 10000, 5000,
+				"http://localhost:" + server.getLocalPort() + "/fhir", "user", "secret", null, null, null, null, null,
+				false, FhirContext.forR4(), 4, 4, 0, 0, new RequestRateLimiter(0, 0, metrics), metrics);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		client.destroy();
+		server.close();
+	}
+
+	/**
+	 * Answers the requests of one connection with the given status lines, headers and bodies.
+	 *
+	 * @return request line and headers of every request
+	 */
+	private CompletableFuture<List<List<String>>> accept(String[]... responses)
+	{
+		return CompletableFuture.supplyAsync(() ->
+		{
+			try (Socket socket = server.accept())
+			{
+				socket.setSoTimeout(10000);
+
+				List<List<String>> requests = new ArrayList<>();
+				for (String[] response : responses)
+				{
+					requests.add(readRequest(socket.getInputStream()));
+					writeResponse(socket.getOutputStream(), response[0], response[1], response[2]);
+				}
+
+				return requests;
+			}
+			catch (IOException exception)
+			{
+				throw new RuntimeException(exception);
+			}
+		});
+	}
+
+	@Test
+	public void testCountRequestSentWithGenericClientInterceptors() throws Exception
+	{
+		CompletableFuture<List<List<String>>> requests = accept(
+				new String[] { "200 OK", "", "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":42}" });
+
+		Bundle count = new CountClient(true).search(client, "Patient?birthdate=ge2024&_summary=count").orElseThrow();
+
+		assertEquals(42, count.getTotal());
+
+		List<String> request = requests.get(10, TimeUnit.SECONDS).get(0);
+		assertEquals("GET /fhir/Patient?birthdate=ge2024&_summary=count HTTP/1.1", request.get(0));
+		assertTrue(request.contains(AUTHORIZATION));
+		assertTrue(request.stream().anyMatch(h -> h.startsWith("Accept: application/fhir+json")));
+	}
+
+	@Test
+	public void testCapabilityStatementRevalidated() throws Exception
+	{
+		CompletableFuture<List<List<String>>> requests = accept(new String[] { "200 OK", "ETag: W/\"1\"\r\n",
+				"{\"resourceType\":\"CapabilityStatement\",\"status\":\"active\",\"software\":{\"name\":\"test\"}}" },
+				new String[] { "304 Not Modified", "ETag: W/\"1\"\r\n", "" });
+
+		CapabilityStatementClient capabilityStatementClient = new CapabilityStatementClient(true);
+		CapabilityStatement first = capabilityStatementClient.read(client);
+		CapabilityStatement second = capabilityStatementClient.read(client);
+
+		assertEquals("test", first.getSoftware().getName());
+		assertEquals("test", second.getSoftware().getName());
+
+		List<List<String>> sent = requests.get(10, TimeUnit.SECONDS);
+		assertEquals("GET /fhir/metadata HTTP/1.1", sent.get(0).get(0));
+		assertTrue(sent.get(0).contains(AUTHORIZATION));
+		assertTrue(sent.get(1).contains("If-None-Match: W/\"1\""));
+		assertTrue(sent.get(1).contains(AUTHORIZATION));
+	}
+}
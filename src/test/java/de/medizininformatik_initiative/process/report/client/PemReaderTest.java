@@ -0,0 +1,121 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPrivateKey;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PemReaderTest
+{
+	static Path getPemFile(String name) throws Exception
+	{
+		return Paths.get(PemReaderTest.class.getResource("/pem/" + name).toURI());
+	}
+
+	private byte[] readPkcs8Key() throws Exception
+	{
+		return PemReader.readPrivateKey(getPemFile("client-pkcs8.key"), null).getEncoded();
+	}
+
+	@Test
+	public void testCertificateChainRead() throws Exception
+	{
+		List<X509Certificate> chain = PemReader.readCertificates(getPemFile("client-chain.crt"));
+
+		assertEquals(2, chain.size());
+		assertEquals("CN=report-client", chain.get(0).getSubjectX500Principal().getName());
+		assertEquals(chain.get(1).getSubjectX500Principal(), chain.get(0).getIssuerX500Principal());
+	}
+
+	@Test
+	public void testPkcs8KeyRead() throws Exception
+	{
+		PrivateKey key = PemReader.readPrivateKey(getPemFile("client-pkcs8.key"), null);
+
+		assertEquals("RSA", key.getAlgorithm());
+	}
+
+	@Test
+	public void testPkcs1KeyReadAsPkcs8() throws Exception
+	{
+		PrivateKey key = PemReader.readPrivateKey(getPemFile("client-pkcs1.key"), null);
+
+		assertEquals("RSA", key.getAlgorithm());
+		assertArrayEquals(readPkcs8Key(), key.getEncoded());
+	}
+
+	@Test
+	public void testEncryptedPkcs8KeyRead() throws Exception
+	{
+		PrivateKey key = PemReader.readPrivateKey(getPemFile("client-encrypted.key"), "password".toCharArray());
+
+		assertArrayEquals(readPkcs8Key(), key.getEncoded());
+	}
+
+	@Test
+	public void testEcKeyRead() throws Exception
+	{
+		assertEquals("EC", PemReader.readPrivateKey(getPemFile("ec.key"), null).getAlgorithm());
+	}
+
+	@Test
+	public void testEncryptedKeyWithoutPasswordNotRead() throws Exception
+	{
+		Path file = getPemFile("client-encrypted.key");
+
+		IOException exception = assertThrows(IOException.class, () -> PemReader.readPrivateKey(file, null));
+		assertTrue(exception.getMessage().contains("no password configured"));
+	}
+
+	@Test
+	public void testEncryptedTraditionalKeysRead() throws Exception
+	{
+		for (String name : List.of("client-encrypted-traditional.key", "client-encrypted-des3.key"))
+		{
+			PrivateKey key = PemReader.readPrivateKey(getPemFile(name), "password".toCharArray());
+
+			assertArrayEquals(name, readPkcs8Key(), key.getEncoded());
+		}
+	}
+
+	@Test
+	public void testEncryptedTraditionalKeyWithWrongPasswordNotRead() throws Exception
+	{
+		Path file = getPemFile("client-encrypted-traditional.key");
+
+		IOException exception = assertThrows(IOException.class,
+				() -> PemReader.readPrivateKey(file, "wrong".toCharArray()));
+		assertTrue(exception.getMessage().contains("wrong password"));
+	}
+
+	@Test
+	public void testSec1EcKeysRead() throws Exception
+	{
+		ECPrivateKey pkcs8 = (ECPrivateKey) PemReader.readPrivateKey(getPemFile("ec.key"), null);
+		ECPrivateKey sec1 = (ECPrivateKey) PemReader.readPrivateKey(getPemFile("ec-sec1.key"), null);
+		ECPrivateKey encrypted = (ECPrivateKey) PemReader.readPrivateKey(getPemFile("ec-sec1-encrypted.key"),
+				"password".toCharArray());
+
+		assertEquals(pkcs8.getS(), sec1.getS());
+		assertEquals(pkcs8.getParams().toString(), sec1.getParams().toString());
+		assertEquals(pkcs8.getS(), encrypted.getS());
+	}
+
+	@Test
+	public void testCertificateFileWithoutKeyNotRead() throws Exception
+	{
+		Path file = getPemFile("ca.crt");
+
+		assertThrows(IOException.class, () -> PemReader.readPrivateKey(file, null));
+	}
+}
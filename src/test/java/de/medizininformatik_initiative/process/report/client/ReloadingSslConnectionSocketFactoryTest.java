@@ -0,0 +1,132 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReloadingSslConnectionSocketFactoryTest
+{
+	@Rule
+	public final TemporaryFolder directory = new TemporaryFolder();
+
+	private SSLServerSocket server;
+	private Thread acceptor;
+	private Path trustStore;
+
+	@Before
+	public void before() throws Exception
+	{
+		server = FhirStoreClientTest.createTlsServer(false);
+		acceptor = new Thread(() ->
+		{
+			while (!server.isClosed())
+			{
+				try (SSLSocket socket = (SSLSocket) server.accept())
+				{
+					socket.setSoTimeout(5000);
+					socket.startHandshake();
+				}
+				catch (IOException exception)
+				{
+					// handshake failed or server closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		// trusts the client certificate chain only, not the root CA of the server certificate
+		trustStore = directory.newFile("trust-store.pem").toPath();
+		copy("client-chain.crt", trustStore);
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		server.close();
+		acceptor.join(5000);
+	}
+
+	private void copy(String pemFile, Path target) throws Exception
+	{
+		Files.copy(PemReaderTest.getPemFile(pemFile), target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void connect(ReloadingSslConnectionSocketFactory socketFactory) throws IOException
+	{
+		BasicHttpContext context = new BasicHttpContext();
+		try (Socket socket = socketFactory.connectSocket(5000, socketFactory.createSocket(context),
+				new HttpHost("localhost", server.getLocalPort(), "https"),
+				new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), null, context))
+		{
+			// handshake completed
+		}
+	}
+
+	@Test
+	public void testNewConnectionsUseReloadedContext() throws Exception
+	{
+		SslContextFactory sslContextFactory = new SslContextFactory(trustStore, null, null, null, 1);
+		ReloadingSslConnectionSocketFactory socketFactory = new ReloadingSslConnectionSocketFactory(sslContextFactory);
+
+		assertThrows(SSLException.class, () -> connect(socketFactory));
+
+		copy("ca.crt", trustStore);
+		Thread.sleep(10);
+
+		connect(socketFactory);
+	}
+
+	@Test
+	public void testPreviousContextKeptIfChangedPemInvalid() throws Exception
+	{
+		copy("ca.crt", trustStore);
+		SslContextFactory sslContextFactory = new SslContextFactory(trustStore, null, null, null, 1);
+		ReloadingSslConnectionSocketFactory socketFactory = new ReloadingSslConnectionSocketFactory(sslContextFactory);
+
+		connect(socketFactory);
+		SSLContext sslContext = sslContextFactory.getSslContext();
+
+		// partially written secret
+		Files.writeString(trustStore, "-----BEGIN CERTIFICATE-----\nMIIB");
+		Thread.sleep(10);
+
+		connect(socketFactory);
+		assertSame(sslContext, sslContextFactory.getSslContext());
+	}
+
+	@Test
+	public void testContextNotReloadedIfUnchanged() throws Exception
+	{
+		copy("ca.crt", trustStore);
+		SslContextFactory sslContextFactory = new SslContextFactory(trustStore, null, null, null, 1);
+
+		SSLContext sslContext = sslContextFactory.getSslContext();
+		Thread.sleep(10);
+		assertSame(sslContext, sslContextFactory.getSslContext());
+
+		copy("client-chain.crt", trustStore);
+		Thread.sleep(10);
+		assertNotSame(sslContext, sslContextFactory.getSslContext());
+	}
+}
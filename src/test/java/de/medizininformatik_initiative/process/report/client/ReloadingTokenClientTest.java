@@ -0,0 +1,74 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import de.medizininformatik_initiative.processes.common.fhir.client.token.AccessToken;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.TokenClient;
+
+public class ReloadingTokenClientTest
+{
+	@Rule
+	public final TemporaryFolder directory = new TemporaryFolder();
+
+	private final List<TokenClient> createdClients = new ArrayList<>();
+
+	private Path trustStore;
+
+	@Before
+	public void before() throws Exception
+	{
+		trustStore = directory.newFile("issuer-ca.pem").toPath();
+		Files.copy(PemReaderTest.getPemFile("ca.crt"), trustStore, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private TokenClient createTokenClient()
+	{
+		TokenClient tokenClient = Mockito.mock(TokenClient.class);
+		Mockito.when(tokenClient.requestToken()).thenReturn(Mockito.mock(AccessToken.class));
+
+		createdClients.add(tokenClient);
+		return tokenClient;
+	}
+
+	@Test
+	public void testTokenClientNotRecreatedIfUnchanged() throws Exception
+	{
+		ReloadingTokenClient tokenClient = new ReloadingTokenClient(this::createTokenClient, trustStore, 1);
+
+		Thread.sleep(10);
+		tokenClient.requestToken();
+		Thread.sleep(10);
+		tokenClient.requestToken();
+
+		assertEquals(1, createdClients.size());
+		Mockito.verify(createdClients.get(0), Mockito.times(2)).requestToken();
+	}
+
+	@Test
+	public void testTokenClientRecreatedAfterTrustStoreChange() throws Exception
+	{
+		ReloadingTokenClient tokenClient = new ReloadingTokenClient(this::createTokenClient, trustStore, 1);
+
+		Files.writeString(trustStore, Files.readString(trustStore) + Files.readString(trustStore));
+
+		Thread.sleep(10);
+		AccessToken accessToken = tokenClient.requestToken();
+
+		assertEquals(2, createdClients.size());
+		assertSame(createdClients.get(1).requestToken(), accessToken);
+		Mockito.verify(createdClients.get(0), Mockito.never()).requestToken();
+	}
+}
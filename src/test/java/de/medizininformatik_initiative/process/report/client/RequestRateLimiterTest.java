@@ -0,0 +1,180 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.medizininformatik_initiative.process.report.metrics.OperationMetrics;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+public class RequestRateLimiterTest
+{
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+	private long execute(RequestRateLimiter limiter, int requests) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		for (int i = 0; i < requests; i++)
+		{
+			limiter.acquire();
+			limiter.release();
+		}
+
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	private CompletableFuture<Void> acquireAsync(RequestRateLimiter limiter)
+	{
+		return CompletableFuture.runAsync(() ->
+		{
+			try
+			{
+				limiter.acquire();
+			}
+			catch (InterruptedException exception)
+			{
+				throw new RuntimeException(exception);
+			}
+		});
+	}
+
+	@Test
+	public void testBurstCapacityNotLimited() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(50, 0, metrics);
+
+		// bucket holds one second of requests
+		assertTrue(execute(limiter, 50) < 500);
+		assertEquals(50, metrics.getRateLimitWaitMetrics().stream().mapToLong(OperationMetrics::getCount).sum());
+	}
+
+	@Test
+	public void testRequestRateLimited() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(50, 0, metrics);
+		execute(limiter, 50);
+
+		// 25 requests after the burst capacity is used take at least 0.5 s
+		long millis = execute(limiter, 25);
+		assertTrue("took " + millis + " ms", millis >= 450);
+		assertTrue("took " + millis + " ms", millis < 2000);
+	}
+
+	@Test
+	public void testRequestsInFlightLimited() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(0, 2, metrics);
+		limiter.acquire();
+		limiter.acquire();
+
+		CompletableFuture<Void> third = acquireAsync(limiter);
+		Thread.sleep(200);
+		assertFalse(third.isDone());
+
+		limiter.release();
+		third.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testInterruptedRequestReleasesSlotAndToken() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(1, 1, metrics);
+		execute(limiter, 1);
+
+		// waits about one second for the next token while holding the only slot
+		Thread waiting = new Thread(() -> assertThrows(InterruptedException.class, limiter::acquire));
+		waiting.start();
+		Thread.sleep(200);
+		waiting.interrupt();
+		waiting.join(5000);
+
+		// slot and reserved token returned, next request only waits for the token of the first second
+		long start = System.nanoTime();
+		CompletableFuture<Void> next = acquireAsync(limiter);
+		next.get(5, TimeUnit.SECONDS);
+
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+	}
+
+	@Test
+	public void testTryAcquireNotWaiting() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(2, 2, metrics);
+
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+
+		// no slot in flight left
+		assertFalse(limiter.tryAcquire());
+
+		// slot released, but no token left
+		limiter.release();
+		assertFalse(limiter.tryAcquire());
+
+		// failed attempts release their slot, token refilled after half a second
+		limiter.release();
+		Thread.sleep(600);
+		assertTrue(limiter.tryAcquire());
+		assertEquals(3, metrics.getRateLimitWaitMetrics().stream().mapToLong(OperationMetrics::getCount).sum());
+	}
+
+	@Test
+	public void testPermittedRequestNotLimitedAgain()
+	{
+		assertFalse(RequestRateLimiter.isPermitted());
+		assertTrue(RequestRateLimiter.permitted(RequestRateLimiter::isPermitted).get());
+		assertFalse(RequestRateLimiter.isPermitted());
+	}
+
+	@Test
+	public void testDisabledLimiterNotBlocking() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(0, 0, metrics);
+
+		assertFalse(limiter.isEnabled());
+		assertTrue(execute(limiter, 1000) < 500);
+		assertTrue(metrics.getRateLimitWaitMetrics().isEmpty());
+	}
+
+	@Test
+	public void testInterruptedBeforeSlotNothingToRelease() throws Exception
+	{
+		RequestRateLimiter limiter = new RequestRateLimiter(0, 1, metrics);
+		limiter.acquire();
+
+		CompletableFuture<Void> blocked = new CompletableFuture<>();
+		Thread waiting = new Thread(() ->
+		{
+			try
+			{
+				limiter.acquire();
+				blocked.complete(null);
+			}
+			catch (InterruptedException exception)
+			{
+				blocked.completeExceptionally(exception);
+			}
+		});
+		waiting.start();
+		Thread.sleep(200);
+		waiting.interrupt();
+
+		ExecutionException exception = assertThrows(ExecutionException.class, () -> blocked.get(5, TimeUnit.SECONDS));
+		assertTrue(exception.getCause() instanceof InterruptedException);
+
+		// still one request in flight
+		CompletableFuture<Void> next = acquireAsync(limiter);
+		Thread.sleep(200);
+		assertFalse(next.isDone());
+
+		limiter.release();
+		next.get(5, TimeUnit.SECONDS);
+	}
+}
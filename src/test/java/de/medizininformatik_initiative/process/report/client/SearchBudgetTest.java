@@ -0,0 +1,159 @@
+package de.medizininformatik_initiative.process.report.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.report.metrics.ReportMetrics;
+
+public class SearchBudgetTest
+{
+	private final ReportMetrics metrics = new ReportMetrics(0, false, null);
+
+	private ServerSocket server;
+	private FhirStoreClient client;
+
+	@Before
+	public void before() throws Exception
+	{
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+		// socket timeout longer than the test, requests only end if aborted
+		client = new FhirStoreClient(new SslContextFactory(null, null, null, null, 0), 5000, 600000, 5000,
+				"http://localhost:" + server.getLocalPort() + "/fhir", null, null, null, null, null, null, null, false,
+				FhirContext.forR4(), 4, 4, 0, 0, new RequestRateLimiter(0, 0, metrics), metrics);
+
+		// connection pool and generic client created before the request is timed
+		client.getGenericFhirClient();
+	}
+
+	@After
+	public void after() throws Exception
+	{
+		client.destroy();
+		server.close();
+	}
+
+	/**
+	 * @return number of bytes received until the client closed the connection
+	 */
+	private CompletableFuture<Integer> acceptStalled()
+	{
+		return CompletableFuture.supplyAsync(() ->
+		{
+			try (Socket socket = server.accept())
+			{
+				return readUntilClosed(socket);
+			}
+			catch (IOException exception)
+			{
+				throw new RuntimeException(exception);
+			}
+		});
+	}
+
+	/**
+	 * Stalls the first connection and answers the request of the second connection.
+	 *
+	 * @return number of bytes received on the first connection until the client closed it
+	 */
+	private CompletableFuture<Integer> acceptStalledAndAnswered()
+	{
+		return CompletableFuture.supplyAsync(() ->
+		{
+			try (Socket stalled = server.accept(); Socket answered = server.accept())
+			{
+				String body = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"total\":3}";
+				answered.getOutputStream()
+						.write(("HTTP/1.1 200 OK\r\nContent-Type: application/fhir+json\r\nContent-Length: "
+								+ body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8));
+
+				return readUntilClosed(stalled);
+			}
+			catch (IOException exception)
+			{
+				throw new RuntimeException(exception);
+			}
+		});
+	}
+
+	private int readUntilClosed(Socket socket) throws IOException
+	{
+		socket.setSoTimeout(30000);
+
+		int received = 0;
+		try (InputStream in = socket.getInputStream())
+		{
+			while (in.read() >= 0)
+				received++;
+		}
+		catch (SocketException exception)
+		{
+			// connection reset by the client
+		}
+
+		return received;
+	}
+
+	@Test
+	public void testTimedOutRequestAborted() throws Exception
+	{
+		CompletableFuture<Integer> connection = acceptStalled();
+
+		try (SearchBudget budget = new SearchBudget(0))
+		{
+			assertThrows(TimeoutException.class,
+					() -> budget.execute(() -> client.search("Patient?_summary=count"), 1000));
+		}
+
+		// the server only sees the connection closed if the blocked request was aborted
+		assertTrue(connection.get(3, TimeUnit.SECONDS) > 0);
+	}
+
+	@Test
+	public void testLostRequestAborted() throws Exception
+	{
+		CompletableFuture<Integer> stalledConnection = acceptStalledAndAnswered();
+
+		try (SearchBudget budget = new SearchBudget(0))
+		{
+			SearchBudget.Hedged<Resource> hedged = budget.executeHedged(() -> client.search("Patient?_summary=count"),
+					() -> client.search("Patient?_summary=count"), 100, () -> true, 0);
+
+			assertTrue(hedged.hedgeWon());
+			assertEquals(3, ((Bundle) hedged.result()).getTotal());
+		}
+
+		// the server only sees the stalled connection closed if the request that lost was aborted
+		assertTrue(stalledConnection.get(3, TimeUnit.SECONDS) > 0);
+	}
+
+	@Test
+	public void testRequestWithinTimeoutCompleted() throws Exception
+	{
+		try (SearchBudget budget = new SearchBudget(0))
+		{
+			assertEquals("result", budget.execute(() -> "result", 200));
+			assertEquals(0, budget.getTimeout(0));
+			assertEquals(100, budget.getTimeout(100));
+		}
+	}
+}
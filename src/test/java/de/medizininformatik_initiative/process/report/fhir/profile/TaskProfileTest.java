@@ -6,6 +6,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import org.hl7.fhir.r4.model.BooleanType;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.StringType;
@@ -188,6 +189,21 @@ public class TaskProfileTest
 				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
 	}
 
+	@Test
+	public void testTaskSendStartProcessProfileValidWithForceRefresh()
+	{
+		Task task = createValidTaskSendStartProcess();
+		task.addInput().setValue(new BooleanType(true)).getType().addCoding()
+				.setSystem(ConstantsReport.CODESYSTEM_REPORT)
+				.setCode(ConstantsReport.CODESYSTEM_REPORT_VALUE_FORCE_REFRESH);
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
 	@Test
 	public void testTaskSendStartProcessProfileValidWithReportStatusOutput()
 	{
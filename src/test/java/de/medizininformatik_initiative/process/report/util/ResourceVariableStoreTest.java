@@ -0,0 +1,163 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import ca.uhn.fhir.context.FhirContext;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class ResourceVariableStoreTest
+{
+	private static final String VARIABLE = "reportBundle";
+
+	@Rule
+	public final TemporaryFolder directory = new TemporaryFolder();
+
+	private final FhirContext fhirContext = FhirContext.forR4();
+
+	private ResourceVariableStore createStore()
+	{
+		return new ResourceVariableStore(directory.getRoot().toPath(), fhirContext, 60000, 4);
+	}
+
+	private DelegateExecution createExecution(String processInstanceId)
+	{
+		DelegateExecution execution = Mockito.mock(DelegateExecution.class);
+		Mockito.when(execution.getProcessInstanceId()).thenReturn(processInstanceId);
+		return execution;
+	}
+
+	private Variables createVariables()
+	{
+		Map<String, String> strings = new HashMap<>();
+		Variables variables = Mockito.mock(Variables.class);
+		Mockito.doAnswer(i -> strings.put(i.getArgument(0), i.getArgument(1))).when(variables)
+				.setString(Mockito.anyString(), Mockito.anyString());
+		Mockito.when(variables.getString(Mockito.anyString())).thenAnswer(i -> strings.get(i.getArgument(0)));
+		return variables;
+	}
+
+	private Bundle createBundle(String id)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.COLLECTION);
+		bundle.getIdentifier().setValue(id);
+		bundle.addEntry().setFullUrl("urn:uuid:" + id);
+		return bundle;
+	}
+
+	private List<String> listFiles(String prefix) throws IOException
+	{
+		try (Stream<Path> files = Files.list(directory.getRoot().toPath()))
+		{
+			return files.map(f -> f.getFileName().toString()).filter(f -> f.startsWith(prefix)).sorted().toList();
+		}
+	}
+
+	@Test
+	public void testResourceReadFromFile() throws Exception
+	{
+		DelegateExecution execution = createExecution("1");
+		Variables variables = createVariables();
+		Bundle bundle = createBundle("a");
+
+		createStore().setResource(execution, variables, VARIABLE, bundle);
+
+		// new store without memoized resources
+		Bundle read = createStore().getResource(execution, variables, VARIABLE);
+
+		assertTrue(bundle.equalsDeep(read));
+		assertTrue(variables.getString(VARIABLE + "Reference").startsWith("sha256:"));
+		Mockito.verify(variables, Mockito.never()).setResource(Mockito.anyString(), Mockito.any());
+		assertEquals(List.of("resource-" + variables.getString(VARIABLE + "Reference").substring(7) + ".json.gz"),
+				listFiles("resource-"));
+	}
+
+	@Test
+	public void testResourceMemoized() throws Exception
+	{
+		ResourceVariableStore store = createStore();
+		DelegateExecution execution = createExecution("1");
+		Variables variables = createVariables();
+		Bundle bundle = createBundle("a");
+
+		store.setResource(execution, variables, VARIABLE, bundle);
+
+		assertSame(bundle, store.getResource(execution, variables, VARIABLE));
+	}
+
+	@Test
+	public void testModifiedResourceStoredWithNewReference() throws Exception
+	{
+		ResourceVariableStore store = createStore();
+		DelegateExecution execution = createExecution("1");
+		Variables variables = createVariables();
+		Bundle bundle = createBundle("a");
+
+		store.setResource(execution, variables, VARIABLE, bundle);
+		String reference = variables.getString(VARIABLE + "Reference");
+
+		bundle.addEntry().setFullUrl("urn:uuid:b");
+		store.setResource(execution, variables, VARIABLE, bundle);
+
+		assertNotEquals(reference, variables.getString(VARIABLE + "Reference"));
+		assertEquals(2, createStore().<Bundle> getResource(execution, variables, VARIABLE).getEntry().size());
+	}
+
+	@Test
+	public void testResourceVariableReadWithoutReference() throws Exception
+	{
+		DelegateExecution execution = createExecution("1");
+		Variables variables = createVariables();
+		Bundle bundle = createBundle("a");
+		Mockito.when(variables.getResource(VARIABLE)).thenReturn(bundle);
+
+		assertSame(bundle, createStore().getResource(execution, variables, VARIABLE));
+		assertTrue(listFiles("").isEmpty());
+	}
+
+	@Test
+	public void testReleaseDeletesFilesNotReferencedByOtherProcessInstances() throws Exception
+	{
+		ResourceVariableStore store = createStore();
+		DelegateExecution execution1 = createExecution("1");
+		DelegateExecution execution2 = createExecution("2");
+		Variables variables1 = createVariables();
+		Variables variables2 = createVariables();
+
+		store.setResource(execution1, variables1, VARIABLE, createBundle("a"));
+		store.setResource(execution1, variables1, "searchBundle", createBundle("b"));
+		store.setResource(execution2, variables2, VARIABLE, createBundle("a"));
+
+		assertEquals(2, listFiles("resource-").size());
+		assertEquals(List.of("references-1", "references-2"), listFiles("references-"));
+
+		store.release("1");
+
+		assertEquals(List.of("references-2"), listFiles("references-"));
+		assertEquals(1, listFiles("resource-").size());
+		assertTrue(createStore().<Bundle> getResource(execution2, variables2, VARIABLE).equalsDeep(createBundle("a")));
+
+		store.release("2");
+
+		assertTrue(listFiles("").isEmpty());
+		assertFalse(Files.exists(directory.getRoot().toPath().resolve("references-2")));
+	}
+}
@@ -0,0 +1,36 @@
+package de.medizininformatik_initiative.process.report.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class SearchUrlTest
+{
+	@Test
+	public void testReorderedAndEncodedParamsCanonicalizedEqually()
+	{
+		String url = "Observation?code=http://loinc.org|&_summary=count";
+		String reorderedUrl = "Observation?_summary=count&code=http%3A%2F%2Floinc.org%7C";
+
+		assertEquals(SearchUrl.canonicalize(url), SearchUrl.canonicalize(reorderedUrl));
+	}
+
+	@Test
+	public void testRepeatedParamsCanonicalizedOnce()
+	{
+		assertEquals(SearchUrl.canonicalize("Patient?_summary=count"),
+				SearchUrl.canonicalize("Patient?_summary=count&_summary=count"));
+	}
+
+	@Test
+	public void testEncodedDelimitersInValuesNotCanonicalizedAsParams()
+	{
+		String encodedDelimiters = SearchUrl.canonicalize("Observation?code=a%26b%3D1");
+		String params = SearchUrl.canonicalize("Observation?code=a&b=1");
+
+		assertNotEquals(params, encodedDelimiters);
+		assertEquals("Observation?code=a%26b%3D1", encodedDelimiters);
+		assertEquals(SearchUrl.encode("Observation?code=a%26b%3D1"), encodedDelimiters);
+	}
+}